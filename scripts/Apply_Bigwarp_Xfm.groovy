@@ -4,12 +4,14 @@
 #@ String (label="Interpolation", choices={"Linear", "Nearest Neighbor"}) interpType
 #@ Integer (label="Number of threads", min=1, max=64, value=1) nThreads
 #@ Boolean (label="Virtual stack?") isVirtual
+#@ File (label="Solved spline cache folder (optional)", style="directory", required=false) solvedCacheDir
 
 import java.io.File;
 import java.io.IOException;
 import bdv.ij.ApplyBigwarpPlugin;
 import bdv.viewer.Interpolation;
 import bigwarp.landmarks.LandmarkTableModel;
+import bigwarp.transforms.SolvedTpsCache;
 import ij.IJ;
 import ij.ImagePlus;
 
@@ -22,6 +24,9 @@ if ( movingIp.getNSlices() > 1 )
 	nd = 3;
 
 ltm = new LandmarkTableModel( nd );
+if ( solvedCacheDir != null )
+	ltm.setSolvedTpsCache( new SolvedTpsCache( solvedCacheDir ) );
+
 try
 {
 	ltm.load( landmarksPath );
@@ -4,6 +4,7 @@
 #@ String ( label="Direction", choices={"Moving to target", "Target to moving"}, style="radioButtonHorizontal") inverseOrForward
 #@ Double (label="Inverse tolerance", value=0.1 ) invTolerance
 #@ Integer (label="Inverse maximum iterations", value=200) invMaxIters
+#@ File (label="Solved spline cache folder (optional)", style="directory", required=false) solvedCacheDir
 
 import ij.*;
 import ij.gui.*;
@@ -13,9 +14,13 @@ import java.util.*;
 import java.io.IOException;
 
 import bigwarp.landmarks.LandmarkTableModel;
+import bigwarp.transforms.SolvedTpsCache;
 
 nd = 2
 ltm = new LandmarkTableModel( nd );
+if ( solvedCacheDir != null )
+	ltm.setSolvedTpsCache( new SolvedTpsCache( solvedCacheDir ) );
+
 try {
 	ltm.load( landmarksPath );
 } catch ( IOException e ) {
@@ -4,12 +4,14 @@
 #@ String (label="Interpolation", choices={"Linear", "Nearest Neighbor"}) interpType
 #@ Boolean (label="Output as virtual?") isVirtual
 #@ Integer (label="Number of threads", min=1, max=64, value=1) nThreads
+#@ File (label="Solved spline cache folder (optional)", style="directory", required=false) solvedCacheDir
 
 
 import java.io.IOException;
 import bdv.ij.ApplyBigwarpPlugin;
 import bdv.viewer.Interpolation;
 import bigwarp.landmarks.LandmarkTableModel;
+import bigwarp.transforms.SolvedTpsCache;
 import ij.ImagePlus;
 
 int nd = 2;
@@ -17,6 +19,9 @@ if ( movingIp.getNSlices() > 1 )
 	nd = 3;
 
 ltm = new LandmarkTableModel( nd );
+if ( solvedCacheDir != null )
+	ltm.setSolvedTpsCache( new SolvedTpsCache( solvedCacheDir ) );
+
 try
 {
 	ltm.load( landmarksPath );
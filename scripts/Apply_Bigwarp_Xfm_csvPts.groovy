@@ -9,12 +9,15 @@
 #@ Double (label="x coordinate scale", value=1.0 ) sx
 #@ Double (label="y coordinate scale", value=1.0 ) sy
 #@ Double (label="z coordinate scale", value=1.0 ) sz
+#@ File (label="Solved spline cache folder (optional)", style="directory", required=false) solvedCacheDir
 
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 import bigwarp.landmarks.*;
+import bigwarp.transforms.SolvedTpsCache;
 import bigwarp.BigWarp.WrappedCoordinateTransform;
+import bigwarp.transforms.TpsNewtonInvertibleTransform;
 import net.imglib2.realtransform.*;
 import net.imglib2.realtransform.inverse.*;
 
@@ -80,6 +83,9 @@ def buildTransform( File landmarksPath, String transformType, int nd, boolean ne
 
 	// load the transform
 	ltm = new LandmarkTableModel( nd );
+	if ( solvedCacheDir != null )
+		ltm.setSolvedTpsCache( new SolvedTpsCache( solvedCacheDir ) );
+
 	try
 	{
 		ltm.load( landmarksPath );
@@ -95,10 +101,7 @@ def buildTransform( File landmarksPath, String transformType, int nd, boolean ne
 		xfm = ltm.getTransform();
 		if( needInverse )
 		{
-			invertibleTransform = new WrappedIterativeInvertibleRealTransform( new ThinplateSplineTransform( xfm ));
-			invopt = invertibleTransform.getOptimzer();
-			invopt.setTolerance( invTolerance );
-			invopt.setMaxIters( maxIters );
+			invertibleTransform = new TpsNewtonInvertibleTransform( xfm, invTolerance, maxIters );
 			return invertibleTransform.inverse();
 		}
 		else
@@ -47,6 +47,8 @@ public class BigwarpLandmarkSelectionPanel<T> extends JPanel
 	final double[] resolution;
 	final boolean isVirtual;
 	final int nThreads;
+	final int firstTimepoint;
+	final int lastTimepoint;
 	final ProgressWriter progressWriter;
 
 	/**
@@ -63,6 +65,8 @@ public class BigwarpLandmarkSelectionPanel<T> extends JPanel
 			final double[] resolution,
 			final boolean isVirtual,
 			final int nThreads,
+			final int firstTimepoint,
+			final int lastTimepoint,
 			final ProgressWriter progressWriter )
 	{
 		// set fields used for export
@@ -76,6 +80,8 @@ public class BigwarpLandmarkSelectionPanel<T> extends JPanel
 		this.resolution = resolution;
 		this.isVirtual = isVirtual;
 		this.nThreads = nThreads;
+		this.firstTimepoint = firstTimepoint;
+		this.lastTimepoint = lastTimepoint;
 		this.progressWriter = progressWriter;
 
 
@@ -126,7 +132,8 @@ public class BigwarpLandmarkSelectionPanel<T> extends JPanel
 				ApplyBigwarpPlugin.runExport( data, sources, fieldOfViewOption,
 						outputIntervalList, matchedPtNames, interp,
 						offsetIn, resolution, isVirtual, nThreads, 
-						progressWriter, true, false, null );
+						progressWriter, true, false, null,
+						firstTimepoint, lastTimepoint );
 
 				frame.dispatchEvent(new WindowEvent(frame, WindowEvent.WINDOW_CLOSING));
 			}
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -35,8 +36,10 @@ import bigwarp.BigWarp;
 import bigwarp.BigWarpExporter;
 import bigwarp.BigWarpInit;
 import bigwarp.landmarks.LandmarkTableModel;
+import bigwarp.source.TimepointPrefetcher;
 import fiji.util.gui.GenericDialogPlus;
 import bigwarp.transforms.BigWarpTransform;
+import bigwarp.transforms.SolvedTpsCache;
 import ij.IJ;
 import ij.ImageJ;
 import ij.ImagePlus;
@@ -731,6 +734,35 @@ public class ApplyBigwarpPlugin implements PlugIn
 			final int nThreads,
 			final boolean wait,
 			final WriteDestinationOptions writeOpts )
+	{
+		return apply( bwData, landmarks, tranformTypeOption, fieldOfViewOption, fieldOfViewPointFilter,
+				resolutionOption, resolutionSpec, fovSpec, offsetSpec,
+				interp, isVirtual, nThreads, wait, writeOpts, 0, -1 );
+	}
+
+	/**
+	 * Warps the moving images and exports a range of timepoints.
+	 *
+	 * @param firstTimepoint the first timepoint
+	 * @param lastTimepoint the last timepoint, inclusive, or a negative value for the last that can be exported
+	 */
+	public static <T> List<ImagePlus> apply(
+			final BigWarpData<T> bwData,
+			final LandmarkTableModel landmarks,
+			final String tranformTypeOption,
+			final String fieldOfViewOption,
+			final String fieldOfViewPointFilter,
+			final String resolutionOption,
+			final double[] resolutionSpec,
+			final double[] fovSpec,
+			final double[] offsetSpec,
+			final Interpolation interp,
+			final boolean isVirtual,
+			final int nThreads,
+			final boolean wait,
+			final WriteDestinationOptions writeOpts,
+			final int firstTimepoint,
+			final int lastTimepoint )
 	{
 		int numChannels = bwData.movingSourceIndices.length;
 		int[] movingSourceIndexList = bwData.movingSourceIndices;
@@ -768,7 +800,8 @@ public class ApplyBigwarpPlugin implements PlugIn
 					outputIntervalList.get( 0 ), interp,
 					offset, res, unit, 
 					progressWriter, writeOpts, 
-					Executors.newFixedThreadPool( nThreads )  );
+					Executors.newFixedThreadPool( nThreads ),
+					firstTimepoint, lastTimepoint );
 			return null;
 		}
 		else
@@ -777,7 +810,8 @@ public class ApplyBigwarpPlugin implements PlugIn
 			return runExport( bwData, sourcesxfm, fieldOfViewOption,
 					outputIntervalList, matchedPtNames, interp,
 					offset, res, isVirtual, nThreads, 
-					progressWriter, show, wait, writeOpts );
+					progressWriter, show, wait, writeOpts,
+					firstTimepoint, lastTimepoint );
 		}
 	}
 
@@ -796,6 +830,28 @@ public class ApplyBigwarpPlugin implements PlugIn
 			final boolean show,
 			final boolean wait,
 			final WriteDestinationOptions writeOpts )
+	{
+		return runExport( data, sources, fieldOfViewOption, outputIntervalList, matchedPtNames, interp,
+				offsetIn, resolution, isVirtual, nThreads, progressWriter, show, wait, writeOpts, 0, -1 );
+	}
+
+	public static <T> List<ImagePlus> runExport(
+			final BigWarpData<T> data,
+			final List< SourceAndConverter< T >> sources,
+			final String fieldOfViewOption,
+			final List<Interval> outputIntervalList,
+			final List<String> matchedPtNames,
+			final Interpolation interp,
+			final double[] offsetIn,
+			final double[] resolution,
+			final boolean isVirtual,
+			final int nThreads,
+			final ProgressWriter progressWriter,
+			final boolean show,
+			final boolean wait,
+			final WriteDestinationOptions writeOpts,
+			final int firstTimepoint,
+			final int lastTimepoint )
 	{
 		ArrayList<ImagePlus> ipList = new ArrayList<>();
 
@@ -806,7 +862,7 @@ public class ApplyBigwarpPlugin implements PlugIn
 
 			// need to declare the exporter in the loop since the actual work
 			// is done asynchronously, and changing variables in the loop would mess it up
-			BigWarpExporter<?> exporter = BigWarpExporter.getExporter( data, sources, interp, progressWriter );
+			BigWarpExporter<?> exporter = BigWarpExporter.getExporter( data, sources, interp, progressWriter, firstTimepoint, lastTimepoint );
 			exporter.setOutputList( ipList );
 			exporter.setRenderResolution( resolution );
 			exporter.setOffset( offset );
@@ -841,6 +897,32 @@ public class ApplyBigwarpPlugin implements PlugIn
 			final ProgressWriter progressWriter,
 			final WriteDestinationOptions writeOpts,
 			final ExecutorService exec )
+	{
+		runN5Export( data, sources, fieldOfViewOption, outputInterval, interp, offset, resolution, unit,
+				progressWriter, writeOpts, exec, 0, -1 );
+	}
+
+	/**
+	 * Renders and writes a range of timepoints. Every timepoint goes into its
+	 * own dataset if the range has more than one.
+	 *
+	 * @param firstTimepoint the first timepoint
+	 * @param lastTimepoint the last timepoint, inclusive, or a negative value for the last that can be exported
+	 */
+	public static <S, T extends NativeType<T> & NumericType<T>> void runN5Export(
+			final BigWarpData<S> data,
+			final List< SourceAndConverter< S >> sources,
+			final String fieldOfViewOption,
+			final Interval outputInterval,
+			final Interpolation interp,
+			final double[] offset,
+			final double[] resolution,
+			final String unit,
+			final ProgressWriter progressWriter,
+			final WriteDestinationOptions writeOpts,
+			final ExecutorService exec,
+			final int firstTimepoint,
+			final int lastTimepoint )
 	{
 		final int nd = BigWarp.detectNumDims( data.sources );
 
@@ -887,44 +969,69 @@ public class ApplyBigwarpPlugin implements PlugIn
 		pixelRenderToPhysical.concatenate( resolutionTransform );
 		pixelRenderToPhysical.concatenate( offsetTransform );
 
-		// render and write 
+		// render and write every timepoint with the same transform, loading
+		// the next timepoint in the background while the current one is written
 		final int N = data.movingSourceIndices.length;
-		for ( int i = 0; i < N; i++ )
+		final int lastExportable = BigWarpExporter.numExportTimepoints( data, sources ) - 1;
+		final int first = Math.max( 0, Math.min( firstTimepoint, lastExportable ) );
+		final int last = lastTimepoint < 0 ? lastExportable : Math.max( first, Math.min( lastTimepoint, lastExportable ) );
+		final int numTimepoints = last - first + 1;
+		final TimepointPrefetcher prefetcher = new TimepointPrefetcher( BigWarpInit.getBackgroundExecutor() );
+		try
 		{
-			final int movingSourceIndex = data.movingSourceIndices[ i ];
-			@SuppressWarnings( "unchecked" )
-			final RealRandomAccessible< T > raiRaw = ( RealRandomAccessible< T > )sources.get( movingSourceIndex ).getSpimSource().getInterpolatedSource( 0, 0, interp );
+			for ( int i = 0; i < N; i++ )
+			{
+				final int movingSourceIndex = data.movingSourceIndices[ i ];
+				final Source< S > src = sources.get( movingSourceIndex ).getSpimSource();
+				final String srcName = data.sources.get( data.movingSourceIndices[ i ]).getSpimSource().getName();
 
-			// to pixel space
-			final AffineRandomAccessible< T, AffineGet > rai = RealViews.affine( raiRaw, pixelRenderToPhysical.inverse() );
+				String channelDataset = dataset;
+				if( N >  1 )
+					channelDataset = dataset + String.format( "/%s", srcName.replace( " " , "_" ));
 
-			final IntervalView< T > img = Views.interval( Views.raster( rai ), 
-					Intervals.zeroMin( outputInterval ) );
-			final String srcName = data.sources.get( data.movingSourceIndices[ i ]).getSpimSource().getName();
+				for ( int t = first; t <= last; t++ )
+				{
+					if ( t < last )
+						prefetcher.prefetch( Collections.singletonList( src ), t + 1, 0, null );
 
-			String destDataset = dataset;
-			if( N >  1 )
-				destDataset = dataset + String.format( "/%s", srcName.replace( " " , "_" ));
+					@SuppressWarnings( "unchecked" )
+					final RealRandomAccessible< T > raiRaw = ( RealRandomAccessible< T > )src.getInterpolatedSource( t, 0, interp );
 
-			RandomAccessibleInterval<T> imgToWrite;
-			if( nd == 2 )
-				imgToWrite = Views.hyperSlice( img, 2, 0 );
-			else
-				imgToWrite = img;
+					// to pixel space
+					final AffineRandomAccessible< T, AffineGet > rai = RealViews.affine( raiRaw, pixelRenderToPhysical.inverse() );
 
-			try
-			{
-				N5Utils.save( imgToWrite, n5, destDataset, blockSize, compression, exec );
+					final IntervalView< T > img = Views.interval( Views.raster( rai ),
+							Intervals.zeroMin( outputInterval ) );
 
-				if( metadata != null )
-					metadata.writeMetadata( metadata, n5, destDataset );
-			}
-			catch ( Exception e )
-			{
-				e.printStackTrace();
-			}
+					String destDataset = channelDataset;
+					if( numTimepoints > 1 )
+						destDataset = channelDataset + "/t" + t;
+
+					RandomAccessibleInterval<T> imgToWrite;
+					if( nd == 2 )
+						imgToWrite = Views.hyperSlice( img, 2, 0 );
+					else
+						imgToWrite = img;
+
+					try
+					{
+						N5Utils.save( imgToWrite, n5, destDataset, blockSize, compression, exec );
 
-			progressWriter.setProgress( (i+1) / ((double)N) );
+						if( metadata != null )
+							metadata.writeMetadata( metadata, n5, destDataset );
+					}
+					catch ( Exception e )
+					{
+						e.printStackTrace();
+					}
+
+					progressWriter.setProgress( ( i * numTimepoints + t - first + 1 ) / ( (double) N * numTimepoints ) );
+				}
+			}
+		}
+		finally
+		{
+			prefetcher.cancel();
 		}
 
 		progressWriter.setProgress( 1.0 );
@@ -978,6 +1085,7 @@ public class ApplyBigwarpPlugin implements PlugIn
 					TransformTypeSelectDialog.ROTATION,
 					TransformTypeSelectDialog.TRANSLATION },
 				TransformTypeSelectDialog.TPS);
+		gd.addDirectoryField( "solved_spline_cache (optional)", "" );
 
 		gd.addMessage( "Field of view and resolution:" );
 		gd.addChoice( "Resolution", 
@@ -1009,6 +1117,8 @@ public class ApplyBigwarpPlugin implements PlugIn
 		gd.addChoice( "Interpolation", new String[]{ "Nearest Neighbor", "Linear" }, "Linear" );
 		gd.addCheckbox( "virtual?", false );
 		gd.addNumericField( "threads", 4, 0 );
+		gd.addNumericField( "first timepoint", 0, 0 );
+		gd.addNumericField( "last timepoint (-1 for all)", -1, 0 );
 
 		gd.addMessage( "Writing options (leave empty to opena new image window)" );
 		gd.addDirectoryOrFileField( "File or n5 root", "" );
@@ -1042,6 +1152,7 @@ public class ApplyBigwarpPlugin implements PlugIn
 		final String tgtDataset = gd.getNextString();
 
 		final String transformTypeOption = gd.getNextChoice();
+		final String solvedCachePath = gd.getNextString();
 		final String resOption = gd.getNextChoice();
 		final String fovOption = gd.getNextChoice();
 		final String fovPointFilter = gd.getNextString();
@@ -1064,6 +1175,8 @@ public class ApplyBigwarpPlugin implements PlugIn
 		final String interpType = gd.getNextChoice();
 		boolean isVirtual = gd.getNextBoolean();
 		int nThreads = (int)gd.getNextNumber();
+		final int firstTimepoint = (int)gd.getNextNumber();
+		final int lastTimepoint = (int)gd.getNextNumber();
 
 		final String fileOrN5Root = gd.getNextString();
 		final String n5Dataset = gd.getNextString();
@@ -1126,6 +1239,9 @@ public class ApplyBigwarpPlugin implements PlugIn
 				blockSize, compression );
 
 		LandmarkTableModel ltm = new LandmarkTableModel( nd );
+		if ( !solvedCachePath.isEmpty() )
+			ltm.setSolvedTpsCache( new SolvedTpsCache( new File( solvedCachePath ) ) );
+
 		try
 		{
 			ltm.load( new File( landmarksPath ) );
@@ -1145,7 +1261,8 @@ public class ApplyBigwarpPlugin implements PlugIn
 		List<ImagePlus> warpedIpList = apply( bigwarpdata, ltm, transformTypeOption,
 				fovOption, fovPointFilter, resOption,
 				resolutions, fov, offset,
-				interp, isVirtual, nThreads, false, writeOpts );
+				interp, isVirtual, nThreads, false, writeOpts,
+				firstTimepoint, lastTimepoint );
 	}
 
 	public static int[] parseBlockSize( final String blockSizeArg, final int nd )
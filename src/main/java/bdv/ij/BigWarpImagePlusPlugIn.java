@@ -2,6 +2,7 @@ package bdv.ij;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 import org.janelia.utility.ui.RepeatingReleasedEventsFixer;
 
@@ -9,6 +10,7 @@ import bdv.ij.util.ProgressWriterIJ;
 import bigwarp.BigWarp;
 import bigwarp.BigWarp.BigWarpData;
 import bigwarp.BigWarpInit;
+import bigwarp.BigWarpInit.OpenedData;
 import fiji.util.gui.GenericDialogPlus;
 import ij.IJ;
 import ij.ImageJ;
@@ -83,6 +85,8 @@ public class BigWarpImagePlusPlugIn implements PlugIn
         gd.addMessage( "" );
         gd.addFileField( "Landmarks file", "" );
         gd.addCheckbox( "Apply transform from landmarks", true );
+        gd.addCheckbox( "Multiresolution pyramids for images", false );
+        gd.addNumericField( "Pyramid cache (MB)", 512, 0 );
 
         gd.showDialog();
 
@@ -100,9 +104,19 @@ public class BigWarpImagePlusPlugIn implements PlugIn
 
 		final String landmarkPath = gd.getNextString();
 		final boolean applyTransform = gd.getNextBoolean();
+		final boolean mipmaps = gd.getNextBoolean();
+		final long pyramidCacheMb = ( long ) gd.getNextNumber();
+		BigWarpInit.setImagePlusMipmaps( mipmaps, pyramidCacheMb * 1024 * 1024 );
 
 		// build bigwarp data
 		BigWarpData< ? > bigwarpdata = BigWarpInit.initData();
+
+		// open the files concurrently, then add everything in a fixed order
+		final CompletableFuture< ImagePlus > mvgIpFuture = openImageAsync( mvgRoot );
+		final CompletableFuture< OpenedData > mvgDataFuture = openDataAsync( bigwarpdata, mvgRoot, mvgDataset );
+		final CompletableFuture< ImagePlus > tgtIpFuture = openImageAsync( tgtRoot );
+		final CompletableFuture< OpenedData > tgtDataFuture = openDataAsync( bigwarpdata, tgtRoot, tgtDataset );
+
 		int id = 0;
 		if ( movingIp != null )
 		{
@@ -112,15 +126,15 @@ public class BigWarpImagePlusPlugIn implements PlugIn
 		SpimData movingSpimData = null;
 		if ( !mvgRoot.isEmpty() )
 		{
-			if( openWithImageJ( mvgRoot ))
+			if( mvgIpFuture != null )
 			{
-				final ImagePlus mvgIpFromFile = IJ.openImage( mvgRoot );
+				final ImagePlus mvgIpFromFile = mvgIpFuture.join();
 				mvgIpFromFile.show();
 				BigWarpInit.add( bigwarpdata, mvgIpFromFile, id, 0, true );
 			}
 			else
 			{
-				movingSpimData = BigWarpInit.addToData( bigwarpdata, true, id, mvgRoot, mvgDataset );
+				movingSpimData = BigWarpInit.addToData( bigwarpdata, true, id, mvgDataFuture.join() );
 			}
 			id++;
 		}
@@ -132,15 +146,15 @@ public class BigWarpImagePlusPlugIn implements PlugIn
 
 		if ( !tgtRoot.isEmpty() )
 		{
-			if( openWithImageJ( tgtRoot ))
+			if( tgtIpFuture != null )
 			{
-				final ImagePlus tgtIpFromFile = IJ.openImage( tgtRoot );
+				final ImagePlus tgtIpFromFile = tgtIpFuture.join();
 				tgtIpFromFile.show();
 				BigWarpInit.add( bigwarpdata, tgtIpFromFile, id, 0, false );
 			}
 			else
 			{
-				BigWarpInit.addToData( bigwarpdata, false, id, tgtRoot, tgtDataset );
+				BigWarpInit.addToData( bigwarpdata, false, id, tgtDataFuture.join() );
 			}
 			id++;
 		}
@@ -175,6 +189,22 @@ public class BigWarpImagePlusPlugIn implements PlugIn
 
 	}
 
+	private static CompletableFuture< ImagePlus > openImageAsync( final String rootPath )
+	{
+		if( rootPath.isEmpty() || !openWithImageJ( rootPath ))
+			return null;
+
+		return CompletableFuture.supplyAsync( () -> IJ.openImage( rootPath ), BigWarpInit.getBackgroundExecutor() );
+	}
+
+	private static CompletableFuture< OpenedData > openDataAsync( final BigWarpData< ? > bigwarpdata, final String rootPath, final String dataset )
+	{
+		if( rootPath.isEmpty() || openWithImageJ( rootPath ))
+			return null;
+
+		return BigWarpInit.openAsync( bigwarpdata, rootPath, dataset );
+	}
+
 	private static boolean openWithImageJ( final String rootPath )
 	{
 		if( rootPath.endsWith( ".n5" ) ||
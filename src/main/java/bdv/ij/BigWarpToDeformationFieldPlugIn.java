@@ -26,6 +26,9 @@ import org.janelia.saalfeldlab.n5.imglib2.N5DisplacementField;
 import bdv.viewer.SourceAndConverter;
 import bigwarp.BigWarpExporter;
 import bigwarp.landmarks.LandmarkTableModel;
+import bigwarp.transforms.GridInverseTransform;
+import bigwarp.transforms.SolvedTpsCache;
+import bigwarp.transforms.TpsNewtonInvertibleTransform;
 import fiji.util.gui.GenericDialogPlus;
 import ij.IJ;
 import ij.ImageJ;
@@ -36,6 +39,7 @@ import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
 import mpicbg.spim.data.sequence.VoxelDimensions;
 import net.imglib2.Cursor;
 import net.imglib2.FinalInterval;
+import net.imglib2.FinalRealInterval;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealPoint;
@@ -74,6 +78,12 @@ public class BigWarpToDeformationFieldPlugIn implements PlugIn
 				N5Exporter.XZ_COMPRESSION,
 				N5Exporter.BLOSC_COMPRESSION };
 
+	/**
+	 * The default spacing, in voxels of the field, of the grid on which the
+	 * inverse is precomputed, see {@link GridInverseTransform}.
+	 */
+	public static final double DEFAULT_INVERSE_GRID_SPACING = 4;
+
 	public static void main( final String[] args )
 	{
 		new ImageJ();
@@ -129,13 +139,18 @@ public class BigWarpToDeformationFieldPlugIn implements PlugIn
 
 		if( params.n5Base.isEmpty() )
 		{
-			toImagePlus( landmarkModel, params.ignoreAffine, dims, spacing, params.nThreads );
+			toImagePlus( landmarkModel, params.ignoreAffine, params.inverse, params.inverseGridSpacing, dims, spacing, params.nThreads );
 		}
 		else
 		{
+			String dataset = params.n5Dataset;
+			if( dataset.isEmpty() )
+				dataset = params.inverse ? "invdfield" : "dfield";
+
 			try
 			{
-				writeN5( params.n5Base, landmarkModel, dims, spacing, params.blockSize, params.compression, params.nThreads );
+				writeN5( params.n5Base, dataset, landmarkModel, params.inverse, params.inverseGridSpacing,
+						dims, spacing, params.blockSize, params.compression, params.nThreads );
 			}
 			catch ( IOException e )
 			{
@@ -159,6 +174,9 @@ public class BigWarpToDeformationFieldPlugIn implements PlugIn
 
 		// load
 		LandmarkTableModel ltm = new LandmarkTableModel( nd );
+		if ( params.solvedCachePath != null && !params.solvedCachePath.isEmpty() )
+			ltm.setSolvedTpsCache( new SolvedTpsCache( new File( params.solvedCachePath ) ) );
+
 		try
 		{
 			ltm.load( new File( params.landmarkPath ) );
@@ -171,13 +189,14 @@ public class BigWarpToDeformationFieldPlugIn implements PlugIn
 
 		if( params.n5Base.isEmpty() )
 		{
-			toImagePlus( ltm, params.ignoreAffine, params.size, params.spacing, params.nThreads );
+			toImagePlus( ltm, params.ignoreAffine, params.inverse, params.inverseGridSpacing, params.size, params.spacing, params.nThreads );
 		}
 		else
 		{
 			try
 			{
-				writeN5( params.n5Base, params.n5Dataset, ltm, params.size, params.spacing, params.blockSize, params.compression, params.nThreads );
+				writeN5( params.n5Base, params.n5Dataset, ltm, params.inverse, params.inverseGridSpacing,
+						params.size, params.spacing, params.blockSize, params.compression, params.nThreads );
 			}
 			catch ( IOException e )
 			{
@@ -196,13 +215,44 @@ public class BigWarpToDeformationFieldPlugIn implements PlugIn
 			final long[] dims,
 			final double[] spacing,
 			final int nThreads )
+	{
+		return toImagePlus( ltm, ignoreAffine, false, 0, dims, spacing, nThreads );
+	}
+
+	/**
+	 * Converts the thin plate spline to a deformation field ImagePlus.
+	 * <p>
+	 * The inverse field maps moving space to target space, see
+	 * {@link #inverse(ThinPlateR2LogRSplineKernelTransform, long[], double[], double, int)}.
+	 * 
+	 * @param ltm the landmarks
+	 * @param ignoreAffine if true, the affine part of the transform is not included
+	 * @param inverse if true, write the inverse field
+	 * @param inverseGridSpacing the spacing in voxels of the grid the inverse is precomputed on, or zero to compute it exactly
+	 * @param dims the dimensions of the field
+	 * @param spacing the spacing of the field
+	 * @param nThreads the number of threads
+	 * @return the deformation field image
+	 */
+	public static ImagePlus toImagePlus(
+			final LandmarkTableModel ltm,
+			final boolean ignoreAffine,
+			final boolean inverse,
+			final double inverseGridSpacing,
+			final long[] dims,
+			final double[] spacing,
+			final int nThreads )
 	{
 		ThinPlateR2LogRSplineKernelTransform tpsRaw = ltm.getTransform();
 		ThinPlateR2LogRSplineKernelTransform tpsUseMe = tpsRaw;
 		if ( ignoreAffine )
 			tpsUseMe = new ThinPlateR2LogRSplineKernelTransform( tpsRaw.getSourceLandmarks(), null, null, tpsRaw.getKnotWeights() );
 
-		ThinplateSplineTransform tps = new ThinplateSplineTransform( tpsUseMe );
+		final RealTransform xfm;
+		if( inverse )
+			xfm = inverse( tpsUseMe, dims, spacing, inverseGridSpacing, nThreads );
+		else
+			xfm = new ThinplateSplineTransform( tpsUseMe );
 
 		AffineGet pixelToPhysical = null;
 		if( spacing.length == 2)
@@ -218,12 +268,15 @@ public class BigWarpToDeformationFieldPlugIn implements PlugIn
 			return null;
 		}
 
-		FloatImagePlus< FloatType > dfield = convertToDeformationField( dims, tps, pixelToPhysical, nThreads );
+		FloatImagePlus< FloatType > dfield = convertToDeformationField( dims, xfm, pixelToPhysical, nThreads );
 
 		String title = "bigwarp dfield";
 		if ( ignoreAffine )
 			title += " (no affine)";
 
+		if ( inverse )
+			title += " (inverse)";
+
 		ImagePlus dfieldIp = dfield.getImagePlus();
 		dfieldIp.setTitle( title );
 
@@ -256,15 +309,44 @@ public class BigWarpToDeformationFieldPlugIn implements PlugIn
 			final int[] spatialBlockSize,
 			final Compression compression,
 			final int nThreads ) throws IOException, DataAccessException
+	{
+		writeN5( n5BasePath, n5Dataset, ltm, false, 0, dims, spacing, spatialBlockSize, compression, nThreads );
+	}
+
+	public static void writeN5( final String n5BasePath, final String n5Dataset,
+			final LandmarkTableModel ltm,
+			final boolean inverse,
+			final double inverseGridSpacing,
+			final long[] dims,
+			final double[] spacing,
+			final int[] spatialBlockSize,
+			final Compression compression,
+			final int nThreads ) throws IOException, DataAccessException
 	{
 		final ThinPlateR2LogRSplineKernelTransform tpsRaw = ltm.getTransform();
-		final AffineGet affine = toAffine( tpsRaw );
+		final AffineGet tpsAffine = toAffine( tpsRaw );
+
+		/*
+		 * The inverse of the tps "A x D" is "D^-1 x A^-1",
+		 * so the affine part of the inverse is the inverse of the affine. 
+		 */
+		final RealTransform tpsTotal;
+		final AffineGet affine;
+		if( inverse )
+		{
+			tpsTotal = inverse( tpsRaw, dims, spacing, inverseGridSpacing, nThreads );
+			affine = tpsAffine.inverse();
+		}
+		else
+		{
+			tpsTotal = new ThinplateSplineTransform( tpsRaw );
+			affine = tpsAffine;
+		}
 
 		/*
 		 * "remove the affine" from the total transform
 		 * by concatenating the inverse of the affine to be removed
 		 */
-		final ThinplateSplineTransform tpsTotal = new ThinplateSplineTransform( tpsRaw );
 		final RealTransformSequence seq = new RealTransformSequence();
 		seq.add( tpsTotal );
 		seq.add( affine.inverse() );
@@ -297,6 +379,47 @@ public class BigWarpToDeformationFieldPlugIn implements PlugIn
 		N5DisplacementField.saveAffine( affine, n5, n5Dataset );
 	}
 
+	/**
+	 * The inverse of a thin plate spline, from moving to target space.
+	 * <p>
+	 * The inverse is precomputed on a grid over the field, and interpolated
+	 * where the grid is reliable (see {@link GridInverseTransform}). Elsewhere,
+	 * and everywhere if the grid spacing is less than two voxels, it is
+	 * computed with {@link TpsNewtonInvertibleTransform} at every sample.
+	 *
+	 * @param tps the thin plate spline
+	 * @param dims the dimensions of the field
+	 * @param spacing the spacing of the field
+	 * @param gridSpacing the spacing of the grid in voxels of the field
+	 * @param nThreads the number of threads
+	 * @return the inverse
+	 */
+	public static RealTransform inverse(
+			final ThinPlateR2LogRSplineKernelTransform tps,
+			final long[] dims,
+			final double[] spacing,
+			final double gridSpacing,
+			final int nThreads )
+	{
+		final TpsNewtonInvertibleTransform exact = new TpsNewtonInvertibleTransform( tps );
+		if( gridSpacing < 2 )
+			return exact.inverse();
+
+		// the vector dimension is at index 2 of 3d fields
+		final int nd = tps.getNumDims();
+		final double[] max = new double[ nd ];
+		final double[] physicalGridSpacing = new double[ nd ];
+		for( int d = 0; d < nd; d++ )
+		{
+			final long size = ( d < 2 || dims.length <= nd ) ? dims[ d ] : dims[ d + 1 ];
+			max[ d ] = ( size - 1 ) * spacing[ d ];
+			physicalGridSpacing[ d ] = gridSpacing * spacing[ d ];
+		}
+
+		return new GridInverseTransform( exact, new FinalRealInterval( new double[ nd ], max ),
+				physicalGridSpacing, Math.max( 1, nThreads ) ).inverse();
+	}
+
 	public static AffineGet toAffine( final ThinPlateR2LogRSplineKernelTransform tps )
 	{
 		double[] affineFlat = toFlatAffine( tps );
@@ -619,7 +742,10 @@ public class BigWarpToDeformationFieldPlugIn implements PlugIn
 	private static class DeformationFieldExportParameters 
 	{
 		public final String landmarkPath;
+		public final String solvedCachePath;
 		public final boolean ignoreAffine;
+		public final boolean inverse;
+		public final double inverseGridSpacing;
 		public final int nThreads;
 
 		public final long[] size;
@@ -632,7 +758,10 @@ public class BigWarpToDeformationFieldPlugIn implements PlugIn
 
 		public DeformationFieldExportParameters(
 				final String landmarkPath,
+				final String solvedCachePath,
 				final boolean ignoreAffine,
+				final boolean inverse,
+				final double inverseGridSpacing,
 				final int nThreads,
 				final long[] size,
 				final double[] spacing,
@@ -642,7 +771,10 @@ public class BigWarpToDeformationFieldPlugIn implements PlugIn
 				final Compression compression )
 		{
 			this.landmarkPath = landmarkPath;
+			this.solvedCachePath = solvedCachePath;
 			this.ignoreAffine = ignoreAffine;
+			this.inverse = inverse;
+			this.inverseGridSpacing = inverseGridSpacing;
 			this.nThreads = nThreads;
 
 			this.size = size;
@@ -663,9 +795,12 @@ public class BigWarpToDeformationFieldPlugIn implements PlugIn
 			if( promptLandmarks )
 			{
 				gd.addFileField( "landmarks_image_file", "" );
+				gd.addDirectoryField( "solved_spline_cache (optional)", "" );
 			}
 
 			gd.addCheckbox( "Ignore affine part", false );
+			gd.addCheckbox( "Inverse field", false );
+			gd.addNumericField( "inverse grid spacing (voxels)", DEFAULT_INVERSE_GRID_SPACING, 1 );
 			gd.addNumericField( "threads", 1, 0 );
 			gd.addMessage( "Size and spacing" );
 
@@ -696,10 +831,16 @@ public class BigWarpToDeformationFieldPlugIn implements PlugIn
 				return null;
 
 			String landmarkPath = null;
+			String solvedCachePath = null;
 			if( promptLandmarks )
+			{
 				landmarkPath = gd.getNextString();
+				solvedCachePath = gd.getNextString();
+			}
 
 			final boolean ignoreAffine = gd.getNextBoolean();
+			final boolean inverse = gd.getNextBoolean();
+			final double inverseGridSpacing = gd.getNextNumber();
 			final int nThreads = ( int ) gd.getNextNumber();
 
 			ImagePlus ref_imp = null;
@@ -755,7 +896,10 @@ public class BigWarpToDeformationFieldPlugIn implements PlugIn
 
 			return new DeformationFieldExportParameters( 
 					landmarkPath,
+					solvedCachePath,
 					ignoreAffine,
+					inverse,
+					inverseGridSpacing,
 					nThreads,
 					size,
 					spacing,
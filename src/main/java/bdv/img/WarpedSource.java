@@ -1,5 +1,12 @@
 package bdv.img;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 import bdv.viewer.Interpolation;
@@ -8,14 +15,27 @@ import bdv.viewer.SourceAndConverter;
 import bdv.viewer.render.DefaultMipmapOrdering;
 import bdv.viewer.render.MipmapOrdering;
 import bigwarp.BigWarpExporter;
+import bigwarp.source.BatchTransformedRandomAccessible;
+import bigwarp.transforms.BatchRealTransform;
+import bigwarp.transforms.BatchTransformSequence;
+import bigwarp.transforms.BatchTransforms;
+import bigwarp.transforms.BoundingIntervalEstimator;
+import bigwarp.transforms.CoarseDisplacementTransform;
 import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.FinalInterval;
+import net.imglib2.FinalRealInterval;
 import net.imglib2.Interval;
+import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealInterval;
 import net.imglib2.RealRandomAccessible;
 import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.InvertibleRealTransform;
 import net.imglib2.realtransform.RealTransform;
 import net.imglib2.realtransform.RealTransformRealRandomAccessible;
+import net.imglib2.realtransform.RealTransformSequence;
 import net.imglib2.realtransform.RealViews;
+import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
 
 public class WarpedSource < T > implements Source< T >, MipmapOrdering
@@ -42,12 +62,58 @@ public class WarpedSource < T > implements Source< T >, MipmapOrdering
 	 */
 	private final MipmapOrdering sourceMipmapOrdering;
 
+	/**
+	 * Delay after the last transform update before the exact transform
+	 * replaces the approximation in progressive rendering mode.
+	 */
+	public static final long REFINE_DELAY_MILLIS = 250;
+
+	/**
+	 * Number of grid nodes per dimension of the approximation used in
+	 * progressive rendering mode.
+	 */
+	public static final int APPROXIMATION_NODES = 32;
+
+	private static ScheduledExecutorService refiner;
+
 	private RealTransform xfm;
 
+	/*
+	 * the transform used by getInterpolatedSource, either xfm or its
+	 * approximation while progressive rendering has not been refined yet
+	 */
+	private volatile RealTransform renderXfm;
+
+	private boolean progressive;
+
+	private volatile Runnable requestRepaint;
+
+	private ScheduledFuture< ? > pendingRefinement;
+
 	private boolean isTransformed;
 	
 	private final Supplier< Boolean > boundingBoxCullingSupplier;
 
+	private RealTransform mipmapAffineXfm;
+
+	private int mipmapAffineTimepoint;
+
+	private double[] mipmapAffineScreen;
+
+	private AffineTransform3D mipmapAffineInverse;
+
+	private Interval mipmapAffineBounds;
+
+	private final HashMap< Integer, Interval > boundsCache = new HashMap<>();
+
+	private final HashMap< Integer, Interval > previousBounds = new HashMap<>();
+
+	private final HashSet< Integer > pendingBounds = new HashSet<>();
+
+	private RealTransform boundsXfm;
+
+	private int boundsTimepoint;
+
 	public WarpedSource( final Source< T > source, final String name )
 	{
 		this( source, name, null );
@@ -62,6 +128,8 @@ public class WarpedSource < T > implements Source< T >, MipmapOrdering
 		this.boundingBoxCullingSupplier = doBoundingBoxCulling;
 
 		this.xfm = null;
+		this.renderXfm = null;
+		this.progressive = false;
 
 		sourceMipmapOrdering = MipmapOrdering.class.isInstance( source ) ?
 				( MipmapOrdering ) source : new DefaultMipmapOrdering( source );
@@ -78,13 +146,177 @@ public class WarpedSource < T > implements Source< T >, MipmapOrdering
 	{
 		if( boundingBoxCullingSupplier != null )
 			return boundingBoxCullingSupplier.get();
+		else if( !isTransformed )
+			return source.doBoundingBoxCulling();
 		else
-			return ( !isTransformed ) && ( source.doBoundingBoxCulling() );
+			return source.doBoundingBoxCulling() && hasReliableBounds();
 	}
 
-	public void updateTransform( RealTransform xfm )
+	/*
+	 * The bounds of the transformed source are estimated by sampling its
+	 * boundary, which requires the inverse of the transform.
+	 */
+	private boolean hasReliableBounds()
+	{
+		final RealTransform xfm = this.xfm;
+		return xfm == null || xfm instanceof InvertibleRealTransform;
+	}
+
+	public synchronized void updateTransform( RealTransform xfm )
 	{
 		this.xfm = xfm;
+
+		if( pendingRefinement != null )
+			pendingRefinement.cancel( false );
+
+		if( !progressive || xfm == null || !isTransformed )
+		{
+			renderXfm = xfm;
+			return;
+		}
+
+		// the previous transform is rendered until the approximation is built
+		if( renderXfm == null )
+			renderXfm = xfm;
+
+		pendingRefinement = getRefiner().schedule( () -> approximate( xfm ), 0, TimeUnit.MILLISECONDS );
+	}
+
+	/**
+	 * Enables or disables progressive rendering, disabled by default. If
+	 * enabled, a new transform is first rendered with a coarse approximation
+	 * of its displacement (see {@link CoarseDisplacementTransform}), and
+	 * replaced by the exact transform once no other transform has been set for
+	 * {@link #REFINE_DELAY_MILLIS} milliseconds. Transforms that are replaced
+	 * before that are never rendered exactly.
+	 * <p>
+	 * The approximation is built on a background thread, the previous
+	 * transform is rendered until it is ready.
+	 *
+	 * @param progressive whether to render progressively
+	 * @param requestRepaint called after the approximation or the exact transform is rendered
+	 */
+	public synchronized void setProgressiveRendering( final boolean progressive, final Runnable requestRepaint )
+	{
+		this.progressive = progressive;
+		this.requestRepaint = requestRepaint;
+		if( !progressive )
+		{
+			if( pendingRefinement != null )
+				pendingRefinement.cancel( false );
+
+			renderXfm = xfm;
+		}
+	}
+
+	/**
+	 * Sets a callback that requests a repaint of the viewers showing this
+	 * source. If set, the bounds of the source are estimated on a background
+	 * thread after the transform changed, and the callback is run when they
+	 * are ready.
+	 *
+	 * @param requestRepaint requests a repaint, or null
+	 */
+	public void setRequestRepaint( final Runnable requestRepaint )
+	{
+		this.requestRepaint = requestRepaint;
+	}
+
+	public boolean isProgressiveRendering()
+	{
+		return progressive;
+	}
+
+	/*
+	 * Builds the approximation of a transform, runs on the refinement thread.
+	 */
+	private void approximate( final RealTransform exact )
+	{
+		if( exact != xfm )
+			return;
+
+		final RealInterval region = approximationRegion( exact );
+		final CoarseDisplacementTransform approximation = region == null ? null :
+				new CoarseDisplacementTransform( exact, region, APPROXIMATION_NODES );
+
+		synchronized( this )
+		{
+			// a newer transform arrived in the meantime
+			if( exact != xfm || !progressive )
+				return;
+
+			if( approximation == null )
+			{
+				renderXfm = exact;
+			}
+			else
+			{
+				renderXfm = approximation;
+				pendingRefinement = getRefiner().schedule( () -> refine( exact ), REFINE_DELAY_MILLIS, TimeUnit.MILLISECONDS );
+			}
+		}
+
+		if( requestRepaint != null )
+			requestRepaint.run();
+	}
+
+	private synchronized void refine( final RealTransform exact )
+	{
+		// a newer transform arrived in the meantime
+		if( exact != xfm )
+			return;
+
+		renderXfm = exact;
+		if( requestRepaint != null )
+			requestRepaint.run();
+	}
+
+	/*
+	 * the region of target space where the warped source is expected to be,
+	 * its estimated bounds with a margin. Null if the bounds are empty.
+	 */
+	private RealInterval approximationRegion( final RealTransform exact )
+	{
+		final Interval bounds = estimateBoundingInterval( exact, 0, 0 );
+		if( bounds == null || Intervals.isEmpty( bounds ) )
+			return null;
+
+		final int nd = bounds.numDimensions();
+		final double[] min = new double[ nd ];
+		final double[] max = new double[ nd ];
+		for( int d = 0; d < nd; d++ )
+		{
+			final double margin = 0.25 * ( bounds.max( d ) - bounds.min( d ) );
+			min[ d ] = bounds.min( d ) - margin;
+			max[ d ] = bounds.max( d ) + margin;
+		}
+		return new FinalRealInterval( min, max );
+	}
+
+	private static synchronized ScheduledExecutorService getRefiner()
+	{
+		if( refiner == null || refiner.isShutdown() )
+		{
+			refiner = Executors.newSingleThreadScheduledExecutor( r -> {
+				final Thread thread = new Thread( r, "warped source refinement" );
+				thread.setDaemon( true );
+				return thread;
+			} );
+		}
+		return refiner;
+	}
+
+	/**
+	 * Shuts down the thread that builds and refines the approximations of
+	 * progressive rendering, after the scheduled tasks have run. The thread
+	 * is started again when needed.
+	 */
+	public static synchronized void shutdownRefiner()
+	{
+		if( refiner != null )
+			refiner.shutdown();
+
+		refiner = null;
 	}
 	
 	public void setIsTransformed( boolean isTransformed )
@@ -108,13 +340,254 @@ public class WarpedSource < T > implements Source< T >, MipmapOrdering
 		if( isTransformed )
 		{
 			return Views.interval(
-					Views.raster( getInterpolatedSource( t, level, Interpolation.NEARESTNEIGHBOR ) ),
+					getBatchTransformedSource( t, level, Interpolation.NEARESTNEIGHBOR, new AffineTransform3D() ),
 					estimateBoundingInterval( t, level ));
 		}
 		return source.getSource( t, level );
 	}
 
+	/**
+	 * Rasterizes this source after the given pixel-to-physical transform, i.e.
+	 * equivalent to
+	 * {@code Views.raster( RealViews.affine( getInterpolatedSource( t, level, method ), pixelToPhysical.inverse() ))},
+	 * except that the positions are transformed a row at a time using
+	 * {@link BatchRealTransform}s.
+	 *
+	 * @param t the timepoint
+	 * @param level the mipmap level
+	 * @param method the interpolation method
+	 * @param pixelToPhysical the transform from pixel to physical coordinates
+	 * @return the rasterized source
+	 */
+	public RandomAccessible< T > getBatchTransformedSource( final int t, final int level, final Interpolation method, final AffineTransform3D pixelToPhysical )
+	{
+		if( !isTransformed )
+			return Views.raster( RealViews.affine( source.getInterpolatedSource( t, level, method ), pixelToPhysical.inverse() ) );
+
+		final AffineTransform3D transform = new AffineTransform3D();
+		source.getSourceTransform( t, level, transform );
+
+		final BatchTransformSequence seq = new BatchTransformSequence();
+		seq.add( BatchTransforms.batch( pixelToPhysical ) );
+		if( xfm != null )
+			seq.add( BatchTransforms.batch( xfm ) );
+
+		seq.add( BatchTransforms.batch( transform.inverse() ) );
+
+		return new BatchTransformedRandomAccessible< T >( source.getInterpolatedSource( t, level, method ), seq );
+	}
+
+	/*
+	 * The bounds of the transformed source at a level, for culling and mipmap
+	 * selection on the render and painter threads. If a repaint can be
+	 * requested, bounds that are not cached are estimated on the refinement
+	 * thread, and a quick estimate is returned until they are. Otherwise they
+	 * are estimated on the calling thread.
+	 */
 	private Interval estimateBoundingInterval( final int t, final int level )
+	{
+		final RealTransform xfm = this.xfm;
+		final Runnable repaint = requestRepaint;
+		if( repaint == null )
+			return estimateBoundingInterval( xfm, t, level );
+
+		synchronized( boundsCache )
+		{
+			final Interval cached = getCachedBounds( xfm, t, level );
+			if( cached != null )
+				return cached;
+
+			scheduleBoundingInterval( xfm, t, level, repaint );
+		}
+		return quickBoundingInterval( xfm, t, level );
+	}
+
+	/*
+	 * Estimates the bounds on the refinement thread, unless that is already
+	 * scheduled. Must be called while holding the lock of the cache.
+	 */
+	private void scheduleBoundingInterval( final RealTransform xfm, final int t, final int level, final Runnable repaint )
+	{
+		if( !pendingBounds.add( level ) )
+			return;
+
+		getRefiner().execute( () -> {
+			// a newer transform arrived in the meantime
+			if( xfm != this.xfm )
+				return;
+
+			estimateBoundingInterval( xfm, t, level );
+			repaint.run();
+		} );
+	}
+
+	/*
+	 * The bounds of the transformed source at a level, cached until the
+	 * transform or timepoint changes.
+	 */
+	private Interval estimateBoundingInterval( final RealTransform xfm, final int t, final int level )
+	{
+		synchronized( boundsCache )
+		{
+			final Interval cached = getCachedBounds( xfm, t, level );
+			if( cached != null )
+				return cached;
+		}
+
+		Interval bounds = sampleBoundingInterval( xfm, t, level );
+		if( bounds == null )
+			bounds = estimateBoundingIntervalFromCorners( xfm, t, level );
+
+		synchronized( boundsCache )
+		{
+			if( boundsXfm == xfm && boundsTimepoint == t )
+			{
+				boundsCache.put( level, bounds );
+				pendingBounds.remove( level );
+			}
+		}
+		return bounds;
+	}
+
+	/*
+	 * Returns the cached bounds, or null. Clears the cache if the transform or
+	 * timepoint changed, keeping the bounds for the previous transform. Must
+	 * be called while holding the lock of the cache.
+	 */
+	private Interval getCachedBounds( final RealTransform xfm, final int t, final int level )
+	{
+		if( boundsXfm != xfm || boundsTimepoint != t )
+		{
+			if( boundsTimepoint != t )
+				previousBounds.clear();
+			else if( !boundsCache.isEmpty() )
+			{
+				previousBounds.clear();
+				previousBounds.putAll( boundsCache );
+			}
+
+			boundsCache.clear();
+			pendingBounds.clear();
+			boundsXfm = xfm;
+			boundsTimepoint = t;
+		}
+		return boundsCache.get( level );
+	}
+
+	/*
+	 * A quick estimate of the bounds, used until the boundary is sampled: the
+	 * inverse at the corners, edge centers, face centers and center of the
+	 * wrapped source, with a margin of a tenth of their extent, and the bounds
+	 * for the previous transform.
+	 */
+	private Interval quickBoundingInterval( final RealTransform xfm, final int t, final int level )
+	{
+		if( xfm != null && !( xfm instanceof InvertibleRealTransform ) )
+			return estimateBoundingIntervalFromCorners( xfm, t, level );
+
+		final RealInterval box = voxelBox( t, level );
+		final RealTransform voxelsToWarped = voxelsToWarped( xfm, t, level );
+		final int nd = box.numDimensions();
+		final double[] min = new double[ nd ];
+		final double[] max = new double[ nd ];
+		Arrays.fill( min, Double.POSITIVE_INFINITY );
+		Arrays.fill( max, Double.NEGATIVE_INFINITY );
+
+		final double[] p = new double[ nd ];
+		final double[] q = new double[ nd ];
+		final int[] pos = new int[ nd ];
+		while( true )
+		{
+			for( int d = 0; d < nd; d++ )
+				p[ d ] = box.realMin( d ) + 0.5 * pos[ d ] * ( box.realMax( d ) - box.realMin( d ) );
+
+			voxelsToWarped.apply( p, q );
+			for( int d = 0; d < nd; d++ )
+			{
+				min[ d ] = Math.min( min[ d ], q[ d ] );
+				max[ d ] = Math.max( max[ d ], q[ d ] );
+			}
+
+			// flat dimensions have a single position
+			int d = 0;
+			while( d < nd && ( ++pos[ d ] == 3 || box.realMax( d ) <= box.realMin( d ) ) )
+				pos[ d++ ] = 0;
+
+			if( d == nd )
+				break;
+		}
+
+		final long[] imin = new long[ nd ];
+		final long[] imax = new long[ nd ];
+		for( int d = 0; d < nd; d++ )
+		{
+			if( Double.isNaN( min[ d ] ) || Double.isInfinite( min[ d ] ) || Double.isNaN( max[ d ] ) || Double.isInfinite( max[ d ] ) )
+				return estimateBoundingIntervalFromCorners( xfm, t, level );
+
+			final double margin = 0.1 * ( max[ d ] - min[ d ] ) + 1;
+			imin[ d ] = ( long ) Math.floor( min[ d ] - margin );
+			imax[ d ] = ( long ) Math.ceil( max[ d ] + margin );
+		}
+
+		final Interval quick = new FinalInterval( imin, imax );
+		final Interval previous;
+		synchronized( boundsCache )
+		{
+			previous = previousBounds.get( level );
+		}
+		return previous == null ? quick : Intervals.union( quick, previous );
+	}
+
+	/*
+	 * Samples the boundary of the wrapped source's voxel interval mapped to
+	 * this source's space. Returns null if the transform is not invertible or
+	 * the estimate failed.
+	 */
+	private Interval sampleBoundingInterval( final RealTransform xfm, final int t, final int level )
+	{
+		if( xfm != null && !( xfm instanceof InvertibleRealTransform ) )
+			return null;
+
+		return new BoundingIntervalEstimator( voxelsToWarped( xfm, t, level ) ).estimate( voxelBox( t, level ) );
+	}
+
+	/*
+	 * The transform from the wrapped source's voxels to this source's space,
+	 * xfm must be invertible or null.
+	 */
+	private RealTransform voxelsToWarped( final RealTransform xfm, final int t, final int level )
+	{
+		final AffineTransform3D sourceTransform = new AffineTransform3D();
+		source.getSourceTransform( t, level, sourceTransform );
+
+		final RealTransformSequence voxelsToWarped = new RealTransformSequence();
+		voxelsToWarped.add( sourceTransform );
+		if( xfm != null )
+			voxelsToWarped.add( ( ( InvertibleRealTransform ) xfm.copy() ).inverse() );
+
+		return voxelsToWarped;
+	}
+
+	/*
+	 * The wrapped source's voxel interval, extended by half a voxel in
+	 * dimensions that are not flat.
+	 */
+	private RealInterval voxelBox( final int t, final int level )
+	{
+		final Interval wrappedInterval = source.getSource( t, level );
+		final int nd = wrappedInterval.numDimensions();
+		final double[] min = new double[ nd ];
+		final double[] max = new double[ nd ];
+		for( int d = 0; d < nd; d++ )
+		{
+			final boolean flat = wrappedInterval.dimension( d ) == 1;
+			min[ d ] = flat ? wrappedInterval.min( d ) : wrappedInterval.min( d ) - 0.5;
+			max[ d ] = flat ? wrappedInterval.max( d ) : wrappedInterval.max( d ) + 0.5;
+		}
+		return new FinalRealInterval( min, max );
+	}
+
+	private Interval estimateBoundingIntervalFromCorners( final RealTransform xfm, final int t, final int level )
 	{
 		final Interval wrappedInterval = source.getSource( t, level );
 		AffineTransform3D affine = new AffineTransform3D();
@@ -161,10 +634,11 @@ public class WarpedSource < T > implements Source< T >, MipmapOrdering
 			source.getSourceTransform( t, level, transform );
 			final RealRandomAccessible< T > srcRaTransformed = RealViews.affineReal( source.getInterpolatedSource( t, level, method ), transform );
 
-			if( xfm == null )
+			final RealTransform renderXfm = this.renderXfm;
+			if( renderXfm == null )
 				return srcRaTransformed;
 			else
-				return new RealTransformRealRandomAccessible< T, RealTransform >( srcRaTransformed, xfm );
+				return new RealTransformRealRandomAccessible< T, RealTransform >( srcRaTransformed, renderXfm );
 		}
 		else
 		{
@@ -210,10 +684,125 @@ public class WarpedSource < T > implements Source< T >, MipmapOrdering
 		return source.getNumMipmapLevels();
 	}
 
+	/**
+	 * When transformed, the wrapped source's mipmap ordering is given the
+	 * screen transform concatenated with the inverse of a local affine
+	 * approximation of the warp on the displayed plane, so that levels are
+	 * chosen according to the size of the wrapped source's voxels on the
+	 * screen after warping.
+	 */
 	@Override
 	public synchronized MipmapHints getMipmapHints( final AffineTransform3D screenTransform, final int timepoint, final int previousTimepoint )
 	{
+		if( isTransformed && xfm != null )
+		{
+			final AffineTransform3D warpInverse = getWarpAffineInverse( timepoint, screenTransform );
+			if( warpInverse != null )
+			{
+				final AffineTransform3D screenToWarped = screenTransform.copy();
+				screenToWarped.concatenate( warpInverse );
+				return sourceMipmapOrdering.getMipmapHints( screenToWarped, timepoint, previousTimepoint );
+			}
+		}
 		return sourceMipmapOrdering.getMipmapHints( screenTransform, timepoint, previousTimepoint );
 	}
 
+	/*
+	 * The bounds that locate the displayed plane for the mipmap hints. Only
+	 * the center of the bounds is used, so while the bounds for the current
+	 * transform are estimated in the background, the bounds for the previous
+	 * transform are used, and the painter thread does not wait for either.
+	 */
+	private Interval mipmapHintBounds( final RealTransform xfm, final int t )
+	{
+		final Runnable repaint = requestRepaint;
+		if( repaint != null )
+		{
+			synchronized( boundsCache )
+			{
+				final Interval cached = getCachedBounds( xfm, t, 0 );
+				if( cached != null )
+					return cached;
+
+				final Interval previous = previousBounds.get( 0 );
+				if( previous != null )
+				{
+					scheduleBoundingInterval( xfm, t, 0, repaint );
+					return previous;
+				}
+			}
+		}
+		return estimateBoundingInterval( t, 0 );
+	}
+
+	private static boolean sameInterval( final Interval a, final Interval b )
+	{
+		if( a == b )
+			return true;
+
+		if( a == null || b == null || a.numDimensions() != b.numDimensions() )
+			return false;
+
+		for( int d = 0; d < a.numDimensions(); d++ )
+			if( a.min( d ) != b.min( d ) || a.max( d ) != b.max( d ) )
+				return false;
+
+		return true;
+	}
+
+	/*
+	 * The inverse of the local affine approximation of xfm (i.e. from moving
+	 * to target space), cached until the transform, timepoint, screen
+	 * transform or bounds change. Null if the approximation is not invertible.
+	 *
+	 * xfm is approximated by central differences of one screen pixel along
+	 * the screen axes, at the point of the displayed plane (screen z = 0)
+	 * in front of the center of this source's target space bounds.
+	 */
+	private AffineTransform3D getWarpAffineInverse( final int t, final AffineTransform3D screenTransform )
+	{
+		final RealTransform xfm = this.xfm;
+		final double[] screen = screenTransform.getRowPackedCopy();
+		final Interval bounds = mipmapHintBounds( xfm, t );
+		if( mipmapAffineXfm == xfm && mipmapAffineTimepoint == t && sameInterval( mipmapAffineBounds, bounds ) && Arrays.equals( mipmapAffineScreen, screen ) )
+			return mipmapAffineInverse;
+
+		mipmapAffineXfm = xfm;
+		mipmapAffineTimepoint = t;
+		mipmapAffineBounds = bounds;
+		mipmapAffineScreen = screen;
+		mipmapAffineInverse = null;
+		final double[] center = new double[ 3 ];
+		for( int d = 0; d < 3; d++ )
+			center[ d ] = 0.5 * ( bounds.min( d ) + bounds.max( d ) );
+
+		final double[] onScreen = new double[ 3 ];
+		screenTransform.apply( center, onScreen );
+		onScreen[ 2 ] = 0;
+
+		final AffineTransform3D screenToTarget = screenTransform.inverse();
+		final double[] point = new double[ 3 ];
+		screenToTarget.apply( onScreen, point );
+
+		// one screen pixel along each screen axis, in target space
+		final double[][] steps = new double[ 3 ][ 3 ];
+		for( int c = 0; c < 3; c++ )
+			for( int d = 0; d < 3; d++ )
+				steps[ c ][ d ] = screenToTarget.get( d, c );
+
+		final AffineTransform3D affine = new AffineTransform3D();
+		if( BigWarpExporter.estimateLocalAffine( affine, xfm, point, steps ) )
+		{
+			final AffineTransform3D inverse = affine.inverse();
+			boolean finite = true;
+			for( final double v : inverse.getRowPackedCopy() )
+				finite &= !( Double.isNaN( v ) || Double.isInfinite( v ) );
+
+			if( finite )
+				mipmapAffineInverse = inverse;
+		}
+
+		return mipmapAffineInverse;
+	}
+
 }
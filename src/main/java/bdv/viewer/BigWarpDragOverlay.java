@@ -10,7 +10,7 @@ import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
 import net.imglib2.RealPoint;
 import net.imglib2.realtransform.AffineTransform3D;
 import bigwarp.BigWarp;
-import bigwarp.BigWarp.SolveThread;
+import bigwarp.BigWarp.SolveScheduler;
 
 public class BigWarpDragOverlay
 {
@@ -35,7 +35,7 @@ public class BigWarpDragOverlay
 	
 	private Color baseColor;
 	
-	public BigWarpDragOverlay( final BigWarp bw, final BigWarpViewerPanel viewer, final SolveThread solveThread )
+	public BigWarpDragOverlay( final BigWarp bw, final BigWarpViewerPanel viewer, final SolveScheduler solveThread )
 	{
 		this.bw = bw;
 		this.viewer = viewer;
@@ -99,9 +99,9 @@ public class BigWarpDragOverlay
 		private int index;
 		double[] targetPtArray = new double[ ndim ];
 
-		final private SolveThread solverThread;
+		final private SolveScheduler solverThread;
 
-		public WarpDragMouseListener( final BigWarp bw, final BigWarpViewerPanel thisViewer, SolveThread solverThread )
+		public WarpDragMouseListener( final BigWarp bw, final BigWarpViewerPanel thisViewer, SolveScheduler solverThread )
 		{
 			this.bw = bw;
 			setViewer( thisViewer );
@@ -149,6 +149,9 @@ public class BigWarpDragOverlay
 		@Override
 		public void mouseReleased( MouseEvent e )
 		{
+			// the drag ended, drop its pending solves
+			solverThread.cancelDrag();
+
 			if( bw.isInLandmarkMode() && bw.isRowIncomplete() )
 			{
 				return;
@@ -27,9 +27,12 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.ActionMap;
 import javax.swing.InputMap;
@@ -67,6 +70,7 @@ import org.scijava.ui.behaviour.io.InputTriggerConfig;
 
 import bdv.BigDataViewer;
 import bdv.cache.CacheControl;
+import bdv.cache.CacheControl.CacheControls;
 import bdv.export.ProgressWriter;
 import bdv.export.ProgressWriterConsole;
 import bdv.gui.BigWarpLandmarkPanel;
@@ -89,6 +93,7 @@ import bdv.tools.brightness.BrightnessDialog;
 import bdv.tools.brightness.ConverterSetup;
 import bdv.tools.brightness.SetupAssignments;
 import bdv.util.Bounds;
+import bdv.util.volatiles.SharedQueue;
 import bdv.viewer.BigWarpDragOverlay;
 import bdv.viewer.BigWarpLandmarkFrame;
 import bdv.viewer.BigWarpOverlay;
@@ -107,12 +112,20 @@ import bdv.viewer.animate.SimilarityModel3D;
 import bdv.viewer.animate.TranslationAnimator;
 import bdv.viewer.overlay.BigWarpSourceOverlayRenderer;
 import bdv.viewer.overlay.MultiBoxOverlayRenderer;
+import bdv.viewer.render.MipmapTransforms;
+import bigwarp.landmarks.LandmarkColumns;
+import bigwarp.landmarks.LandmarkJournal;
 import bigwarp.landmarks.LandmarkTableModel;
 import bigwarp.loader.ImagePlusLoader.ColorSettings;
+import bigwarp.loader.N5SourceCache;
 import bigwarp.source.GridSource;
 import bigwarp.source.JacobianDeterminantSource;
+import bigwarp.source.SourceStatistics;
+import bigwarp.source.TimepointPrefetcher;
+import bigwarp.source.VolatileWarpVisualizationSource;
 import bigwarp.source.WarpMagnitudeSource;
 import bigwarp.transforms.BigWarpTransform;
+import bigwarp.transforms.GridInverseTransform;
 import bigwarp.transforms.WrappedCoordinateTransform;
 import bigwarp.util.BigWarpUtils;
 import fiji.util.gui.GenericDialogPlus;
@@ -134,8 +147,11 @@ import mpicbg.models.SimilarityModel2D;
 import mpicbg.models.TranslationModel2D;
 import mpicbg.models.TranslationModel3D;
 import mpicbg.spim.data.SpimDataException;
+import net.imglib2.FinalInterval;
+import net.imglib2.FinalRealInterval;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealInterval;
 import net.imglib2.RealPoint;
 import net.imglib2.display.RealARGBColorConverter;
 import net.imglib2.realtransform.AffineTransform3D;
@@ -145,6 +161,7 @@ import net.imglib2.realtransform.Wrapped2DTransformAs3D;
 import net.imglib2.realtransform.inverse.WrappedIterativeInvertibleRealTransform;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.type.volatiles.VolatileFloatType;
 
 public class BigWarp< T >
 {
@@ -153,6 +170,11 @@ public class BigWarp< T >
 
 	protected static final int DEFAULT_HEIGHT = 400;
 
+	/*
+	 * the number of cells of the precomputed inverse along every dimension
+	 */
+	protected static final int INVERSE_GRID_CELLS = 32;
+
 	public static final int GRID_SOURCE_ID = 1696993146;
 
 	public static final int WARPMAG_SOURCE_ID = 956736363;
@@ -248,6 +270,8 @@ public class BigWarp< T >
 
 	protected final SourceAndConverter< FloatType > gridSource;
 
+	protected final SharedQueue warpVisQueue;
+
 	protected final SourceAndConverter< FloatType > warpMagSource;
 
 	protected final SourceAndConverter< FloatType > jacDetSource;
@@ -256,7 +280,7 @@ public class BigWarp< T >
 
 	private final double[] ptBack;
 
-	private SolveThread solverThread;
+	private SolveScheduler solverThread;
 
 	private BigWarpTransform bwTransform;
 
@@ -358,9 +382,12 @@ public class BigWarp< T >
 		data.sources.get( data.targetSourceIndices[ 0 ] ).getSpimSource().getSourceTransform( 0, 0, fixedViewXfm );
 
 		baselineModelIndex = 0;
-		warpMagSource = addWarpMagnitudeSource( data, "WarpMagnitudeSource" );
-		jacDetSource = addJacobianDeterminantSource( data, "JacobianDeterminantSource" );
-		gridSource = addGridSource( data, "GridSource" );
+		// computes the cells of the cached warp visualization sources
+		warpVisQueue = new SharedQueue( Math.max( 1, Runtime.getRuntime().availableProcessors() / 2 ) );
+		data.addCacheControl( () -> warpVisQueue.getQueue().clearToPrefetch() );
+		warpMagSource = addWarpMagnitudeSource( data, "WarpMagnitudeSource", warpVisQueue );
+		jacDetSource = addJacobianDeterminantSource( data, "JacobianDeterminantSource", warpVisQueue );
+		gridSource = addGridSource( data, "GridSource", warpVisQueue );
 
 		this.sources = this.data.sources;
 		final List< ConverterSetup > converterSetups = data.converterSetups;
@@ -464,8 +491,22 @@ public class BigWarp< T >
 		viewerQ.addOverlay( overlayQ );
 
 		bwTransform = new BigWarpTransform( landmarkModel );
-		solverThread = new SolveThread( this );
+		solverThread = new SolveScheduler( this );
 		solverThread.start();
+
+		// the warped sources estimate their bounds in the background, and
+		// request a repaint when they are ready
+		final Runnable repaint = () -> {
+			viewerP.requestRepaint();
+			viewerQ.requestRepaint();
+		};
+		for ( int i = 0; i < movingSourceIndexList.length; i++ )
+		{
+			final int idx = movingSourceIndexList[ i ];
+			( ( WarpedSource< ? > ) ( sources.get( idx ).getSpimSource() ) ).setRequestRepaint( repaint );
+			if ( sources.get( idx ).asVolatile() != null )
+				( ( WarpedSource< ? > ) ( sources.get( idx ).asVolatile().getSpimSource() ) ).setRequestRepaint( repaint );
+		}
 		
 		dragOverlayP = new BigWarpDragOverlay( this, viewerP, solverThread );
 		dragOverlayQ = new BigWarpDragOverlay( this, viewerQ, solverThread );
@@ -537,14 +578,28 @@ public class BigWarp< T >
 			}
 		} );
 
-		// set brightness contrast to appropriate values
-		InitializeViewerState.initBrightness( 0.001, 0.999, viewerP.state(), viewerFrameP.getConverterSetups() );
-		InitializeViewerState.initBrightness( 0.001, 0.999, viewerQ.state(), viewerFrameQ.getConverterSetups() );
+		// set brightness contrast to appropriate values once they are estimated,
+		// so that the viewers show data right away
+		initBrightnessInBackground( 0.001, 0.999, viewerP, viewerFrameP.getConverterSetups() );
+		initBrightnessInBackground( 0.001, 0.999, viewerQ, viewerFrameQ.getConverterSetups() );
 
 		// set initial transforms so data are visible
 		InitializeViewerState.initTransform( viewerP );
 		InitializeViewerState.initTransform( viewerQ );
 
+		// time series are shown with the same transform at every timepoint,
+		// load the part of the next timepoint on screen while the current one is shown
+		if ( data.getNumTimepoints() > 1 )
+		{
+			viewerP.state().setNumTimepoints( data.getNumTimepoints() );
+			viewerQ.state().setNumTimepoints( data.getNumTimepoints() );
+
+			final TimepointPrefetcher prefetcherP = new TimepointPrefetcher( BigWarpInit.getBackgroundExecutor() );
+			final TimepointPrefetcher prefetcherQ = new TimepointPrefetcher( BigWarpInit.getBackgroundExecutor() );
+			viewerP.timePointListeners().add( t -> prefetchNextTimepoint( viewerP, prefetcherP, t ) );
+			viewerQ.timePointListeners().add( t -> prefetchNextTimepoint( viewerQ, prefetcherQ, t ) );
+		}
+
 		checkBoxInputMaps();
 
 		// file selection
@@ -592,11 +647,128 @@ public class BigWarp< T >
 			return;
 		final Source< ? > source = current.getSpimSource();
 		final int timepoint = state.getCurrentTimepoint();
-		final Bounds bounds = InitializeViewerState.estimateSourceRange( source, timepoint, cumulativeMinCutoff, cumulativeMaxCutoff );
+		final Bounds bounds = SourceStatistics.getDefault().estimateSourceRange( source, timepoint, cumulativeMinCutoff, cumulativeMaxCutoff );
 		final ConverterSetup setup = converterSetups.getConverterSetup( current );
 		setup.setDisplayRange( bounds.getMinBound(), bounds.getMaxBound() );
 	}
 
+	/**
+	 * Estimates the display range of the current source of a viewer on a
+	 * background thread from its (cached) {@link SourceStatistics}, and
+	 * applies it on the event dispatch thread. The
+	 * estimate is skipped if the source gets its range from an ImagePlus, and
+	 * dropped if the range was changed in the meantime.
+	 *
+	 * @param cumulativeMinCutoff the min image intensity
+	 * @param cumulativeMaxCutoff the max image intensity
+	 * @param viewer the viewer
+	 * @param converterSetups the converter setups
+	 * @return completes once the range is applied or dropped
+	 */
+	public CompletableFuture< Void > initBrightnessInBackground( final double cumulativeMinCutoff, final double cumulativeMaxCutoff,
+			final BigWarpViewerPanel viewer, final ConverterSetups converterSetups )
+	{
+		final SourceAndConverter< ? > current = viewer.state().getCurrentSource();
+		if ( current == null || data.sourceColorSettings.get( current ) != null )
+			return CompletableFuture.completedFuture( null );
+
+		final ConverterSetup setup = converterSetups.getConverterSetup( current );
+		if ( setup == null )
+			return CompletableFuture.completedFuture( null );
+
+		final double min = setup.getDisplayRangeMin();
+		final double max = setup.getDisplayRangeMax();
+		final int timepoint = viewer.state().getCurrentTimepoint();
+		return CompletableFuture.supplyAsync(
+				() -> SourceStatistics.getDefault().estimateSourceRange( current.getSpimSource(), timepoint, cumulativeMinCutoff, cumulativeMaxCutoff ),
+				BigWarpInit.getBackgroundExecutor() )
+			.thenAccept( bounds -> SwingUtilities.invokeLater( () -> {
+				if ( setup.getDisplayRangeMin() != min || setup.getDisplayRangeMax() != max )
+					return;
+
+				setup.setDisplayRange( bounds.getMinBound(), bounds.getMaxBound() );
+				viewer.requestRepaint();
+			} ) )
+			.exceptionally( e -> {
+				e.printStackTrace();
+				return null;
+			} );
+	}
+
+	/**
+	 * Prefetches the part of timepoint t+1 of the visible sources that is
+	 * currently on screen, at the resolution level the viewer would use.
+	 */
+	private static void prefetchNextTimepoint( final BigWarpViewerPanel viewer, final TimepointPrefetcher prefetcher, final int t )
+	{
+		final int next = t + 1;
+		final ViewerState state = viewer.state();
+		if ( next >= state.getNumTimepoints() )
+		{
+			prefetcher.cancel();
+			return;
+		}
+
+		final AffineTransform3D viewerTransform = state.getViewerTransform();
+		final double w = Math.max( 1, viewer.getDisplay().getWidth() );
+		final double h = Math.max( 1, viewer.getDisplay().getHeight() );
+		final double[][] corners = new double[][] { { 0, 0, 0 }, { w, 0, 0 }, { 0, h, 0 }, { w, h, 0 } };
+
+		final ArrayList< Source< ? > > sources = new ArrayList<>();
+		final ArrayList< Interval > intervals = new ArrayList<>();
+		final List< SourceAndConverter< ? > > visible = new ArrayList<>( state.getVisibleSources() );
+		final int[] levels = new int[ visible.size() ];
+		for ( final SourceAndConverter< ? > sac : visible )
+		{
+			final Source< ? > src = sac.getSpimSource();
+			if ( !src.isPresent( next ) )
+				continue;
+
+			final int level = MipmapTransforms.getBestMipMapLevel( viewerTransform, src, next );
+			levels[ sources.size() ] = level;
+			sources.add( src );
+
+			// cells of a warped source can not be found from the screen directly
+			if ( src instanceof WarpedSource && ( ( WarpedSource< ? > ) src ).isTransformed() )
+			{
+				intervals.add( null );
+				continue;
+			}
+
+			// screen to source voxel coordinates
+			final AffineTransform3D sourceToScreen = new AffineTransform3D();
+			src.getSourceTransform( next, level, sourceToScreen );
+			sourceToScreen.preConcatenate( viewerTransform );
+
+			final double[] min = new double[] { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+			final double[] max = new double[] { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+			final double[] p = new double[ 3 ];
+			for ( final double[] c : corners )
+			{
+				sourceToScreen.applyInverse( p, c );
+				for ( int d = 0; d < 3; d++ )
+				{
+					min[ d ] = Math.min( min[ d ], p[ d ] );
+					max[ d ] = Math.max( max[ d ], p[ d ] );
+				}
+			}
+
+			final long[] lo = new long[ 3 ];
+			final long[] hi = new long[ 3 ];
+			for ( int d = 0; d < 3; d++ )
+			{
+				lo[ d ] = ( long ) Math.floor( min[ d ] ) - 1;
+				hi[ d ] = ( long ) Math.ceil( max[ d ] ) + 1;
+			}
+			intervals.add( new FinalInterval( lo, hi ) );
+		}
+
+		if ( sources.isEmpty() )
+			prefetcher.cancel();
+		else
+			prefetcher.prefetch( sources, next, levels, intervals );
+	}
+
 	public void addKeyEventPostProcessor( final KeyEventPostProcessor ke )
 	{
 		keyEventPostProcessorSet.add( ke );
@@ -623,12 +795,91 @@ public class BigWarp< T >
 
 		viewerFrameP.getViewerPanel().stop();
 		viewerFrameQ.getViewerPanel().stop();
+		solverThread.interrupt();
+		WarpedSource.shutdownRefiner();
+		warpVisQueue.shutdown();
 
 		viewerFrameP.dispose();
 		viewerFrameQ.dispose();
 		landmarkFrame.dispose();
 	}
 
+	/**
+	 * Sets whether new transformations are first rendered with a coarse
+	 * approximation, see {@link WarpedSource#setProgressiveRendering}.
+	 * Disabled by default.
+	 * 
+	 * @param progressive whether to render progressively
+	 */
+	public void setProgressiveRendering( final boolean progressive )
+	{
+		final Runnable repaint = () -> {
+			viewerP.requestRepaint();
+			viewerQ.requestRepaint();
+		};
+
+		for ( int i = 0; i < movingSourceIndexList.length; i++ )
+		{
+			final int idx = movingSourceIndexList[ i ];
+			( ( WarpedSource< ? > ) ( sources.get( idx ).getSpimSource() ) ).setProgressiveRendering( progressive, repaint );
+			if ( sources.get( idx ).asVolatile() != null )
+				( ( WarpedSource< ? > ) ( sources.get( idx ).asVolatile().getSpimSource() ) ).setProgressiveRendering( progressive, repaint );
+		}
+	}
+
+	/**
+	 * Precompute the inverse of full re-estimates of the transformation on a
+	 * grid covering the moving images, see
+	 * {@link BigWarpTransform#setPrecomputedInverse(RealInterval, double[], int)}.
+	 * The inverse becomes an interpolation from the grid, full re-estimates
+	 * become slower.
+	 *
+	 * @param precompute whether to precompute the inverse
+	 */
+	public void setPrecomputedInverse( final boolean precompute )
+	{
+		if ( precompute )
+		{
+			final RealInterval interval = movingBounds();
+			final double[] spacing = new double[ ndims ];
+			for ( int d = 0; d < ndims; d++ )
+				spacing[ d ] = Math.max( 1, interval.realMax( d ) - interval.realMin( d ) ) / INVERSE_GRID_CELLS;
+
+			bwTransform.setPrecomputedInverse( interval, spacing, Runtime.getRuntime().availableProcessors() );
+		}
+		else
+			bwTransform.setPrecomputedInverse( null, null, 0 );
+
+		if ( !firstWarpEstimation )
+			restimateTransformation();
+	}
+
+	/*
+	 * The bounding box of the moving images in physical space, before they
+	 * are warped.
+	 */
+	private RealInterval movingBounds()
+	{
+		final double[] min = new double[ ndims ];
+		final double[] max = new double[ ndims ];
+		Arrays.fill( min, Double.POSITIVE_INFINITY );
+		Arrays.fill( max, Double.NEGATIVE_INFINITY );
+
+		final AffineTransform3D xfm = new AffineTransform3D();
+		for ( int i = 0; i < movingSourceIndexList.length; i++ )
+		{
+			final Source< ? > src = ( ( WarpedSource< ? > ) sources.get( movingSourceIndexList[ i ] ).getSpimSource() ).getWrappedSource();
+			src.getSourceTransform( 0, 0, xfm );
+			final RealInterval bounds = xfm.estimateBounds( src.getSource( 0, 0 ) );
+			for ( int d = 0; d < ndims; d++ )
+			{
+				min[ d ] = Math.min( min[ d ], bounds.realMin( d ) );
+				max[ d ] = Math.max( max[ d ], bounds.realMax( d ) );
+			}
+		}
+		return new FinalRealInterval( min, max );
+	}
+
 	public void setUpdateWarpOnChange( final boolean updateWarpOnPtChange )
 	{
 		this.updateWarpOnPtChange = updateWarpOnPtChange;
@@ -671,8 +922,12 @@ public class BigWarp< T >
 
 	public void invertPointCorrespondences()
 	{
-		landmarkModel = landmarkModel.invert();
-		landmarkPanel.setTableModel( landmarkModel );
+		// in place, so that it can be undone
+		landmarkModel.swapMovingAndTarget();
+		if( updateWarpOnPtChange )
+			restimateTransformation();
+
+		landmarkPanel.repaint();
 	}
 
 	public File getLastDirectory()
@@ -711,6 +966,10 @@ public class BigWarp< T >
 		saveItem.setText( "Export landmarks" );
 		fileMenu.add( saveItem );
 
+		final JMenuItem recoverItem = new JMenuItem( actionMap.get( BigWarpActions.RECOVER_AUTOSAVE ) );
+		recoverItem.setText( "Recover auto-saved landmarks" );
+		fileMenu.add( recoverItem );
+
 		fileMenu.addSeparator();
 		final JMenuItem miLoadSettings = new JMenuItem( actionMap.get( BigWarpActions.LOAD_SETTINGS ) );
 		miLoadSettings.setText( "Load settings" );
@@ -983,6 +1242,9 @@ public class BigWarp< T >
 		gd.addCheckbox( "virtual?", false );
 		int defaultCores = (int)Math.ceil( Runtime.getRuntime().availableProcessors()/4);
 		gd.addNumericField( "threads", defaultCores, 0 );
+		final int currentTimepoint = viewerP.state().getCurrentTimepoint();
+		gd.addNumericField( "first timepoint", currentTimepoint, 0 );
+		gd.addNumericField( "last timepoint", currentTimepoint, 0 );
 
 		gd.addMessage( "Writing options (leave empty to opena new image window)" );
 		gd.addDirectoryOrFileField( "File or n5 root", "" );
@@ -1024,6 +1286,8 @@ public class BigWarp< T >
 		final String interpType = gd.getNextChoice();
 		final boolean isVirtual = gd.getNextBoolean();
 		final int nThreads = (int)gd.getNextNumber();
+		final int firstTimepoint = (int)gd.getNextNumber();
+		final int lastTimepoint = (int)gd.getNextNumber();
 
 		final String fileOrN5Root = gd.getNextString();
 		final String n5Dataset = gd.getNextString();
@@ -1059,6 +1323,7 @@ public class BigWarp< T >
 					data, sources, fieldOfViewOption,
 					outputIntervalList, matchedPtNames, interp,
 					offsetSpec, res, isVirtual, nThreads,
+					firstTimepoint, lastTimepoint,
 					progressWriter );
 		}
 		else
@@ -1076,7 +1341,8 @@ public class BigWarp< T >
 								outputIntervalList.get( 0 ), interp,
 								offsetSpec, res, unit, 
 								progressWriter, writeOpts, 
-								Executors.newFixedThreadPool( nThreads )  );
+								Executors.newFixedThreadPool( nThreads ),
+								firstTimepoint, lastTimepoint );
 
 						progressWriter.setProgress( 1.00 );
 					}
@@ -1089,7 +1355,8 @@ public class BigWarp< T >
 				ApplyBigwarpPlugin.runExport( data, sources, fieldOfViewOption,
 						outputIntervalList, matchedPtNames, interp,
 						offsetSpec, res, isVirtual, nThreads, 
-						progressWriter, show, false, writeOpts );
+						progressWriter, show, false, writeOpts,
+						firstTimepoint, lastTimepoint );
 			}
 		}
 	}
@@ -1114,6 +1381,10 @@ public class BigWarp< T >
 		saveItem.setText( "Export landmarks" );
 		fileMenu.add( saveItem );
 
+		final JMenuItem recoverItem = new JMenuItem( actionMap.get( BigWarpActions.RECOVER_AUTOSAVE ) );
+		recoverItem.setText( "Recover auto-saved landmarks" );
+		fileMenu.add( recoverItem );
+
 		fileMenu.addSeparator();
 		final JMenuItem exportImageItem = new JMenuItem( "Export Moving Image" );
 
@@ -1750,50 +2021,58 @@ public class BigWarp< T >
 	}
 
 	@SuppressWarnings( { "rawtypes", "unchecked" } )
-	private static < T > SourceAndConverter< FloatType > addJacobianDeterminantSource( final BigWarpData< T > data, final String name )
+	private static < T > SourceAndConverter< FloatType > addJacobianDeterminantSource( final BigWarpData< T > data, final String name, final SharedQueue queue )
 	{
 		// TODO think about whether its worth it to pass a type parameter.
 		// or should we just stick with Doubles?
 
-		final JacobianDeterminantSource< FloatType > jdSource = new JacobianDeterminantSource<>( name, data, new FloatType() );
+		final JacobianDeterminantSource< FloatType > jdSource = new JacobianDeterminantSource<>( name, data, new FloatType(), queue );
 		final RealARGBColorConverter< FloatType > converter = RealARGBColorConverter.create( new FloatType(), 0, 512 );
 		converter.setColor( new ARGBType( 0xffffffff ) );
-		final SourceAndConverter< FloatType > soc = new SourceAndConverter<>( jdSource, converter, null );
+		final SourceAndConverter< FloatType > soc = new SourceAndConverter<>( jdSource, converter, volatileWarpVisSource( jdSource.getVolatileSource() ) );
 		data.converterSetups.add( BigDataViewer.createConverterSetup( soc, JACDET_SOURCE_ID ) );
 		data.sources.add( ( SourceAndConverter ) soc );
 		return soc;
 	}
 
 	@SuppressWarnings( { "rawtypes", "unchecked" } )
-	private static < T > SourceAndConverter< FloatType > addWarpMagnitudeSource(  final BigWarpData< T > data, final String name )
+	private static < T > SourceAndConverter< FloatType > addWarpMagnitudeSource(  final BigWarpData< T > data, final String name, final SharedQueue queue )
 	{
 		// TODO think about whether its worth it to pass a type parameter.
 		// or should we just stick with Doubles?
 
-		final WarpMagnitudeSource< FloatType > magSource = new WarpMagnitudeSource<>( name, data, new FloatType() );
+		final WarpMagnitudeSource< FloatType > magSource = new WarpMagnitudeSource<>( name, data, new FloatType(), queue );
 		final RealARGBColorConverter< FloatType > converter = RealARGBColorConverter.create( new FloatType(), 0, 512 );
 		converter.setColor( new ARGBType( 0xffffffff ) );
-		final SourceAndConverter< FloatType > soc = new SourceAndConverter<>( magSource, converter, null );
+		final SourceAndConverter< FloatType > soc = new SourceAndConverter<>( magSource, converter, volatileWarpVisSource( magSource.getVolatileSource() ) );
 		data.converterSetups.add( BigDataViewer.createConverterSetup( soc, WARPMAG_SOURCE_ID ) );
 		data.sources.add( ( SourceAndConverter ) soc );
 		return soc;
 	}
 
 	@SuppressWarnings( { "unchecked", "rawtypes" } )
-	private static < T > SourceAndConverter< FloatType > addGridSource( final BigWarpData< T > data, final String name )
+	private static < T > SourceAndConverter< FloatType > addGridSource( final BigWarpData< T > data, final String name, final SharedQueue queue )
 	{
 		// TODO think about whether its worth it to pass a type parameter.
 		// or should we just stick with Floats?
 
-		final GridSource< FloatType > gridSource = new GridSource<>( name, data, new FloatType(), null );
+		final GridSource< FloatType > gridSource = new GridSource<>( name, data, new FloatType(), null, queue );
 		final RealARGBColorConverter< FloatType > converter = RealARGBColorConverter.create( new FloatType(), 0, 512 );
 		converter.setColor( new ARGBType( 0xffffffff ) );
-		final SourceAndConverter< FloatType > soc = new SourceAndConverter<>( gridSource, converter, null );
+		final SourceAndConverter< FloatType > soc = new SourceAndConverter<>( gridSource, converter, volatileWarpVisSource( gridSource.getVolatileSource() ) );
 		data.converterSetups.add( BigDataViewer.createConverterSetup( soc, GRID_SOURCE_ID ) );
 		data.sources.add( ( SourceAndConverter ) soc );
 		return soc;
 	}
 
+	@SuppressWarnings( "unchecked" )
+	private static SourceAndConverter< VolatileFloatType > volatileWarpVisSource( final VolatileWarpVisualizationSource< FloatType, ? > source )
+	{
+		final RealARGBColorConverter< VolatileFloatType > converter = RealARGBColorConverter.create( new VolatileFloatType(), 0, 512 );
+		converter.setColor( new ARGBType( 0xffffffff ) );
+		return new SourceAndConverter<>( ( Source< VolatileFloatType > ) source, converter );
+	}
+
 	private static < T > SourceAndConverter< T > wrapSourceAsTransformed( final SourceAndConverter< T > src, final String name, final int ndims )
 	{
 		if ( src.asVolatile() == null )
@@ -1856,28 +2135,34 @@ public class BigWarp< T >
 
 	protected void fitBaselineWarpMagModel()
 	{
-		final int numActive = landmarkModel.numActive();
-		if( numActive < 4 )
-			return;
-
 		final int ndims = landmarkModel.getNumdims();
-		final double[][] p = new double[ ndims ][ numActive ];
-		final double[][] q = new double[ ndims ][ numActive ];
-		final double[] w = new double[ numActive ];
-
-		int k = 0;
-		for ( int i = 0; i < landmarkModel.getTransform().getNumLandmarks(); i++ )
+		final double[][] p;
+		final double[][] q;
+		final double[] w;
+		synchronized ( landmarkModel )
 		{
-			if ( landmarkModel.isActive( i ) )
-			{
-				w[ k ] = 1.0;
+			final int numActive = landmarkModel.numActive();
+			if( numActive < 4 )
+				return;
+
+			p = new double[ ndims ][ numActive ];
+			q = new double[ ndims ][ numActive ];
+			w = new double[ numActive ];
 
-				for ( int d = 0; d < ndims; d++ )
+			int k = 0;
+			for ( int i = 0; i < landmarkModel.getTransform().getNumLandmarks(); i++ )
+			{
+				if ( landmarkModel.isActive( i ) )
 				{
-					p[ d ][ k ] = landmarkModel.getMovingPoint( i )[ d ];
-					q[ d ][ k ] = landmarkModel.getFixedPoint( i )[ d ];
+					w[ k ] = 1.0;
+
+					for ( int d = 0; d < ndims; d++ )
+					{
+						p[ d ][ k ] = landmarkModel.getMovingPoint( i )[ d ];
+						q[ d ][ k ] = landmarkModel.getFixedPoint( i )[ d ];
+					}
+					k++;
 				}
-				k++;
 			}
 		}
 
@@ -2095,30 +2380,37 @@ public class BigWarp< T >
 		}
 	}
 
-	private synchronized void notifyTransformListeners( )
+	private synchronized void notifyTransformListeners( final InvertibleRealTransform transform )
 	{
 		for ( final TransformListener< InvertibleRealTransform > l : transformListeners )
-			l.transformChanged( currentTransform );
+			l.transformChanged( transform );
 	}
 
-	private void setTransformationAll( final InvertibleRealTransform transform )
+	/**
+	 * Updates the warp magnitude, jacobian determinant and grid sources with a
+	 * new transformation.
+	 *
+	 * @param transform the transformation
+	 */
+	private void setTransformationVisualizations( final InvertibleRealTransform transform )
 	{
-		setTransformationMovingSourceOnly( transform );
-
 		final WarpMagnitudeSource< ? > wmSrc = ( ( WarpMagnitudeSource< ? > ) warpMagSource.getSpimSource() );
 		final JacobianDeterminantSource< ? > jdSrc = ( ( JacobianDeterminantSource< ? > ) jacDetSource.getSpimSource() );
 		final GridSource< ? > gSrc = ( ( GridSource< ? > ) gridSource.getSpimSource() );
 
 		wmSrc.setWarp( transform );
 		fitBaselineWarpMagModel();
-	
-		if( transform instanceof ThinplateSplineTransform )
+
+		final InvertibleRealTransform exactTransform = ( transform instanceof GridInverseTransform ) ?
+				((GridInverseTransform)transform).getTransform() : transform;
+
+		if( exactTransform instanceof ThinplateSplineTransform )
 		{
-			jdSrc.setTransform( (ThinplateSplineTransform)transform );
+			jdSrc.setTransform( (ThinplateSplineTransform)exactTransform );
 		}
-		else if ( transform instanceof WrappedIterativeInvertibleRealTransform )
+		else if ( exactTransform instanceof WrappedIterativeInvertibleRealTransform )
 		{
-			jdSrc.setTransform( (ThinplateSplineTransform)((WrappedIterativeInvertibleRealTransform)transform).getTransform() );
+			jdSrc.setTransform( (ThinplateSplineTransform)((WrappedIterativeInvertibleRealTransform)exactTransform).getTransform() );
 		}
 		else
 			jdSrc.setTransform( null );
@@ -2154,7 +2446,8 @@ public class BigWarp< T >
 		viewerP.requestRepaint();
 		viewerQ.requestRepaint();
 
-		notifyTransformListeners();
+		// transform listeners are notified with the new transformation once
+		// it is solved, see SolveScheduler#followUp
 
 		return true;
 	}
@@ -2401,6 +2694,12 @@ public class BigWarp< T >
 
 		public final HashMap< SourceAndConverter<?>, ColorSettings > sourceColorSettings;
 
+		private final CacheControls cacheControls;
+
+		private N5SourceCache n5Cache;
+
+		private int numTimepoints = 1;
+
 		public BigWarpData( final List< SourceAndConverter< T > > sources, final List< ConverterSetup > converterSetups, final CacheControl cache, int[] movingSourceIndices, int[] targetSourceIndices )
 		{
 			this.sources = sources;
@@ -2412,15 +2711,61 @@ public class BigWarp< T >
 			this.targetSourceIndexList = new ArrayList<>();
 			
 
-			if ( cache == null )
-				this.cache = new CacheControl.Dummy();
-			else
-				this.cache = cache;
+			cacheControls = new CacheControls();
+			if ( cache != null )
+				cacheControls.addCacheControl( cache );
+			this.cache = cacheControls;
 
 			setupSettings = new HashMap<>();
 			sourceColorSettings = new HashMap<>();
 		}
 
+		/**
+		 * Returns the cache shared by all n5 sources of this data, creating it
+		 * on first use. It is part of {@link #cache}.
+		 *
+		 * @return the n5 source cache
+		 */
+		public synchronized N5SourceCache getN5Cache()
+		{
+			if ( n5Cache == null )
+			{
+				n5Cache = new N5SourceCache();
+				cacheControls.addCacheControl( n5Cache );
+			}
+			return n5Cache;
+		}
+
+		/**
+		 * @return the number of timepoints of the data, at least one
+		 */
+		public synchronized int getNumTimepoints()
+		{
+			return numTimepoints;
+		}
+
+		/**
+		 * Grows the number of timepoints to include those of a newly added
+		 * source.
+		 *
+		 * @param numTimepoints the number of timepoints of the source
+		 */
+		public synchronized void updateNumTimepoints( final int numTimepoints )
+		{
+			this.numTimepoints = Math.max( this.numTimepoints, numTimepoints );
+		}
+
+		/**
+		 * Adds a cache control, for example that of an image loader, to
+		 * {@link #cache}.
+		 *
+		 * @param cacheControl the cache control
+		 */
+		public void addCacheControl( final CacheControl cacheControl )
+		{
+			cacheControls.addCacheControl( cacheControl );
+		}
+
 		public void wrapUp()
 		{
 			movingSourceIndices = movingSourceIndexList.stream().mapToInt( x -> x ).toArray();
@@ -2585,6 +2930,9 @@ public class BigWarp< T >
 				return;
 			}
 
+			// the drag ended, drop its pending solves
+			solverThread.cancelDrag();
+
 			boolean wasNewRowAdded = false;
 
 			// deselect any point that may be selected
@@ -2878,6 +3226,29 @@ public class BigWarp< T >
 		return landmarkPanel.getTableModel().getTransform();
 	}
 
+	/**
+	 * The version of the transformation currently shown by the viewers.
+	 * Increases every time a newly solved transformation is published, so
+	 * renderers and listeners can tell whether what they hold is current.
+	 *
+	 * @return the transformation version
+	 */
+	public long getTransformVersion()
+	{
+		return solverThread.getVersion();
+	}
+
+	/**
+	 * Sets how long point drags are collected before the transformation is
+	 * solved again.
+	 *
+	 * @param millis the debounce interval in milliseconds
+	 */
+	public void setDragSolveDebounce( final long millis )
+	{
+		solverThread.setDragDebounce( millis );
+	}
+
 	public synchronized void addTransformListener( TransformListener< InvertibleRealTransform > listener )
 	{
 		transformListeners.add( listener );
@@ -2932,22 +3303,115 @@ public class BigWarp< T >
 //		return invXfm;
 //	}
 
-	public static class SolveThread extends Thread
+	/**
+	 * Solves for new transformations off the event dispatch thread.
+	 * <p>
+	 * Requests are coalesced by kind: a full re-estimation ({@code index < 0})
+	 * is never replaced by a point drag, and of several drag requests only the
+	 * latest one is solved. Drag requests are collected for a configurable
+	 * debounce interval before solving. A full request supersedes every older
+	 * request, so that a solve older than the latest full request is never
+	 * published. Drag requests still pending when the drag ends are dropped,
+	 * see {@link #cancelDrag()}.
+	 * <p>
+	 * Every published transformation gets a new, increasing version number, see
+	 * {@link #getVersion()}.
+	 * <p>
+	 * A full solve is published to the moving sources right away. Updating the
+	 * warped positions of landmarks, transform listeners, and the warp
+	 * visualization sources follows asynchronously on a small worker pool, so
+	 * the latency of the viewers depends only on the solve. These follow-up
+	 * stages are skipped if a newer full solve was published in the meantime.
+	 */
+	public static class SolveScheduler extends Thread
 	{
-		private boolean pleaseResolve;
+		public static final long DEFAULT_DRAG_DEBOUNCE_MILLIS = 10;
 
-		private BigWarp<?> bw;
+		private final BigWarp<?> bw;
 
-		private boolean isMoving;
+		private final AtomicLong version;
+
+		private volatile long dragDebounceMillis;
+
+		/*
+		 * pending requests, guarded by this
+		 */
+		private boolean fullPending;
+
+		private boolean dragPending;
+
+		private boolean dragIsMoving;
+
+		private int dragIndex;
+
+		private double[] dragPt;
+
+		private long dragRequestTime;
+
+		/*
+		 * generations of the newest requests of each kind
+		 */
+		private long generation;
 
-		private int index;
+		private volatile long fullGeneration;
 
-		private double[] pt;
+		private volatile long dragGeneration;
 
-		public SolveThread( final BigWarp<?> bw )
+		/*
+		 * updates that follow a full solve, run after the new transformation
+		 * was published to the viewers
+		 */
+		private final ExecutorService followUp;
+
+		private final AtomicLong fullVersion;
+
+		private final Object landmarkStageLock = new Object();
+
+		private final Object visualizationStageLock = new Object();
+
+		/*
+		 * whether the last drag solve was dropped as obsolete, so that
+		 * a steady stream of drag requests can not starve the viewers
+		 */
+		private boolean dragDropped;
+
+		public SolveScheduler( final BigWarp<?> bw )
 		{
+			super( "BigWarp solver" );
 			this.bw = bw;
-			pleaseResolve = false;
+			version = new AtomicLong();
+			fullVersion = new AtomicLong();
+			dragDebounceMillis = DEFAULT_DRAG_DEBOUNCE_MILLIS;
+
+			followUp = Executors.newFixedThreadPool( 2, r -> {
+				final Thread t = new Thread( r, "BigWarp solve follow-up" );
+				t.setDaemon( true );
+				return t;
+			} );
+		}
+
+		/**
+		 * @return the version of the last published transformation, zero if
+		 *         none was published yet
+		 */
+		public long getVersion()
+		{
+			return version.get();
+		}
+
+		/**
+		 * Sets how long drag requests are collected before a solve starts.
+		 *
+		 * @param millis the debounce interval in milliseconds
+		 */
+		public void setDragDebounce( final long millis )
+		{
+			dragDebounceMillis = Math.max( 0, millis );
+		}
+
+		public long getDragDebounce()
+		{
+			return dragDebounceMillis;
 		}
 
 		@Override
@@ -2955,92 +3419,217 @@ public class BigWarp< T >
 		{
 			while ( !isInterrupted() )
 			{
-				final boolean b;
+				final boolean full;
+				final long gen;
+				final boolean isMoving;
+				final int index;
+				final double[] pt;
 				synchronized ( this )
-				{
-					b = pleaseResolve;
-					pleaseResolve = false;
-				}
-				if ( b )
 				{
 					try
 					{
-						InvertibleRealTransform invXfm = bw.bwTransform.getTransformation( index );
-
-						if ( invXfm == null )
-							return;
-
-						if ( index < 0 )
+						if ( !fullPending && !dragPending )
 						{
-							// reset active warped points
-							bw.landmarkModel.resetWarpedPoints();
-
-							// re-compute all warped points for non-active points
-							bw.landmarkModel.updateAllWarpedPoints( bw.currentTransform );
-
-							// update sources with the new transformation
-							bw.setTransformationAll( invXfm );
-							bw.fitBaselineWarpMagModel();
+							wait();
+							continue;
 						}
-						else
+
+						if ( !fullPending )
 						{
-							// update the transform and warped point
-							bw.setTransformationMovingSourceOnly( invXfm );
+							final long remaining = dragRequestTime + dragDebounceMillis - System.currentTimeMillis();
+							if ( remaining > 0 )
+							{
+								wait( remaining );
+								continue;
+							}
 						}
-
-						// update fixed point - but don't allow undo/redo
-						// and update warped point
-						// both for rendering purposes
-						if ( !isMoving )
-							bw.getLandmarkPanel().getTableModel().setPoint( index, isMoving, pt, false, bw.currentTransform );
-
-						/*
-						 * repaint both panels so that: 
-						 * 1) new transform is displayed
-						 * 2) points are rendered
-						 */
-						bw.getViewerFrameP().getViewerPanel().requestRepaint();
-						bw.getViewerFrameQ().getViewerPanel().requestRepaint();
-
-//						bw.notifyTransformListeners();
+					}
+					catch ( final InterruptedException e )
+					{
+						break;
 					}
 
-					catch ( final RejectedExecutionException e )
+					full = fullPending;
+					if ( full )
 					{
-						// this happens when the rendering threadpool
-						// is killed before the painter thread.
+						// drag requests older than the full request are obsolete
+						fullPending = false;
+						if ( dragGeneration < fullGeneration )
+							dragPending = false;
+						gen = fullGeneration;
+						isMoving = true;
+						index = -1;
+						pt = null;
+					}
+					else
+					{
+						dragPending = false;
+						gen = dragGeneration;
+						isMoving = dragIsMoving;
+						index = dragIndex;
+						pt = dragPt;
 					}
 				}
 
-				synchronized ( this )
+				try
 				{
-					try
-					{
-						if ( !pleaseResolve )
-							wait();
-					}
-					catch ( final InterruptedException e )
+					final InvertibleRealTransform invXfm = bw.bwTransform.getTransformation( index );
+					if ( invXfm == null )
+						continue;
+
+					if ( isObsolete( full, gen ) )
+						continue;
+
+					// publish the transformation to the renderers first
+					bw.setTransformationMovingSourceOnly( invXfm );
+					final long v = version.incrementAndGet();
+
+					if ( full )
 					{
-						break;
+						fullVersion.set( v );
+						followUp( v, invXfm );
 					}
+
+					// update fixed point - but don't allow undo/redo
+					// and update warped point
+					// both for rendering purposes
+					if ( !isMoving )
+						bw.getLandmarkPanel().getTableModel().setPoint( index, isMoving, pt, false, invXfm );
+
+					/*
+					 * repaint both panels so that:
+					 * 1) new transform is displayed
+					 * 2) points are rendered
+					 */
+					bw.getViewerFrameP().getViewerPanel().requestRepaint();
+					bw.getViewerFrameQ().getViewerPanel().requestRepaint();
+				}
+				catch ( final RejectedExecutionException e )
+				{
+					// this happens when the rendering threadpool
+					// is killed before the painter thread.
+				}
+				catch ( final RuntimeException e )
+				{
+					// keep the solver alive for the next request
+					e.printStackTrace();
 				}
 			}
+			followUp.shutdownNow();
+		}
+
+		private void followUp( final long v, final InvertibleRealTransform invXfm )
+		{
+			followUp.execute( () -> runStage( landmarkStageLock, v, () -> {
+				// reset active warped points, the warped points of
+				// non-active points are re-computed by the landmark model
+				// when transform listeners are notified. The landmark model
+				// synchronizes these edits with the solver's setPoint
+				bw.landmarkModel.resetWarpedPoints();
+				bw.notifyTransformListeners( invXfm );
+			} ) );
+
+			followUp.execute( () -> runStage( visualizationStageLock, v, () -> {
+				bw.setTransformationVisualizations( invXfm );
+			} ) );
 		}
 
+		/**
+		 * Runs a follow-up stage unless a newer full solve was published. Stages
+		 * of the same kind hold the same lock so that an older stage can never
+		 * finish after a newer one.
+		 */
+		private void runStage( final Object lock, final long v, final Runnable stage )
+		{
+			synchronized ( lock )
+			{
+				if ( fullVersion.get() != v )
+					return;
+
+				try
+				{
+					stage.run();
+				}
+				catch ( final RejectedExecutionException e )
+				{
+					return;
+				}
+				catch ( final RuntimeException e )
+				{
+					e.printStackTrace();
+					return;
+				}
+			}
+
+			bw.getViewerFrameP().getViewerPanel().requestRepaint();
+			bw.getViewerFrameQ().getViewerPanel().requestRepaint();
+		}
+
+		/**
+		 * Checks whether a newer request arrived while solving. Any solve older
+		 * than the latest full request is obsolete. A drag solve is also
+		 * superseded by a newer drag, but never twice in a row so that the
+		 * viewers follow a long drag.
+		 */
+		private synchronized boolean isObsolete( final boolean full, final long gen )
+		{
+			if ( fullGeneration > gen )
+				return true;
+
+			if ( full )
+				return false;
+
+			dragDropped = !dragDropped && dragGeneration > gen;
+			return dragDropped;
+		}
+
+		/**
+		 * Drops pending drag requests, and makes a drag solve that is running
+		 * obsolete. Called when a drag ends, after which the final point
+		 * position is written to the table and solved in full, so that a late
+		 * drag solve can not overwrite either.
+		 */
+		public synchronized void cancelDrag()
+		{
+			dragPending = false;
+			dragDropped = false;
+			dragGeneration = ++generation;
+		}
+
+		/**
+		 * Requests a new solve.
+		 *
+		 * @param isMoving whether a moving point was changed
+		 * @param index the landmark index being dragged, or a negative value
+		 *            to re-estimate the full transformation
+		 * @param newpt the new position of the dragged point, may be null for
+		 *            a full re-estimation
+		 */
 		public void requestResolve( final boolean isMoving, final int index, final double[] newpt )
 		{
 			synchronized ( this )
 			{
-				pleaseResolve = true;
-				this.isMoving = isMoving;
-				this.index = index;
-				if ( newpt != null )
-					this.pt = Arrays.copyOf( newpt, newpt.length );
+				if ( index < 0 )
+				{
+					fullPending = true;
+					fullGeneration = ++generation;
+				}
+				else
+				{
+					if ( !dragPending )
+						dragRequestTime = System.currentTimeMillis();
+
+					dragPending = true;
+					dragIsMoving = isMoving;
+					dragIndex = index;
+					if ( newpt != null )
+						dragPt = Arrays.copyOf( newpt, newpt.length );
+					dragGeneration = ++generation;
+				}
 
 				notify();
 			}
 		}
-		
 	}
 
 	/**
@@ -3222,6 +3811,54 @@ public class BigWarp< T >
 		landmarkFrame.repaint();
 	}
 
+	/**
+	 * Asks for a folder written by a {@link BigWarpAutoSaver}, and restores
+	 * its landmarks.
+	 */
+	protected void recoverAutoSavedLandmarks()
+	{
+		final File baseFolder = autoSaveDirectory != null ? autoSaveDirectory : getBigwarpSettingsFolder();
+		final JFileChooser fileChooser = new JFileChooser( baseFolder );
+		fileChooser.setFileSelectionMode( JFileChooser.DIRECTORIES_ONLY );
+		fileChooser.setDialogTitle( "Recover auto-saved landmarks" );
+
+		final int returnVal = fileChooser.showOpenDialog( null );
+		if ( returnVal == JFileChooser.APPROVE_OPTION )
+			recoverAutoSavedLandmarks( fileChooser.getSelectedFile() );
+	}
+
+	/**
+	 * Restores the landmarks auto-saved to a folder by a {@link BigWarpAutoSaver},
+	 * including the edits made after the last snapshot.
+	 *
+	 * @param folder the folder
+	 */
+	public void recoverAutoSavedLandmarks( final File folder )
+	{
+		try
+		{
+			final LandmarkColumns landmarks = LandmarkJournal.recover( folder );
+			if ( landmarks == null )
+			{
+				message.showMessage( "No auto-saved landmarks in " + folder.getName() );
+				return;
+			}
+			landmarkModel.load( landmarks, false );
+		}
+		catch ( final IOException e )
+		{
+			e.printStackTrace();
+			return;
+		}
+
+		if ( !restimateTransformation() )
+			setIsMovingDisplayTransformed( false );
+
+		viewerP.requestRepaint();
+		viewerQ.requestRepaint();
+		landmarkFrame.repaint();
+	}
+
 	protected void saveSettings()
 	{
 		final JFileChooser fileChooser = new JFileChooser( getLastDirectory() );
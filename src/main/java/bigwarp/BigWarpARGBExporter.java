@@ -16,15 +16,11 @@ import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealRandomAccess;
-import net.imglib2.RealRandomAccessible;
 import net.imglib2.exception.ImgLibException;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.img.imageplus.ImagePlusImg;
 import net.imglib2.img.imageplus.ImagePlusImgFactory;
-import net.imglib2.realtransform.AffineGet;
-import net.imglib2.realtransform.AffineRandomAccessible;
 import net.imglib2.realtransform.AffineTransform3D;
-import net.imglib2.realtransform.RealViews;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.NumericType;
@@ -34,6 +30,7 @@ import bdv.export.ProgressWriter;
 import bdv.tools.brightness.ConverterSetup;
 import bdv.viewer.ConverterSetups;
 import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
 
 public class BigWarpARGBExporter extends BigWarpExporter<ARGBType>
@@ -94,13 +91,7 @@ public class BigWarpARGBExporter extends BigWarpExporter<ARGBType>
 		for ( int i = 0; i < numChannels; i++ )
 		{
 			int movingSourceIndex = movingSourceIndexList[ i ];
-			final RealRandomAccessible< ARGBType > raiRaw = ( RealRandomAccessible< ARGBType > )sources.get( movingSourceIndex ).getSpimSource().getInterpolatedSource( 0, 0, interp );
-
-			// apply the transformations
-			final AffineRandomAccessible< ARGBType, AffineGet > rai = RealViews.affine( 
-					raiRaw, pixelRenderToPhysical.inverse() );
-
-			raiList.add( Views.interval( Views.raster( rai ), outputInterval ) );
+			raiList.add( rasterize( ( Source< ARGBType > )sources.get( movingSourceIndex ).getSpimSource() ) );
 		}
 		RandomAccessibleInterval< ARGBType > raiStack = Views.stack( raiList );
 
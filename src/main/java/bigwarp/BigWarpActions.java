@@ -60,6 +60,7 @@ public class BigWarpActions
 	public static final String LOAD_LANDMARKS = "load landmarks";
 	public static final String SAVE_LANDMARKS = "save landmarks";
 	public static final String QUICK_SAVE_LANDMARKS = "quick save landmarks";
+	public static final String RECOVER_AUTOSAVE = "recover auto-saved landmarks";
 
 	public static final String LANDMARK_GRID_DIALOG = "landmark grid dialog";
 
@@ -296,6 +297,7 @@ public class BigWarpActions
 		new LoadLandmarksAction( bw ).put( actionMap );
 		new SaveLandmarksAction( bw ).put( actionMap );
 		new QuickSaveLandmarksAction( bw ).put( actionMap );
+		new RecoverAutoSaveAction( bw ).put( actionMap );
 
 		new LandmarkGridDialogAction( bw ).put( actionMap );
 
@@ -1018,6 +1020,22 @@ public class BigWarpActions
 		}
 	}
 
+	public static class RecoverAutoSaveAction extends AbstractNamedAction
+	{
+		private static final long serialVersionUID = 2730681452397312950L;
+		BigWarp< ? > bw;
+		public RecoverAutoSaveAction( final BigWarp< ? > bw )
+		{
+			super( RECOVER_AUTOSAVE );
+			this.bw = bw;
+		}
+		@Override
+		public void actionPerformed( ActionEvent e )
+		{
+			bw.recoverAutoSavedLandmarks();
+		}
+	}
+
 	public static class SaveLandmarksAction extends AbstractNamedAction
 	{
 		private static final long serialVersionUID = 7897687176745034315L;
@@ -2,26 +2,75 @@ package bigwarp;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.function.Supplier;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import bigwarp.landmarks.LandmarkColumns;
+import bigwarp.landmarks.LandmarkJournal;
+import bigwarp.landmarks.LandmarkJournal.Edit;
+import bigwarp.landmarks.LandmarkJournal.Row;
 import bigwarp.landmarks.LandmarkTableModel;
 
 /**
- * Saves bigwarp landmarks to a file periodically, 
+ * Saves bigwarp landmarks periodically, 
  * but only if modification has occured since the last save.
+ * <p>
+ * Edits of the landmark table are captured as copies of the changed rows
+ * when they happen, and appended to a {@link LandmarkJournal} by a background
+ * thread, so saving never reads the table while it is being edited and costs
+ * time proportional to the number of edits since the last save. The journal
+ * is compacted into a new snapshot once it holds more edits than the table
+ * has rows.
+ * <p>
+ * Every auto-saver writes into a new folder in the auto-save folder, that
+ * can be restored with {@link BigWarp#recoverAutoSavedLandmarks(File)}, or
+ * from the "Recover auto-saved landmarks" item of the file menu. Only the
+ * {@link #MAX_FOLDERS} most recent folders are kept.
  * 
  * @author John Bogovic
  *
  */
 public class BigWarpAutoSaver 
 {
+	public static final String FOLDER_PREFIX = "bigwarp_autosave_";
+
+	/**
+	 * Journals shorter than this are never compacted.
+	 */
+	public static final int MIN_COMPACTION_RECORDS = 1024;
+
+	/**
+	 * The number of auto-save folders kept, older folders are deleted when
+	 * an auto-saver writes its first snapshot.
+	 */
+	public static final int MAX_FOLDERS = 10;
+
 	private final BigWarp<?> bw;
 
-	final Timer timer;
+	private final LandmarkTableModel ltm;
+
+	private final ScheduledExecutorService executor;
+
+	private final TableModelListener listener;
+
+	private final List< Edit > pending;
+
+	private final String folderName;
+
+	private LandmarkColumns initialLandmarks;
 
-	final AutoSave saveTask;
+	private LandmarkJournal journal;
+
+	private boolean stopped;
 
 	final long period;
 
@@ -30,9 +79,26 @@ public class BigWarpAutoSaver
 		this.bw = bw;
 		this.period = period;
 		bw.autoSaver = this;
-		timer = new Timer();
-		saveTask = new AutoSave();
-		timer.schedule( saveTask, period, period );
+		ltm = bw.getLandmarkPanel().getTableModel();
+		pending = new ArrayList<>();
+		folderName = FOLDER_PREFIX + new SimpleDateFormat( "yyyyMMdd-HHmmss" ).format( Calendar.getInstance().getTime() );
+
+		executor = Executors.newSingleThreadScheduledExecutor( r -> {
+			final Thread t = new Thread( r, "bigwarp-autosave" );
+			t.setDaemon( true );
+			return t;
+		} );
+
+		// the snapshot is consistent with the edits captured from here on,
+		// as the table can not be edited in between
+		listener = this::tableChanged;
+		synchronized ( ltm )
+		{
+			initialLandmarks = ltm.toColumns();
+			ltm.addTableModelListener( listener );
+		}
+
+		executor.scheduleAtFixedRate( this::save, period, period, TimeUnit.MILLISECONDS );
 	}
 
 	public long getPeriod()
@@ -40,30 +106,200 @@ public class BigWarpAutoSaver
 		return period;
 	}
 
-	public void stop()
+	/**
+	 * Stops saving, after writing the edits made so far. Does nothing if
+	 * already stopped.
+	 */
+	public synchronized void stop()
+	{
+		if ( stopped )
+			return;
+
+		stopped = true;
+		ltm.removeTableModelListener( listener );
+		executor.execute( () -> {
+			save();
+			try
+			{
+				if ( journal != null )
+					journal.close();
+			}
+			catch ( final IOException e ) { e.printStackTrace(); }
+		} );
+		executor.shutdown();
+	}
+
+	/**
+	 * @return the folder the landmarks are saved to
+	 */
+	public File getFolder()
 	{
-		saveTask.cancel();
-		timer.cancel();
+		final File baseFolder = bw.autoSaveDirectory != null ? bw.autoSaveDirectory : bw.getBigwarpSettingsFolder();
+		return new File( baseFolder, folderName );
 	}
 
-	private class AutoSave extends TimerTask 
+	/*
+	 * Copies the rows changed by an event, on the thread that changed them.
+	 * The rows are copied under the table's lock, as solver threads edit the
+	 * table too. The table's lock is always taken before the pending edits'.
+	 */
+	private void tableChanged( final TableModelEvent e )
 	{
-		@Override
-		public void run()
+		synchronized ( ltm )
 		{
-			LandmarkTableModel ltm = bw.getLandmarkPanel().getTableModel();
-			if( ltm.isModifiedSinceSave() )
+			synchronized ( pending )
 			{
-//				try
-//				{
-					bw.autoSaveLandmarks();
-//					ltm.save( fileSupplier.get() );
-//				}
-//				catch ( IOException e ) { e.printStackTrace(); }
+				addEdits( e );
 			}
 		}
 	}
+
+	private void addEdits( final TableModelEvent e )
+	{
+		final int first = e.getFirstRow();
+		final int last = e.getLastRow();
+		if ( first == TableModelEvent.HEADER_ROW || last == Integer.MAX_VALUE )
+		{
+			pending.add( Edit.reset( ltm.toColumns() ) );
+			return;
+		}
+
+		switch ( e.getType() )
+		{
+		case TableModelEvent.INSERT:
+			for ( int i = first; i <= last; i++ )
+				pending.add( Edit.insert( i, Row.from( ltm, i ) ) );
+			break;
+		case TableModelEvent.DELETE:
+			for ( int i = first; i <= last; i++ )
+				pending.add( Edit.delete( first ) );
+			break;
+		default:
+			for ( int i = first; i <= last; i++ )
+				addUpdate( i, Row.from( ltm, i ) );
+		}
+	}
+
+	/*
+	 * Replaces the last pending edit if it is of the same row, as a point edit
+	 * fires one event per coordinate.
+	 */
+	private void addUpdate( final int row, final Row value )
+	{
+		final int n = pending.size();
+		if ( n > 0 )
+		{
+			final Edit last = pending.get( n - 1 );
+			if ( last.row == row && last.type == Edit.UPDATE )
+			{
+				pending.set( n - 1, Edit.update( row, value ) );
+				return;
+			}
+			else if ( last.row == row && last.type == Edit.INSERT )
+			{
+				pending.set( n - 1, Edit.insert( row, value ) );
+				return;
+			}
+		}
+		pending.add( Edit.update( row, value ) );
+	}
+
+	/*
+	 * Writes the initial snapshot, retried on the next save if the folder can
+	 * not be written.
+	 */
+	private boolean createJournal( final File folder )
+	{
+		try
+		{
+			journal = new LandmarkJournal( folder, initialLandmarks );
+			initialLandmarks = null;
+			pruneFolders( folder.getParentFile(), MAX_FOLDERS );
+			return true;
+		}
+		catch ( final IOException e )
+		{
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/*
+	 * Writes the pending edits, runs on the executor. Never throws, as an
+	 * exception would cancel all future saves.
+	 */
+	private void save()
+	{
+		try
+		{
+			writePendingEdits();
+		}
+		catch ( final Throwable e )
+		{
+			e.printStackTrace();
+		}
+	}
+
+	private void writePendingEdits()
+	{
+		final File folder = getFolder();
+		if ( journal == null && !createJournal( folder ) )
+			return;
+
+		final List< Edit > edits;
+		synchronized ( pending )
+		{
+			edits = new ArrayList<>( pending );
+			pending.clear();
+		}
+
+		try
+		{
+			if ( !edits.isEmpty() )
+				journal.append( edits );
+
+			if ( !journal.getFolder().equals( folder ) )
+			{
+				// the auto-save folder was changed
+				final LandmarkJournal moved = new LandmarkJournal( folder, journal.getLandmarks() );
+				journal.close();
+				journal = moved;
+			}
+			else if ( journal.numRecords() > Math.max( MIN_COMPACTION_RECORDS, journal.size() ) )
+				journal.compact();
+		}
+		catch ( final IOException e ) { e.printStackTrace(); }
+	}
 	
+	/**
+	 * Deletes all but the most recent auto-save folders in a folder. The
+	 * folder names end with the time they were created, so the most recent
+	 * folders are the last ones in lexicographic order.
+	 *
+	 * @param baseFolder the folder containing the auto-save folders
+	 * @param numKept the number of folders to keep
+	 */
+	public static void pruneFolders( final File baseFolder, final int numKept )
+	{
+		final File[] folders = baseFolder == null ? null :
+				baseFolder.listFiles( f -> f.isDirectory() && f.getName().startsWith( FOLDER_PREFIX ) );
+		if ( folders == null || folders.length <= numKept )
+			return;
+
+		Arrays.sort( folders, ( a, b ) -> a.getName().compareTo( b.getName() ) );
+		for ( int i = 0; i < folders.length - numKept; i++ )
+		{
+			// auto-save folders only contain files
+			final File[] files = folders[ i ].listFiles();
+			if ( files != null )
+				for ( final File f : files )
+					f.delete();
+
+			if ( !folders[ i ].delete() )
+				System.err.println( "Could not delete old auto-save folder " + folders[ i ] );
+		}
+	}
+
 	public static void setAutosaveOptions( final BigWarp<?> bw, final long period, final String autoSavePath )
 	{
 		bw.setAutosaveFolder( new File( autoSavePath ) );
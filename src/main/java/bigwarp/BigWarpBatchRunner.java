@@ -0,0 +1,494 @@
+package bigwarp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import org.janelia.saalfeldlab.n5.ij.N5Exporter;
+import org.janelia.utility.parse.ParseUtils;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.opencsv.CSVWriter;
+
+import bdv.gui.TransformTypeSelectDialog;
+import bdv.ij.ApplyBigwarpPlugin;
+import bdv.viewer.Interpolation;
+import bigwarp.landmarks.LandmarkTableModel;
+import bigwarp.loader.N5SourceCache;
+import bigwarp.transforms.BigWarpTransform;
+import bigwarp.transforms.SolvedTpsCache;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.InvertibleRealTransform;
+
+/**
+ * Runs many transform jobs in one process.
+ * <p>
+ * The jobs are read from a manifest, a text file with one job per line and
+ * tab separated columns:
+ * <pre>
+ * landmarks  image  output  dimensions  [spacing  [offset  [dataset]]]
+ * </pre>
+ * where dimensions, spacing and offset are comma separated, e.g.
+ * "512,512,100", and optional columns may be "-". Empty lines and lines
+ * starting with # are skipped. The image is a dataset of an n5 / zarr / hdf5
+ * container if a dataset is given, and outputs are written as in
+ * {@link BigWarpStreamingTransform}.
+ * <p>
+ * Transforms are solved once per landmark file content, and images are opened
+ * once per path, no matter how many jobs use them. Jobs run concurrently and
+ * share one pool of rendering threads. The time spent by every job is written
+ * to a csv report.
+ */
+public class BigWarpBatchRunner
+{
+	public static final String[] REPORT_HEADER = new String[] {
+			"job", "landmarks", "image", "output", "status",
+			"solve_ms", "load_ms", "write_ms", "total_ms", "transform_cached", "image_cached", "message" };
+
+	private transient JCommander jCommander;
+
+	@Parameter(names = {"--manifest", "-m"}, description = "Job manifest file", required = true )
+	private String manifestPath;
+
+	@Parameter(names = {"--report", "-r"}, description = "Output csv report (default: <manifest>.report.csv)" )
+	private String reportPath;
+
+	@Parameter(names = {"--threads", "-j"}, description = "Number of rendering threads shared by all jobs" )
+	private int nThreads = Runtime.getRuntime().availableProcessors();
+
+	@Parameter(names = {"--jobs"}, description = "Number of jobs to run concurrently" )
+	private int nJobs = 2;
+
+	@Parameter(names = {"--cache-mb"}, description = "Size of the input caches in megabytes" )
+	private long cacheMb = 1024;
+
+	@Parameter(names = {"--max-images"}, description = "Maximum number of image files kept open" )
+	private int maxImages = 4;
+
+	@Parameter(names = {"--transform-type"}, description = "Transform type, e.g. \"Thin Plate Spline\", \"Affine\"" )
+	private String transformType = TransformTypeSelectDialog.TPS;
+
+	@Parameter(names = {"--interpolation", "-p"}, description = "Interpolation Type {NLINEAR,NEARESTNEIGHBOR}" )
+	private String interpType = "NLINEAR";
+
+	@Parameter(names = {"--out-dataset"}, description = "Output dataset, if outputs are containers" )
+	private String outputDataset = "warped";
+
+	@Parameter(names = {"--block-size"}, description = "Output block size for containers, e.g. \"64,64,64\"" )
+	private String blockSizeArg = "64";
+
+	@Parameter(names = {"--tile-size"}, description = "Output tile size for tif files, a multiple of 16" )
+	private int tileSize = 512;
+
+	@Parameter(names = {"--compression"}, description = "Output compression for containers {gzip,raw,lz4,xz,blosc}" )
+	private String compressionArg = N5Exporter.GZIP_COMPRESSION;
+
+	@Parameter(names = {"--solved-cache"}, description = "Folder of solved thin plate splines, reused across runs (optional)" )
+	private String solvedCachePath;
+
+	@Parameter(names = {"--help", "-h"}, help = true)
+	private boolean help;
+
+	private final ConcurrentHashMap< String, CompletableFuture< InvertibleRealTransform > > transforms = new ConcurrentHashMap<>();
+
+	/*
+	 * image files in access order, guarded by itself
+	 */
+	private final LinkedHashMap< String, CompletableFuture< MovingImage > > images = new LinkedHashMap< String, CompletableFuture< MovingImage > >( 16, 0.75f, true )
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry< String, CompletableFuture< MovingImage > > eldest )
+		{
+			return size() > maxImages;
+		}
+	};
+
+	private N5SourceCache n5Cache;
+
+	private SolvedTpsCache solvedCache;
+
+	private CSVWriter report;
+
+	public static void main( final String[] args ) throws IOException
+	{
+		final BigWarpBatchRunner runner = new BigWarpBatchRunner();
+		runner.jCommander = new JCommander( runner );
+		runner.jCommander.setProgramName( "transformBatchJobs" );
+		try
+		{
+			runner.jCommander.parse( args );
+		}
+		catch ( final Exception e )
+		{
+			e.printStackTrace();
+			runner.jCommander.usage();
+			return;
+		}
+
+		if ( runner.help )
+		{
+			runner.jCommander.usage();
+			return;
+		}
+
+		runner.run( readManifest( new File( runner.manifestPath ) ) );
+	}
+
+	/**
+	 * Reads a job manifest.
+	 *
+	 * @param f the manifest file
+	 * @return the jobs
+	 * @throws IOException if the file can not be read or a line is malformed
+	 */
+	public static List< Job > readManifest( final File f ) throws IOException
+	{
+		final List< Job > jobs = new ArrayList<>();
+		try ( final BufferedReader reader = Files.newBufferedReader( f.toPath(), StandardCharsets.UTF_8 ) )
+		{
+			String line;
+			int lineNumber = 0;
+			while ( ( line = reader.readLine() ) != null )
+			{
+				lineNumber++;
+				final String trimmed = line.trim();
+				if ( trimmed.isEmpty() || trimmed.startsWith( "#" ) )
+					continue;
+
+				final String[] cols = line.split( "\t" );
+				if ( cols.length < 4 )
+					throw new IOException( "Line " + lineNumber + " of " + f + " has fewer than four columns" );
+
+				try
+				{
+					jobs.add( new Job( jobs.size(),
+							cols[ 0 ].trim(),
+							cols[ 1 ].trim(),
+							column( cols, 6 ),
+							cols[ 2 ].trim(),
+							ParseUtils.parseLongArray( cols[ 3 ].trim() ),
+							column( cols, 4 ) == null ? null : ParseUtils.parseDoubleArray( column( cols, 4 ) ),
+							column( cols, 5 ) == null ? null : ParseUtils.parseDoubleArray( column( cols, 5 ) ) ) );
+				}
+				catch ( final NumberFormatException e )
+				{
+					throw new IOException( "Line " + lineNumber + " of " + f + " is malformed", e );
+				}
+			}
+		}
+		return jobs;
+	}
+
+	private static String column( final String[] cols, final int i )
+	{
+		if ( i >= cols.length )
+			return null;
+
+		final String c = cols[ i ].trim();
+		return c.isEmpty() || c.equals( "-" ) ? null : c;
+	}
+
+	/**
+	 * Runs the jobs and writes the report.
+	 *
+	 * @param jobs the jobs
+	 * @throws IOException if the report can not be written
+	 */
+	public void run( final List< Job > jobs ) throws IOException
+	{
+		final long startTime = System.currentTimeMillis();
+		final long cacheBytes = cacheMb << 20;
+
+		// half of the cache for container blocks, the rest for the planes of image files
+		n5Cache = new N5SourceCache( cacheBytes / 2, 1 );
+		solvedCache = solvedCachePath != null ? new SolvedTpsCache( new File( solvedCachePath ) ) : null;
+		final long planeCacheBytes = cacheBytes / 2 / Math.max( 1, maxImages );
+
+		final File reportFile = new File( reportPath != null ? reportPath : manifestPath + ".report.csv" );
+		final ExecutorService renderExec = Executors.newFixedThreadPool( Math.max( 1, nThreads ) );
+		final ExecutorService jobExec = Executors.newFixedThreadPool( Math.max( 1, nJobs ) );
+		try ( final CSVWriter csv = new CSVWriter( new FileWriter( reportFile ) ) )
+		{
+			report = csv;
+			csv.writeNext( REPORT_HEADER );
+
+			final List< Future< ? > > futures = new ArrayList<>();
+			for ( final Job job : jobs )
+				futures.add( jobExec.submit( () -> runJob( job, planeCacheBytes, renderExec ) ) );
+
+			for ( final Future< ? > f : futures )
+			{
+				try
+				{
+					f.get();
+				}
+				catch ( final InterruptedException | ExecutionException e )
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+		finally
+		{
+			jobExec.shutdown();
+			renderExec.shutdown();
+			report = null;
+		}
+
+		System.out.println( "ran " + jobs.size() + " jobs in " + ( System.currentTimeMillis() - startTime ) + "ms" );
+		System.out.println( "report: " + reportFile );
+	}
+
+	private void runJob( final Job job, final long planeCacheBytes, final ExecutorService renderExec )
+	{
+		final JobTiming timing = new JobTiming();
+		final long start = System.currentTimeMillis();
+		try
+		{
+			final int nd = job.dims.length;
+			if ( nd != 3 && nd != 2 )
+				throw new IllegalArgumentException( "For 2D or 3D use only" );
+
+			long t = System.currentTimeMillis();
+			final String transformKey = landmarkHash( new File( job.landmarks ) ) + ":" + transformType + ":" + nd;
+			final CompletableFuture< InvertibleRealTransform > xfmFuture = new CompletableFuture<>();
+			final CompletableFuture< InvertibleRealTransform > existingXfm = transforms.putIfAbsent( transformKey, xfmFuture );
+			timing.transformCached = existingXfm != null;
+			final InvertibleRealTransform xfm = resolve( existingXfm != null ? existingXfm : xfmFuture, existingXfm == null,
+					() -> solve( job.landmarks, nd ) );
+			timing.solveMillis = System.currentTimeMillis() - t;
+
+			t = System.currentTimeMillis();
+			final String imageKey = job.image + ":" + job.dataset;
+			final CompletableFuture< MovingImage > imgFuture = new CompletableFuture<>();
+			final CompletableFuture< MovingImage > existingImg;
+			synchronized ( images )
+			{
+				existingImg = images.get( imageKey );
+				if ( existingImg == null )
+					images.put( imageKey, imgFuture );
+			}
+			timing.imageCached = existingImg != null;
+			final MovingImage img = resolve( existingImg != null ? existingImg : imgFuture, existingImg == null,
+					() -> open( job.image, job.dataset, planeCacheBytes ) );
+			timing.loadMillis = System.currentTimeMillis() - t;
+
+			t = System.currentTimeMillis();
+			final double[] spacing = BigWarpStreamingTransform.fill( job.spacing, 1.0 );
+			final double[] offset = BigWarpStreamingTransform.fill( job.offset, 0.0 );
+			final RandomAccessibleInterval< ? > output = BigWarpStreamingTransform.render( img.img, img.sourceTransform,
+					xfm.copy(), job.dims, spacing, offset, Interpolation.valueOf( interpType ) );
+			BigWarpStreamingTransform.write( output, nd, job.output, outputDataset, spacing, offset,
+					ApplyBigwarpPlugin.parseBlockSize( blockSizeArg, nd ), ApplyBigwarpPlugin.getCompression( compressionArg ),
+					tileSize, renderExec );
+			timing.writeMillis = System.currentTimeMillis() - t;
+
+			timing.status = "ok";
+		}
+		catch ( final Exception e )
+		{
+			e.printStackTrace();
+			timing.status = "failed";
+			timing.message = String.valueOf( e.getMessage() );
+		}
+		timing.totalMillis = System.currentTimeMillis() - start;
+
+		System.out.println( "job " + job.index + " " + timing.status + " in " + timing.totalMillis + "ms" );
+		synchronized ( this )
+		{
+			report.writeNext( new String[] {
+					Integer.toString( job.index ), job.landmarks, job.image, job.output, timing.status,
+					Long.toString( timing.solveMillis ), Long.toString( timing.loadMillis ),
+					Long.toString( timing.writeMillis ), Long.toString( timing.totalMillis ),
+					Boolean.toString( timing.transformCached ), Boolean.toString( timing.imageCached ),
+					timing.message } );
+			try
+			{
+				report.flush();
+			}
+			catch ( final IOException e )
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Completes the future with the value of the supplier if this thread owns
+	 * it, then waits for its value. Failures are not cached.
+	 */
+	private < T > T resolve( final CompletableFuture< T > future, final boolean owner, final Supplier< T > supplier ) throws Exception
+	{
+		if ( owner )
+		{
+			try
+			{
+				future.complete( supplier.get() );
+			}
+			catch ( final RuntimeException e )
+			{
+				future.completeExceptionally( e );
+				transforms.values().remove( future );
+				synchronized ( images )
+				{
+					images.values().remove( future );
+				}
+			}
+		}
+
+		try
+		{
+			return future.get();
+		}
+		catch ( final ExecutionException e )
+		{
+			throw e.getCause() instanceof Exception ? ( Exception ) e.getCause() : e;
+		}
+	}
+
+	private InvertibleRealTransform solve( final String landmarks, final int nd )
+	{
+		try
+		{
+			final LandmarkTableModel ltm = new LandmarkTableModel( nd );
+			ltm.setSolvedTpsCache( solvedCache );
+			ltm.load( new File( landmarks ) );
+			return new BigWarpTransform( ltm, transformType ).getTransformation();
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+
+	private MovingImage open( final String image, final String dataset, final long planeCacheBytes )
+	{
+		try
+		{
+			final AffineTransform3D sourceTransform = new AffineTransform3D();
+			final RandomAccessibleInterval< ? > img = BigWarpStreamingTransform.openMoving( image, dataset, 0, null,
+					n5Cache, planeCacheBytes, sourceTransform );
+			if ( img == null )
+				throw new IOException( "Failed to read image from: " + image );
+
+			return new MovingImage( img, sourceTransform );
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+
+	/**
+	 * @param f a landmark file
+	 * @return the hex SHA-1 digest of the file content
+	 * @throws IOException if the file can not be read
+	 */
+	public static String landmarkHash( final File f ) throws IOException
+	{
+		try
+		{
+			final byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( Files.readAllBytes( f.toPath() ) );
+			final StringBuilder sb = new StringBuilder();
+			for ( final byte b : digest )
+				sb.append( String.format( "%02x", b ) );
+
+			return sb.toString();
+		}
+		catch ( final NoSuchAlgorithmException e )
+		{
+			throw new IOException( e );
+		}
+	}
+
+	public static class Job
+	{
+		public final int index;
+
+		public final String landmarks;
+
+		public final String image;
+
+		public final String dataset;
+
+		public final String output;
+
+		public final long[] dims;
+
+		public final double[] spacing;
+
+		public final double[] offset;
+
+		public Job( final int index, final String landmarks, final String image, final String dataset,
+				final String output, final long[] dims, final double[] spacing, final double[] offset )
+		{
+			this.index = index;
+			this.landmarks = landmarks;
+			this.image = image;
+			this.dataset = dataset;
+			this.output = output;
+			this.dims = dims;
+			this.spacing = spacing;
+			this.offset = offset;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "job " + index + ": " + landmarks + " " + image + " -> " + output + " " + Arrays.toString( dims );
+		}
+	}
+
+	private static class MovingImage
+	{
+		final RandomAccessibleInterval< ? > img;
+
+		final AffineTransform3D sourceTransform;
+
+		MovingImage( final RandomAccessibleInterval< ? > img, final AffineTransform3D sourceTransform )
+		{
+			this.img = img;
+			this.sourceTransform = sourceTransform;
+		}
+	}
+
+	private static class JobTiming
+	{
+		String status = "";
+
+		String message = "";
+
+		long solveMillis;
+
+		long loadMillis;
+
+		long writeMillis;
+
+		long totalMillis;
+
+		boolean transformCached;
+
+		boolean imageCached;
+	}
+}
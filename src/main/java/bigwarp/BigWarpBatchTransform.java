@@ -13,6 +13,7 @@ import bdv.viewer.Interpolation;
 import bigwarp.BigWarpBatchTransformFOV.DummyImageLoader;
 import bigwarp.landmarks.LandmarkTableModel;
 import bigwarp.loader.ImagePlusLoader;
+import bigwarp.transforms.SolvedTpsCache;
 import ij.IJ;
 import ij.ImagePlus;
 import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
@@ -37,6 +38,11 @@ public class BigWarpBatchTransform
 	public static void main( String[] args ) throws IOException, FormatException
 	{
 		LandmarkTableModel ltm = new LandmarkTableModel( Integer.parseInt( args[ 0 ] ) );
+
+		// optional: --solved-cache <folder>
+		if ( args.length > 6 && args[ 5 ].equals( "--solved-cache" ) )
+			ltm.setSolvedTpsCache( new SolvedTpsCache( new File( args[ 6 ] ) ) );
+
 		ltm.load( new File( args[ 1 ] ) );
 
 		ThinPlateR2LogRSplineKernelTransform xfm = ltm.getTransform();
@@ -26,8 +26,12 @@ import bdv.viewer.Interpolation;
 import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
 import bigwarp.BigWarp.BigWarpData;
+import bigwarp.source.TimepointPrefetcher;
 import ij.IJ;
 import ij.ImagePlus;
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.process.ImageProcessor;
 import mpicbg.models.AffineModel2D;
 import mpicbg.models.AffineModel3D;
 import mpicbg.models.Model;
@@ -89,6 +93,12 @@ public abstract class BigWarpExporter <T>
 
 	protected String unit = "pixel";
 
+	protected int timepoint = 0;
+
+	protected int firstTimepoint = 0;
+
+	protected int lastTimepoint = 0;
+
 	protected ProgressWriter progress;
 
 	public enum ParallelizationPolicy {
@@ -242,9 +252,216 @@ public abstract class BigWarpExporter <T>
 		this.outputInterval = outputInterval;
 	}
 
+	/**
+	 * Sets the timepoint that {@link #export()} and {@link #exportRai()}
+	 * render.
+	 *
+	 * @param timepoint the timepoint
+	 */
+	public void setTimepoint( final int timepoint )
+	{
+		this.timepoint = timepoint;
+	}
+
+	/**
+	 * Sets the range of timepoints {@link #exportTimepoints()} renders. All
+	 * timepoints are rendered with the same transform.
+	 *
+	 * @param firstTimepoint the first timepoint
+	 * @param lastTimepoint the last timepoint, inclusive
+	 */
+	public void setTimepoints( final int firstTimepoint, final int lastTimepoint )
+	{
+		this.firstTimepoint = firstTimepoint;
+		this.lastTimepoint = Math.max( firstTimepoint, lastTimepoint );
+		this.timepoint = firstTimepoint;
+	}
+
+	/**
+	 * Renders every timepoint of the range given by
+	 * {@link #setTimepoints(int, int)} and collects them into one hyperstack.
+	 * While a timepoint is rendered, the cells of the next timepoint of the
+	 * moving sources are loaded in the background, see
+	 * {@link TimepointPrefetcher}.
+	 *
+	 * @return the hyperstack
+	 */
+	public ImagePlus exportTimepoints()
+	{
+		if ( !isVirtual && !fitsInMemory() )
+		{
+			IJ.error( "Export needs about " + ( estimateBytes() >> 20 ) + "MB, more than the available "
+					+ ( availableBytes() >> 20 ) + "MB.\nExport as virtual, or fewer timepoints." );
+			return null;
+		}
+
+		if ( lastTimepoint <= firstTimepoint )
+		{
+			timepoint = firstTimepoint;
+			return export();
+		}
+
+		final ArrayList< Source< ? > > moving = new ArrayList<>();
+		for ( final int i : movingSourceIndexList )
+			moving.add( sources.get( i ).getSpimSource() );
+
+		final TimepointPrefetcher prefetcher = new TimepointPrefetcher( BigWarpInit.getBackgroundExecutor() );
+		final ArrayList< ImageStack > stacks = new ArrayList<>();
+		ImagePlus first = null;
+		try
+		{
+			for ( int t = firstTimepoint; t <= lastTimepoint; t++ )
+			{
+				if ( t < lastTimepoint )
+					prefetcher.prefetch( moving, t + 1, 0, null );
+
+				timepoint = t;
+				final ImagePlus ip = export();
+				if ( first == null )
+					first = ip;
+
+				stacks.add( ip.getStack() );
+			}
+		}
+		finally
+		{
+			prefetcher.cancel();
+			timepoint = firstTimepoint;
+		}
+
+		final ImageStack stack;
+		if ( isVirtual )
+			stack = new TimepointStack( stacks );
+		else
+		{
+			stack = new ImageStack( first.getWidth(), first.getHeight() );
+			for ( final ImageStack s : stacks )
+				for ( int i = 1; i <= s.getSize(); i++ )
+					stack.addSlice( s.getSliceLabel( i ), s.getProcessor( i ) );
+		}
+
+		final ImagePlus result = new ImagePlus( first.getTitle(), stack );
+		result.setDimensions( first.getNChannels(), first.getNSlices(), stacks.size() );
+		result.setCalibration( first.getCalibration() );
+		result.setOpenAsHyperStack( true );
+		return result;
+	}
+
+	/**
+	 * Estimates the number of bytes that {@link #exportTimepoints()} allocates
+	 * when the result is not virtual.
+	 *
+	 * @return the number of bytes
+	 */
+	public long estimateBytes()
+	{
+		final Object type = sources.get( movingSourceIndexList[ 0 ] ).getSpimSource().getType();
+		final long bytesPerPixel = type instanceof RealType ? Math.max( 1, ( ( RealType< ? > ) type ).getBitsPerPixel() / 8 ) : 4;
+		return Intervals.numElements( outputInterval ) * movingSourceIndexList.length * ( lastTimepoint - firstTimepoint + 1 ) * bytesPerPixel;
+	}
+
+	private static long availableBytes()
+	{
+		return IJ.maxMemory() - IJ.currentMemory();
+	}
+
+	/**
+	 * @return true if the non-virtual result of {@link #exportTimepoints()}
+	 *         fits into the memory that is currently available
+	 */
+	public boolean fitsInMemory()
+	{
+		return estimateBytes() <= availableBytes();
+	}
+
+	/**
+	 * Concatenates the virtual stacks of several timepoints without rendering
+	 * them.
+	 */
+	private static class TimepointStack extends VirtualStack
+	{
+		private final List< ImageStack > stacks;
+
+		private final int sizePerTimepoint;
+
+		public TimepointStack( final List< ImageStack > stacks )
+		{
+			super( stacks.get( 0 ).getWidth(), stacks.get( 0 ).getHeight(), stacks.get( 0 ).getColorModel(), null );
+			this.stacks = stacks;
+			this.sizePerTimepoint = stacks.get( 0 ).getSize();
+		}
+
+		@Override
+		public int getSize()
+		{
+			return sizePerTimepoint * stacks.size();
+		}
+
+		@Override
+		public ImageProcessor getProcessor( final int n )
+		{
+			return stacks.get( ( n - 1 ) / sizePerTimepoint ).getProcessor( ( n - 1 ) % sizePerTimepoint + 1 );
+		}
+
+		@Override
+		public String getSliceLabel( final int n )
+		{
+			return stacks.get( ( n - 1 ) / sizePerTimepoint ).getSliceLabel( ( n - 1 ) % sizePerTimepoint + 1 );
+		}
+
+		@Override
+		public int getBitDepth()
+		{
+			return stacks.get( 0 ).getBitDepth();
+		}
+	}
+
+	/**
+	 * Returns how many timepoints, starting at zero, all moving sources are
+	 * present at.
+	 *
+	 * @param data the data
+	 * @param sources the sources
+	 * @return the number of timepoints that can be exported, at least one
+	 */
+	public static int numExportTimepoints( final BigWarpData< ? > data, final List< ? extends SourceAndConverter< ? > > sources )
+	{
+		int n = 0;
+		while ( n < data.getNumTimepoints() )
+		{
+			for ( final int i : data.movingSourceIndices )
+				if ( !sources.get( i ).getSpimSource().isPresent( n ) )
+					return Math.max( 1, n );
+
+			n++;
+		}
+		return Math.max( 1, n );
+	}
+
 	public <T> RandomAccessibleInterval<T> exportSource( SourceAndConverter<T> src )
 	{
-		final RealRandomAccessible< T > raiRaw = src.getSpimSource().getInterpolatedSource( 0, 0, interp );
+		return rasterize( src.getSpimSource() );
+	}
+
+	/**
+	 * Rasterizes a source over the output interval using the current
+	 * pixel-to-physical transform. Transformed {@link WarpedSource}s are
+	 * rasterized with batch transforms, see
+	 * {@link WarpedSource#getBatchTransformedSource}.
+	 * 
+	 * @param src the source
+	 * @return the rasterized source
+	 */
+	protected <T> RandomAccessibleInterval<T> rasterize( final Source<T> src )
+	{
+		if( src instanceof WarpedSource && ((WarpedSource<T>)src).isTransformed() )
+		{
+			return Views.interval(
+					((WarpedSource<T>)src).getBatchTransformedSource( timepoint, 0, interp, pixelRenderToPhysical ),
+					outputInterval );
+		}
+
+		final RealRandomAccessible< T > raiRaw = src.getInterpolatedSource( timepoint, 0, interp );
 
 		// apply the transformations
 		final AffineRandomAccessible< T, AffineGet > rai = RealViews.affine( 
@@ -490,18 +707,27 @@ public abstract class BigWarpExporter <T>
 						IterableInterval<T> it = Views.flatIterable( target );
 						final RandomAccess< T > access = raible.randomAccess();
 
-						long N = it.size();
+						// threads take turns by whole rows, so that
+						// batch transformed sources compute each row once
+						final long rowLength = target.dimension( 0 );
+						final long nRows = it.size() / rowLength;
 						final Cursor< T > c = it.cursor();
-						c.jumpFwd( 1 + offset );
-						for( long j = offset; j < N; j += nThreads )
+						c.jumpFwd( offset * rowLength );
+						for( long row = offset; row < nRows; row += nThreads )
 						{
-							access.setPosition( c );
-							c.get().set( access.get() );
-							c.jumpFwd( nThreads );
-							
-							if( offset == 0  && j % (nThreads * 100000) == 0 )
+							for( long x = 0; x < rowLength; x++ )
 							{
-								double ratio = 1.0 * j / N;
+								c.fwd();
+								access.setPosition( c );
+								c.get().set( access.get() );
+							}
+
+							if( row + nThreads < nRows )
+								c.jumpFwd( ( nThreads - 1 ) * rowLength );
+
+							if( offset == 0  && row % (nThreads * 100) == 0 )
+							{
+								double ratio = 1.0 * row / nRows;
 								progress.setProgress( ratio ); 
 							}
 						}
@@ -677,6 +903,67 @@ public abstract class BigWarpExporter <T>
 		}
 	}
 	
+	/**
+	 * Estimates the affine that best approximates a transform near a point,
+	 * by central differences along the given step vectors. The step vectors
+	 * must be linearly independent, and should be about as long as the scale
+	 * at which the approximation is needed (e.g. one screen pixel).
+	 * 
+	 * @param affine the affine, is set to the estimate
+	 * @param xfm the 3d transform
+	 * @param point the point, in the source space of xfm
+	 * @param steps the step vectors, steps[ c ] is the c-th vector
+	 * @return false if the estimate is not finite
+	 */
+	public static boolean estimateLocalAffine( AffineTransform3D affine, RealTransform xfm, double[] point, double[][] steps )
+	{
+		final int nd = 3;
+		final double[] p = new double[ nd ];
+		final double[] q = new double[ nd ];
+		final double[] r = new double[ nd ];
+		final double[] ctr = new double[ nd ];
+		xfm.apply( point, ctr );
+
+		// the differences and the steps as columns, the estimate is differences * steps^-1
+		final AffineTransform3D differences = new AffineTransform3D();
+		final AffineTransform3D stepMatrix = new AffineTransform3D();
+		for( int c = 0; c < nd; c++ )
+		{
+			for( int d = 0; d < nd; d++ )
+				p[ d ] = point[ d ] + steps[ c ][ d ];
+			xfm.apply( p, q );
+
+			for( int d = 0; d < nd; d++ )
+				p[ d ] = point[ d ] - steps[ c ][ d ];
+			xfm.apply( p, r );
+
+			for( int d = 0; d < nd; d++ )
+			{
+				differences.set( 0.5 * ( q[ d ] - r[ d ] ), d, c );
+				stepMatrix.set( steps[ c ][ d ], d, c );
+			}
+		}
+
+		affine.set( differences );
+		affine.concatenate( stepMatrix.inverse() );
+
+		for( int d = 0; d < nd; d++ )
+		{
+			double t = ctr[ d ];
+			for( int c = 0; c < nd; c++ )
+				t -= affine.get( d, c ) * point[ c ];
+
+			affine.set( t, d, 3 );
+		}
+
+		for( int i = 0; i < nd; i++ )
+			for( int c = 0; c <= nd; c++ )
+				if( Double.isNaN( affine.get( i, c ) ) || Double.isInfinite( affine.get( i, c ) ) )
+					return false;
+
+		return true;
+	}
+
 	public static FinalInterval estimateBounds( RealTransform xfm, Interval interval )
 	{
 		if( xfm == null )
@@ -781,7 +1068,10 @@ public abstract class BigWarpExporter <T>
 		{
 			try {
 				//long startTime = System.currentTimeMillis();
-				exporter.result = exporter.export();
+				exporter.result = exporter.exportTimepoints();
+				if ( exporter.result == null )
+					return;
+
 				//long endTime = System.currentTimeMillis();
 				// System.out.println("export took " + (endTime - startTime) + "ms");
 
@@ -818,31 +1108,64 @@ public abstract class BigWarpExporter <T>
 		}
 	}
 
-	@SuppressWarnings( { "rawtypes", "unchecked" } )
 	public static <T> BigWarpExporter<?> getExporter(
 			final BigWarpData<T> bwData,
 			final List< SourceAndConverter< T >> transformedSources,
 			final Interpolation interp,
 			final ProgressWriter progressWriter )
+	{
+		return getExporter( bwData, transformedSources, interp, progressWriter, 0, -1 );
+	}
+
+	/**
+	 * Returns an exporter for the moving sources that renders a range of
+	 * timepoints. The range is clipped to the timepoints that all moving
+	 * sources provide, see {@link #numExportTimepoints(BigWarpData, List)}.
+	 *
+	 * @param bwData the data
+	 * @param transformedSources the transformed sources
+	 * @param interp the interpolation
+	 * @param progressWriter the progress writer
+	 * @param firstTimepoint the first timepoint
+	 * @param lastTimepoint the last timepoint, inclusive, or a negative value for the last that can be exported
+	 * @return the exporter, or null if the type of the sources can not be exported
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	public static <T> BigWarpExporter<?> getExporter(
+			final BigWarpData<T> bwData,
+			final List< SourceAndConverter< T >> transformedSources,
+			final Interpolation interp,
+			final ProgressWriter progressWriter,
+			final int firstTimepoint,
+			final int lastTimepoint )
 	{
 		int[] movingSourceIndexList = bwData.movingSourceIndices;
 		int[] targetSourceIndexList = bwData.targetSourceIndices;
 
+		BigWarpExporter<?> exporter = null;
 		if ( BigWarpRealExporter.isTypeListFullyConsistent( transformedSources, movingSourceIndexList ) )
 		{
 			Object baseType = transformedSources.get( movingSourceIndexList[ 0 ] ).getSpimSource().getType();
 			if( baseType instanceof RealType )
-				return new BigWarpRealExporter( transformedSources, bwData.converterSetups, movingSourceIndexList, targetSourceIndexList, interp, (RealType)baseType, progressWriter);
+				exporter = new BigWarpRealExporter( transformedSources, bwData.converterSetups, movingSourceIndexList, targetSourceIndexList, interp, (RealType)baseType, progressWriter);
 			else if ( ARGBType.class.isInstance( baseType ) )
 			{
-				return new BigWarpARGBExporter( (List)transformedSources, bwData.converterSetups, movingSourceIndexList, targetSourceIndexList, interp, progressWriter );
+				exporter = new BigWarpARGBExporter( (List)transformedSources, bwData.converterSetups, movingSourceIndexList, targetSourceIndexList, interp, progressWriter );
 			}
 			else
 			{
 				System.err.println( "Can't export type " + baseType.getClass() );
 			}
 		}
-		return null;
+
+		if( exporter != null )
+		{
+			final int last = numExportTimepoints( bwData, transformedSources ) - 1;
+			final int first = Math.max( 0, Math.min( firstTimepoint, last ) );
+			exporter.setTimepoints( first, lastTimepoint < 0 ? last : Math.min( lastTimepoint, last ) );
+		}
+
+		return exporter;
 	}
 
 }
@@ -3,10 +3,11 @@ package bigwarp;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import org.janelia.saalfeldlab.n5.N5DatasetDiscoverer;
 import org.janelia.saalfeldlab.n5.N5Reader;
-import org.janelia.saalfeldlab.n5.N5TreeNode;
 import org.janelia.saalfeldlab.n5.ij.N5Factory;
 import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
 import org.janelia.saalfeldlab.n5.metadata.DefaultMetadata;
@@ -21,6 +22,7 @@ import org.janelia.saalfeldlab.n5.metadata.N5SingleScaleMetadata;
 import org.janelia.saalfeldlab.n5.metadata.PhysicalMetadata;
 
 import bdv.BigDataViewer;
+import bdv.ViewerImgLoader;
 import bdv.img.BwRandomAccessibleIntervalSource;
 import bdv.img.RenamableSource;
 import bdv.spimdata.SpimDataMinimal;
@@ -32,11 +34,14 @@ import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
 import bigwarp.BigWarp.BigWarpData;
 import bigwarp.loader.ImagePlusLoader;
+import bigwarp.loader.ImagePlusMipmapImgLoader;
+import bigwarp.loader.N5SourceCache;
 import bigwarp.loader.Loader;
 import bigwarp.loader.XMLLoader;
 import bigwarp.metadata.BwN5SingleScaleLegacyMetadata;
 import bigwarp.metadata.BwN5ViewerMultiscaleMetadataParser;
 import bigwarp.metadata.BwN5CosemMultiScaleMetadata;
+import bigwarp.metadata.LazyN5Discoverer;
 import ij.ImagePlus;
 import mpicbg.spim.data.SpimData;
 import mpicbg.spim.data.SpimDataException;
@@ -48,6 +53,8 @@ import mpicbg.spim.data.sequence.Angle;
 import mpicbg.spim.data.sequence.Channel;
 import mpicbg.spim.data.sequence.FinalVoxelDimensions;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.Volatile;
+import net.imglib2.cache.img.CachedCellImg;
 import net.imglib2.converter.Converter;
 import net.imglib2.converter.Converters;
 import net.imglib2.display.RealARGBColorConverter;
@@ -58,11 +65,19 @@ import net.imglib2.type.numeric.NumericType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.UnsignedIntType;
 import net.imglib2.type.volatiles.VolatileARGBType;
+import net.imglib2.type.volatiles.VolatileUnsignedIntType;
 import net.imglib2.util.Util;
 import net.imglib2.view.Views;
 
 public class BigWarpInit
 {
+	private static volatile boolean lazyN5Discovery = true;
+
+	private static volatile boolean imagePlusMipmaps = false;
+
+	private static volatile long imagePlusCacheBytes = 512L * 1024 * 1024;
+
+	private static ExecutorService backgroundExecutor;
 
 	private static String createSetupName( final BasicViewSetup setup )
 	{
@@ -297,7 +312,12 @@ public class BigWarpInit
 
 		data.wrapUp();
 
-		if ( names != null ) { return new BigWarpData( wrapSourcesAsRenamable( data.sources, names ), data.converterSetups, data.cache, data.movingSourceIndices, data.targetSourceIndices ); }
+		if ( names != null )
+		{
+			final BigWarpData renamed = new BigWarpData( wrapSourcesAsRenamable( data.sources, names ), data.converterSetups, data.cache, data.movingSourceIndices, data.targetSourceIndices );
+			renamed.updateNumTimepoints( data.getNumTimepoints() );
+			return renamed;
+		}
 
 		return data;
 	}
@@ -306,6 +326,7 @@ public class BigWarpInit
 	public static < T > int add( BigWarpData bwdata, ImagePlus ip, int setupId, int numTimepoints, boolean isMoving )
 	{
 		ImagePlusLoader loader = new ImagePlusLoader( ip );
+		loader.setMipmapped( imagePlusMipmaps, imagePlusCacheBytes );
 		SpimDataMinimal[] dataList = loader.loadAll( 0 );
 		for ( SpimDataMinimal data : dataList )
 		{
@@ -315,10 +336,27 @@ public class BigWarpInit
 		return loader.numSources();
 	}
 
-	@SuppressWarnings( { "unchecked", "rawtypes" } )
 	public static < T > BigWarpData< ? > add( BigWarpData bwdata, Source< T > src, int setupId, int numTimepoints, boolean isMoving )
 	{
-		addSourceToListsGenericType( src, setupId, bwdata.converterSetups, bwdata.sources );
+		return add( bwdata, src, null, setupId, numTimepoints, isMoving );
+	}
+
+	/**
+	 * Adds a source together with its volatile version.
+	 *
+	 * @param bwdata the data
+	 * @param src the source
+	 * @param volatileSrc the volatile version of the source, may be null
+	 * @param setupId the setup id
+	 * @param numTimepoints the number of timepoints
+	 * @param isMoving whether the source is moving
+	 * @return the data
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public static < T > BigWarpData< ? > add( BigWarpData bwdata, Source< T > src, Source< ? > volatileSrc, int setupId, int numTimepoints, boolean isMoving )
+	{
+		addSourceToListsGenericType( src, volatileSrc, setupId, bwdata.converterSetups, bwdata.sources );
+		bwdata.updateNumTimepoints( numTimepoints );
 
 		int N = bwdata.sources.size();
 		if ( isMoving )
@@ -334,6 +372,8 @@ public class BigWarpInit
 	{
 		int startSize = bwdata.sources.size();
 		BigDataViewer.initSetups( data, bwdata.converterSetups, bwdata.sources );
+		addCacheControl( bwdata, data );
+		bwdata.updateNumTimepoints( data.getSequenceDescription().getTimePoints().size() );
 
 		int N = bwdata.sources.size();
 		final ArrayList<Integer > idxList;
@@ -350,26 +390,190 @@ public class BigWarpInit
 
 	public static SpimData addToData( final BigWarpData<?> bwdata, 
 			final boolean isMoving, final int setupId, final String rootPath, final String dataset )
+	{
+		return addToData( bwdata, isMoving, setupId, open( bwdata, rootPath, dataset ) );
+	}
+
+	/**
+	 * Adds data opened by {@link #open}.
+	 *
+	 * @param bwdata the data
+	 * @param isMoving whether the source is moving
+	 * @param setupId the setup id
+	 * @param opened the opened data
+	 * @return the spim data if a moving xml dataset was added, otherwise null
+	 */
+	public static SpimData addToData( final BigWarpData<?> bwdata,
+			final boolean isMoving, final int setupId, final OpenedData opened )
+	{
+		if( opened.spimData != null )
+		{
+			BigWarpInit.add( bwdata, opened.spimData, setupId, 0, isMoving );
+			if( isMoving )
+				return opened.spimData;
+		}
+		else if( opened.source != null )
+			add( bwdata, opened.source, opened.volatileSource, setupId, 0, isMoving );
+
+		return null;
+	}
+
+	/**
+	 * An xml or n5 dataset that was opened but not yet added to
+	 * {@link BigWarpData}. Either the spim data or the sources are set, or
+	 * neither if the dataset could not be opened.
+	 */
+	public static class OpenedData
+	{
+		public final SpimData spimData;
+
+		public final Source< ? > source;
+
+		public final Source< ? > volatileSource;
+
+		public OpenedData( final SpimData spimData, final Source< ? > source, final Source< ? > volatileSource )
+		{
+			this.spimData = spimData;
+			this.source = source;
+			this.volatileSource = volatileSource;
+		}
+	}
+
+	/**
+	 * Opens an xml or n5 dataset without adding it, so that several datasets
+	 * can be opened concurrently and added in a fixed order afterwards.
+	 *
+	 * @param bwdata the data the dataset will be added to, whose cache holds n5 blocks
+	 * @param rootPath the xml file or n5 root
+	 * @param dataset the n5 dataset
+	 * @return the opened data
+	 */
+	public static OpenedData open( final BigWarpData< ? > bwdata, final String rootPath, final String dataset )
 	{
 		if( rootPath.endsWith( "xml" ))
 		{
-			SpimData spimData;
 			try
 			{
-				spimData = new XmlIoSpimData().load( rootPath );
-				BigWarpInit.add( bwdata, spimData, setupId, 0, isMoving );
-
-				if( isMoving )
-					return spimData;
+				return new OpenedData( new XmlIoSpimData().load( rootPath ), null, null );
 			}
 			catch ( SpimDataException e ) { e.printStackTrace(); }
-			return null;
+			return new OpenedData( null, null, null );
 		}
 		else
+			return openN5( bwdata.getN5Cache(), rootPath, dataset );
+	}
+
+	/**
+	 * Opens an xml or n5 dataset on the background executor.
+	 *
+	 * @param bwdata the data the dataset will be added to, whose cache holds n5 blocks
+	 * @param rootPath the xml file or n5 root
+	 * @param dataset the n5 dataset
+	 * @return the opened data
+	 */
+	public static CompletableFuture< OpenedData > openAsync( final BigWarpData< ? > bwdata, final String rootPath, final String dataset )
+	{
+		return CompletableFuture.supplyAsync( () -> open( bwdata, rootPath, dataset ), getBackgroundExecutor() );
+	}
+
+	/**
+	 * Returns an executor for loading data and computing image statistics
+	 * off the event dispatch thread. Its threads are daemons and are created
+	 * as needed.
+	 *
+	 * @return the executor
+	 */
+	public static synchronized ExecutorService getBackgroundExecutor()
+	{
+		if( backgroundExecutor == null )
 		{
-			BigWarpInit.add( bwdata, loadN5Source( rootPath, dataset ), setupId, 0, isMoving );
+			backgroundExecutor = Executors.newCachedThreadPool( r -> {
+				final Thread thread = new Thread( r, "BigWarp background loader" );
+				thread.setDaemon( true );
+				return thread;
+			} );
+		}
+		return backgroundExecutor;
+	}
+
+	/**
+	 * Adds an n5 dataset. Its blocks are held by the shared
+	 * {@link N5SourceCache} of the data, and it gets a volatile version whose
+	 * blocks are loaded by the fetcher threads of that cache.
+	 *
+	 * @param bwdata the data
+	 * @param isMoving whether the source is moving
+	 * @param setupId the setup id
+	 * @param n5Root the n5 root
+	 * @param n5Dataset the dataset
+	 * @return the data
+	 */
+	public static BigWarpData< ? > addN5ToData( final BigWarpData< ? > bwdata,
+			final boolean isMoving, final int setupId, final String n5Root, final String n5Dataset )
+	{
+		final OpenedData opened = openN5( bwdata.getN5Cache(), n5Root, n5Dataset );
+		if( opened.source == null )
+			return bwdata;
+
+		return add( bwdata, opened.source, opened.volatileSource, setupId, 0, isMoving );
+	}
+
+	private static OpenedData openN5( final N5SourceCache cache, final String n5Root, final String n5Dataset )
+	{
+		final N5Reader n5;
+		try
+		{
+			n5 = new N5Factory().openReader( n5Root );
+		}
+		catch ( IOException e ) { 
+			e.printStackTrace();
+			return new OpenedData( null, null, null );
+		}
+
+		final N5Metadata meta = discoverN5Metadata( n5, n5Root, n5Dataset );
+		final Source< ? > src;
+		final Source< ? > volatileSrc;
+		if( meta instanceof MultiscaleMetadata )
+		{
+			src = openAsSourceMulti( n5, (MultiscaleMetadata<?>)meta, cache, false );
+			volatileSrc = openAsSourceMulti( n5, (MultiscaleMetadata<?>)meta, cache, true );
+		}
+		else
+		{
+			src = openAsSource( n5, meta, cache, false );
+			volatileSrc = openAsSource( n5, meta, cache, true );
+		}
+
+		return new OpenedData( null, src, volatileSrc );
+	}
+
+	/**
+	 * Opens an n5 dataset whose blocks are held by the given cache.
+	 *
+	 * @param n5Root the n5 root
+	 * @param n5Dataset the dataset
+	 * @param cache the cache
+	 * @return the source, or null if it could not be opened
+	 */
+	public static Source<?> loadN5Source( final String n5Root, final String n5Dataset, final N5SourceCache cache )
+	{
+		final N5Reader n5;
+		try
+		{
+			n5 = new N5Factory().openReader( n5Root );
+		}
+		catch ( IOException e ) { 
+			e.printStackTrace();
 			return null;
 		}
+
+		final N5Metadata meta = discoverN5Metadata( n5, n5Root, n5Dataset );
+		if( meta instanceof MultiscaleMetadata )
+			return openAsSourceMulti( n5, (MultiscaleMetadata<?>)meta, cache, false );
+		else if( meta != null )
+			return openAsSource( n5, meta, cache, false );
+		else
+			return null;
 	}
 
 	public static Source<?> loadN5Source( final String n5Root, final String n5Dataset )
@@ -384,6 +588,52 @@ public class BigWarpInit
 			return null;
 		}
 
+		final N5Metadata meta = discoverN5Metadata( n5, n5Root, n5Dataset );
+		if( meta instanceof MultiscaleMetadata )
+		{
+			return openAsSourceMulti( n5, (MultiscaleMetadata<?>)meta, true );
+		}
+		else
+		{
+			return openAsSource( n5, meta, true );
+		}
+	}
+
+	/**
+	 * Sets whether ImagePlus sources are loaded as lazily computed, cached
+	 * multiresolution pyramids, see {@link ImagePlusMipmapImgLoader}. Off by
+	 * default.
+	 *
+	 * @param mipmaps whether to load pyramids
+	 * @param maxCacheBytes the size of the cache of each image in bytes
+	 */
+	public static void setImagePlusMipmaps( final boolean mipmaps, final long maxCacheBytes )
+	{
+		imagePlusMipmaps = mipmaps;
+		imagePlusCacheBytes = maxCacheBytes;
+	}
+
+	private static void addCacheControl( final BigWarpData< ? > bwdata, final AbstractSpimData< ? > data )
+	{
+		final Object imgLoader = data.getSequenceDescription().getImgLoader();
+		if ( imgLoader instanceof ViewerImgLoader )
+			bwdata.addCacheControl( ( ( ViewerImgLoader ) imgLoader ).getCacheControl() );
+	}
+
+	/**
+	 * Sets whether n5 metadata is found by parsing only the requested node and
+	 * its direct children, see {@link LazyN5Discoverer}, before falling back
+	 * to discovering the whole subtree. Lazy discovery is on by default.
+	 *
+	 * @param lazy whether to use lazy discovery
+	 */
+	public static void setLazyN5Discovery( final boolean lazy )
+	{
+		lazyN5Discovery = lazy;
+	}
+
+	private static N5Metadata discoverN5Metadata( final N5Reader n5, final String n5Root, final String n5Dataset )
+	{
 		final N5MetadataParser< ? >[] PARSERS = new N5MetadataParser[] { 
 				new N5ImagePlusMetadata( "" ),
 				new N5CosemMetadata( "", null, null ),
@@ -397,79 +647,98 @@ public class BigWarpInit
 				new BwN5ViewerMultiscaleMetadataParser()
 		};
 
-		N5Metadata meta = null;
+		if( lazyN5Discovery )
+			return new LazyN5Discoverer( GROUP_PARSERS, PARSERS, Runtime.getRuntime().availableProcessors(),
+					LazyN5Discoverer.defaultCacheFolder() ).discoverOrFallback( n5, n5Root, n5Dataset );
+		else
+			return LazyN5Discoverer.discoverRecursive( n5, n5Dataset, GROUP_PARSERS, PARSERS );
+	}
+
+	public static <T extends N5Metadata > Source<?> openAsSource( final N5Reader n5, final T meta, final boolean isVolatile )
+	{
 		try
 		{
-			final N5DatasetDiscoverer discoverer = new N5DatasetDiscoverer( GROUP_PARSERS, PARSERS );
-			final N5TreeNode node = discoverer.discoverRecursive( n5, n5Dataset );
-			N5DatasetDiscoverer.parseMetadataRecursive( n5, node, PARSERS, GROUP_PARSERS );
-			meta = node.getMetadata();
+			if( isVolatile )
+				return createSource( N5Utils.openVolatile( n5, meta.getPath() ), meta );
+			else
+				return createSource( N5Utils.open( n5, meta.getPath() ), meta );
 		}
 		catch ( IOException e )
-		{}
+		{
+			e.printStackTrace();
+		}
 
-		if( meta instanceof MultiscaleMetadata )
+		return null;
+	}
+
+	/**
+	 * Opens a dataset whose blocks are held by a shared cache.
+	 *
+	 * @param n5 the reader
+	 * @param meta the dataset metadata
+	 * @param cache the shared cache
+	 * @param volatileType if true, returns a source of volatile type whose
+	 *            blocks are loaded by the fetcher threads of the cache
+	 * @return the source
+	 */
+	public static <T extends N5Metadata > Source<?> openAsSource( final N5Reader n5, final T meta, final N5SourceCache cache, final boolean volatileType )
+	{
+		try
 		{
-			return openAsSourceMulti( n5, (MultiscaleMetadata<?>)meta, true );
+			final CachedCellImg< ?, ? > img = cache.open( n5, meta.getPath() );
+			if( volatileType )
+				return createSource( cache.wrapAsVolatile( img, 0 ), meta );
+			else
+				return createSource( img, meta );
 		}
-		else
+		catch ( IOException e )
 		{
-			return openAsSource( n5, meta, true );
+			e.printStackTrace();
 		}
+
+		return null;
 	}
 
 	@SuppressWarnings( { "unchecked", "rawtypes" } )
-	public static <T extends N5Metadata > Source<?> openAsSource( final N5Reader n5, final T meta, final boolean isVolatile )
+	private static Source<?> createSource( final RandomAccessibleInterval< ? > img, final N5Metadata meta )
 	{
-		final RandomAccessibleInterval imageRaw;
+		final RandomAccessibleInterval imageRaw = to3d( img );
 		final RandomAccessibleInterval image;
-		try
+		if( meta instanceof N5ImagePlusMetadata 
+				&& ((N5ImagePlusMetadata)meta).getType() == ImagePlus.COLOR_RGB )
 		{
-			if( isVolatile )
-				imageRaw = to3d( N5Utils.openVolatile( n5, meta.getPath() ));
-			else
-				imageRaw = to3d( N5Utils.open( n5, meta.getPath() ));
-
-			if( meta instanceof N5ImagePlusMetadata 
-					&& ((N5ImagePlusMetadata)meta).getType() == ImagePlus.COLOR_RGB
-					&& Util.getTypeFromInterval( imageRaw ) instanceof UnsignedIntType )
-			{
+			final Object type = Util.getTypeFromInterval( imageRaw );
+			if( type instanceof UnsignedIntType )
 				image = toColor( imageRaw );
-			}
+			else if( type instanceof VolatileUnsignedIntType )
+				image = toVolatileColor( imageRaw );
 			else
 				image = imageRaw;
-
-			if( meta instanceof PhysicalMetadata )
-			{
-				final String unit = ((PhysicalMetadata)meta).units()[0];
-				final AffineTransform3D srcXfm = ((PhysicalMetadata)meta).physicalTransform3d();
-				final FinalVoxelDimensions voxelDims = new FinalVoxelDimensions( unit, 
-						new double[]{ srcXfm.get( 0, 0 ), srcXfm.get( 1, 1 ), srcXfm.get( 2, 2 ) });
-
-				return new BwRandomAccessibleIntervalSource( image, Util.getTypeFromInterval( image ), 
-						srcXfm, meta.getPath(), voxelDims );
-			}
-			else
-				return new BwRandomAccessibleIntervalSource( image, Util.getTypeFromInterval( image ), 
-						new AffineTransform3D(), meta.getPath() );
 		}
-		catch ( IOException e )
+		else
+			image = imageRaw;
+
+		if( meta instanceof PhysicalMetadata )
 		{
-			e.printStackTrace();
-		}
+			final String unit = ((PhysicalMetadata)meta).units()[0];
+			final AffineTransform3D srcXfm = ((PhysicalMetadata)meta).physicalTransform3d();
+			final FinalVoxelDimensions voxelDims = new FinalVoxelDimensions( unit, 
+					new double[]{ srcXfm.get( 0, 0 ), srcXfm.get( 1, 1 ), srcXfm.get( 2, 2 ) });
 
-		return null;
+			return new BwRandomAccessibleIntervalSource( image, Util.getTypeFromInterval( image ), 
+					srcXfm, meta.getPath(), voxelDims );
+		}
+		else
+			return new BwRandomAccessibleIntervalSource( image, Util.getTypeFromInterval( image ), 
+					new AffineTransform3D(), meta.getPath() );
 	}
 
 	public static Source<?> openAsSourceMulti( final N5Reader n5, final MultiscaleMetadata<?> multiMeta, final boolean isVolatile )
 	{
 		final String[] paths = multiMeta.getPaths();
-		final AffineTransform3D[] transforms = multiMeta.getTransforms();
-		final String unit = multiMeta.units()[0];
 
 		@SuppressWarnings( "rawtypes" )
 		final RandomAccessibleInterval[] images = new RandomAccessibleInterval[paths.length];
-		final double[][] mipmapScales = new double[ images.length ][ 3 ];
 		for ( int s = 0; s < images.length; ++s )
 		{
 			try
@@ -483,7 +752,57 @@ public class BigWarpInit
 			{
 				e.printStackTrace();
 			}
+		}
+
+		return createMipmapSource( images, multiMeta );
+	}
 
+	/**
+	 * Opens a multiscale dataset whose blocks are held by a shared cache.
+	 *
+	 * @param n5 the reader
+	 * @param multiMeta the multiscale metadata
+	 * @param cache the shared cache
+	 * @param volatileType if true, returns a source of volatile type whose
+	 *            blocks are loaded by the fetcher threads of the cache, coarser
+	 *            levels first
+	 * @return the source
+	 */
+	public static Source<?> openAsSourceMulti( final N5Reader n5, final MultiscaleMetadata<?> multiMeta, final N5SourceCache cache, final boolean volatileType )
+	{
+		final String[] paths = multiMeta.getPaths();
+
+		@SuppressWarnings( "rawtypes" )
+		final RandomAccessibleInterval[] images = new RandomAccessibleInterval[paths.length];
+		for ( int s = 0; s < images.length; ++s )
+		{
+			try
+			{
+				final CachedCellImg< ?, ? > img = cache.open( n5, paths[s] );
+				if( volatileType )
+					images[ s ] = to3d( cache.wrapAsVolatile( img, images.length - 1 - s ));
+				else
+					images[ s ] = to3d( img );
+			}
+			catch ( IOException e )
+			{
+				e.printStackTrace();
+				return null;
+			}
+		}
+
+		return createMipmapSource( images, multiMeta );
+	}
+
+	@SuppressWarnings( "rawtypes" )
+	private static Source<?> createMipmapSource( final RandomAccessibleInterval[] images, final MultiscaleMetadata<?> multiMeta )
+	{
+		final AffineTransform3D[] transforms = multiMeta.getTransforms();
+		final String unit = multiMeta.units()[0];
+
+		final double[][] mipmapScales = new double[ images.length ][ 3 ];
+		for ( int s = 0; s < images.length; ++s )
+		{
 			mipmapScales[ s ][ 0 ] = transforms[ s ].get( 0, 0 );
 			mipmapScales[ s ][ 1 ] = transforms[ s ].get( 1, 1 );
 			mipmapScales[ s ][ 2 ] = transforms[ s ].get( 2, 2 );
@@ -523,6 +842,21 @@ public class BigWarpInit
 				new ARGBType() );
 	}
 
+	private static RandomAccessibleInterval<VolatileARGBType> toVolatileColor( RandomAccessibleInterval<VolatileUnsignedIntType> img )
+	{
+		return Converters.convertRAI( img,
+				new Converter<VolatileUnsignedIntType,VolatileARGBType>()
+				{
+					@Override
+					public void convert( VolatileUnsignedIntType input, VolatileARGBType output )
+					{
+						output.setValid( input.isValid() );
+						output.get().set( input.get().getInt() );
+					}
+				},
+				new VolatileARGBType() );
+	}
+
 	@SuppressWarnings( { "rawtypes", "unchecked" } )
 	public static < T > BigWarpData< T > initData()
 	{
@@ -540,6 +874,8 @@ public class BigWarpInit
 	 *
 	 * @param source
 	 *            source to add.
+	 * @param volatileSource
+	 *            volatile version of the source, may be null.
 	 * @param setupId
 	 *            id of the new source for use in {@link SetupAssignments}.
 	 * @param converterSetups
@@ -552,13 +888,14 @@ public class BigWarpInit
 	@SuppressWarnings( { "rawtypes", "unchecked" } )
 	private static < T > void addSourceToListsGenericType(
 			final Source< T > source,
+			final Source< ? > volatileSource,
 			final int setupId,
 			final List< ConverterSetup > converterSetups,
 			final List< SourceAndConverter< T > > sources )
 	{
 		final T type = source.getType();
 		if ( type instanceof RealType || type instanceof ARGBType || type instanceof VolatileARGBType )
-			addSourceToListsNumericType( ( Source ) source, setupId, converterSetups, ( List ) sources );
+			addSourceToListsNumericType( ( Source ) source, ( Source ) volatileSource, setupId, converterSetups, ( List ) sources );
 		else
 			throw new IllegalArgumentException( "Unknown source type. Expected RealType, ARGBType, or VolatileARGBType" );
 	}
@@ -571,6 +908,8 @@ public class BigWarpInit
 	 *
 	 * @param source
 	 *            source to add.
+	 * @param volatileSource
+	 *            volatile version of the source, may be null.
 	 * @param setupId
 	 *            id of the new source for use in {@link SetupAssignments}.
 	 * @param converterSetups
@@ -580,15 +919,25 @@ public class BigWarpInit
 	 *            list of {@link SourceAndConverter}s to which the source should
 	 *            be added.
 	 */
-	private static < T extends NumericType< T > > void addSourceToListsNumericType(
+	private static < T extends NumericType< T >, V extends Volatile< T > & NumericType< V > > void addSourceToListsNumericType(
 			final Source< T > source,
+			final Source< V > volatileSource,
 			final int setupId,
 			final List< ConverterSetup > converterSetups,
 			final List< SourceAndConverter< T > > sources )
 	{
 		final T type = source.getType();
-		final SourceAndConverter< T > soc = BigDataViewer.wrapWithTransformedSource(
-				new SourceAndConverter<>( source, BigDataViewer.createConverterToARGB( type ) ) );
+		final SourceAndConverter< T > soc;
+		if ( volatileSource == null )
+			soc = BigDataViewer.wrapWithTransformedSource(
+					new SourceAndConverter<>( source, BigDataViewer.createConverterToARGB( type ) ) );
+		else
+		{
+			final SourceAndConverter< V > vsoc = new SourceAndConverter<>( volatileSource,
+					BigDataViewer.createConverterToARGB( volatileSource.getType() ) );
+			soc = BigDataViewer.wrapWithTransformedSource(
+					new SourceAndConverter<>( source, BigDataViewer.createConverterToARGB( type ), vsoc ) );
+		}
 		converterSetups.add( BigDataViewer.createConverterSetup( soc, setupId ) );
 		sources.add( soc );
 	}
@@ -627,14 +976,29 @@ public class BigWarpInit
 		int[] movingSourceIndices = ImagePlusLoader.range( 0, numMovingSources );
 		int[] targetSourceIndices = ImagePlusLoader.range( numMovingSources, numTargetSources );
 
+		final BigWarpData< ? > data;
 		if ( names != null && names.length == sources.size() )
 		{
-			return new BigWarpData( wrapSourcesAsRenamable( sources, names ), converterSetups, null, movingSourceIndices, targetSourceIndices );
+			data = new BigWarpData( wrapSourcesAsRenamable( sources, names ), converterSetups, null, movingSourceIndices, targetSourceIndices );
 		}
 		else
 		{
-			return new BigWarpData( sources, converterSetups, null, movingSourceIndices, targetSourceIndices );
+			data = new BigWarpData( sources, converterSetups, null, movingSourceIndices, targetSourceIndices );
 		}
+
+		for ( AbstractSpimData< ? > spimData : spimDataPList )
+		{
+			addCacheControl( data, spimData );
+			data.updateNumTimepoints( spimData.getSequenceDescription().getTimePoints().size() );
+		}
+
+		for ( AbstractSpimData< ? > spimData : spimDataQList )
+		{
+			addCacheControl( data, spimData );
+			data.updateNumTimepoints( spimData.getSequenceDescription().getTimePoints().size() );
+		}
+
+		return data;
 	}
 
 	public static ArrayList< SourceAndConverter< ? > > wrapSourcesAsRenamable( final List< SourceAndConverter< ? > > sources, String[] names )
@@ -696,7 +1060,10 @@ public class BigWarpInit
 		/* Load the second source */
 		BigWarpInit.initSetups( spimDataQ, converterSetups, sources );
 
-		return new BigWarpData( sources, converterSetups, null, movingSourceIndices, targetSourceIndices );
+		final BigWarpData< ? > data = new BigWarpData( sources, converterSetups, null, movingSourceIndices, targetSourceIndices );
+		data.updateNumTimepoints( seqP.getTimePoints().size() );
+		data.updateNumTimepoints( seqQ.getTimePoints().size() );
+		return data;
 	}
 
 	public static BigWarpData< ? > createBigWarpData( final ImagePlusLoader loaderP, final ImagePlusLoader loaderQ )
@@ -707,12 +1074,11 @@ public class BigWarpInit
 	public static BigWarpData< ? > createBigWarpData( final ImagePlusLoader loaderP, final ImagePlusLoader loaderQ, 
 			final String[] names )
 	{
-		/* Load the first source */
-		final AbstractSpimData< ? >[] spimDataP = loaderP.loadAll( 0 );
-		int numMovingChannels = loaderP.numChannels();
-
-		/* Load the second source, giving each channel a different setupId */
+		/* Load both sources concurrently, giving each channel a different setupId */
+		final int numMovingChannels = loaderP.numChannels();
+		final CompletableFuture< AbstractSpimData< ? >[] > futureP = CompletableFuture.supplyAsync( () -> loaderP.loadAll( 0 ), getBackgroundExecutor() );
 		final AbstractSpimData< ? >[] spimDataQ = loaderQ.loadAll( numMovingChannels );
+		final AbstractSpimData< ? >[] spimDataP = futureP.join();
 
 		BigWarpData< ? > data = createBigWarpData( spimDataP, spimDataQ, names );
 
@@ -752,19 +1118,25 @@ public class BigWarpInit
 	 */
 	public static BigWarpData< ? > createBigWarpData( final Loader loaderP, final Loader loaderQ, final String[] namesIn )
 	{
-		/* Load the moving sources */
-		final AbstractSpimData< ? >[] spimDataP;
-		if( loaderP instanceof ImagePlusLoader  )
-			spimDataP = loaderP.load();
-		else 
-			spimDataP = loaderP.load();
+		/* Load the moving and fixed sources concurrently */
+		final CompletableFuture< AbstractSpimData< ? >[] > futureP = CompletableFuture.supplyAsync( loaderP::load, getBackgroundExecutor() );
 
-		/* Load the fixed sources */
-		final AbstractSpimData< ? >[] spimDataQ;
-		if( loaderQ instanceof ImagePlusLoader  )
-			spimDataQ = ((ImagePlusLoader)loaderQ).loadAll( spimDataP.length );
+		/* Fixed ImagePlus sources start their setupIds after the moving data */
+		final CompletableFuture< AbstractSpimData< ? >[] > futureQ;
+		if( loaderQ instanceof ImagePlusLoader )
+		{
+			final ImagePlusLoader loaderQIp = (ImagePlusLoader)loaderQ;
+			final int numSpimDataP = numSpimData( loaderP );
+			if( numSpimDataP < 0 )
+				futureQ = futureP.thenApply( p -> loaderQIp.loadAll( p.length ) );
+			else
+				futureQ = CompletableFuture.supplyAsync( () -> loaderQIp.loadAll( numSpimDataP ), getBackgroundExecutor() );
+		}
 		else
-			spimDataQ = loaderQ.load();
+			futureQ = CompletableFuture.supplyAsync( loaderQ::load, getBackgroundExecutor() );
+
+		final AbstractSpimData< ? >[] spimDataP = futureP.join();
+		final AbstractSpimData< ? >[] spimDataQ = futureQ.join();
 
 		int N = loaderP.numSources() + loaderQ.numSources();
 
@@ -793,6 +1165,19 @@ public class BigWarpInit
 		return data;
 	}
 
+	/*
+	 * The number of spim data a loader will load, or -1 if only loading tells.
+	 */
+	private static int numSpimData( final Loader loader )
+	{
+		if( loader instanceof ImagePlusLoader )
+			return ((ImagePlusLoader)loader).numImages();
+		else if( loader instanceof XMLLoader )
+			return 1;
+		else
+			return -1;
+	}
+
 	/**
 	 * Create {@link BigWarpData} from two XML files.
 	 *
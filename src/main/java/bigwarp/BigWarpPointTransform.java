@@ -0,0 +1,631 @@
+package bigwarp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.utility.parse.ParseUtils;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+
+import bdv.gui.TransformTypeSelectDialog;
+import bigwarp.landmarks.LandmarkTableModel;
+import bigwarp.transforms.BatchRealTransform;
+import bigwarp.transforms.BatchTransforms;
+import bigwarp.transforms.BigWarpTransform;
+import bigwarp.transforms.GridInverseTransform;
+import bigwarp.transforms.TpsNewtonInvertibleTransform;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.realtransform.InvertibleRealTransform;
+import net.imglib2.realtransform.RealTransform;
+
+/**
+ * Transforms large point lists.
+ * <p>
+ * Points are read either from a csv file with one point per row, or from a
+ * binary file of little-endian doubles with the coordinates of every point
+ * stored consecutively. They are transformed in batches on several threads,
+ * each with its own copy of the transform, and written in input order in the
+ * format of the input. The reader, the transforming threads and the writer
+ * work concurrently, and only a few batches are held in memory at a time.
+ * <p>
+ * Mapping from moving to target space needs the iterative inverse of the
+ * estimated transform. For every such point, a flag records whether the
+ * inverse converged: as an extra csv column, or for binary output as one byte
+ * per point in a file next to the output with the extension ".converged".
+ * The inverse can be precomputed on a grid and interpolated, see
+ * {@link GridInverseTransform}, in which case points served by the grid
+ * count as converged.
+ */
+public class BigWarpPointTransform
+{
+	public static final String MOVING_TO_TARGET = "moving-to-target";
+
+	public static final String TARGET_TO_MOVING = "target-to-moving";
+
+	public static final String CONVERGED_EXTENSION = ".converged";
+
+	private transient JCommander jCommander;
+
+	@Parameter(names = {"--landmarks", "-l"}, description = "Input landmarks file", required = true )
+	private String landmarkFilePath;
+
+	@Parameter(names = {"--input", "-i"}, description = "Input points, csv or binary", required = true )
+	private String inputPath;
+
+	@Parameter(names = {"--output", "-o"}, description = "Output points", required = true )
+	private String outputPath;
+
+	@Parameter(names = {"--direction"}, description = "Direction {moving-to-target,target-to-moving}" )
+	private String direction = MOVING_TO_TARGET;
+
+	@Parameter(names = {"--transform-type"}, description = "Transform type, e.g. \"Thin Plate Spline\", \"Affine\"" )
+	private String transformType = TransformTypeSelectDialog.TPS;
+
+	@Parameter(names = {"--binary"}, description = "Points are binary (default: binary unless the input ends with .csv)", arity = 1 )
+	private Boolean binary;
+
+	@Parameter(names = {"--ndims", "-d"}, description = "Number of dimensions (required for binary input)" )
+	private int ndims = -1;
+
+	@Parameter(names = {"--header"}, description = "The csv input has a header row" )
+	private boolean hasHeader = false;
+
+	@Parameter(names = {"--scale", "-s"}, description = "Coordinate scale applied before transforming, e.g. \"0.5,0.5,2.0\"",
+			converter = ParseUtils.DoubleArrayConverter.class )
+	private double[] scale;
+
+	@Parameter(names = {"--tolerance"}, description = "Tolerance of the inverse" )
+	private double tolerance = TpsNewtonInvertibleTransform.DEFAULT_TOLERANCE;
+
+	@Parameter(names = {"--max-iters"}, description = "Maximum number of iterations of the inverse" )
+	private int maxIters = TpsNewtonInvertibleTransform.DEFAULT_MAX_ITERS;
+
+	@Parameter(names = {"--inverse-grid-spacing"}, description = "Precompute the inverse on a grid with this spacing "
+			+ "over the moving landmarks, and interpolate it (default: 0, the exact inverse at every point)" )
+	private double inverseGridSpacing = 0;
+
+	@Parameter(names = {"--threads", "-j"}, description = "Number of threads" )
+	private int nThreads = Runtime.getRuntime().availableProcessors();
+
+	@Parameter(names = {"--batch-size"}, description = "Number of points per batch" )
+	private int batchSize = 1 << 16;
+
+	@Parameter(names = {"--help", "-h"}, help = true)
+	private boolean help;
+
+	private long numPoints;
+
+	private long numNotConverged;
+
+	public static void main( final String[] args ) throws IOException
+	{
+		final BigWarpPointTransform alg = new BigWarpPointTransform();
+		alg.jCommander = new JCommander( alg );
+		alg.jCommander.setProgramName( "transformPoints" );
+		try
+		{
+			alg.jCommander.parse( args );
+		}
+		catch ( final Exception e )
+		{
+			e.printStackTrace();
+			alg.jCommander.usage();
+			return;
+		}
+
+		if ( alg.help )
+		{
+			alg.jCommander.usage();
+			return;
+		}
+
+		alg.process();
+	}
+
+	public void process() throws IOException
+	{
+		final long startTime = System.currentTimeMillis();
+		final boolean isBinary = binary != null ? binary : !inputPath.toLowerCase().endsWith( ".csv" );
+		final boolean inverse;
+		if ( direction.equals( MOVING_TO_TARGET ) )
+			inverse = true;
+		else if ( direction.equals( TARGET_TO_MOVING ) )
+			inverse = false;
+		else
+		{
+			System.err.println( "Unknown direction: " + direction );
+			return;
+		}
+
+		String header = null;
+		String firstLine = null;
+		BufferedReader csvReader = null;
+		InputStream binaryIn = null;
+		int nd = ndims;
+		if ( isBinary )
+		{
+			if ( nd < 1 )
+			{
+				System.err.println( "Binary input needs the number of dimensions (--ndims)" );
+				return;
+			}
+			binaryIn = new BufferedInputStream( new FileInputStream( inputPath ), 1 << 20 );
+		}
+		else
+		{
+			csvReader = Files.newBufferedReader( new File( inputPath ).toPath(), StandardCharsets.UTF_8 );
+			if ( hasHeader )
+				header = csvReader.readLine();
+
+			firstLine = nextLine( csvReader );
+			if ( nd < 1 )
+				nd = firstLine == null ? 3 : firstLine.split( "," ).length;
+		}
+
+		if ( nd != 2 && nd != 3 )
+		{
+			System.err.println( "For 2D or 3D use only" );
+			if ( csvReader != null )
+				csvReader.close();
+
+			return;
+		}
+
+		final LandmarkTableModel ltm = new LandmarkTableModel( nd );
+		ltm.load( new File( landmarkFilePath ) );
+		final BigWarpTransform bwTransform = new BigWarpTransform( ltm, transformType );
+		InvertibleRealTransform xfm = bwTransform.unwrap2d( bwTransform.getTransformation() );
+		if ( inverse && inverseGridSpacing > 0 )
+			xfm = precomputeInverse( xfm, ltm, inverseGridSpacing, nThreads );
+
+		final PointMapper mapper = new PointMapper( xfm, inverse, tolerance, maxIters, scaleOf( scale, nd ) );
+
+		final ThreadLocal< PointMapper > mappers = ThreadLocal.withInitial( mapper::copy );
+		final ExecutorService exec = Executors.newFixedThreadPool( Math.max( 1, nThreads ) );
+
+		// bounds the number of batches in memory
+		final BlockingQueue< Future< MappedBatch > > queue = new ArrayBlockingQueue<>( 2 * Math.max( 1, nThreads ) );
+		final Future< MappedBatch > end = CompletableFuture.completedFuture( null );
+
+		final int n = nd;
+		final boolean binaryOut = isBinary;
+		final String outHeader = header == null ? null : inverse ? header + ",converged" : header;
+		final CompletableFuture< Void > writer = CompletableFuture.runAsync( () -> {
+			try
+			{
+				write( queue, end, binaryOut, outHeader, inverse );
+			}
+			catch ( final Exception e )
+			{
+				throw new RuntimeException( e );
+			}
+		} );
+
+		try
+		{
+			if ( isBinary )
+			{
+				final int pointBytes = 8 * nd;
+				byte[] buf;
+				while ( ( buf = readFully( binaryIn, batchSize * pointBytes ) ) != null )
+				{
+					if ( buf.length % pointBytes != 0 )
+						throw new IOException( "Binary input size is not a multiple of the point size" );
+
+					final byte[] raw = buf;
+					put( queue, writer, exec.submit( () -> mappers.get().mapBinary( raw, n ) ) );
+				}
+			}
+			else
+			{
+				List< String > lines = new ArrayList<>( batchSize );
+				if ( firstLine != null )
+					lines.add( firstLine );
+
+				String line;
+				while ( ( line = nextLine( csvReader ) ) != null )
+				{
+					lines.add( line );
+					if ( lines.size() == batchSize )
+					{
+						final List< String > batch = lines;
+						put( queue, writer, exec.submit( () -> mappers.get().mapCsv( batch, n ) ) );
+						lines = new ArrayList<>( batchSize );
+					}
+				}
+
+				if ( !lines.isEmpty() )
+				{
+					final List< String > batch = lines;
+					put( queue, writer, exec.submit( () -> mappers.get().mapCsv( batch, n ) ) );
+				}
+			}
+			put( queue, writer, end );
+			writer.get();
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			e.printStackTrace();
+			writer.cancel( true );
+		}
+		finally
+		{
+			exec.shutdownNow();
+			if ( csvReader != null )
+				csvReader.close();
+
+			if ( binaryIn != null )
+				binaryIn.close();
+		}
+
+		final long millis = Math.max( 1, System.currentTimeMillis() - startTime );
+		System.out.println( "transformed " + numPoints + " points in " + millis + "ms ("
+				+ ( long ) ( numPoints * 1000.0 / millis ) + " points/s)" );
+		if ( inverse )
+			System.out.println( "inverse did not converge for " + numNotConverged + " points" );
+	}
+
+	/**
+	 * Precomputes the inverse of a transform on a grid over the bounding box of
+	 * the moving landmarks, padded by a tenth of its size on every side. Points
+	 * outside of it are mapped with the exact inverse.
+	 *
+	 * @param xfm the transform from target to moving space
+	 * @param ltm the landmarks
+	 * @param spacing the spacing of the grid
+	 * @param nThreads the number of threads
+	 * @return the transform with a precomputed inverse
+	 */
+	public static GridInverseTransform precomputeInverse( final InvertibleRealTransform xfm, final LandmarkTableModel ltm,
+			final double spacing, final int nThreads )
+	{
+		final int nd = ltm.getNumdims();
+		final double[] min = new double[ nd ];
+		final double[] max = new double[ nd ];
+		Arrays.fill( min, Double.MAX_VALUE );
+		Arrays.fill( max, -Double.MAX_VALUE );
+		for ( int i = 0; i < ltm.getRowCount(); i++ )
+		{
+			final Double[] p = ltm.getMovingPoint( i );
+			if ( !ltm.isActive( i ) || !ltm.isMovingPoint( i ) )
+				continue;
+
+			for ( int d = 0; d < nd; d++ )
+			{
+				min[ d ] = Math.min( min[ d ], p[ d ] );
+				max[ d ] = Math.max( max[ d ], p[ d ] );
+			}
+		}
+
+		final double[] gridSpacing = new double[ nd ];
+		for ( int d = 0; d < nd; d++ )
+		{
+			final double pad = 0.1 * ( max[ d ] - min[ d ] );
+			min[ d ] -= pad;
+			max[ d ] += pad;
+			gridSpacing[ d ] = spacing;
+		}
+
+		return new GridInverseTransform( xfm, new FinalRealInterval( min, max ), gridSpacing, Math.max( 1, nThreads ) );
+	}
+
+	private void write( final BlockingQueue< Future< MappedBatch > > queue, final Future< MappedBatch > end,
+			final boolean binaryOut, final String header, final boolean inverse ) throws Exception
+	{
+		try ( final OutputStream out = new BufferedOutputStream( new FileOutputStream( outputPath ), 1 << 20 );
+				final OutputStream flagsOut = binaryOut && inverse ?
+						new BufferedOutputStream( new FileOutputStream( outputPath + CONVERGED_EXTENSION ), 1 << 16 ) : null )
+		{
+			if ( header != null )
+				out.write( ( header + "\n" ).getBytes( StandardCharsets.UTF_8 ) );
+
+			Future< MappedBatch > f;
+			while ( ( f = queue.take() ) != end )
+			{
+				final MappedBatch batch = f.get();
+				out.write( batch.bytes );
+				if ( flagsOut != null )
+				{
+					final byte[] flags = new byte[ batch.n ];
+					for ( int i = 0; i < batch.n; i++ )
+						flags[ i ] = ( byte ) ( batch.converged[ i ] ? 1 : 0 );
+
+					flagsOut.write( flags );
+				}
+				numPoints += batch.n;
+				numNotConverged += batch.numNotConverged;
+			}
+		}
+	}
+
+	/**
+	 * Adds a batch to the queue, unless the writer failed.
+	 */
+	private static void put( final BlockingQueue< Future< MappedBatch > > queue, final Future< Void > writer,
+			final Future< MappedBatch > batch ) throws InterruptedException, ExecutionException
+	{
+		while ( !queue.offer( batch, 100, TimeUnit.MILLISECONDS ) )
+			if ( writer.isDone() )
+				writer.get();
+	}
+
+	private static String nextLine( final BufferedReader reader ) throws IOException
+	{
+		String line;
+		while ( ( line = reader.readLine() ) != null )
+			if ( !line.trim().isEmpty() )
+				return line;
+
+		return null;
+	}
+
+	/**
+	 * Reads up to n bytes.
+	 *
+	 * @return the bytes, or null at the end of the stream
+	 */
+	private static byte[] readFully( final InputStream in, final int n ) throws IOException
+	{
+		final byte[] buf = new byte[ n ];
+		int off = 0;
+		int r;
+		while ( off < n && ( r = in.read( buf, off, n - off ) ) > 0 )
+			off += r;
+
+		if ( off == 0 )
+			return null;
+
+		if ( off < n )
+		{
+			final byte[] out = new byte[ off ];
+			System.arraycopy( buf, 0, out, 0, off );
+			return out;
+		}
+		return buf;
+	}
+
+	private static double[] scaleOf( final double[] scale, final int nd )
+	{
+		final double[] out = new double[ nd ];
+		for ( int d = 0; d < nd; d++ )
+			out[ d ] = scale == null ? 1 : scale.length == 1 ? scale[ 0 ] : scale[ d ];
+
+		return out;
+	}
+
+	/**
+	 * Transforms batches of points, one instance per thread.
+	 */
+	public static class PointMapper
+	{
+		private final InvertibleRealTransform transform;
+
+		private final boolean inverse;
+
+		private final double tolerance;
+
+		private final int maxIters;
+
+		private final double[] scale;
+
+		/*
+		 * target to moving
+		 */
+		private final BatchRealTransform forward;
+
+		/*
+		 * moving to target where the transform has a precomputed inverse
+		 */
+		private final GridInverseTransform grid;
+
+		/*
+		 * moving to target, if the transform is a thin plate spline
+		 */
+		private final TpsNewtonInvertibleTransform tps;
+
+		/*
+		 * moving to target, otherwise
+		 */
+		private final RealTransform exactInverse;
+
+		/**
+		 * @param transform the transform from target to moving space
+		 * @param inverse map from moving to target space
+		 * @param tolerance the tolerance of the inverse
+		 * @param maxIters the maximum number of iterations of the inverse
+		 * @param scale multiplies the coordinates before transforming
+		 */
+		public PointMapper( final InvertibleRealTransform transform, final boolean inverse,
+				final double tolerance, final int maxIters, final double[] scale )
+		{
+			this.transform = transform;
+			this.inverse = inverse;
+			this.tolerance = tolerance;
+			this.maxIters = maxIters;
+			this.scale = scale;
+
+			// the grid is only read, and shared by all copies
+			grid = inverse && transform instanceof GridInverseTransform ? ( GridInverseTransform ) transform : null;
+			final InvertibleRealTransform exact = grid != null ? grid.getTransform() : transform;
+			if ( !inverse )
+			{
+				forward = BatchTransforms.batch( transform ).copy();
+				tps = null;
+				exactInverse = null;
+			}
+			else if ( exact instanceof TpsNewtonInvertibleTransform )
+			{
+				forward = null;
+				tps = ( ( TpsNewtonInvertibleTransform ) exact ).copy();
+				tps.setTolerance( tolerance );
+				tps.setMaxIters( maxIters );
+				exactInverse = null;
+			}
+			else
+			{
+				forward = null;
+				tps = null;
+				exactInverse = exact.inverse().copy();
+			}
+		}
+
+		public PointMapper copy()
+		{
+			return new PointMapper( transform, inverse, tolerance, maxIters, scale );
+		}
+
+		/**
+		 * Transforms the first n points in place.
+		 *
+		 * @param pts the points, nd arrays of length at least n
+		 * @param n the number of points
+		 * @param converged is set to whether the inverse converged for each point
+		 * @return the number of points for which the inverse did not converge
+		 */
+		public int map( final double[][] pts, final int n, final boolean[] converged )
+		{
+			final int nd = pts.length;
+			for ( int d = 0; d < nd; d++ )
+				if ( scale[ d ] != 1 )
+					for ( int i = 0; i < n; i++ )
+						pts[ d ][ i ] *= scale[ d ];
+
+			if ( forward != null )
+			{
+				forward.apply( pts, pts, n );
+				for ( int i = 0; i < n; i++ )
+					converged[ i ] = true;
+
+				return 0;
+			}
+
+			int numNotConverged = 0;
+			final double[] y = new double[ nd ];
+			final double[] x = new double[ nd ];
+			for ( int i = 0; i < n; i++ )
+			{
+				for ( int d = 0; d < nd; d++ )
+					y[ d ] = pts[ d ][ i ];
+
+				if ( grid != null && grid.interpolateInverse( y, x ) )
+					converged[ i ] = true;
+				else if ( tps != null )
+					converged[ i ] = tps.inverse( y, x );
+				else
+				{
+					exactInverse.apply( y, x );
+					converged[ i ] = true;
+				}
+
+				if ( !converged[ i ] )
+					numNotConverged++;
+
+				for ( int d = 0; d < nd; d++ )
+					pts[ d ][ i ] = x[ d ];
+			}
+			return numNotConverged;
+		}
+
+		MappedBatch mapCsv( final List< String > lines, final int nd )
+		{
+			final int n = lines.size();
+			final double[][] pts = new double[ nd ][ n ];
+			for ( int i = 0; i < n; i++ )
+			{
+				final String line = lines.get( i );
+				int start = 0;
+				for ( int d = 0; d < nd; d++ )
+				{
+					int end = line.indexOf( ',', start );
+					if ( end < 0 )
+						end = line.length();
+
+					pts[ d ][ i ] = Double.parseDouble( line.substring( start, end ).trim() );
+					start = end + 1;
+				}
+			}
+
+			final boolean[] converged = new boolean[ n ];
+			final int numNotConverged = map( pts, n, converged );
+
+			final StringBuilder sb = new StringBuilder( n * nd * 20 );
+			for ( int i = 0; i < n; i++ )
+			{
+				for ( int d = 0; d < nd; d++ )
+				{
+					if ( d > 0 )
+						sb.append( ',' );
+					sb.append( pts[ d ][ i ] );
+				}
+				if ( inverse )
+					sb.append( converged[ i ] ? ",true" : ",false" );
+
+				sb.append( '\n' );
+			}
+			return new MappedBatch( sb.toString().getBytes( StandardCharsets.UTF_8 ), n, converged, numNotConverged );
+		}
+
+		MappedBatch mapBinary( final byte[] raw, final int nd )
+		{
+			final int n = raw.length / ( 8 * nd );
+			final ByteBuffer buf = ByteBuffer.wrap( raw ).order( ByteOrder.LITTLE_ENDIAN );
+			final double[][] pts = new double[ nd ][ n ];
+			for ( int i = 0; i < n; i++ )
+				for ( int d = 0; d < nd; d++ )
+					pts[ d ][ i ] = buf.getDouble();
+
+			final boolean[] converged = new boolean[ n ];
+			final int numNotConverged = map( pts, n, converged );
+
+			// reuse the input buffer for the output
+			buf.clear();
+			for ( int i = 0; i < n; i++ )
+				for ( int d = 0; d < nd; d++ )
+					buf.putDouble( pts[ d ][ i ] );
+
+			return new MappedBatch( raw, n, converged, numNotConverged );
+		}
+	}
+
+	static class MappedBatch
+	{
+		final byte[] bytes;
+
+		final int n;
+
+		final boolean[] converged;
+
+		final int numNotConverged;
+
+		MappedBatch( final byte[] bytes, final int n, final boolean[] converged, final int numNotConverged )
+		{
+			this.bytes = bytes;
+			this.n = n;
+			this.converged = converged;
+			this.numNotConverged = numNotConverged;
+		}
+	}
+}
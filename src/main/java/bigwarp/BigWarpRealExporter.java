@@ -6,6 +6,7 @@ import java.util.List;
 import bdv.export.ProgressWriter;
 import bdv.tools.brightness.ConverterSetup;
 import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
 import ij.IJ;
 import ij.ImagePlus;
@@ -23,9 +24,6 @@ import net.imglib2.exception.ImgLibException;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.img.imageplus.ImagePlusImg;
 import net.imglib2.img.imageplus.ImagePlusImgFactory;
-import net.imglib2.realtransform.AffineGet;
-import net.imglib2.realtransform.AffineRandomAccessible;
-import net.imglib2.realtransform.RealViews;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.NumericType;
 import net.imglib2.type.numeric.RealType;
@@ -99,13 +97,7 @@ public class BigWarpRealExporter< T extends RealType< T > & NativeType< T >  > e
 		{
 			final int movingSourceIndex = movingSourceIndexList[ i ];
 
-			final RealRandomAccessible< T > raiRaw = ( RealRandomAccessible< T > )sources.get( movingSourceIndex ).getSpimSource().getInterpolatedSource( 0, 0, interp );
-
-			// apply the transformations
-			final AffineRandomAccessible< T, AffineGet > rai = RealViews.affine( 
-					raiRaw, pixelRenderToPhysical.inverse() );
-			
-			raiList.add( Views.interval( Views.raster( rai ), outputInterval ) );
+			raiList.add( rasterize( ( Source< T > )sources.get( movingSourceIndex ).getSpimSource() ) );
 		}
 		RandomAccessibleInterval< T > raiStack = Views.stack( raiList );
 
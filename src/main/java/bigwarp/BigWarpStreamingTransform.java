@@ -0,0 +1,580 @@
+package bigwarp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.ij.N5Exporter;
+import org.janelia.saalfeldlab.n5.ij.N5Factory;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.janelia.saalfeldlab.n5.metadata.N5CosemMetadata;
+import org.janelia.utility.parse.ParseUtils;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+
+import bdv.gui.TransformTypeSelectDialog;
+import bdv.ij.ApplyBigwarpPlugin;
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import bigwarp.landmarks.LandmarkTableModel;
+import bigwarp.loader.N5SourceCache;
+import bigwarp.transforms.BigWarpTransform;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import loci.common.services.ServiceFactory;
+import loci.formats.FormatTools;
+import loci.formats.MetadataTools;
+import loci.formats.meta.IMetadata;
+import loci.formats.out.TiffWriter;
+import loci.formats.services.OMEXMLService;
+import loci.plugins.BF;
+import loci.plugins.in.ImporterOptions;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions.CacheType;
+import net.imglib2.interpolation.InterpolatorFactory;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.InvertibleRealTransform;
+import net.imglib2.realtransform.RealTransformRealRandomAccessible;
+import net.imglib2.realtransform.RealViews;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Transforms images that do not fit into memory.
+ * <p>
+ * The moving image is read lazily, block by block through a bounded cache:
+ * n5, zarr and hdf5 datasets through an {@link N5SourceCache}, and any other
+ * format plane by plane from an ImageJ or Bio-Formats virtual stack. The output
+ * is rendered and written block by block, to an n5, zarr or hdf5 dataset or to
+ * a tiled BigTIFF, so memory use is bounded by the cache size and the blocks
+ * in flight rather than the image sizes.
+ */
+public class BigWarpStreamingTransform
+{
+	private transient JCommander jCommander;
+
+	@Parameter(names = {"--image", "-i"}, description = "Input image file or n5 / zarr / hdf5 container", required = true )
+	private String imagePath;
+
+	@Parameter(names = {"--dataset"}, description = "Input dataset, if the input is an n5 / zarr / hdf5 container" )
+	private String dataset;
+
+	@Parameter(names = {"--channel", "-c"}, description = "Channel of the input image file (zero-based)" )
+	private int channel = 0;
+
+	@Parameter(names = {"--landmarks", "-l"}, description = "Input landmarks file", required = true )
+	private String landmarkFilePath;
+
+	@Parameter(names = {"--transform-type"}, description = "Transform type, e.g. \"Thin Plate Spline\", \"Affine\"" )
+	private String transformType = TransformTypeSelectDialog.TPS;
+
+	@Parameter(names = {"--output", "-o"}, description = "Output tif file or n5 / zarr / hdf5 container", required = true )
+	private String outputPath;
+
+	@Parameter(names = {"--out-dataset"}, description = "Output dataset, if the output is a container" )
+	private String outputDataset = "warped";
+
+	@Parameter(names = {"--dimension", "-d"}, description = "Dimension of output image", required = true,
+			converter = ParseUtils.LongArrayConverter.class )
+	private long[] dims;
+
+	@Parameter(names = {"--out-spacing", "-s"}, description = "Output voxel spacing, e.g. \"0.5,0.5,2.0\"",
+			converter = ParseUtils.DoubleArrayConverter.class )
+	private double[] spacing;
+
+	@Parameter(names = {"--offset", "-f"}, description = "Output offset, e.g. \"5.0,5.0,-1.0\"",
+			converter = ParseUtils.DoubleArrayConverter.class )
+	private double[] offset;
+
+	@Parameter(names = { "--in-spacing" }, description = "Input voxel spacing (overrides image metadata)",
+			converter = ParseUtils.DoubleArrayConverter.class )
+	private double[] inputSpacing;
+
+	@Parameter(names = {"--interpolation", "-p"}, description = "Interpolation Type {NLINEAR,NEARESTNEIGHBOR}" )
+	private String interpType = "NLINEAR";
+
+	@Parameter(names = {"--threads", "-j"}, description = "Number of threads" )
+	private int nThreads = 1;
+
+	@Parameter(names = {"--cache-mb"}, description = "Size of the input block cache in megabytes" )
+	private long cacheMb = 1024;
+
+	@Parameter(names = {"--block-size"}, description = "Output block size for containers, e.g. \"64,64,64\"" )
+	private String blockSizeArg = "64";
+
+	@Parameter(names = {"--tile-size"}, description = "Output tile size for tif files, a multiple of 16" )
+	private int tileSize = 512;
+
+	@Parameter(names = {"--compression"}, description = "Output compression for containers {gzip,raw,lz4,xz,blosc}" )
+	private String compressionArg = N5Exporter.GZIP_COMPRESSION;
+
+	@Parameter(names = {"--help", "-h"}, help = true)
+	private boolean help;
+
+	public static void main( final String[] args ) throws IOException
+	{
+		final BigWarpStreamingTransform alg = new BigWarpStreamingTransform();
+		alg.jCommander = new JCommander( alg );
+		alg.jCommander.setProgramName( "transformStreaming" );
+		try
+		{
+			alg.jCommander.parse( args );
+		}
+		catch ( final Exception e )
+		{
+			e.printStackTrace();
+			alg.jCommander.usage();
+			return;
+		}
+
+		if ( alg.help )
+		{
+			alg.jCommander.usage();
+			return;
+		}
+
+		alg.process();
+	}
+
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public void process() throws IOException
+	{
+		final long startTime = System.currentTimeMillis();
+		final int nd = dims.length;
+		if ( nd != 3 && nd != 2 )
+		{
+			System.err.println( "For 2D or 3D use only" );
+			return;
+		}
+
+		final LandmarkTableModel ltm = new LandmarkTableModel( nd );
+		ltm.load( new File( landmarkFilePath ) );
+		final InvertibleRealTransform xfm = new BigWarpTransform( ltm, transformType ).getTransformation();
+
+		// the moving image in voxel coordinates and its voxel to physical transform
+		final long cacheBytes = cacheMb << 20;
+		final AffineTransform3D sourceTransform = new AffineTransform3D();
+		final RandomAccessibleInterval img = openMoving( imagePath, dataset, channel, inputSpacing,
+				dataset != null ? new N5SourceCache( cacheBytes, nThreads ) : null, cacheBytes, sourceTransform );
+		if ( img == null )
+		{
+			System.err.println( "FAILED TO READ IMAGE FROM: " + imagePath );
+			return;
+		}
+
+		if ( !( Util.getTypeFromInterval( img ) instanceof RealType ) )
+		{
+			System.err.println( "Only real valued images are supported" );
+			return;
+		}
+
+		final double[] spacingFull = fill( spacing, 1.0 );
+		final double[] offsetFull = fill( offset, 0.0 );
+		final RandomAccessibleInterval output = render( img, sourceTransform, xfm, dims, spacingFull, offsetFull,
+				Interpolation.valueOf( interpType ) );
+
+		final ExecutorService exec = Executors.newFixedThreadPool( nThreads );
+		try
+		{
+			write( output, nd, outputPath, outputDataset, spacingFull, offsetFull,
+					ApplyBigwarpPlugin.parseBlockSize( blockSizeArg, nd ), ApplyBigwarpPlugin.getCompression( compressionArg ),
+					tileSize, exec );
+		}
+		catch ( final Exception e )
+		{
+			e.printStackTrace();
+		}
+		finally
+		{
+			exec.shutdown();
+		}
+
+		System.out.println( "total time: " + ( System.currentTimeMillis() - startTime ) + "ms" );
+	}
+
+	/**
+	 * Opens the moving image lazily, as a dataset of an n5 / zarr / hdf5
+	 * container if a dataset is given, otherwise as a virtual stack read plane
+	 * by plane.
+	 *
+	 * @param imagePath the image file or container
+	 * @param dataset the dataset, may be null
+	 * @param channel the channel of an image file
+	 * @param inputSpacing overrides the voxel spacing of the image, may be null
+	 * @param cache the block cache for datasets
+	 * @param planeCacheBytes the size of the plane cache for image files
+	 * @param sourceTransform is set to the voxel to physical transform of the image
+	 * @return the image, or null if it could not be read
+	 * @throws IOException an exception
+	 */
+	@SuppressWarnings( "rawtypes" )
+	public static RandomAccessibleInterval openMoving( final String imagePath, final String dataset, final int channel,
+			final double[] inputSpacing, final N5SourceCache cache, final long planeCacheBytes,
+			final AffineTransform3D sourceTransform ) throws IOException
+	{
+		final RandomAccessibleInterval img;
+		if ( dataset != null )
+		{
+			final Source< ? > src = BigWarpInit.loadN5Source( imagePath, dataset, cache );
+			if ( src == null )
+				return null;
+
+			src.getSourceTransform( 0, 0, sourceTransform );
+			img = src.getSource( 0, 0 );
+		}
+		else
+		{
+			final ImagePlus imp = openVirtual( imagePath );
+			if ( imp == null )
+				return null;
+
+			sourceTransform.set(
+					imp.getCalibration().pixelWidth, 0, 0, 0,
+					0, imp.getCalibration().pixelHeight, 0, 0,
+					0, 0, imp.getCalibration().pixelDepth, 0 );
+			img = planeCachedImage( imp, channel, planeCacheBytes );
+		}
+
+		if ( inputSpacing != null )
+		{
+			System.out.println( "overriding input resolution: " + Arrays.toString( inputSpacing ) );
+			final double[] s = fill( inputSpacing, 1.0 );
+			for ( int d = 0; d < 3; d++ )
+				sourceTransform.set( s[ d ], d, d );
+		}
+
+		return img;
+	}
+
+	/**
+	 * Opens an image as a virtual stack, through ImageJ for tiffs and through
+	 * Bio-Formats otherwise.
+	 */
+	private static ImagePlus openVirtual( final String path )
+	{
+		ImagePlus imp = null;
+		if ( isTiff( path ) )
+		{
+			try
+			{
+				imp = IJ.openVirtual( path );
+			}
+			catch ( final Exception e )
+			{
+				e.printStackTrace();
+			}
+		}
+
+		if ( imp == null )
+		{
+			try
+			{
+				final ImporterOptions options = new ImporterOptions();
+				options.setId( path );
+				options.setVirtual( true );
+				imp = BF.openImagePlus( options )[ 0 ];
+			}
+			catch ( final Exception e )
+			{
+				e.printStackTrace();
+			}
+		}
+		return imp;
+	}
+
+	/**
+	 * Wraps one channel of an {@link ImagePlus} as a cached image whose cells
+	 * are single planes, read from its (possibly virtual) stack on demand. At
+	 * most as many planes as fit into the given number of bytes are kept.
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > planeCachedImage(
+			final ImagePlus imp, final int channel, final long cacheBytes )
+	{
+		final T type;
+		switch ( imp.getBitDepth() )
+		{
+		case 8:
+			type = ( T ) new UnsignedByteType();
+			break;
+		case 16:
+			type = ( T ) new UnsignedShortType();
+			break;
+		case 32:
+			type = ( T ) new FloatType();
+			break;
+		default:
+			throw new IllegalArgumentException( "Unsupported bit depth " + imp.getBitDepth() );
+		}
+
+		final int w = imp.getWidth();
+		final int h = imp.getHeight();
+		final long planeBytes = ( long ) w * h * ( imp.getBitDepth() / 8 );
+		final long maxPlanes = Math.max( 1, cacheBytes / planeBytes );
+
+		final ImageStack stack = imp.getStack();
+		final ReadOnlyCachedCellImgFactory factory = new ReadOnlyCachedCellImgFactory(
+				ReadOnlyCachedCellImgOptions.options()
+					.cellDimensions( w, h, 1 )
+					.cacheType( CacheType.BOUNDED )
+					.maxCacheSize( maxPlanes ) );
+
+		return factory.create( new long[] { w, h, imp.getNSlices() }, type, cell -> {
+			final int z = ( int ) cell.min( 2 );
+			final ImageProcessor ip;
+
+			// virtual stacks are not safe to read concurrently
+			synchronized ( stack )
+			{
+				ip = stack.getProcessor( imp.getStackIndex( channel + 1, z + 1, 1 ) );
+			}
+
+			final Cursor< T > c = ( ( IterableInterval< T > ) cell ).localizingCursor();
+			while ( c.hasNext() )
+			{
+				c.fwd();
+				c.get().setReal( ip.getf( c.getIntPosition( 0 ), c.getIntPosition( 1 ) ) );
+			}
+		} );
+	}
+
+	/**
+	 * The warped moving image in output voxel coordinates, a lazy 3d view that
+	 * renders a block when it is accessed. 2d outputs have a single plane.
+	 *
+	 * @param img the moving image
+	 * @param sourceTransform the voxel to physical transform of the moving image
+	 * @param xfm the transform from target to moving physical space
+	 * @param dims the output dimensions
+	 * @param spacing the output voxel spacing, of length 3
+	 * @param offset the output offset, of length 3
+	 * @param interpolation the interpolation
+	 * @return the warped image
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public static RandomAccessibleInterval render( final RandomAccessibleInterval img, final AffineTransform3D sourceTransform,
+			final InvertibleRealTransform xfm, final long[] dims, final double[] spacing, final double[] offset,
+			final Interpolation interpolation )
+	{
+		final long[] outputDims = new long[] { dims[ 0 ], dims[ 1 ], dims.length > 2 ? dims[ 2 ] : 1 };
+		final AffineTransform3D pixelToPhysical = new AffineTransform3D();
+		pixelToPhysical.set(
+				spacing[ 0 ], 0, 0, offset[ 0 ],
+				0, spacing[ 1 ], 0, offset[ 1 ],
+				0, 0, spacing[ 2 ], offset[ 2 ] );
+
+		final RandomAccessibleInterval img3d = img.numDimensions() == 2 ? Views.addDimension( img, 0, 0 ) : img;
+
+		final InterpolatorFactory interp = interpolation == Interpolation.NEARESTNEIGHBOR ?
+				new NearestNeighborInterpolatorFactory() : new NLinearInterpolatorFactory();
+
+		final RealRandomAccessible movingPhysical = RealViews.affineReal(
+				Views.interpolate( Views.extendZero( img3d ), interp ), sourceTransform );
+
+		final RealRandomAccessible warped = new RealTransformRealRandomAccessible( movingPhysical, xfm );
+
+		return Views.interval( Views.raster( RealViews.affine( warped, pixelToPhysical.inverse() ) ),
+				new FinalInterval( outputDims ) );
+	}
+
+	/**
+	 * Writes an image rendered by {@link #render} as a tiled BigTIFF if the
+	 * output path ends with .tif, otherwise as a dataset of an n5 / zarr / hdf5
+	 * container.
+	 *
+	 * @param output the rendered image
+	 * @param nd the number of output dimensions, 2 or 3
+	 * @param outputPath the output file or container
+	 * @param outputDataset the output dataset
+	 * @param spacing the output voxel spacing
+	 * @param offset the output offset
+	 * @param blockSize the block size for containers
+	 * @param compression the compression for containers
+	 * @param tileSize the tile size for tiffs
+	 * @param exec renders blocks
+	 * @throws Exception an exception
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public static void write( final RandomAccessibleInterval output, final int nd, final String outputPath,
+			final String outputDataset, final double[] spacing, final double[] offset, final int[] blockSize,
+			final Compression compression, final int tileSize, final ExecutorService exec ) throws Exception
+	{
+		if ( isTiff( outputPath ) )
+			writeTiledTiff( output, new File( outputPath ), tileSize, spacing, exec );
+		else
+			writeN5( nd == 2 ? Views.hyperSlice( output, 2, 0 ) : output, nd, outputPath, outputDataset, spacing,
+					offset, blockSize, compression, exec );
+	}
+
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	private static void writeN5( final RandomAccessibleInterval output, final int nd, final String outputPath,
+			final String outputDataset, final double[] spacingFull, final double[] offsetFull, final int[] blockSize,
+			final Compression compression, final ExecutorService exec ) throws Exception
+	{
+		final N5Writer n5 = new N5Factory().openWriter( outputPath );
+		N5Utils.save( output, n5, outputDataset, blockSize, compression, exec );
+
+		final String[] axes = nd == 2 ? new String[] { "y", "x" } : new String[] { "z", "y", "x" };
+		final String[] units = nd == 2 ? new String[] { "px", "px" } : new String[] { "px", "px", "px" };
+		final N5CosemMetadata metadata = new N5CosemMetadata( new N5CosemMetadata.CosemTransform( axes,
+				Arrays.copyOf( spacingFull, nd ), Arrays.copyOf( offsetFull, nd ), units ) );
+		metadata.writeMetadata( metadata, n5, outputDataset );
+	}
+
+	/**
+	 * Writes a 3d image as a tiled BigTIFF, one plane at a time. The tiles of a
+	 * row are rendered in parallel, then written in order.
+	 *
+	 * @param img the image
+	 * @param f the file
+	 * @param tileSize the tile size, a multiple of 16
+	 * @param spacing the voxel spacing
+	 * @param exec renders tiles
+	 * @throws Exception an exception
+	 */
+	public static < T extends RealType< T > > void writeTiledTiff( final RandomAccessibleInterval< T > img,
+			final File f, final int tileSize, final double[] spacing, final ExecutorService exec ) throws Exception
+	{
+		final int w = ( int ) img.dimension( 0 );
+		final int h = ( int ) img.dimension( 1 );
+		final int nz = ( int ) img.dimension( 2 );
+
+		final T type = Util.getTypeFromInterval( img );
+		final int pixelType = pixelType( type );
+		final int bytesPerPixel = FormatTools.getBytesPerPixel( pixelType );
+
+		final ServiceFactory factory = new ServiceFactory();
+		final OMEXMLService service = factory.getInstance( OMEXMLService.class );
+		final IMetadata meta = service.createOMEXMLMetadata();
+		MetadataTools.populateMetadata( meta, 0, f.getName(), false, "XYZCT",
+				FormatTools.getPixelTypeString( pixelType ), w, h, nz, 1, 1, 1 );
+		meta.setPixelsPhysicalSizeX( FormatTools.getPhysicalSizeX( spacing[ 0 ] ), 0 );
+		meta.setPixelsPhysicalSizeY( FormatTools.getPhysicalSizeY( spacing[ 1 ] ), 0 );
+		meta.setPixelsPhysicalSizeZ( FormatTools.getPhysicalSizeZ( spacing[ 2 ] ), 0 );
+
+		if ( f.exists() )
+			f.delete();
+
+		try ( final TiffWriter writer = new TiffWriter() )
+		{
+			writer.setMetadataRetrieve( meta );
+			writer.setBigTiff( true );
+			writer.setWriteSequentially( true );
+			writer.setInterleaved( false );
+			final int tw = writer.setTileSizeX( tileSize );
+			final int th = writer.setTileSizeY( tileSize );
+			writer.setId( f.getAbsolutePath() );
+
+			for ( int z = 0; z < nz; z++ )
+			{
+				for ( int y = 0; y < h; y += th )
+				{
+					final List< Future< byte[] > > row = new ArrayList<>();
+					for ( int x = 0; x < w; x += tw )
+					{
+						final Interval tile = Intervals.createMinSize( x, y, z, Math.min( tw, w - x ), Math.min( th, h - y ), 1 );
+						row.add( exec.submit( () -> tileBytes( img, tile, pixelType, bytesPerPixel ) ) );
+					}
+
+					int x = 0;
+					for ( final Future< byte[] > bytes : row )
+					{
+						final int bw = Math.min( tw, w - x );
+						writer.saveBytes( z, bytes.get(), x, y, bw, Math.min( th, h - y ) );
+						x += bw;
+					}
+				}
+				System.out.println( "wrote plane " + ( z + 1 ) + " of " + nz );
+			}
+		}
+	}
+
+	private static < T extends RealType< T > > byte[] tileBytes( final RandomAccessibleInterval< T > img, final Interval tile,
+			final int pixelType, final int bytesPerPixel )
+	{
+		final ByteBuffer buf = ByteBuffer.allocate( ( int ) Intervals.numElements( tile ) * bytesPerPixel );
+		final Cursor< T > c = Views.flatIterable( Views.interval( img, tile ) ).cursor();
+		while ( c.hasNext() )
+		{
+			final T t = c.next();
+			switch ( pixelType )
+			{
+			case FormatTools.UINT8:
+				buf.put( ( byte ) t.getRealDouble() );
+				break;
+			case FormatTools.UINT16:
+			case FormatTools.INT16:
+				buf.putShort( ( short ) t.getRealDouble() );
+				break;
+			case FormatTools.DOUBLE:
+				buf.putDouble( t.getRealDouble() );
+				break;
+			default:
+				buf.putFloat( t.getRealFloat() );
+			}
+		}
+		return buf.array();
+	}
+
+	private static int pixelType( final Object type )
+	{
+		if ( type instanceof UnsignedByteType )
+			return FormatTools.UINT8;
+		else if ( type instanceof UnsignedShortType )
+			return FormatTools.UINT16;
+		else if ( type instanceof ShortType )
+			return FormatTools.INT16;
+		else if ( type instanceof DoubleType )
+			return FormatTools.DOUBLE;
+		else
+			return FormatTools.FLOAT;
+	}
+
+	static boolean isTiff( final String path )
+	{
+		final String p = path.toLowerCase();
+		return p.endsWith( ".tif" ) || p.endsWith( ".tiff" );
+	}
+
+	static double[] fill( final double[] in, final double value )
+	{
+		final double[] out = new double[ 3 ];
+		Arrays.fill( out, value );
+		if ( in == null )
+			return out;
+		else if ( in.length == 1 )
+			Arrays.fill( out, in[ 0 ] );
+		else
+			System.arraycopy( in, 0, out, 0, Math.min( 3, in.length ) );
+
+		return out;
+	}
+}
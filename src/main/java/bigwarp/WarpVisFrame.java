@@ -93,6 +93,11 @@ public class WarpVisFrame extends JDialog
 	final JCheckBox doAutoSaveBox;
 	final JTextField autoSaveFolderText;
 
+	// rendering
+	final JCheckBox progressiveRenderingBox;
+
+	final JCheckBox precomputedInverseBox;
+
 	public static final int minGridSpacing = 5;
 	public static final int maxGridSpacing = 400;
 	public static final int defaultGridSpacing = 100;
@@ -109,7 +114,7 @@ public class WarpVisFrame extends JDialog
 		
 		final Container content = getContentPane();
 		
-		setSize( 500, 400 );
+		setSize( 500, 490 );
 		
 		JPanel landmarkPointOptionsPanel = new JPanel();
 		landmarkPointOptionsPanel.setLayout( new BoxLayout( landmarkPointOptionsPanel, BoxLayout.X_AXIS ));
@@ -364,7 +369,8 @@ public class WarpVisFrame extends JDialog
 
 		final JPanel maxIterPanel = new JPanel();
 		final JSpinner maxIterSpinner = new JSpinner();
-		final SpinnerNumberModel itermodel = new SpinnerNumberModel( 200, 1, 5000, 1 );
+		final SpinnerNumberModel itermodel = new SpinnerNumberModel(
+				bw.getLandmarkPanel().getTableModel().getMaxInverseIterations(), 1, 5000, 1 );
 		maxIterSpinner.setModel( itermodel );
 		maxIterSpinner.addChangeListener( new ChangeListener()
 		{
@@ -372,6 +378,10 @@ public class WarpVisFrame extends JDialog
 			public void stateChanged( ChangeEvent e )
 			{
 				bw.getLandmarkPanel().getTableModel().setMaxInverseIterations( (Integer)maxIterSpinner.getValue() );
+
+				// the setting is read when the transformation is estimated
+				if( !bw.firstWarpEstimation )
+					bw.restimateTransformation();
 			}
 		} );
 		maxIterPanel.add( new JLabel( "Max iterations", SwingConstants.CENTER ), BorderLayout.WEST );
@@ -380,6 +390,40 @@ public class WarpVisFrame extends JDialog
 		inverseOptionsPanel.add( tolerancePanel, BorderLayout.NORTH );
 		inverseOptionsPanel.add( maxIterPanel, BorderLayout.SOUTH );
 
+		final JPanel renderingOptionsPanel = new JPanel();
+		renderingOptionsPanel.setLayout( new BorderLayout( 10, 10 ));
+		renderingOptionsPanel.setBorder( BorderFactory.createCompoundBorder(
+				BorderFactory.createEmptyBorder( 4, 2, 4, 2 ),
+				BorderFactory.createCompoundBorder(
+						BorderFactory.createTitledBorder(
+								BorderFactory.createEtchedBorder(),
+								"Rendering options" ),
+						BorderFactory.createEmptyBorder( 2, 2, 2, 2 ) ) ) );
+
+		progressiveRenderingBox = new JCheckBox( "Render a coarse approximation while landmarks change" );
+		progressiveRenderingBox.setSelected( false );
+		progressiveRenderingBox.addItemListener( new ItemListener()
+		{
+			@Override
+			public void itemStateChanged( ItemEvent e )
+			{
+				bw.setProgressiveRendering( progressiveRenderingBox.isSelected() );
+			}
+		});
+		renderingOptionsPanel.add( progressiveRenderingBox, BorderLayout.NORTH );
+
+		precomputedInverseBox = new JCheckBox( "Precompute the inverse on a grid (faster, approximate)" );
+		precomputedInverseBox.setSelected( false );
+		precomputedInverseBox.addItemListener( new ItemListener()
+		{
+			@Override
+			public void itemStateChanged( ItemEvent e )
+			{
+				bw.setPrecomputedInverse( precomputedInverseBox.isSelected() );
+			}
+		});
+		renderingOptionsPanel.add( precomputedInverseBox, BorderLayout.SOUTH );
+
 		content.setLayout( new GridBagLayout() );
 
 		final GridBagConstraints gbcContent = new GridBagConstraints();
@@ -411,6 +455,9 @@ public class WarpVisFrame extends JDialog
 		content.add( inverseOptionsPanel, gbcContent );
 
 		gbcContent.gridy = 3;
+		content.add( renderingOptionsPanel, gbcContent );
+
+		gbcContent.gridy = 4;
 		content.add( autoSaveOptionsPanel , gbcContent );
 		
 		setDefaultCloseOperation( WindowConstants.HIDE_ON_CLOSE );
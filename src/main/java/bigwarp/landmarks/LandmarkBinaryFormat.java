@@ -0,0 +1,364 @@
+package bigwarp.landmarks;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.opencsv.CSVWriter;
+
+/**
+ * A compact binary file format for landmarks.
+ * <p>
+ * All values are little-endian. The file starts with a 32 byte header:
+ * <pre>
+ *   0  magic "BWLM"
+ *   4  int   version
+ *   8  int   ndims
+ *  12  int   flags
+ *  16  long  count
+ *  24  long  names offset
+ * </pre>
+ * followed by the coordinate columns as doubles, first the moving then the
+ * target coordinates, one column of count values per dimension. The active
+ * flags follow as one byte per landmark. If the {@link #FLAG_NAMES} flag is
+ * set, the names start at the names offset, each as an int byte count followed
+ * by its utf-8 bytes.
+ * <p>
+ * Files are read through a heap buffer in large blocks, with long file
+ * positions, so loading costs little more than copying the columns and no
+ * memory map outlives the call.
+ */
+public class LandmarkBinaryFormat
+{
+	public static final String EXTENSION = ".bwlm";
+
+	public static final int VERSION = 1;
+
+	public static final int HEADER_SIZE = 32;
+
+	/**
+	 * Set if the file stores landmark names. Otherwise names are generated
+	 * from the landmark index.
+	 */
+	public static final int FLAG_NAMES = 1;
+
+	private static final byte[] MAGIC = new byte[] { 'B', 'W', 'L', 'M' };
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * @param f a file
+	 * @return true if the file name has the binary landmark extension
+	 */
+	public static boolean hasExtension( final File f )
+	{
+		return f.getName().toLowerCase().endsWith( EXTENSION );
+	}
+
+	/**
+	 * @param f a file
+	 * @return true if the file starts with the magic number of this format
+	 * @throws IOException if the file can not be read
+	 */
+	public static boolean isBinary( final File f ) throws IOException
+	{
+		if ( f.length() < HEADER_SIZE )
+			return false;
+
+		try ( final RandomAccessFile raf = new RandomAccessFile( f, "r" ) )
+		{
+			final byte[] magic = new byte[ MAGIC.length ];
+			raf.readFully( magic );
+			for ( int i = 0; i < magic.length; i++ )
+				if ( magic[ i ] != MAGIC[ i ] )
+					return false;
+
+			return true;
+		}
+	}
+
+	public static LandmarkColumns read( final File f ) throws IOException
+	{
+		try ( final RandomAccessFile raf = new RandomAccessFile( f, "r" );
+				final FileChannel channel = raf.getChannel() )
+		{
+			final long size = channel.size();
+			if ( size < HEADER_SIZE )
+				throw new IOException( "Invalid file - not a binary landmark file" );
+
+			final ChannelReader in = new ChannelReader( channel, 0 );
+			in.ensure( HEADER_SIZE );
+			for ( int i = 0; i < MAGIC.length; i++ )
+				if ( in.buf.get() != MAGIC[ i ] )
+					throw new IOException( "Invalid file - not a binary landmark file" );
+
+			final int version = in.buf.getInt();
+			if ( version > VERSION )
+				throw new IOException( "Unsupported binary landmark file version " + version );
+
+			final int nd = in.buf.getInt();
+			final int flags = in.buf.getInt();
+			final long count = in.buf.getLong();
+			final long namesOffset = in.buf.getLong();
+			if ( nd < 1 || count < 0 || count > Integer.MAX_VALUE
+					|| HEADER_SIZE + count * ( 16L * nd + 1 ) > size )
+				throw new IOException( "Invalid file - corrupt binary landmark header" );
+
+			final int N = ( int ) count;
+			final double[][] moving = new double[ nd ][ N ];
+			final double[][] target = new double[ nd ][ N ];
+			for ( int d = 0; d < nd; d++ )
+				in.getDoubles( moving[ d ] );
+
+			for ( int d = 0; d < nd; d++ )
+				in.getDoubles( target[ d ] );
+
+			final boolean[] active = new boolean[ N ];
+			for ( int i = 0; i < N; i++ )
+			{
+				in.ensure( 1 );
+				active[ i ] = in.buf.get() != 0;
+			}
+
+			final String[] names = new String[ N ];
+			if ( ( flags & FLAG_NAMES ) != 0 )
+			{
+				if ( namesOffset < HEADER_SIZE || namesOffset > size )
+					throw new IOException( "Invalid file - corrupt binary landmark header" );
+
+				final ChannelReader namesIn = new ChannelReader( channel, namesOffset );
+				byte[] bytes = new byte[ 64 ];
+				for ( int i = 0; i < N; i++ )
+				{
+					namesIn.ensure( 4 );
+					final int len = namesIn.buf.getInt();
+					if ( len < 0 || len > size )
+						throw new IOException( "Invalid file - corrupt landmark name" );
+
+					if ( len > bytes.length )
+						bytes = new byte[ len ];
+
+					namesIn.get( bytes, len );
+					names[ i ] = new String( bytes, 0, len, StandardCharsets.UTF_8 );
+				}
+			}
+			else
+			{
+				for ( int i = 0; i < N; i++ )
+					names[ i ] = "Pt-" + i;
+			}
+
+			return new LandmarkColumns( names, active, moving, target );
+		}
+	}
+
+	/*
+	 * Reads a channel sequentially from a position through a heap buffer,
+	 * so that files of any size can be read without memory maps.
+	 */
+	private static class ChannelReader
+	{
+		final FileChannel channel;
+
+		final ByteBuffer buf;
+
+		long position;
+
+		ChannelReader( final FileChannel channel, final long position )
+		{
+			this.channel = channel;
+			this.position = position;
+			buf = ByteBuffer.allocate( BUFFER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+			buf.limit( 0 );
+		}
+
+		/*
+		 * Makes sure that at least n <= BUFFER_SIZE bytes can be read from buf.
+		 */
+		void ensure( final int n ) throws IOException
+		{
+			if ( buf.remaining() >= n )
+				return;
+
+			buf.compact();
+			while ( buf.position() < n )
+			{
+				final int r = channel.read( buf, position );
+				if ( r < 0 )
+					throw new EOFException( "Invalid file - binary landmark file is truncated" );
+
+				position += r;
+			}
+			buf.flip();
+		}
+
+		void getDoubles( final double[] dst ) throws IOException
+		{
+			int off = 0;
+			while ( off < dst.length )
+			{
+				ensure( 8 );
+				final int n = Math.min( dst.length - off, buf.remaining() / 8 );
+				buf.asDoubleBuffer().get( dst, off, n );
+				buf.position( buf.position() + 8 * n );
+				off += n;
+			}
+		}
+
+		void get( final byte[] dst, final int len ) throws IOException
+		{
+			int off = 0;
+			while ( off < len )
+			{
+				ensure( 1 );
+				final int n = Math.min( len - off, buf.remaining() );
+				buf.get( dst, off, n );
+				off += n;
+			}
+		}
+	}
+
+	public static void write( final LandmarkColumns landmarks, final File f ) throws IOException
+	{
+		final int nd = landmarks.ndims;
+		final int N = landmarks.size;
+		final long namesOffset = HEADER_SIZE + ( long ) N * ( 16 * nd + 1 );
+
+		try ( final RandomAccessFile raf = new RandomAccessFile( f, "rw" );
+				final FileChannel channel = raf.getChannel() )
+		{
+			channel.truncate( 0 );
+			final ByteBuffer buf = ByteBuffer.allocateDirect( BUFFER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+
+			buf.put( MAGIC );
+			buf.putInt( VERSION );
+			buf.putInt( nd );
+			buf.putInt( FLAG_NAMES );
+			buf.putLong( N );
+			buf.putLong( namesOffset );
+
+			for ( int d = 0; d < nd; d++ )
+				putColumn( channel, buf, landmarks.moving[ d ], N );
+
+			for ( int d = 0; d < nd; d++ )
+				putColumn( channel, buf, landmarks.target[ d ], N );
+
+			for ( int i = 0; i < N; i++ )
+			{
+				ensureRemaining( channel, buf, 1 );
+				buf.put( ( byte ) ( landmarks.active[ i ] ? 1 : 0 ) );
+			}
+
+			for ( int i = 0; i < N; i++ )
+			{
+				final byte[] name = landmarks.names[ i ] == null ? new byte[ 0 ] : landmarks.names[ i ].getBytes( StandardCharsets.UTF_8 );
+				ensureRemaining( channel, buf, 4 );
+				buf.putInt( name.length );
+
+				int off = 0;
+				while ( off < name.length )
+				{
+					ensureRemaining( channel, buf, 1 );
+					final int n = Math.min( buf.remaining(), name.length - off );
+					buf.put( name, off, n );
+					off += n;
+				}
+			}
+			flush( channel, buf );
+		}
+	}
+
+	private static void putColumn( final FileChannel channel, final ByteBuffer buf, final double[] column, final int N ) throws IOException
+	{
+		for ( int i = 0; i < N; i++ )
+		{
+			ensureRemaining( channel, buf, 8 );
+			buf.putDouble( column[ i ] );
+		}
+	}
+
+	private static void ensureRemaining( final FileChannel channel, final ByteBuffer buf, final int n ) throws IOException
+	{
+		if ( buf.remaining() < n )
+			flush( channel, buf );
+	}
+
+	private static void flush( final FileChannel channel, final ByteBuffer buf ) throws IOException
+	{
+		buf.flip();
+		while ( buf.hasRemaining() )
+			channel.write( buf );
+
+		buf.clear();
+	}
+
+	/**
+	 * Writes landmarks as csv, in the format of {@link LandmarkTableModel#save(File)}.
+	 *
+	 * @param landmarks the landmarks
+	 * @param f the csv file
+	 * @throws IOException an exception
+	 */
+	public static void writeCsv( final LandmarkColumns landmarks, final File f ) throws IOException
+	{
+		final int nd = landmarks.ndims;
+		try ( final CSVWriter csvWriter = new CSVWriter( new OutputStreamWriter( new FileOutputStream( f ), StandardCharsets.UTF_8 ) ) )
+		{
+			final String[] row = new String[ 2 * nd + 2 ];
+			for ( int i = 0; i < landmarks.size; i++ )
+			{
+				row[ 0 ] = landmarks.names[ i ];
+				row[ 1 ] = Boolean.toString( landmarks.active[ i ] );
+
+				int k = 2;
+				for ( int d = 0; d < nd; d++ )
+					row[ k++ ] = Double.toString( landmarks.moving[ d ][ i ] );
+
+				for ( int d = 0; d < nd; d++ )
+					row[ k++ ] = Double.toString( landmarks.target[ d ][ i ] );
+
+				csvWriter.writeNext( row );
+			}
+		}
+	}
+
+	public static void csvToBinary( final File csv, final File binary ) throws IOException
+	{
+		write( new LandmarkCsvReader().read( csv ), binary );
+	}
+
+	public static void binaryToCsv( final File binary, final File csv ) throws IOException
+	{
+		writeCsv( read( binary ), csv );
+	}
+
+	/**
+	 * Converts a landmark file between csv and the binary format. The
+	 * direction is chosen by the format of the input file.
+	 *
+	 * @param args the input and output files
+	 * @throws IOException an exception
+	 */
+	public static void main( final String[] args ) throws IOException
+	{
+		if ( args.length != 2 )
+		{
+			System.err.println( "Usage: LandmarkBinaryFormat <input> <output>" );
+			return;
+		}
+
+		final File in = new File( args[ 0 ] );
+		final File out = new File( args[ 1 ] );
+		if ( isBinary( in ) )
+			binaryToCsv( in, out );
+		else
+			csvToBinary( in, out );
+	}
+}
@@ -0,0 +1,36 @@
+package bigwarp.landmarks;
+
+/**
+ * A set of landmarks stored in primitive arrays, one array per coordinate.
+ * <p>
+ * Used to move large landmark sets into and out of a
+ * {@link LandmarkTableModel} without boxing every coordinate, see
+ * {@link LandmarkTableModel#load(LandmarkColumns, boolean)}.
+ */
+public class LandmarkColumns
+{
+	public final int ndims;
+
+	public final int size;
+
+	public final String[] names;
+
+	public final boolean[] active;
+
+	/*
+	 * coordinates, indexed as [ dimension ][ landmark ]
+	 */
+	public final double[][] moving;
+
+	public final double[][] target;
+
+	public LandmarkColumns( final String[] names, final boolean[] active, final double[][] moving, final double[][] target )
+	{
+		this.ndims = moving.length;
+		this.size = names.length;
+		this.names = names;
+		this.active = active;
+		this.moving = moving;
+		this.target = target;
+	}
+}
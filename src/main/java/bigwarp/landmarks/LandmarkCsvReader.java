@@ -0,0 +1,468 @@
+package bigwarp.landmarks;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads landmark csv files as written by {@link LandmarkTableModel#save(File)}
+ * into {@link LandmarkColumns}.
+ * <p>
+ * Every row holds a name, an active flag, and the moving and target
+ * coordinates of one landmark, i.e. 6 columns for 2d and 8 columns for 3d
+ * landmarks. Fields may be quoted.
+ * <p>
+ * The input is streamed in chunks of whole rows, that are parsed in parallel
+ * directly into primitive arrays, so no intermediate strings are created for
+ * the coordinates. At most two chunks per thread are held in memory at any
+ * time. Gzip-compressed files are detected and decompressed transparently.
+ */
+public class LandmarkCsvReader
+{
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+	private static final double[] POW10 = new double[ 23 ];
+	static
+	{
+		POW10[ 0 ] = 1;
+		for ( int i = 1; i < POW10.length; i++ )
+			POW10[ i ] = POW10[ i - 1 ] * 10;
+	}
+
+	private final int nThreads;
+
+	private final int chunkSize;
+
+	public LandmarkCsvReader()
+	{
+		this( Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE );
+	}
+
+	/**
+	 * @param nThreads the number of threads parsing chunks
+	 * @param chunkSize the number of characters per chunk
+	 */
+	public LandmarkCsvReader( final int nThreads, final int chunkSize )
+	{
+		this.nThreads = Math.max( 1, nThreads );
+		this.chunkSize = Math.max( 1024, chunkSize );
+	}
+
+	public LandmarkColumns read( final File f ) throws IOException
+	{
+		try ( final InputStream is = new FileInputStream( f ) )
+		{
+			return read( is );
+		}
+	}
+
+	/**
+	 * Reads landmarks from a stream, which is decompressed if it starts with
+	 * the gzip magic number. The stream is not closed.
+	 *
+	 * @param is the stream
+	 * @return the landmarks
+	 * @throws IOException if reading fails or the rows are malformed
+	 */
+	public LandmarkColumns read( final InputStream is ) throws IOException
+	{
+		final BufferedInputStream bis = new BufferedInputStream( is, 1 << 16 );
+		bis.mark( 2 );
+		final int b0 = bis.read();
+		final int b1 = bis.read();
+		bis.reset();
+
+		final InputStream in;
+		if ( b0 == ( GZIPInputStream.GZIP_MAGIC & 0xff ) && b1 == ( GZIPInputStream.GZIP_MAGIC >> 8 ) )
+			in = new GZIPInputStream( bis, 1 << 16 );
+		else
+			in = bis;
+
+		return read( new InputStreamReader( in, StandardCharsets.UTF_8 ) );
+	}
+
+	/**
+	 * Reads landmarks from a reader, which is not closed.
+	 *
+	 * @param reader the reader
+	 * @return the landmarks
+	 * @throws IOException if reading fails or the rows are malformed
+	 */
+	public LandmarkColumns read( final Reader reader ) throws IOException
+	{
+		final ExecutorService threadPool = Executors.newFixedThreadPool( nThreads );
+		try
+		{
+			final List< Block > blocks = new ArrayList<>();
+			final ArrayDeque< Future< Block > > pending = new ArrayDeque<>();
+
+			char[] buf = new char[ chunkSize ];
+			int len = 0;
+			boolean eof = false;
+			while ( !eof )
+			{
+				final int n = reader.read( buf, len, buf.length - len );
+				if ( n < 0 )
+					eof = true;
+				else
+					len += n;
+
+				if ( !eof && len < buf.length )
+					continue;
+
+				final int end = eof ? len : endOfLastRow( buf, len );
+				if ( end == 0 && !eof )
+				{
+					// a single row longer than the buffer
+					buf = Arrays.copyOf( buf, 2 * buf.length );
+					continue;
+				}
+
+				final char[] chunk = Arrays.copyOf( buf, end );
+				pending.add( threadPool.submit( () -> parse( chunk ) ) );
+				System.arraycopy( buf, end, buf, 0, len - end );
+				len -= end;
+
+				// bound the number of chunks in memory
+				while ( pending.size() > 2 * nThreads )
+					blocks.add( get( pending.poll() ) );
+			}
+
+			while ( !pending.isEmpty() )
+				blocks.add( get( pending.poll() ) );
+
+			return merge( blocks );
+		}
+		finally
+		{
+			threadPool.shutdownNow();
+		}
+	}
+
+	private static Block get( final Future< Block > future ) throws IOException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch ( final ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof IOException )
+				throw ( IOException ) cause;
+			else if ( cause instanceof RuntimeException )
+				throw ( RuntimeException ) cause;
+			else
+				throw new IOException( cause );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException( e );
+		}
+	}
+
+	/*
+	 * The index after the last line break that is not within quotes.
+	 */
+	private static int endOfLastRow( final char[] buf, final int len )
+	{
+		int end = 0;
+		boolean quoted = false;
+		for ( int i = 0; i < len; i++ )
+		{
+			final char c = buf[ i ];
+			if ( c == '"' )
+				quoted = !quoted;
+			else if ( c == '\n' && !quoted )
+				end = i + 1;
+		}
+		return end;
+	}
+
+	private static LandmarkColumns merge( final List< Block > blocks ) throws IOException
+	{
+		int numColumns = -1;
+		int size = 0;
+		for ( final Block b : blocks )
+		{
+			if ( b.size == 0 )
+				continue;
+
+			if ( numColumns < 0 )
+				numColumns = b.numColumns;
+			else if ( b.numColumns != numColumns )
+				throw new IOException( "Invalid file - not enough columns" );
+
+			size += b.size;
+		}
+
+		final int nd = numColumns < 0 ? 3 : ( numColumns - 2 ) / 2;
+		final String[] names = new String[ size ];
+		final boolean[] active = new boolean[ size ];
+		final double[][] moving = new double[ nd ][ size ];
+		final double[][] target = new double[ nd ][ size ];
+
+		int i = 0;
+		for ( final Block b : blocks )
+		{
+			System.arraycopy( b.names, 0, names, i, b.size );
+			System.arraycopy( b.active, 0, active, i, b.size );
+			int k = 0;
+			for ( int j = 0; j < b.size; j++, i++ )
+			{
+				for ( int d = 0; d < nd; d++ )
+					moving[ d ][ i ] = b.values[ k++ ];
+
+				for ( int d = 0; d < nd; d++ )
+					target[ d ][ i ] = b.values[ k++ ];
+			}
+		}
+		return new LandmarkColumns( names, active, moving, target );
+	}
+
+	/*
+	 * Parses the rows of a chunk, every row is terminated by a line break or
+	 * the end of the chunk. Empty rows are skipped.
+	 */
+	private static Block parse( final char[] buf ) throws IOException
+	{
+		int maxRows = 1;
+		for ( final char c : buf )
+			if ( c == '\n' )
+				maxRows++;
+
+		final Block block = new Block( maxRows );
+		final int[] bounds = new int[ 3 ];
+		double[] row = new double[ 6 ];
+
+		int i = 0;
+		final int len = buf.length;
+		while ( i < len )
+		{
+			// skip empty rows
+			final char c0 = buf[ i ];
+			if ( c0 == '\n' || c0 == '\r' )
+			{
+				i++;
+				continue;
+			}
+
+			// name
+			i = nextField( buf, i, bounds );
+			final String name = bounds[ 2 ] == 0
+					? new String( buf, bounds[ 0 ], bounds[ 1 ] - bounds[ 0 ] )
+					: unescape( buf, bounds[ 0 ], bounds[ 1 ] );
+
+			// active flag and coordinates
+			int numColumns = 1;
+			boolean active = false;
+			int k = 0;
+			while ( i < len && buf[ i ] == ',' )
+			{
+				i = nextField( buf, i + 1, bounds );
+				if ( numColumns == 1 )
+					active = parseBoolean( buf, bounds[ 0 ], bounds[ 1 ] );
+				else
+				{
+					if ( k == row.length )
+						row = Arrays.copyOf( row, 2 * k );
+
+					row[ k++ ] = parseDouble( buf, bounds[ 0 ], bounds[ 1 ] );
+				}
+				numColumns++;
+			}
+
+			// end of the row
+			while ( i < len && buf[ i ] != '\n' )
+				i++;
+
+			if ( block.numColumns < 0 && ( numColumns == 6 || numColumns == 8 ) )
+				block.numColumns = numColumns;
+
+			if ( numColumns != block.numColumns )
+				throw new IOException( "Invalid file - not enough columns" );
+
+			block.add( name, active, row, k );
+		}
+		return block;
+	}
+
+	/*
+	 * Finds the field starting at i, and stores its start, end, and whether it
+	 * contains escaped quotes in bounds. Returns the index after the field.
+	 */
+	private static int nextField( final char[] buf, int i, final int[] bounds )
+	{
+		final int len = buf.length;
+		while ( i < len && buf[ i ] == ' ' )
+			i++;
+
+		if ( i < len && buf[ i ] == '"' )
+		{
+			bounds[ 0 ] = ++i;
+			bounds[ 2 ] = 0;
+			while ( i < len )
+			{
+				if ( buf[ i ] == '"' )
+				{
+					if ( i + 1 < len && buf[ i + 1 ] == '"' )
+					{
+						bounds[ 2 ] = 1;
+						i += 2;
+						continue;
+					}
+					break;
+				}
+				i++;
+			}
+			bounds[ 1 ] = i;
+
+			// skip the closing quote and anything up to the next separator
+			while ( i < len && buf[ i ] != ',' && buf[ i ] != '\n' )
+				i++;
+		}
+		else
+		{
+			bounds[ 0 ] = i;
+			bounds[ 2 ] = 0;
+			while ( i < len && buf[ i ] != ',' && buf[ i ] != '\n' )
+				i++;
+
+			int end = i;
+			while ( end > bounds[ 0 ] && ( buf[ end - 1 ] == '\r' || buf[ end - 1 ] == ' ' ) )
+				end--;
+
+			bounds[ 1 ] = end;
+		}
+		return i;
+	}
+
+	private static String unescape( final char[] buf, final int start, final int end )
+	{
+		final StringBuilder sb = new StringBuilder( end - start );
+		for ( int i = start; i < end; i++ )
+		{
+			sb.append( buf[ i ] );
+			if ( buf[ i ] == '"' )
+				i++;
+		}
+		return sb.toString();
+	}
+
+	private static boolean parseBoolean( final char[] buf, final int start, final int end )
+	{
+		if ( end - start != 4 )
+			return false;
+
+		return ( buf[ start ] | 0x20 ) == 't' && ( buf[ start + 1 ] | 0x20 ) == 'r'
+				&& ( buf[ start + 2 ] | 0x20 ) == 'u' && ( buf[ start + 3 ] | 0x20 ) == 'e';
+	}
+
+	/**
+	 * Parses a double from characters without creating a string.
+	 * <p>
+	 * Plain decimals with at most 18 significant digits are parsed directly
+	 * and rounded correctly, as the mantissa and the power of ten are both
+	 * exact doubles. Everything else (exponents, "Infinity", "NaN", long
+	 * mantissas) goes through {@link Double#parseDouble(String)}.
+	 *
+	 * @param buf the characters
+	 * @param start the first character
+	 * @param end the index after the last character
+	 * @return the value
+	 */
+	static double parseDouble( final char[] buf, final int start, final int end )
+	{
+		int i = start;
+		boolean negative = false;
+		if ( i < end && ( buf[ i ] == '-' || buf[ i ] == '+' ) )
+			negative = buf[ i++ ] == '-';
+
+		long mantissa = 0;
+		int significantDigits = 0;
+		int scale = 0;
+		boolean dot = false;
+		boolean anyDigit = false;
+		for ( ; i < end; i++ )
+		{
+			final char c = buf[ i ];
+			if ( c >= '0' && c <= '9' )
+			{
+				if ( significantDigits >= 18 )
+					return parseDoubleSlow( buf, start, end );
+
+				anyDigit = true;
+				mantissa = 10 * mantissa + ( c - '0' );
+				if ( mantissa != 0 )
+					significantDigits++;
+
+				if ( dot )
+					scale++;
+			}
+			else if ( c == '.' && !dot )
+				dot = true;
+			else
+				return parseDoubleSlow( buf, start, end );
+		}
+
+		if ( !anyDigit || scale >= POW10.length || mantissa >= ( 1L << 53 ) )
+			return parseDoubleSlow( buf, start, end );
+
+		final double v = scale == 0 ? mantissa : mantissa / POW10[ scale ];
+		return negative ? -v : v;
+	}
+
+	private static double parseDoubleSlow( final char[] buf, final int start, final int end )
+	{
+		return Double.parseDouble( new String( buf, start, end - start ) );
+	}
+
+	/*
+	 * The rows parsed from one chunk, with coordinates stored row after row.
+	 */
+	private static class Block
+	{
+		int size = 0;
+
+		int numColumns = -1;
+
+		final String[] names;
+
+		final boolean[] active;
+
+		double[] values;
+
+		Block( final int capacity )
+		{
+			names = new String[ capacity ];
+			active = new boolean[ capacity ];
+			values = new double[ 0 ];
+		}
+
+		void add( final String name, final boolean isActive, final double[] row, final int n )
+		{
+			if ( values.length == 0 )
+				values = new double[ names.length * n ];
+
+			names[ size ] = name;
+			active[ size ] = isActive;
+			System.arraycopy( row, 0, values, size * n, n );
+			size++;
+		}
+	}
+}
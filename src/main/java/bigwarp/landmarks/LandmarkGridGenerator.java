@@ -58,17 +58,27 @@ public class LandmarkGridGenerator
 		int i = 0;
 		double[] p = new double[ interval.numDimensions() ];
 		RealIntervalIterator it = new RealIntervalIterator( interval, spacing );
-		while( it.hasNext() )
-		{
-			it.fwd();
-			it.localize( p );
-
-			//System.out.println( "Adding: " + Arrays.toString( p ));
 
-			// ltm makes a copy, so can re-use p
-			ltm.add( p, true );
-			ltm.setPoint( ltm.getNextRow( false ), false, p, null );
-			i++;
+		// undone as a single edit
+		ltm.beginCompoundEdit();
+		try
+		{
+			while( it.hasNext() )
+			{
+				it.fwd();
+				it.localize( p );
+
+				//System.out.println( "Adding: " + Arrays.toString( p ));
+
+				// ltm makes a copy, so can re-use p
+				ltm.add( p, true );
+				ltm.setPoint( ltm.getNextRow( false ), false, p, null );
+				i++;
+			}
+		}
+		finally
+		{
+			ltm.endCompoundEdit();
 		}
 
 		System.out.println( "Added " + i + " pts" );
@@ -0,0 +1,488 @@
+package bigwarp.landmarks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only journal of landmark edits on top of a snapshot, used for
+ * auto-saving.
+ * <p>
+ * A folder holds a snapshot of the landmarks in the binary landmark format
+ * (see {@link LandmarkBinaryFormat}), and a journal of the edits made since
+ * the snapshot was written. Both are numbered by a generation. Appending edits
+ * costs time proportional to the number of edits, and {@link #compact()}
+ * writes a new snapshot of the next generation, starts an empty journal, and
+ * then deletes the files of the previous generation. If the process dies at
+ * any point, {@link #recover(File)} restores the landmarks from the latest
+ * complete snapshot and replays its journal.
+ * <p>
+ * The journal keeps its own copy of the landmarks, to which edits are applied
+ * as they are appended, so that snapshots can be written without access to
+ * the {@link LandmarkTableModel}.
+ */
+public class LandmarkJournal implements Closeable
+{
+	public static final String SNAPSHOT_PREFIX = "snapshot-";
+
+	public static final String JOURNAL_PREFIX = "journal-";
+
+	public static final String JOURNAL_EXTENSION = ".log";
+
+	private static final int MAGIC = 0x42574a4c;
+
+	private final File folder;
+
+	private final int ndims;
+
+	private final ArrayList< Row > rows;
+
+	private long generation;
+
+	private FileOutputStream journalStream;
+
+	private DataOutputStream out;
+
+	private int numRecords;
+
+	/**
+	 * Starts a new generation in a folder, with a snapshot of the given
+	 * landmarks.
+	 *
+	 * @param folder the folder
+	 * @param landmarks the landmarks
+	 * @throws IOException if the snapshot can not be written
+	 */
+	public LandmarkJournal( final File folder, final LandmarkColumns landmarks ) throws IOException
+	{
+		this.folder = folder;
+		this.ndims = landmarks.ndims;
+		if ( !folder.isDirectory() && !folder.mkdirs() )
+			throw new IOException( "Could not create folder " + folder );
+
+		rows = new ArrayList<>( landmarks.size );
+		for ( int i = 0; i < landmarks.size; i++ )
+			rows.add( Row.from( landmarks, i ) );
+
+		generation = latestGeneration( folder );
+		compact();
+	}
+
+	public File getFolder()
+	{
+		return folder;
+	}
+
+	/**
+	 * @return the number of rows of the journaled landmarks
+	 */
+	public int size()
+	{
+		return rows.size();
+	}
+
+	/**
+	 * @return the number of edits appended since the last snapshot
+	 */
+	public int numRecords()
+	{
+		return numRecords;
+	}
+
+	/**
+	 * @return a copy of the journaled landmarks
+	 */
+	public LandmarkColumns getLandmarks()
+	{
+		return toColumns( rows, ndims );
+	}
+
+	/**
+	 * Appends edits to the journal, and forces them to disk. A reset starts a
+	 * new generation instead.
+	 *
+	 * @param edits the edits
+	 * @throws IOException if writing fails
+	 */
+	public void append( final List< Edit > edits ) throws IOException
+	{
+		boolean reset = false;
+		for ( final Edit edit : edits )
+		{
+			apply( rows, edit );
+			if ( edit.type == Edit.RESET )
+				reset = true;
+			else if ( !reset )
+			{
+				write( out, edit, ndims );
+				numRecords++;
+			}
+		}
+
+		if ( reset )
+			compact();
+		else
+		{
+			out.flush();
+			journalStream.getFD().sync();
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the journaled landmarks as the next generation and
+	 * starts an empty journal for it.
+	 *
+	 * @throws IOException if writing fails
+	 */
+	public void compact() throws IOException
+	{
+		final long next = generation + 1;
+		final File snapshot = snapshotFile( folder, next );
+		final File tmp = new File( folder, snapshot.getName() + ".tmp" );
+		LandmarkBinaryFormat.write( toColumns( rows, ndims ), tmp );
+		try
+		{
+			Files.move( tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		catch ( final AtomicMoveNotSupportedException e )
+		{
+			Files.move( tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING );
+		}
+
+		closeJournal();
+		journalStream = new FileOutputStream( journalFile( folder, next ) );
+		out = new DataOutputStream( new BufferedOutputStream( journalStream ) );
+		out.writeInt( MAGIC );
+		out.writeInt( ndims );
+		out.writeLong( next );
+		out.flush();
+		journalStream.getFD().sync();
+		numRecords = 0;
+
+		// the new generation is complete, remove the previous ones
+		final File[] files = folder.listFiles();
+		if ( files != null )
+			for ( final File f : files )
+			{
+				final long g = generationOf( f );
+				if ( g >= 0 && g < next )
+					f.delete();
+			}
+
+		generation = next;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		closeJournal();
+	}
+
+	private void closeJournal() throws IOException
+	{
+		if ( out != null )
+		{
+			out.close();
+			out = null;
+			journalStream = null;
+		}
+	}
+
+	/**
+	 * Restores landmarks from the latest snapshot in a folder and the edits
+	 * journaled after it. A partially written last edit is ignored.
+	 *
+	 * @param folder the folder
+	 * @return the landmarks, or null if the folder contains no snapshot
+	 * @throws IOException if the snapshot can not be read
+	 */
+	public static LandmarkColumns recover( final File folder ) throws IOException
+	{
+		final long g = latestGeneration( folder );
+		if ( g < 0 )
+			return null;
+
+		final LandmarkColumns snapshot = LandmarkBinaryFormat.read( snapshotFile( folder, g ) );
+		final int nd = snapshot.ndims;
+		final ArrayList< Row > rows = new ArrayList<>( snapshot.size );
+		for ( int i = 0; i < snapshot.size; i++ )
+			rows.add( Row.from( snapshot, i ) );
+
+		final File journal = journalFile( folder, g );
+		if ( journal.isFile() )
+		{
+			try ( final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( journal ) ) ) )
+			{
+				if ( in.readInt() == MAGIC && in.readInt() == nd && in.readLong() == g )
+				{
+					while ( true )
+					{
+						final Edit edit = read( in, nd );
+						if ( !apply( rows, edit ) )
+							break;
+					}
+				}
+			}
+			catch ( final EOFException e )
+			{
+				// the end of the journal, or a partially written edit
+			}
+		}
+		return toColumns( rows, nd );
+	}
+
+	/*
+	 * The generation of the latest complete snapshot in a folder, or -1.
+	 */
+	private static long latestGeneration( final File folder )
+	{
+		long latest = -1;
+		final File[] files = folder.listFiles();
+		if ( files != null )
+			for ( final File f : files )
+				if ( f.getName().startsWith( SNAPSHOT_PREFIX ) && f.getName().endsWith( LandmarkBinaryFormat.EXTENSION ) )
+					latest = Math.max( latest, generationOf( f ) );
+
+		return latest;
+	}
+
+	private static long generationOf( final File f )
+	{
+		String name = f.getName();
+		if ( name.endsWith( ".tmp" ) )
+			name = name.substring( 0, name.length() - 4 );
+
+		final String number;
+		if ( name.startsWith( SNAPSHOT_PREFIX ) && name.endsWith( LandmarkBinaryFormat.EXTENSION ) )
+			number = name.substring( SNAPSHOT_PREFIX.length(), name.length() - LandmarkBinaryFormat.EXTENSION.length() );
+		else if ( name.startsWith( JOURNAL_PREFIX ) && name.endsWith( JOURNAL_EXTENSION ) )
+			number = name.substring( JOURNAL_PREFIX.length(), name.length() - JOURNAL_EXTENSION.length() );
+		else
+			return -1;
+
+		try
+		{
+			return Long.parseLong( number );
+		}
+		catch ( final NumberFormatException e )
+		{
+			return -1;
+		}
+	}
+
+	private static File snapshotFile( final File folder, final long generation )
+	{
+		return new File( folder, SNAPSHOT_PREFIX + generation + LandmarkBinaryFormat.EXTENSION );
+	}
+
+	private static File journalFile( final File folder, final long generation )
+	{
+		return new File( folder, JOURNAL_PREFIX + generation + JOURNAL_EXTENSION );
+	}
+
+	private static void write( final DataOutputStream out, final Edit edit, final int nd ) throws IOException
+	{
+		out.writeByte( edit.type );
+		out.writeInt( edit.row );
+		if ( edit.type == Edit.DELETE )
+			return;
+
+		final Row r = edit.value;
+		out.writeUTF( r.name );
+		out.writeBoolean( r.active );
+		for ( int d = 0; d < nd; d++ )
+			out.writeDouble( r.moving[ d ] );
+
+		for ( int d = 0; d < nd; d++ )
+			out.writeDouble( r.target[ d ] );
+	}
+
+	private static Edit read( final DataInputStream in, final int nd ) throws IOException
+	{
+		final byte type = in.readByte();
+		final int row = in.readInt();
+		if ( type == Edit.DELETE )
+			return new Edit( type, row, null, null );
+
+		final String name = in.readUTF();
+		final boolean active = in.readBoolean();
+		final double[] moving = new double[ nd ];
+		final double[] target = new double[ nd ];
+		for ( int d = 0; d < nd; d++ )
+			moving[ d ] = in.readDouble();
+
+		for ( int d = 0; d < nd; d++ )
+			target[ d ] = in.readDouble();
+
+		return new Edit( type, row, new Row( name, active, moving, target ), null );
+	}
+
+	/*
+	 * Applies an edit, returns false if it does not fit the rows.
+	 */
+	private static boolean apply( final List< Row > rows, final Edit edit )
+	{
+		switch ( edit.type )
+		{
+		case Edit.UPDATE:
+			if ( edit.row < 0 || edit.row >= rows.size() )
+				return false;
+			rows.set( edit.row, edit.value );
+			return true;
+		case Edit.INSERT:
+			if ( edit.row < 0 || edit.row > rows.size() )
+				return false;
+			rows.add( edit.row, edit.value );
+			return true;
+		case Edit.DELETE:
+			if ( edit.row < 0 || edit.row >= rows.size() )
+				return false;
+			rows.remove( edit.row );
+			return true;
+		case Edit.RESET:
+			rows.clear();
+			for ( int i = 0; i < edit.landmarks.size; i++ )
+				rows.add( Row.from( edit.landmarks, i ) );
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static LandmarkColumns toColumns( final List< Row > rows, final int nd )
+	{
+		final int N = rows.size();
+		final String[] names = new String[ N ];
+		final boolean[] active = new boolean[ N ];
+		final double[][] moving = new double[ nd ][ N ];
+		final double[][] target = new double[ nd ][ N ];
+		for ( int i = 0; i < N; i++ )
+		{
+			final Row r = rows.get( i );
+			names[ i ] = r.name;
+			active[ i ] = r.active;
+			for ( int d = 0; d < nd; d++ )
+			{
+				moving[ d ][ i ] = r.moving[ d ];
+				target[ d ][ i ] = r.target[ d ];
+			}
+		}
+		return new LandmarkColumns( names, active, moving, target );
+	}
+
+	/**
+	 * An immutable copy of one row of a landmark table.
+	 */
+	public static class Row
+	{
+		public final String name;
+
+		public final boolean active;
+
+		public final double[] moving;
+
+		public final double[] target;
+
+		public Row( final String name, final boolean active, final double[] moving, final double[] target )
+		{
+			this.name = name == null ? "" : name;
+			this.active = active;
+			this.moving = moving;
+			this.target = target;
+		}
+
+		/**
+		 * Copies a row of a {@link LandmarkTableModel}.
+		 *
+		 * @param ltm the table
+		 * @param i the row
+		 * @return the copy
+		 */
+		public static Row from( final LandmarkTableModel ltm, final int i )
+		{
+			return new Row(
+					ltm.getNames().get( i ),
+					ltm.getIsActive( i ),
+					LandmarkTableModel.toPrimitive( ltm.getMovingPoint( i ) ),
+					LandmarkTableModel.toPrimitive( ltm.getFixedPoint( i ) ) );
+		}
+
+		private static Row from( final LandmarkColumns landmarks, final int i )
+		{
+			final int nd = landmarks.ndims;
+			final double[] moving = new double[ nd ];
+			final double[] target = new double[ nd ];
+			for ( int d = 0; d < nd; d++ )
+			{
+				moving[ d ] = landmarks.moving[ d ][ i ];
+				target[ d ] = landmarks.target[ d ][ i ];
+			}
+			return new Row( landmarks.names[ i ], landmarks.active[ i ], moving, target );
+		}
+	}
+
+	/**
+	 * An edit of a landmark table.
+	 */
+	public static class Edit
+	{
+		public static final byte UPDATE = 1;
+
+		public static final byte INSERT = 2;
+
+		public static final byte DELETE = 3;
+
+		/**
+		 * Replaces all rows, never journaled but written as a snapshot.
+		 */
+		public static final byte RESET = 4;
+
+		public final byte type;
+
+		public final int row;
+
+		public final Row value;
+
+		public final LandmarkColumns landmarks;
+
+		private Edit( final byte type, final int row, final Row value, final LandmarkColumns landmarks )
+		{
+			this.type = type;
+			this.row = row;
+			this.value = value;
+			this.landmarks = landmarks;
+		}
+
+		public static Edit update( final int row, final Row value )
+		{
+			return new Edit( UPDATE, row, value, null );
+		}
+
+		public static Edit insert( final int row, final Row value )
+		{
+			return new Edit( INSERT, row, value, null );
+		}
+
+		public static Edit delete( final int row )
+		{
+			return new Edit( DELETE, row, null, null );
+		}
+
+		public static Edit reset( final LandmarkColumns landmarks )
+		{
+			return new Edit( RESET, -1, null, landmarks );
+		}
+	}
+}
@@ -6,7 +6,6 @@ package bigwarp.landmarks;
 import bdv.viewer.TransformListener;
 import java.awt.Color;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -23,22 +22,29 @@ import org.apache.commons.lang.SerializationUtils;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 
-import bigwarp.landmarks.actions.AddPointEdit;
-import bigwarp.landmarks.actions.DeleteRowEdit;
 import bigwarp.landmarks.actions.LandmarkUndoManager;
-import bigwarp.landmarks.actions.ModifyPointEdit;
+import bigwarp.transforms.GridInverseTransform;
+import bigwarp.transforms.SolvedTpsCache;
+import bigwarp.transforms.TpsNewtonInvertibleTransform;
 import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
 import net.imglib2.RealLocalizable;
 import net.imglib2.realtransform.InvertibleRealTransform;
 import net.imglib2.realtransform.RealTransform;
+import net.imglib2.realtransform.Wrapped2DTransformAs3D;
 import net.imglib2.realtransform.inverse.WrappedIterativeInvertibleRealTransform;
 
-import com.opencsv.CSVReader;
 import com.opencsv.CSVWriter;
 
 import bdv.gui.BigWarpMessageAnimator;
 
 /**
+ * The landmarks, and their positions warped into target space.
+ * <p>
+ * The table is edited from the event dispatch thread and from BigWarp's
+ * solver threads (dragged points and warped points after a solve). Methods
+ * that read or change points synchronize on this model, code that needs a
+ * consistent view of several rows should synchronize on it as well.
+ *
  * @author John Bogovic &lt;bogovicj@janelia.hhmi.org&gt;
  *
  */
@@ -97,7 +103,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 
 
 	// inverse iterations
-	protected int maxInverseIterations = 500;
+	protected int maxInverseIterations = TpsNewtonInvertibleTransform.DEFAULT_MAX_ITERS;
 
 	// inverse threshold
 	protected double inverseThreshold = 0.5;
@@ -114,8 +120,14 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	
 	protected BigWarpMessageAnimator message;
 
+	protected SolvedTpsCache solvedTpsCache;
+
 	protected boolean modifiedSinceLastSave;
 
+	// nesting depth of bulk updates, and whether the table changed during one
+	protected int bulkDepth = 0;
+	protected boolean changedDuringBulk = false;
+
 	final static String[] columnNames3d = new String[]
 			{
 			"Name", "Active",
@@ -167,7 +179,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		
 		setTableListener();
 		
-		undoRedoManager = new LandmarkUndoManager();
+		undoRedoManager = new LandmarkUndoManager( this );
 
 		estimatedXfm = new ThinPlateR2LogRSplineKernelTransform ( ndims );
 
@@ -179,6 +191,28 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		this.message = message;
 	}
 
+	/**
+	 * Sets the cache of solved thin plate splines used for the
+	 * transformations of this table, instead of the default cache (see
+	 * {@link SolvedTpsCache#getDefault()}). Set it before loading landmarks,
+	 * as loading solves the spline.
+	 *
+	 * @param solvedTpsCache the cache, or null to use the default
+	 */
+	public void setSolvedTpsCache( final SolvedTpsCache solvedTpsCache )
+	{
+		this.solvedTpsCache = solvedTpsCache;
+	}
+
+	/**
+	 * @return the cache set with {@link #setSolvedTpsCache(SolvedTpsCache)},
+	 *         or the default cache, or null if neither is set
+	 */
+	public SolvedTpsCache getSolvedTpsCache()
+	{
+		return solvedTpsCache != null ? solvedTpsCache : SolvedTpsCache.getDefault();
+	}
+
 	public int getNumdims()
 	{
 		return ndims;
@@ -317,7 +351,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	}
 
 	@Override
-	public int getRowCount()
+	public synchronized int getRowCount()
 	{
 		return numRows;
 	}
@@ -363,7 +397,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		return activeList.get( row );
 	}
 
-	public void setIsActive( int row, boolean isActive )
+	public synchronized void setIsActive( int row, boolean isActive )
 	{
 		if( isRowUnpaired( row ) && isActive )
 		{
@@ -372,14 +406,17 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 			return;
 		}
 
-		if( activeList.get( row ) != isActive )
+		final boolean changed = activeList.get( row ) != isActive;
+		activeList.set( row, isActive );
+		if( bulkDepth == 0 )
+			buildTableToActiveIndex();
+
+		// listeners see the new state
+		if( changed )
 		{
 			fireTableCellUpdated( row, ACTIVECOLUMN );
 			modifiedSinceLastSave = true;
 		}
-
-		activeList.set( row, isActive );
-		buildTableToActiveIndex();
 	}
 
 	private void buildTableToActiveIndex()
@@ -425,19 +462,140 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 
 	public void clear()
 	{
-		for( int i = getRowCount() - 1; i >= 0; i-- )
-			deleteRow( i );
+		beginCompoundEdit();
+		try
+		{
+			for( int i = getRowCount() - 1; i >= 0; i-- )
+				deleteRow( i );
+		}
+		finally
+		{
+			endCompoundEdit();
+		}
 	}
 
-	public void deleteRow( int i )
+	public synchronized void deleteRow( int i )
 	{
 		if( getRowCount() > 0 && i >= 0)
 		{
-			undoRedoManager.addEdit( new DeleteRowEdit( this, i ) );
+			undoRedoManager.recordDeleteRow( i, names.get( i ), activeList.get( i ),
+					toPrimitive( movingPts.get( i ) ), toPrimitive( targetPts.get( i ) ) );
 			deleteRowHelper( i );
 		}
 	}
 
+	/**
+	 * Starts a bulk update. Until the matching {@link #endBulkUpdate()}, no
+	 * table events are fired, and the active indices and pending rows are not
+	 * updated after every edit. They are updated once, and a single table
+	 * event is fired, when the outermost bulk update ends.
+	 */
+	public synchronized void beginBulkUpdate()
+	{
+		if( bulkDepth++ == 0 )
+			changedDuringBulk = false;
+	}
+
+	public synchronized void endBulkUpdate()
+	{
+		if( bulkDepth == 0 || --bulkDepth > 0 )
+			return;
+
+		updateNextRows( 0 );
+		buildTableToActiveIndex();
+		pointUpdatePending = isUpdatePending();
+
+		if( changedDuringBulk )
+			fireTableDataChanged();
+	}
+
+	public boolean isBulkUpdate()
+	{
+		return bulkDepth > 0;
+	}
+
+	/**
+	 * Starts a bulk update whose undoable edits are undone and redone as a
+	 * single edit.
+	 */
+	public void beginCompoundEdit()
+	{
+		undoRedoManager.beginCompound();
+		beginBulkUpdate();
+	}
+
+	public void endCompoundEdit()
+	{
+		endBulkUpdate();
+		undoRedoManager.endCompound();
+	}
+
+	@Override
+	public void fireTableChanged( final TableModelEvent e )
+	{
+		if( bulkDepth > 0 )
+			changedDuringBulk = true;
+		else
+			super.fireTableChanged( e );
+	}
+
+	/**
+	 * Inserts a complete row, this is not undoable.
+	 *
+	 * @param index the row index
+	 * @param name the name
+	 * @param isActive is the row active
+	 * @param movingPt the moving point
+	 * @param targetPt the target point
+	 */
+	public synchronized void insertRow( final int index, final String name, final boolean isActive, final double[] movingPt, final double[] targetPt )
+	{
+		final Double[] mvg = new Double[ ndims ];
+		final Double[] tgt = new Double[ ndims ];
+		for( int d = 0; d < ndims; d++ )
+		{
+			mvg[ d ] = movingPt[ d ];
+			tgt[ d ] = targetPt[ d ];
+		}
+
+		names.add( index, name );
+		activeList.add( index, isActive );
+		movingPts.add( index, mvg );
+		targetPts.add( index, tgt );
+		warpedPoints.add( index, new Double[ ndims ] );
+		doesPointHaveAndNeedWarp.add( index, false );
+		movingDisplayPointUnreliable.add( index, false );
+		numRows++;
+		modifiedSinceLastSave = true;
+
+		fireTableRowsInserted( index, index );
+		if( bulkDepth == 0 )
+		{
+			updateNextRows( 0 );
+			buildTableToActiveIndex();
+			pointUpdatePending = isUpdatePending();
+		}
+	}
+
+	/**
+	 * Exchanges the moving and target points of every row, in place. This is
+	 * undoable.
+	 */
+	public synchronized void swapMovingAndTarget()
+	{
+		final ArrayList< Double[] > tmp = movingPts;
+		movingPts = targetPts;
+		targetPts = tmp;
+		resetWarpedPoints();
+		undoRedoManager.recordInvert();
+		modifiedSinceLastSave = true;
+
+		if( bulkDepth == 0 )
+			updateNextRows( 0 );
+
+		fireTableDataChanged();
+	}
+
 	public synchronized void deleteRowHelper( int i )
 	{
 		if( i >= names.size() )
@@ -460,15 +618,18 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		
 		numRows--;
 
-		pointUpdatePending = isUpdatePending();
-
 		nextRowP = numRows;
 		nextRowQ = numRows;
 
 		fireTableRowsDeleted( i, i );
 		modifiedSinceLastSave = true;
 
-		buildTableToActiveIndex();
+		// updated once at the end of a bulk update
+		if( bulkDepth == 0 )
+		{
+			pointUpdatePending = isUpdatePending();
+			buildTableToActiveIndex();
+		}
 	}
 
 	/**
@@ -541,8 +702,8 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 			}
 		}
 
-		// try wrapping
-		if ( lastAddedIndex > 0 && !pointUpdatePendingMoving )
+		// try wrapping, done once at the end of a bulk update
+		if ( lastAddedIndex > 0 && !pointUpdatePendingMoving && bulkDepth == 0 )
 			updateNextRows( 0 );
 
 		logger.trace(" updateNextRows  - moving: " + nextRowP + "  -  target:  " + nextRowQ );
@@ -564,12 +725,12 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 			return nextRowQ;
 	}
 
-	public Boolean isWarped( int i )
+	public synchronized Boolean isWarped( int i )
 	{
 		return doesPointHaveAndNeedWarp.get( i );
 	}
 
-	public void updateWarpedPoint( int i, double[] pt )
+	public synchronized void updateWarpedPoint( int i, double[] pt )
 	{
 		if( pt == null )
 			return;
@@ -609,13 +770,13 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		return doesPointHaveAndNeedWarp;
 	}
 
-	public void resetWarpedPoint( int i )
+	public synchronized void resetWarpedPoint( int i )
 	{
 		if ( activeList.get( i ) )
 			doesPointHaveAndNeedWarp.set( i, false );
 	}
 
-	public void resetWarpedPoints()
+	public synchronized void resetWarpedPoints()
 	{
 		for ( int i = 0; i < doesPointHaveAndNeedWarp.size(); i++ )
 			resetWarpedPoint( i );
@@ -691,7 +852,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		pointEdit( row, pt, false, isMoving, false, isUndoable, xfm );
 	}
 
-	public boolean pointEdit( final int index, final double[] pt, final boolean forceAdd, final boolean isMoving, final boolean isWarped, final boolean isUndoable, final RealTransform xfm )
+	public synchronized boolean pointEdit( final int index, final double[] pt, final boolean forceAdd, final boolean isMoving, final boolean isWarped, final boolean isUndoable, final RealTransform xfm )
 	{
 		//TODO point edit
 		if( isWarped )
@@ -717,7 +878,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	 * @param forceUpdateWarpedPts updated warped point positions
 	 * @return true if a new row was added
 	 */
-	public boolean pointEdit( int index, double[] pt, boolean forceAdd, boolean isMoving, double[] warpedPt, boolean isUndoable )
+	public synchronized boolean pointEdit( int index, double[] pt, boolean forceAdd, boolean isMoving, double[] warpedPt, boolean isUndoable )
 	{
 		// this means we should add a new point.  
 		// index of this point should be the next free row in the table
@@ -782,16 +943,9 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		if ( isUndoable )
 		{
 			if ( isAdd )
-			{
-				undoRedoManager.addEdit( new AddPointEdit( this, index, pt, isMoving ) );
-			}
+				undoRedoManager.recordAdd( index, pt, isMoving );
 			else
-			{
-				undoRedoManager.addEdit( new ModifyPointEdit(
-						this, index,
-						oldpt, pt,
-						isMoving ) );
-			}
+				undoRedoManager.recordModify( index, oldpt, pt, isMoving );
 			lastPoint = PENDING_PT;
 		}
 		else if( lastPoint == PENDING_PT )
@@ -829,14 +983,52 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	/**
 	 * Looks through the table for points where there is a point in moving space but not fixed space.
 	 * For any such landmarks that are found, compute the inverse transform and add the result to the fixed points line.
+	 * <p>
+	 * The rows are copied under a short lock, the inverses are computed
+	 * without holding the lock, and the results are written back under a
+	 * second short lock, so that the table can be painted and edited while
+	 * the inverses are computed. Results for rows that were edited in the
+	 * meantime are dropped.
 	 * 
 	 *  @param xfm the new transformation
 	 */
 	public void updateAllWarpedPoints( final InvertibleRealTransform xfm )
 	{
-		for ( int i = 0; i < numRows; i++ )
-			if ( !isFixedPoint( i ) && isMovingPoint( i ) )
-				computeWarpedPoint( i, xfm );
+		if ( xfm == null )
+			return;
+
+		final ArrayList< Integer > rows = new ArrayList<>();
+		final ArrayList< double[] > points = new ArrayList<>();
+		synchronized ( this )
+		{
+			for ( int i = 0; i < numRows; i++ )
+				if ( !isFixedPoint( i ) && isMovingPoint( i ) )
+				{
+					rows.add( i );
+					points.add( toPrimitive( movingPts.get( i ) ) );
+				}
+		}
+
+		final int N = rows.size();
+		final double[][] warped = new double[ N ][];
+		final double[] errors = new double[ N ];
+		for ( int k = 0; k < N; k++ )
+		{
+			warped[ k ] = new double[ ndims ];
+			errors[ k ] = warpMovingPoint( points.get( k ), xfm, warped[ k ] );
+		}
+
+		synchronized ( this )
+		{
+			for ( int k = 0; k < N; k++ )
+			{
+				final int i = rows.get( k );
+				if ( i >= numRows || isFixedPoint( i ) || !Arrays.equals( points.get( k ), toPrimitive( movingPts.get( i ) ) ) )
+					continue;
+
+				setWarpedPoint( i, warped[ k ], errors[ k ] );
+			}
+		}
 	}
 
 	/**
@@ -858,43 +1050,72 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	 */
 	public synchronized void computeWarpedPoint( int i, final InvertibleRealTransform xfm )
 	{
-		// TODO pass a transform here as argument - don't use estimatedXfm stored here
-
-		// TODO Perhaps move this into its own thread. and expose the parameters for solving the inverse.
 		if ( !isFixedPoint( i ) && isMovingPoint( i ) && xfm != null )
 		{
-			double[] tgt = toPrimitive( movingPts.get( i ) );
+			final double[] warpedPt = new double[ ndims ];
+			final double error = warpMovingPoint( toPrimitive( movingPts.get( i ) ), xfm, warpedPt );
+			setWarpedPoint( i, warpedPt, error );
+		}
+	}
 
-			double[] warpedPt = new double[ ndims ];
-			xfm.applyInverse( warpedPt, tgt );
+	/*
+	 * Computes the position of a moving point in target space, and returns
+	 * the residual of the inverse if it was iterated or interpolated from a
+	 * precomputed grid, zero otherwise.
+	 */
+	private double warpMovingPoint( final double[] tgt, final InvertibleRealTransform xfm, final double[] warpedPt )
+	{
+		xfm.applyInverse( warpedPt, tgt );
 
-			if( xfm instanceof WrappedIterativeInvertibleRealTransform )
-			{
-				WrappedIterativeInvertibleRealTransform<?> inv = (WrappedIterativeInvertibleRealTransform<?>)xfm;
-				double error = inv.getOptimzer().getError();
+		final InvertibleRealTransform unwrapped2d = ( xfm instanceof Wrapped2DTransformAs3D ) ?
+				((Wrapped2DTransformAs3D)xfm).getTransform() : xfm;
 
-				if( error > inverseThreshold )
-				{
-					movingDisplayPointUnreliable.set( i, true );
-					message.showMessage( String.format(
-						"Warning: location of moving point %s in warped space is innacurate", names.get( i )));
-				}
-				else
-					movingDisplayPointUnreliable.set( i, false );
-			}
+		final InvertibleRealTransform unwrapped = ( unwrapped2d instanceof GridInverseTransform ) ?
+				((GridInverseTransform)unwrapped2d).getTransform() : unwrapped2d;
+
+		if( !( unwrapped instanceof WrappedIterativeInvertibleRealTransform || unwrapped2d instanceof GridInverseTransform ) )
+			return 0;
+
+		final double[] warpedBack = new double[ ndims ];
+		unwrapped2d.apply( warpedPt, warpedBack );
+		double error = 0;
+		for( int d = 0; d < ndims; d++ )
+			error += ( warpedBack[ d ] - tgt[ d ] ) * ( warpedBack[ d ] - tgt[ d ] );
 
-			// TODO should check for failure or non-convergence here
-			// can use the error returned by the inverse method to do this. 
-			// BUT - it's not clear what to do upon failure 
-			updateWarpedPoint( i, warpedPt );
+		return Math.sqrt( error );
+	}
+
+	private void setWarpedPoint( final int i, final double[] warpedPt, final double error )
+	{
+		if( error > inverseThreshold )
+		{
+			movingDisplayPointUnreliable.set( i, true );
+			message.showMessage( String.format(
+				"Warning: location of moving point %s in warped space is innacurate", names.get( i )));
 		}
+		else
+			movingDisplayPointUnreliable.set( i, false );
+
+		updateWarpedPoint( i, warpedPt );
 	}
 
+	/**
+	 * Sets the maximum number of iterations of the inverse of thin plate
+	 * spline transformations, used from the next estimate of the
+	 * transformation on.
+	 *
+	 * @param maxIters the maximum number of iterations
+	 */
 	public void setMaxInverseIterations( final int maxIters )
 	{
 		maxInverseIterations = maxIters;
 	}
 
+	public int getMaxInverseIterations()
+	{
+		return maxInverseIterations;
+	}
+
 	public void setInverseThreshold( final double inverseThreshold )
 	{
 		this.inverseThreshold = inverseThreshold;
@@ -955,7 +1176,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		return dist;
 	}
 
-	public Double[] getPoint( boolean isMoving, int index )
+	public synchronized Double[] getPoint( boolean isMoving, int index )
 	{
 		if ( isMoving )
 			return movingPts.get( index );
@@ -1013,7 +1234,8 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		if ( changed )
 		{
 			activeList.set( index, activate );
-			buildTableToActiveIndex();
+			if( bulkDepth == 0 )
+				buildTableToActiveIndex();
 			fireTableCellUpdated( index, ACTIVECOLUMN );
 		}
 	}
@@ -1087,82 +1309,131 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 	}
 	
 	/**
-	 * Loads this table from a file
+	 * Loads this table from a file, either in the binary landmark format (see
+	 * {@link LandmarkBinaryFormat}) or as csv, which may be gzip-compressed.
+	 * <p>
+	 * The rows are read in bulk, see {@link LandmarkCsvReader}, and replace
+	 * the contents of this table with a single table event. Loading is undone
+	 * as a single edit.
+	 *
 	 * @param f the file
 	 * @param invert invert the moving and target point sets
 	 * @throws IOException an exception
 	 */
 	public void load( File f, boolean invert ) throws IOException
 	{
-		clear();
+		if( LandmarkBinaryFormat.isBinary( f ) )
+		{
+			load( LandmarkBinaryFormat.read( f ), invert );
+			return;
+		}
 
-		CSVReader reader = new CSVReader( new FileReader( f.getAbsolutePath() ));
-		List< String[] > rows = null;
-		rows = reader.readAll();
-		reader.close();
-		if( rows == null || rows.size() < 1 )
+		final LandmarkColumns landmarks = new LandmarkCsvReader().read( f );
+		if( landmarks.size < 1 )
 		{
+			clear();
 			System.err.println("Error reading csv");
 			return;
 		}
+		load( landmarks, invert );
+	}
 
-		int ndims = 3;
-		int expectedRowLength = 8;
+	/**
+	 * Replaces the contents of this table with the given landmarks.
+	 * <p>
+	 * Fires a single table event. This is undone as a single edit, unless the
+	 * landmarks have a different number of dimensions than this table, which
+	 * discards the edit history.
+	 *
+	 * @param landmarks the landmarks
+	 * @param invert invert the moving and target point sets
+	 */
+	public synchronized void load( final LandmarkColumns landmarks, final boolean invert )
+	{
+		final int N = landmarks.size;
+		final int ndims = landmarks.ndims;
+		final double[][] mvg = invert ? landmarks.target : landmarks.moving;
+		final double[][] tgt = invert ? landmarks.moving : landmarks.target;
 
-		int i = 0;
-		for( String[] row : rows )
+		// loading is undone as one edit, that deletes the new rows and
+		// restores the old ones
+		final boolean undoable = ndims == this.ndims;
+		if( undoable )
 		{
-			// detect a file with 2d landmarks
-			if( i == 0 && // only check for the first row
-					row.length == 6 )
-			{
-				ndims = 2;
-				expectedRowLength = 6;
-			}
-			
-			if( row.length != expectedRowLength  )
-				throw new IOException( "Invalid file - not enough columns" );
-			
-			names.add( row[ 0 ] );
-			activeList.add( Boolean.parseBoolean( row[ 1 ]) );
-			
-			Double[] movingPt = new Double[ ndims ];
-			Double[] targetPt = new Double[ ndims ];
-			
-			int k = 2;
-			for( int d = 0; d < ndims; d++ )
-				movingPt[ d ] = Double.parseDouble( row[ k++ ]);
-			
+			undoRedoManager.beginCompound();
+			for( int i = names.size() - 1; i >= 0; i-- )
+				undoRedoManager.recordDeleteRow( i, names.get( i ), activeList.get( i ),
+						toPrimitive( movingPts.get( i ) ), toPrimitive( targetPts.get( i ) ) );
+		}
+		else
+			undoRedoManager.discardAllEdits();
+
+		names.clear();
+		activeList.clear();
+		movingPts.clear();
+		targetPts.clear();
+		warpedPoints.clear();
+		doesPointHaveAndNeedWarp.clear();
+		movingDisplayPointUnreliable.clear();
+		indicesOfChangedPoints.clear();
+
+		names.ensureCapacity( N );
+		activeList.ensureCapacity( N );
+		movingPts.ensureCapacity( N );
+		targetPts.ensureCapacity( N );
+		warpedPoints.ensureCapacity( N );
+		doesPointHaveAndNeedWarp.ensureCapacity( N );
+		movingDisplayPointUnreliable.ensureCapacity( N );
+
+		for( int i = 0; i < N; i++ )
+		{
+			names.add( landmarks.names[ i ] );
+			activeList.add( landmarks.active[ i ] );
+
+			final Double[] movingPt = new Double[ ndims ];
+			final Double[] targetPt = new Double[ ndims ];
 			for( int d = 0; d < ndims; d++ )
-				targetPt[ d ] = Double.parseDouble( row[ k++ ]);
-			
-			if( invert )
-			{
-				movingPts.add( targetPt );
-				targetPts.add( movingPt );
-			}
-			else
 			{
-				movingPts.add( movingPt );
-				targetPts.add( targetPt );
+				movingPt[ d ] = mvg[ d ][ i ];
+				targetPt[ d ] = tgt[ d ][ i ];
 			}
-			
-			
+			movingPts.add( movingPt );
+			targetPts.add( targetPt );
+
 			warpedPoints.add( new Double[ ndims ] );
 			doesPointHaveAndNeedWarp.add( false );
 			movingDisplayPointUnreliable.add( false );
-			fireTableRowsInserted( numRows, numRows );
-			i++;
+		}
+
+		if( undoable )
+		{
+			final double[] movingPt = new double[ ndims ];
+			final double[] targetPt = new double[ ndims ];
+			for( int i = 0; i < N; i++ )
+			{
+				for( int d = 0; d < ndims; d++ )
+				{
+					movingPt[ d ] = mvg[ d ][ i ];
+					targetPt[ d ] = tgt[ d ][ i ];
+				}
+				undoRedoManager.recordInsertRow( i, landmarks.names[ i ], landmarks.active[ i ], movingPt, targetPt );
+			}
+			undoRedoManager.endCompound();
 		}
 
 		this.ndims = ndims;
-		numRows = i;
+		numRows = N;
+
 		updateNextRows( 0 );
 		initTransformation();
 		buildTableToActiveIndex();
+		pointUpdatePending = isUpdatePending();
+		modifiedSinceLastSave = false;
+
+		fireTableDataChanged();
 	}
 
-	public int numActive()
+	public synchronized int numActive()
 	{
 		int numActive = 0;
 		for ( int i = 0; i < this.numRows; i++ )
@@ -1173,7 +1444,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		return numActive;
 	}
 
-	public void copyLandmarks( int tableIndex, double[][] movingLandmarks, double[][] targetLandmarks )
+	public synchronized void copyLandmarks( int tableIndex, double[][] movingLandmarks, double[][] targetLandmarks )
 	{
 		if( numActive != movingLandmarks[0].length )
 		{
@@ -1191,7 +1462,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		}
 	}
 
-	public void copyLandmarks( double[][] movingLandmarks, double[][] targetLandmarks )
+	public synchronized void copyLandmarks( double[][] movingLandmarks, double[][] targetLandmarks )
 	{
 		int k = 0;
 		for ( int i = 0; i < this.numRows; i++ )
@@ -1210,25 +1481,71 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 
 	public void initTransformation()
 	{
-		int numActive = numActive();
 		// TODO: better to pass a factory here so the transformation can be any
 		// CoordinateTransform ( not just a TPS )
-		double[][] mvgPts = new double[ ndims ][ numActive ];
-		double[][] tgtPts = new double[ ndims ][ numActive ];
-
-		copyLandmarks( mvgPts, tgtPts );
+		final double[][] mvgPts;
+		final double[][] tgtPts;
+		synchronized ( this )
+		{
+			final int numActive = numActive();
+			mvgPts = new double[ ndims ][ numActive ];
+			tgtPts = new double[ ndims ][ numActive ];
+			copyLandmarks( mvgPts, tgtPts );
+		}
 
 		// need to find the "inverse TPS" so exchange moving and tgt
-		estimatedXfm = new ThinPlateR2LogRSplineKernelTransform( ndims, tgtPts, mvgPts );
+		final SolvedTpsCache cache = getSolvedTpsCache();
+		if( cache != null )
+			estimatedXfm = cache.solve( ndims, tgtPts, mvgPts );
+		else
+			estimatedXfm = new ThinPlateR2LogRSplineKernelTransform( ndims, tgtPts, mvgPts );
 	}
 	
 	/**
-	 * Saves the table to a file
+	 * Copies the contents of this table.
+	 *
+	 * @return the landmarks
+	 */
+	public synchronized LandmarkColumns toColumns()
+	{
+		final int N = names.size();
+		final String[] names = new String[ N ];
+		final boolean[] active = new boolean[ N ];
+		final double[][] mvg = new double[ ndims ][ N ];
+		final double[][] tgt = new double[ ndims ][ N ];
+		for( int i = 0; i < N; i++ )
+		{
+			names[ i ] = this.names.get( i );
+			active[ i ] = activeList.get( i );
+
+			final Double[] movingPt = movingPts.get( i );
+			final Double[] targetPt = targetPts.get( i );
+			for( int d = 0; d < ndims; d++ )
+			{
+				mvg[ d ][ i ] = movingPt[ d ];
+				tgt[ d ][ i ] = targetPt[ d ];
+			}
+		}
+		return new LandmarkColumns( names, active, mvg, tgt );
+	}
+
+	/**
+	 * Saves the table to a file, in the binary landmark format if the file
+	 * has its extension (see {@link LandmarkBinaryFormat#EXTENSION}), and as
+	 * csv otherwise.
+	 *
 	 * @param f the file
 	 * @throws IOException an exception
 	 */
 	public void save( File f ) throws IOException
 	{
+		if( LandmarkBinaryFormat.hasExtension( f ) )
+		{
+			LandmarkBinaryFormat.write( toColumns(), f );
+			modifiedSinceLastSave = false;
+			return;
+		}
+
 		CSVWriter csvWriter = new CSVWriter(new FileWriter( f.getAbsoluteFile() )); 
 		int N = names.size();
 		List<String[]> rows = new ArrayList<String[]>( N );
@@ -1268,7 +1585,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
 		return out;
 	}
 	
-	public void setValueAt(Object value, int row, int col)
+	public synchronized void setValueAt(Object value, int row, int col)
 	{
 		if( row < 0 || col < 0
 			|| row >= numRows || col >= numCols )
@@ -1308,7 +1625,7 @@ public class LandmarkTableModel extends AbstractTableModel implements TransformL
     }
 	
 	@Override
-	public Object getValueAt( int rowIndex, int columnIndex )
+	public synchronized Object getValueAt( int rowIndex, int columnIndex )
 	{
 		if( rowIndex >= names.size() )
 			return null;
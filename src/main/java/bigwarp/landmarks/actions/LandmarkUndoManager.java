@@ -1,9 +1,490 @@
 package bigwarp.landmarks.actions;
 
-import javax.swing.undo.UndoManager;
+import java.util.Arrays;
 
-public class LandmarkUndoManager extends UndoManager
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+
+import bigwarp.landmarks.LandmarkTableModel;
+
+/**
+ * The undo history of a {@link LandmarkTableModel}.
+ * <p>
+ * Edits are encoded into ring buffers of primitives, one entry per edit plus
+ * its coordinates, instead of one object per edit. Edits made between
+ * {@link #beginCompound()} and {@link #endCompound()} form a compound edit
+ * that is undone and redone as a whole, in a single bulk update of the table
+ * (see {@link LandmarkTableModel#beginBulkUpdate()}).
+ * <p>
+ * The history is bounded by a memory cap. The oldest edits are discarded when
+ * the cap is reached, and a compound edit that does not fit discards the
+ * whole history.
+ * <p>
+ * {@link #undo()} and {@link #redo()} throw {@link CannotUndoException} and
+ * {@link CannotRedoException} if there is nothing to undo or redo.
+ * <p>
+ * The history is guarded by the lock of the table model, which edits the
+ * table while undoing and records edits while holding its own lock, so that
+ * both always take the locks in the same order.
+ */
+public class LandmarkUndoManager
 {
-	private static final long serialVersionUID = -2126698066459744227L;
+	public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+	/*
+	 * approximate size of one entry, excluding coordinates and names
+	 */
+	private static final int ENTRY_BYTES = 32;
+
+	private static final byte ADD = 1;
+
+	private static final byte MODIFY = 2;
+
+	private static final byte INSERT_ROW = 3;
+
+	private static final byte DELETE_ROW = 4;
+
+	private static final byte INVERT = 5;
+
+	private final LandmarkTableModel ltm;
+
+	private long maxBytes;
+
+	/*
+	 * one entry per edit
+	 */
+	private byte[] types;
+
+	private byte[] dims;
+
+	private boolean[] isMoving;
+
+	private boolean[] active;
+
+	private int[] rows;
+
+	private int[] groups;
+
+	private long[] coordStart;
+
+	private String[] names;
+
+	/*
+	 * absolute positions of the oldest entry, the entry after the last done
+	 * edit, and the entry after the last edit. Entries between cursor and head
+	 * can be redone.
+	 */
+	private long tail, cursor, head;
+
+	private double[] coords;
+
+	private long coordTail, coordHead;
+
+	private long nameBytes;
+
+	private int nextGroup;
+
+	private int compoundDepth;
+
+	private int compoundGroup;
+
+	private boolean compoundOverflow;
+
+	private boolean applying;
+
+	public LandmarkUndoManager( final LandmarkTableModel ltm )
+	{
+		this( ltm, DEFAULT_MAX_BYTES );
+	}
+
+	public LandmarkUndoManager( final LandmarkTableModel ltm, final long maxBytes )
+	{
+		this.ltm = ltm;
+		this.maxBytes = maxBytes;
+		allocate( 64, 256 );
+	}
+
+	private void allocate( final int numEntries, final int numCoords )
+	{
+		types = new byte[ numEntries ];
+		dims = new byte[ numEntries ];
+		isMoving = new boolean[ numEntries ];
+		active = new boolean[ numEntries ];
+		rows = new int[ numEntries ];
+		groups = new int[ numEntries ];
+		coordStart = new long[ numEntries ];
+		names = new String[ numEntries ];
+		coords = new double[ numCoords ];
+	}
+
+	public long getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	/**
+	 * Sets the memory cap, discarding the oldest edits if necessary.
+	 *
+	 * @param maxBytes the cap in bytes
+	 */
+	public void setMaxBytes( final long maxBytes )
+	{
+		synchronized ( ltm )
+		{
+			this.maxBytes = maxBytes;
+			while ( tail < head && sizeInBytes() > maxBytes )
+				discardOldestEdit();
+		}
+	}
+
+	/**
+	 * @return the approximate memory used by the stored edits
+	 */
+	public long sizeInBytes()
+	{
+		synchronized ( ltm )
+		{
+			return ENTRY_BYTES * ( head - tail ) + 8 * ( coordHead - coordTail ) + nameBytes;
+		}
+	}
+
+	public boolean canUndo()
+	{
+		synchronized ( ltm )
+		{
+			return cursor > tail;
+		}
+	}
+
+	public boolean canRedo()
+	{
+		synchronized ( ltm )
+		{
+			return cursor < head;
+		}
+	}
+
+	/**
+	 * Starts a compound edit, compound edits can be nested.
+	 */
+	public void beginCompound()
+	{
+		synchronized ( ltm )
+		{
+			if ( compoundDepth++ == 0 )
+			{
+				compoundGroup = nextGroup++;
+				compoundOverflow = false;
+			}
+		}
+	}
+
+	public void endCompound()
+	{
+		synchronized ( ltm )
+		{
+			if ( compoundDepth > 0 )
+				compoundDepth--;
+		}
+	}
+
+	public void discardAllEdits()
+	{
+		synchronized ( ltm )
+		{
+			Arrays.fill( names, null );
+			tail = cursor = head = 0;
+			coordTail = coordHead = 0;
+			nameBytes = 0;
+		}
+	}
+
+	public void recordAdd( final int row, final double[] pt, final boolean isMoving )
+	{
+		record( ADD, row, isMoving, null, false, pt, null );
+	}
+
+	public void recordModify( final int row, final double[] oldpt, final double[] newpt, final boolean isMoving )
+	{
+		record( MODIFY, row, isMoving, null, false, oldpt, newpt );
+	}
+
+	public void recordInsertRow( final int row, final String name, final boolean isActive, final double[] movingPt, final double[] targetPt )
+	{
+		record( INSERT_ROW, row, false, name, isActive, movingPt, targetPt );
+	}
+
+	public void recordDeleteRow( final int row, final String name, final boolean isActive, final double[] movingPt, final double[] targetPt )
+	{
+		record( DELETE_ROW, row, false, name, isActive, movingPt, targetPt );
+	}
+
+	/**
+	 * Records the exchange of moving and target points, see
+	 * {@link LandmarkTableModel#swapMovingAndTarget()}.
+	 */
+	public void recordInvert()
+	{
+		record( INVERT, -1, false, null, false, null, null );
+	}
+
+	private void record( final byte type, final int row, final boolean moving, final String name, final boolean isActive, final double[] a, final double[] b )
+	{
+		synchronized ( ltm )
+		{
+			// edits made while undoing or redoing are not recorded
+			if ( applying || ( compoundDepth > 0 && compoundOverflow ) )
+				return;
+
+			// a new edit ends the redo history
+			if ( cursor < head )
+			{
+				for ( long e = cursor; e < head; e++ )
+					release( slot( e ) );
+
+				coordHead = coordStart[ slot( cursor ) ];
+				head = cursor;
+			}
+
+			final int nd = a == null ? 0 : a.length;
+			final int nc = ( a == null ? 0 : nd ) + ( b == null ? 0 : nd );
+			final long bytes = ENTRY_BYTES + 8 * nc + nameSize( name );
+			while ( tail < head && sizeInBytes() + bytes > maxBytes )
+			{
+				if ( compoundDepth > 0 && groups[ slot( tail ) ] == compoundGroup )
+				{
+					// the open compound edit does not fit
+					discardAllEdits();
+					compoundOverflow = true;
+					return;
+				}
+				discardOldestEdit();
+			}
+
+			if ( bytes > maxBytes )
+			{
+				discardAllEdits();
+				compoundOverflow = compoundDepth > 0;
+				return;
+			}
+
+			ensureCapacity( head - tail + 1, coordHead - coordTail + nc );
+
+			final int s = slot( head );
+			types[ s ] = type;
+			dims[ s ] = ( byte ) nd;
+			isMoving[ s ] = moving;
+			active[ s ] = isActive;
+			rows[ s ] = row;
+			groups[ s ] = compoundDepth > 0 ? compoundGroup : nextGroup++;
+			coordStart[ s ] = coordHead;
+			names[ s ] = name;
+			nameBytes += nameSize( name );
+
+			if ( a != null )
+				for ( int d = 0; d < nd; d++ )
+					coords[ coordSlot( coordHead++ ) ] = a[ d ];
+
+			if ( b != null )
+				for ( int d = 0; d < nd; d++ )
+					coords[ coordSlot( coordHead++ ) ] = b[ d ];
+
+			head++;
+			cursor = head;
+		}
+	}
+
+	/**
+	 * Undoes the last edit, or the last compound edit.
+	 *
+	 * @throws CannotUndoException if there is nothing to undo
+	 */
+	public void undo()
+	{
+		synchronized ( ltm )
+		{
+			if ( !canUndo() )
+				throw new CannotUndoException();
+
+			final int group = groups[ slot( cursor - 1 ) ];
+			long first = cursor - 1;
+			while ( first > tail && groups[ slot( first - 1 ) ] == group )
+				first--;
+
+			final boolean bulk = cursor - first > 1;
+			applying = true;
+			if ( bulk )
+				ltm.beginBulkUpdate();
+			try
+			{
+				for ( long e = cursor - 1; e >= first; e-- )
+					apply( slot( e ), true );
+			}
+			finally
+			{
+				if ( bulk )
+					ltm.endBulkUpdate();
+				applying = false;
+			}
+			cursor = first;
+		}
+	}
+
+	/**
+	 * Redoes the last undone edit, or compound edit.
+	 *
+	 * @throws CannotRedoException if there is nothing to redo
+	 */
+	public void redo()
+	{
+		synchronized ( ltm )
+		{
+			if ( !canRedo() )
+				throw new CannotRedoException();
+
+			final int group = groups[ slot( cursor ) ];
+			long last = cursor + 1;
+			while ( last < head && groups[ slot( last ) ] == group )
+				last++;
+
+			final boolean bulk = last - cursor > 1;
+			applying = true;
+			if ( bulk )
+				ltm.beginBulkUpdate();
+			try
+			{
+				for ( long e = cursor; e < last; e++ )
+					apply( slot( e ), false );
+			}
+			finally
+			{
+				if ( bulk )
+					ltm.endBulkUpdate();
+				applying = false;
+			}
+			cursor = last;
+		}
+	}
+
+	private void apply( final int s, final boolean undo )
+	{
+		final int nd = dims[ s ];
+		final long c = coordStart[ s ];
+		switch ( types[ s ] )
+		{
+		case ADD:
+			if ( undo )
+				ltm.deleteRowHelper( rows[ s ] );
+			else
+				ltm.pointEdit( rows[ s ], readCoords( c, nd ), true, isMoving[ s ], null, false );
+			break;
+		case MODIFY:
+			ltm.pointEdit( rows[ s ], readCoords( undo ? c : c + nd, nd ), false, isMoving[ s ], null, false );
+			break;
+		case INSERT_ROW:
+		case DELETE_ROW:
+			if ( undo == ( types[ s ] == INSERT_ROW ) )
+				ltm.deleteRowHelper( rows[ s ] );
+			else
+				ltm.insertRow( rows[ s ], names[ s ], active[ s ], readCoords( c, nd ), readCoords( c + nd, nd ) );
+			break;
+		case INVERT:
+			ltm.swapMovingAndTarget();
+			break;
+		}
+	}
+
+	private double[] readCoords( final long start, final int n )
+	{
+		final double[] pt = new double[ n ];
+		for ( int d = 0; d < n; d++ )
+			pt[ d ] = coords[ coordSlot( start + d ) ];
+
+		return pt;
+	}
+
+	/*
+	 * Discards the oldest edit, or compound edit.
+	 */
+	private void discardOldestEdit()
+	{
+		final int group = groups[ slot( tail ) ];
+		while ( tail < head && groups[ slot( tail ) ] == group )
+			release( slot( tail++ ) );
+
+		coordTail = tail < head ? coordStart[ slot( tail ) ] : coordHead;
+		cursor = Math.max( cursor, tail );
+	}
+
+	private void release( final int s )
+	{
+		nameBytes -= nameSize( names[ s ] );
+		names[ s ] = null;
+	}
+
+	private static long nameSize( final String name )
+	{
+		return name == null ? 0 : 40 + 2 * name.length();
+	}
+
+	private int slot( final long e )
+	{
+		return ( int ) ( e % types.length );
+	}
+
+	private int coordSlot( final long c )
+	{
+		return ( int ) ( c % coords.length );
+	}
+
+	/*
+	 * Grows the ring buffers, moving the stored edits to the start.
+	 */
+	private void ensureCapacity( final long numEntries, final long numCoords )
+	{
+		if ( numEntries <= types.length && numCoords <= coords.length )
+			return;
+
+		final byte[] oldTypes = types;
+		final byte[] oldDims = dims;
+		final boolean[] oldIsMoving = isMoving;
+		final boolean[] oldActive = active;
+		final int[] oldRows = rows;
+		final int[] oldGroups = groups;
+		final long[] oldCoordStart = coordStart;
+		final String[] oldNames = names;
+		final double[] oldCoords = coords;
+
+		int entryCapacity = oldTypes.length;
+		while ( entryCapacity < numEntries )
+			entryCapacity *= 2;
+
+		int coordCapacity = oldCoords.length;
+		while ( coordCapacity < numCoords )
+			coordCapacity *= 2;
+
+		allocate( entryCapacity, coordCapacity );
+		for ( long e = tail; e < head; e++ )
+		{
+			final int o = ( int ) ( e % oldTypes.length );
+			final int n = ( int ) ( e - tail );
+			types[ n ] = oldTypes[ o ];
+			dims[ n ] = oldDims[ o ];
+			isMoving[ n ] = oldIsMoving[ o ];
+			active[ n ] = oldActive[ o ];
+			rows[ n ] = oldRows[ o ];
+			groups[ n ] = oldGroups[ o ];
+			coordStart[ n ] = oldCoordStart[ o ] - coordTail;
+			names[ n ] = oldNames[ o ];
+		}
+
+		for ( long c = coordTail; c < coordHead; c++ )
+			coords[ ( int ) ( c - coordTail ) ] = oldCoords[ ( int ) ( c % oldCoords.length ) ];
 
-}
\ No newline at end of file
+		cursor -= tail;
+		head -= tail;
+		tail = 0;
+		coordHead -= coordTail;
+		coordTail = 0;
+	}
+}
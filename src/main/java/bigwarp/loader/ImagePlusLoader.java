@@ -65,6 +65,10 @@ public class ImagePlusLoader implements Loader
 
 	private final String[] names;
 
+	private boolean mipmapped = false;
+
+	private long mipmapCacheBytes = 512L * 1024 * 1024;
+
 	public ImagePlusLoader( final ImagePlus imp )
 	{
 		this( new ImagePlus[]{ imp } );
@@ -104,6 +108,15 @@ public class ImagePlusLoader implements Loader
 		return numSources;
 	}
 
+	/**
+	 * @return the number of images, which is the number of spim data
+	 *         {@link #loadAll(int)} returns
+	 */
+	public int numImages()
+	{
+		return impList.length;
+	}
+
 	@Override
 	public int numSources()
 	{
@@ -162,6 +175,24 @@ public class ImagePlusLoader implements Loader
 		return out;
 	}
 
+	/**
+	 * Load images as lazily computed, cached multiresolution pyramids
+	 * (see {@link ImagePlusMipmapImgLoader}). Off by default.
+	 *
+	 * @param mipmapped whether to load pyramids
+	 * @param maxCacheBytes the size of the cache shared by all levels in bytes
+	 */
+	public void setMipmapped( final boolean mipmapped, final long maxCacheBytes )
+	{
+		this.mipmapped = mipmapped;
+		this.mipmapCacheBytes = maxCacheBytes;
+	}
+
+	public boolean isMipmapped()
+	{
+		return mipmapped;
+	}
+
 	public static double sanitizeCalibration( double in, String dim )
 	{
 		if( Double.isNaN( in ) || Double.isInfinite( in ))
@@ -200,7 +231,12 @@ public class ImagePlusLoader implements Loader
 
 		// create ImgLoader wrapping the image
 		final BasicImgLoader imgLoader;
-		if ( imp.getStack().isVirtual() )
+		if ( mipmapped )
+		{
+			imgLoader = new ImagePlusMipmapImgLoader( imp, setupIdOffset, voxelSize, mipmapCacheBytes,
+					Math.max( 1, Runtime.getRuntime().availableProcessors() - 1 ) );
+		}
+		else if ( imp.getStack().isVirtual() )
 		{
 			switch ( imp.getType() )
 			{
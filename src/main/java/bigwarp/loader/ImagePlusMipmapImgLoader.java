@@ -0,0 +1,480 @@
+package bigwarp.loader;
+
+import java.util.HashMap;
+
+import bdv.ViewerImgLoader;
+import bdv.ViewerSetupImgLoader;
+import bdv.cache.CacheControl;
+import bdv.util.volatiles.SharedQueue;
+import bdv.util.volatiles.VolatileTypeMatcher;
+import bdv.util.volatiles.VolatileViews;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Cursor;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.Volatile;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.LoadedCellCacheLoader;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.converter.Converters;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.ArrayDataAccessFactory;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+
+/**
+ * Loads the channels of an {@link ImagePlus} as a multiresolution pyramid.
+ * <p>
+ * The full resolution level is read tile by tile from the image's (possibly
+ * virtual) stack. Every coarser level averages 2x2 (or 2x2x2) voxels of the
+ * next finer level, and is computed cell by cell when a cell is first
+ * accessed. All levels share one {@link SharedBlockCache}, so their memory use
+ * is bounded in bytes. Volatile versions of all levels are loaded by a
+ * {@link SharedQueue} that fetches coarser levels first, so that the viewer
+ * can show a coarse image immediately.
+ * <p>
+ * z is only downsampled once the voxels are at least as large in xy as in z,
+ * so that coarse levels stay close to isotropic.
+ */
+public class ImagePlusMipmapImgLoader implements ViewerImgLoader
+{
+	/**
+	 * Levels are added until the larger of width and height fits into this.
+	 */
+	public static final int MIN_LEVEL_SIZE = 256;
+
+	public static final int MAX_LEVELS = 16;
+
+	public static final int TILE_SIZE = 1024;
+
+	public static final int CELL_SIZE = 64;
+
+	private final ImagePlus imp;
+
+	private final int setupIdOffset;
+
+	private final SharedBlockCache blockCache;
+
+	private final SharedQueue queue;
+
+	private final CacheControl cacheControl;
+
+	private final VoxelDimensions voxelSize;
+
+	/*
+	 * downsampling factors of every level relative to full resolution
+	 */
+	private final int[][] factors;
+
+	private final long[][] dimensions;
+
+	private final int[][] cellDimensions;
+
+	private final HashMap< Integer, SetupImgLoader< ?, ? > > setupImgLoaders;
+
+	/*
+	 * the most recently read plane of a virtual stack, guarded by the stack
+	 */
+	private int lastPlaneIndex = -1;
+
+	private ImageProcessor lastPlane;
+
+	/**
+	 * @param imp the image
+	 * @param setupIdOffset the setup id of the first channel
+	 * @param voxelSize the voxel size
+	 * @param maxCacheBytes the maximum size of the cached cells in bytes
+	 * @param numFetcherThreads the number of threads loading volatile cells
+	 */
+	public ImagePlusMipmapImgLoader( final ImagePlus imp, final int setupIdOffset, final VoxelDimensions voxelSize,
+			final long maxCacheBytes, final int numFetcherThreads )
+	{
+		this.imp = imp;
+		this.setupIdOffset = setupIdOffset;
+		this.voxelSize = voxelSize;
+
+		final long[] size = new long[] { imp.getWidth(), imp.getHeight(), imp.getNSlices() };
+		factors = mipmapFactors( size, new double[] { voxelSize.dimension( 0 ), voxelSize.dimension( 1 ), voxelSize.dimension( 2 ) } );
+
+		final int numLevels = factors.length;
+		dimensions = new long[ numLevels ][ 3 ];
+		cellDimensions = new int[ numLevels ][ 3 ];
+		for ( int l = 0; l < numLevels; l++ )
+		{
+			for ( int d = 0; d < 3; d++ )
+				dimensions[ l ][ d ] = Math.max( 1, ( size[ d ] + factors[ l ][ d ] - 1 ) / factors[ l ][ d ] );
+
+			if ( l == 0 )
+			{
+				// the full resolution is read plane by plane
+				cellDimensions[ l ] = new int[] { TILE_SIZE, TILE_SIZE, 1 };
+			}
+			else
+			{
+				final int cz = size[ 2 ] > 1 ? CELL_SIZE : 1;
+				cellDimensions[ l ] = new int[] { CELL_SIZE, CELL_SIZE, cz };
+			}
+		}
+
+		blockCache = new SharedBlockCache( maxCacheBytes );
+		queue = new SharedQueue( numFetcherThreads, numLevels );
+		cacheControl = () -> queue.getQueue().clearToPrefetch();
+		setupImgLoaders = new HashMap<>();
+	}
+
+	/**
+	 * Proposes downsampling factors. Every level halves x and y, and z once
+	 * z voxels are no larger than the next level's xy voxels.
+	 *
+	 * @param size the image size
+	 * @param voxelSize the voxel size
+	 * @return the factors of every level relative to full resolution
+	 */
+	public static int[][] mipmapFactors( final long[] size, final double[] voxelSize )
+	{
+		int numLevels = 1;
+		while ( numLevels < MAX_LEVELS && Math.max( size[ 0 ], size[ 1 ] ) >> ( numLevels - 1 ) > MIN_LEVEL_SIZE )
+			numLevels++;
+
+		final int[][] factors = new int[ numLevels ][ 3 ];
+		factors[ 0 ] = new int[] { 1, 1, 1 };
+		for ( int l = 1; l < numLevels; l++ )
+		{
+			final int[] prev = factors[ l - 1 ];
+			final int xy = prev[ 0 ] * 2;
+			final boolean downsampleZ = size[ 2 ] / prev[ 2 ] > 1
+					&& voxelSize[ 2 ] * prev[ 2 ] < voxelSize[ 0 ] * xy;
+
+			factors[ l ] = new int[] { xy, xy, downsampleZ ? prev[ 2 ] * 2 : prev[ 2 ] };
+		}
+		return factors;
+	}
+
+	public int numLevels()
+	{
+		return factors.length;
+	}
+
+	@Override
+	public synchronized SetupImgLoader< ?, ? > getSetupImgLoader( final int setupId )
+	{
+		SetupImgLoader< ?, ? > loader = setupImgLoaders.get( setupId );
+		if ( loader == null )
+		{
+			loader = createSetupImgLoader( setupId - setupIdOffset );
+			setupImgLoaders.put( setupId, loader );
+		}
+		return loader;
+	}
+
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	private SetupImgLoader< ?, ? > createSetupImgLoader( final int channel )
+	{
+		switch ( imp.getType() )
+		{
+		case ImagePlus.GRAY8:
+			return new SetupImgLoader( new UnsignedByteType(), channel, 1 );
+		case ImagePlus.GRAY16:
+			return new SetupImgLoader( new UnsignedShortType(), channel, 2 );
+		case ImagePlus.GRAY32:
+			return new SetupImgLoader( new FloatType(), channel, 4 );
+		case ImagePlus.COLOR_RGB:
+		default:
+			return new SetupImgLoader( new ARGBType(), channel, 4 );
+		}
+	}
+
+	@Override
+	public CacheControl getCacheControl()
+	{
+		return cacheControl;
+	}
+
+	/*
+	 * Returns a plane of the image. Virtual stacks read planes from disk, so
+	 * the most recent plane is kept for the other tiles of the same plane.
+	 */
+	private ImageProcessor plane( final int channel, final int z, final int t )
+	{
+		final ImageStack stack = imp.getStack();
+		final int index = imp.getStackIndex( channel + 1, z + 1, t + 1 );
+		if ( !stack.isVirtual() )
+			return stack.getProcessor( index );
+
+		synchronized ( stack )
+		{
+			if ( index != lastPlaneIndex )
+			{
+				lastPlane = stack.getProcessor( index );
+				lastPlaneIndex = index;
+			}
+			return lastPlane;
+		}
+	}
+
+	public class SetupImgLoader< T extends NativeType< T >, V extends Volatile< T > & NativeType< V > > implements ViewerSetupImgLoader< T, V >
+	{
+		private final T type;
+
+		private final V volatileType;
+
+		private final int channel;
+
+		private final long bytesPerElement;
+
+		private final HashMap< Long, CachedCellImg< T, ? > > images = new HashMap<>();
+
+		private final HashMap< Long, RandomAccessibleInterval< V > > volatileImages = new HashMap<>();
+
+		@SuppressWarnings( "unchecked" )
+		SetupImgLoader( final T type, final int channel, final long bytesPerElement )
+		{
+			this.type = type;
+			this.volatileType = ( V ) VolatileTypeMatcher.getVolatileTypeForType( type );
+			this.channel = channel;
+			this.bytesPerElement = bytesPerElement;
+		}
+
+		private long key( final int timepointId, final int level )
+		{
+			return ( ( long ) timepointId << 8 ) | level;
+		}
+
+		@Override
+		public synchronized RandomAccessibleInterval< T > getImage( final int timepointId, final int level, final ImgLoaderHint... hints )
+		{
+			final long key = key( timepointId, level );
+			CachedCellImg< T, ? > img = images.get( key );
+			if ( img == null )
+			{
+				img = createLevel( timepointId, level );
+				images.put( key, img );
+			}
+			return img;
+		}
+
+		@SuppressWarnings( "unchecked" )
+		@Override
+		public RandomAccessibleInterval< V > getVolatileImage( final int timepointId, final int level, final ImgLoaderHint... hints )
+		{
+			final CachedCellImg< T, ? > img = ( CachedCellImg< T, ? > ) getImage( timepointId, level );
+			synchronized ( this )
+			{
+				final long key = key( timepointId, level );
+				RandomAccessibleInterval< V > vimg = volatileImages.get( key );
+				if ( vimg == null )
+				{
+					// coarser levels are fetched first
+					final CacheHints cacheHints = new CacheHints( LoadingStrategy.BUDGETED, numLevels() - 1 - level, false );
+					vimg = ( RandomAccessibleInterval< V > ) VolatileViews.wrapAsVolatile( img, queue, cacheHints );
+					volatileImages.put( key, vimg );
+				}
+				return vimg;
+			}
+		}
+
+		@SuppressWarnings( { "unchecked", "rawtypes" } )
+		private CachedCellImg< T, ? > createLevel( final int t, final int level )
+		{
+			final CellGrid grid = new CellGrid( dimensions[ level ], cellDimensions[ level ] );
+			final CellLoader< T > cellLoader;
+			if ( level == 0 )
+				cellLoader = cell -> loadTile( cell, t );
+			else
+			{
+				final RandomAccessibleInterval< T > finer = getImage( t, level - 1 );
+				final int[] relative = new int[ 3 ];
+				for ( int d = 0; d < 3; d++ )
+					relative[ d ] = factors[ level ][ d ] / factors[ level - 1 ][ d ];
+
+				cellLoader = cell -> downsample( finer, relative, cell );
+			}
+
+			final LoadedCellCacheLoader loader = LoadedCellCacheLoader.get( grid, cellLoader, type,
+					AccessFlags.setOf( AccessFlags.VOLATILE ) );
+
+			return new CachedCellImg( grid, type,
+					blockCache.< Cell< ? > >newCache( cell -> bytesPerElement * Intervals.numElements( cell ) ).withLoader( loader ),
+					ArrayDataAccessFactory.get( type, AccessFlags.setOf( AccessFlags.VOLATILE ) ) );
+		}
+
+		private void loadTile( final SingleCellArrayImg< T, ? > cell, final int t )
+		{
+			final ImageProcessor ip = plane( channel, ( int ) cell.min( 2 ), t );
+			final Cursor< T > c = cell.localizingCursor();
+			if ( type instanceof ARGBType )
+			{
+				while ( c.hasNext() )
+				{
+					c.fwd();
+					( ( ARGBType ) c.get() ).set( 0xff000000 | ip.get( c.getIntPosition( 0 ), c.getIntPosition( 1 ) ) );
+				}
+			}
+			else
+			{
+				while ( c.hasNext() )
+				{
+					c.fwd();
+					( ( RealType< ? > ) c.get() ).setReal( ip.getf( c.getIntPosition( 0 ), c.getIntPosition( 1 ) ) );
+				}
+			}
+		}
+
+		/*
+		 * Averages boxes of the finer level, clamped to its border.
+		 */
+		private void downsample( final RandomAccessibleInterval< T > finer, final int[] f, final SingleCellArrayImg< T, ? > cell )
+		{
+			final long[] max = Intervals.maxAsLongArray( finer );
+			final RandomAccess< T > ra = finer.randomAccess();
+			final Cursor< T > c = cell.localizingCursor();
+			final long[] p = new long[ 3 ];
+			final boolean argb = type instanceof ARGBType;
+			final double[] sum = new double[ 4 ];
+			while ( c.hasNext() )
+			{
+				c.fwd();
+				c.localize( p );
+				final long x0 = p[ 0 ] * f[ 0 ];
+				final long y0 = p[ 1 ] * f[ 1 ];
+				final long z0 = p[ 2 ] * f[ 2 ];
+
+				sum[ 0 ] = sum[ 1 ] = sum[ 2 ] = sum[ 3 ] = 0;
+				int n = 0;
+				for ( long z = z0; z < z0 + f[ 2 ] && z <= max[ 2 ]; z++ )
+					for ( long y = y0; y < y0 + f[ 1 ] && y <= max[ 1 ]; y++ )
+						for ( long x = x0; x < x0 + f[ 0 ] && x <= max[ 0 ]; x++ )
+						{
+							ra.setPosition( x, 0 );
+							ra.setPosition( y, 1 );
+							ra.setPosition( z, 2 );
+							if ( argb )
+							{
+								final int v = ( ( ARGBType ) ra.get() ).get();
+								sum[ 0 ] += ARGBType.alpha( v );
+								sum[ 1 ] += ARGBType.red( v );
+								sum[ 2 ] += ARGBType.green( v );
+								sum[ 3 ] += ARGBType.blue( v );
+							}
+							else
+								sum[ 0 ] += ( ( RealType< ? > ) ra.get() ).getRealDouble();
+
+							n++;
+						}
+
+				if ( argb )
+					( ( ARGBType ) c.get() ).set( ARGBType.rgba(
+							( int ) Math.round( sum[ 1 ] / n ), ( int ) Math.round( sum[ 2 ] / n ),
+							( int ) Math.round( sum[ 3 ] / n ), ( int ) Math.round( sum[ 0 ] / n ) ) );
+				else
+					( ( RealType< ? > ) c.get() ).setReal( sum[ 0 ] / n );
+			}
+		}
+
+		@Override
+		public RandomAccessibleInterval< T > getImage( final int timepointId, final ImgLoaderHint... hints )
+		{
+			return getImage( timepointId, 0, hints );
+		}
+
+		@Override
+		public T getImageType()
+		{
+			return type;
+		}
+
+		@Override
+		public V getVolatileImageType()
+		{
+			return volatileType;
+		}
+
+		@SuppressWarnings( { "unchecked", "rawtypes" } )
+		@Override
+		public RandomAccessibleInterval< FloatType > getFloatImage( final int timepointId, final int level, final boolean normalize, final ImgLoaderHint... hints )
+		{
+			if ( !( type instanceof RealType ) )
+				throw new UnsupportedOperationException( "Can not convert " + type.getClass() + " to float" );
+
+			final double scale = normalize && !( type instanceof FloatType ) ? 1.0 / ( ( RealType ) type ).getMaxValue() : 1.0;
+			return Converters.convert( ( RandomAccessibleInterval< RealType > ) getImage( timepointId, level ),
+					( a, b ) -> b.setReal( a.getRealDouble() * scale ), new FloatType() );
+		}
+
+		@Override
+		public RandomAccessibleInterval< FloatType > getFloatImage( final int timepointId, final boolean normalize, final ImgLoaderHint... hints )
+		{
+			return getFloatImage( timepointId, 0, normalize, hints );
+		}
+
+		@Override
+		public Dimensions getImageSize( final int timepointId, final int level )
+		{
+			return new FinalDimensions( dimensions[ level ] );
+		}
+
+		@Override
+		public Dimensions getImageSize( final int timepointId )
+		{
+			return getImageSize( timepointId, 0 );
+		}
+
+		@Override
+		public VoxelDimensions getVoxelSize( final int timepointId )
+		{
+			return voxelSize;
+		}
+
+		@Override
+		public double[][] getMipmapResolutions()
+		{
+			final double[][] resolutions = new double[ factors.length ][ 3 ];
+			for ( int l = 0; l < factors.length; l++ )
+				for ( int d = 0; d < 3; d++ )
+					resolutions[ l ][ d ] = factors[ l ][ d ];
+
+			return resolutions;
+		}
+
+		@Override
+		public AffineTransform3D[] getMipmapTransforms()
+		{
+			final AffineTransform3D[] transforms = new AffineTransform3D[ factors.length ];
+			for ( int l = 0; l < factors.length; l++ )
+			{
+				// voxel centers of coarse levels are the centers of the boxes they average
+				final AffineTransform3D transform = new AffineTransform3D();
+				for ( int d = 0; d < 3; d++ )
+				{
+					transform.set( factors[ l ][ d ], d, d );
+					transform.set( 0.5 * ( factors[ l ][ d ] - 1 ), d, 3 );
+				}
+				transforms[ l ] = transform;
+			}
+			return transforms;
+		}
+
+		@Override
+		public int numMipmapLevels()
+		{
+			return factors.length;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package bigwarp.loader;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Objects;
+
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.imglib2.N5CellLoader;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import bdv.cache.CacheControl;
+import bdv.util.volatiles.SharedQueue;
+import bdv.util.volatiles.VolatileViews;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.LoadedCellCacheLoader;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.ArrayDataAccessFactory;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.NativeType;
+import net.imglib2.util.Intervals;
+
+/**
+ * Caches the blocks of all n5 datasets opened in a BigWarp session.
+ * <p>
+ * All datasets share one {@link SharedBlockCache}, so their total memory use
+ * is bounded in bytes, and one prioritized {@link SharedQueue} of fetcher
+ * threads that loads the blocks of their volatile versions. Coarser scale
+ * levels are fetched with higher priority.
+ * <p>
+ * Add this to the {@link CacheControl} of the viewers, so that prefetch
+ * requests of the previous frame are discarded when a new frame is rendered.
+ */
+public class N5SourceCache implements CacheControl
+{
+	public static final int MAX_PRIORITIES = 16;
+
+	private final SharedBlockCache blockCache;
+
+	private final int numFetcherThreads;
+
+	private SharedQueue queue;
+
+	private final HashMap< ImageKey, CachedCellImg< ?, ? > > images;
+
+	/**
+	 * Creates a cache that may use a quarter of the maximum heap size and half
+	 * of the available processors for fetching.
+	 */
+	public N5SourceCache()
+	{
+		this( Runtime.getRuntime().maxMemory() / 4,
+				Math.max( 1, Runtime.getRuntime().availableProcessors() / 2 ) );
+	}
+
+	/**
+	 * @param maxBytes the maximum size of the cached blocks in bytes
+	 * @param numFetcherThreads the number of fetcher threads
+	 */
+	public N5SourceCache( final long maxBytes, final int numFetcherThreads )
+	{
+		this.blockCache = new SharedBlockCache( maxBytes );
+		this.numFetcherThreads = numFetcherThreads;
+		images = new HashMap<>();
+	}
+
+	public SharedBlockCache getBlockCache()
+	{
+		return blockCache;
+	}
+
+	/**
+	 * @return the queue of fetcher threads, created on first use
+	 */
+	public synchronized SharedQueue getQueue()
+	{
+		if ( queue == null )
+			queue = new SharedQueue( numFetcherThreads, MAX_PRIORITIES );
+
+		return queue;
+	}
+
+	@Override
+	public void prepareNextFrame()
+	{
+		final SharedQueue q;
+		synchronized ( this )
+		{
+			q = queue;
+		}
+
+		if ( q != null )
+			q.getQueue().clearToPrefetch();
+	}
+
+	/**
+	 * Opens a dataset whose blocks are held by the shared block cache. Blocks
+	 * are loaded synchronously on access. Opening the same dataset of the
+	 * same reader again returns the same image.
+	 *
+	 * @param n5 the reader
+	 * @param dataset the dataset
+	 * @return the image
+	 * @throws IOException if the dataset attributes can not be read
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public synchronized < T extends NativeType< T > > CachedCellImg< T, ? > open( final N5Reader n5, final String dataset ) throws IOException
+	{
+		final ImageKey key = new ImageKey( n5, dataset );
+		final CachedCellImg< ?, ? > existing = images.get( key );
+		if ( existing != null )
+			return ( CachedCellImg< T, ? > ) existing;
+
+		final DatasetAttributes attributes = n5.getDatasetAttributes( dataset );
+		final long[] dimensions = attributes.getDimensions();
+		final int[] blockSize = attributes.getBlockSize();
+		final CellGrid grid = new CellGrid( dimensions, blockSize );
+
+		final DataType dataType = attributes.getDataType();
+		final T type = N5Utils.type( dataType );
+		final long bytesPerElement = bytesPerElement( dataType );
+
+		final LoadedCellCacheLoader loader = LoadedCellCacheLoader.get( grid,
+				new N5CellLoader<>( n5, dataset, blockSize ), type,
+				AccessFlags.setOf( AccessFlags.VOLATILE ) );
+
+		final CachedCellImg< T, ? > img = new CachedCellImg( grid, type,
+				blockCache.< Cell< ? > >newCache( cell -> bytesPerElement * Intervals.numElements( cell ) ).withLoader( loader ),
+				ArrayDataAccessFactory.get( type, AccessFlags.setOf( AccessFlags.VOLATILE ) ) );
+
+		images.put( key, img );
+		return img;
+	}
+
+	/**
+	 * Wraps an image opened by {@link #open(N5Reader, String)} as a volatile
+	 * image whose blocks are loaded by the shared queue.
+	 *
+	 * @param img the image
+	 * @param priority the fetch priority, zero is the highest
+	 * @return the volatile image
+	 */
+	public RandomAccessibleInterval< ? > wrapAsVolatile( final CachedCellImg< ?, ? > img, final int priority )
+	{
+		final int p = Math.max( 0, Math.min( priority, MAX_PRIORITIES - 1 ) );
+		return VolatileViews.wrapAsVolatile( img, getQueue(), new CacheHints( LoadingStrategy.BUDGETED, p, false ) );
+	}
+
+	private static long bytesPerElement( final DataType dataType )
+	{
+		switch ( dataType )
+		{
+		case UINT8:
+		case INT8:
+			return 1;
+		case UINT16:
+		case INT16:
+			return 2;
+		case UINT64:
+		case INT64:
+		case FLOAT64:
+			return 8;
+		default:
+			return 4;
+		}
+	}
+
+	private static final class ImageKey
+	{
+		private final N5Reader n5;
+
+		private final String dataset;
+
+		ImageKey( final N5Reader n5, final String dataset )
+		{
+			this.n5 = n5;
+			this.dataset = dataset;
+		}
+
+		@Override
+		public boolean equals( final Object o )
+		{
+			if ( !( o instanceof ImageKey ) )
+				return false;
+
+			final ImageKey other = ( ImageKey ) o;
+			return n5 == other.n5 && dataset.equals( other.dataset );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * System.identityHashCode( n5 ) + Objects.hashCode( dataset );
+		}
+	}
+}
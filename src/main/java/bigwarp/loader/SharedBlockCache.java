@@ -0,0 +1,294 @@
+package bigwarp.loader;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.LoaderCache;
+
+/**
+ * A block cache shared by many images, bounded by the total size of its
+ * values in bytes rather than their number.
+ * <p>
+ * Every image gets its own {@link LoaderCache} partition from
+ * {@link #newCache(ToLongFunction)}. All partitions share one least recently
+ * used order. When the total size exceeds the bound, the least recently used
+ * values are demoted to soft references, so they stay available until the
+ * garbage collector needs the memory.
+ * <p>
+ * Concurrent requests for the same missing key load the value only once.
+ */
+public class SharedBlockCache
+{
+	private final long maxBytes;
+
+	private final AtomicInteger numPartitions = new AtomicInteger();
+
+	/*
+	 * strongly referenced values in access order, guarded by this
+	 */
+	private final LinkedHashMap< Key, Entry > strong = new LinkedHashMap<>( 64, 0.75f, true );
+
+	/*
+	 * values demoted from the strong map, guarded by this
+	 */
+	private final HashMap< Key, SoftEntry > soft = new HashMap<>();
+
+	private final ReferenceQueue< Object > collected = new ReferenceQueue<>();
+
+	private final ConcurrentHashMap< Key, CompletableFuture< Object > > loading = new ConcurrentHashMap<>();
+
+	private long bytes;
+
+	/**
+	 * @param maxBytes the maximum size of strongly held values in bytes
+	 */
+	public SharedBlockCache( final long maxBytes )
+	{
+		this.maxBytes = maxBytes;
+	}
+
+	public long getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	/**
+	 * @return the size of the strongly held values in bytes
+	 */
+	public synchronized long sizeInBytes()
+	{
+		return bytes;
+	}
+
+	/**
+	 * Creates a new partition of this cache.
+	 *
+	 * @param sizeInBytes estimates the size of a value in bytes
+	 * @return the cache
+	 */
+	public < V > LoaderCache< Long, V > newCache( final ToLongFunction< ? super V > sizeInBytes )
+	{
+		return new Partition<>( numPartitions.getAndIncrement(), sizeInBytes );
+	}
+
+	private synchronized Object getIfPresent( final Key key )
+	{
+		final Entry entry = strong.get( key );
+		if ( entry != null )
+			return entry.value;
+
+		final SoftEntry ref = soft.remove( key );
+		if ( ref == null )
+			return null;
+
+		final Object value = ref.get();
+		if ( value != null )
+			put( key, value, ref.bytes );
+
+		return value;
+	}
+
+	private synchronized void put( final Key key, final Object value, final long size )
+	{
+		final Entry previous = strong.put( key, new Entry( value, size ) );
+		if ( previous != null )
+			bytes -= previous.bytes;
+
+		soft.remove( key );
+		bytes += size;
+
+		final Iterator< Map.Entry< Key, Entry > > it = strong.entrySet().iterator();
+		while ( bytes > maxBytes && strong.size() > 1 && it.hasNext() )
+		{
+			final Map.Entry< Key, Entry > eldest = it.next();
+			if ( eldest.getKey().equals( key ) )
+				continue;
+
+			final Entry e = eldest.getValue();
+			it.remove();
+			bytes -= e.bytes;
+			soft.put( eldest.getKey(), new SoftEntry( eldest.getKey(), e, collected ) );
+		}
+
+		// forget soft references whose values were collected
+		Reference< ? > ref;
+		while ( ( ref = collected.poll() ) != null )
+		{
+			final SoftEntry se = ( SoftEntry ) ref;
+			soft.remove( se.key, se );
+		}
+	}
+
+	private synchronized void invalidateIf( final Predicate< Key > condition )
+	{
+		final Iterator< Map.Entry< Key, Entry > > it = strong.entrySet().iterator();
+		while ( it.hasNext() )
+		{
+			final Map.Entry< Key, Entry > e = it.next();
+			if ( condition.test( e.getKey() ) )
+			{
+				bytes -= e.getValue().bytes;
+				it.remove();
+			}
+		}
+		soft.keySet().removeIf( condition );
+	}
+
+	private class Partition< V > implements LoaderCache< Long, V >
+	{
+		private final int id;
+
+		private final ToLongFunction< ? super V > sizeInBytes;
+
+		public Partition( final int id, final ToLongFunction< ? super V > sizeInBytes )
+		{
+			this.id = id;
+			this.sizeInBytes = sizeInBytes;
+		}
+
+		@SuppressWarnings( "unchecked" )
+		@Override
+		public V getIfPresent( final Long key )
+		{
+			return ( V ) SharedBlockCache.this.getIfPresent( new Key( id, key ) );
+		}
+
+		@SuppressWarnings( "unchecked" )
+		@Override
+		public V get( final Long key, final CacheLoader< ? super Long, ? extends V > loader ) throws ExecutionException
+		{
+			final Key k = new Key( id, key );
+			final Object present = SharedBlockCache.this.getIfPresent( k );
+			if ( present != null )
+				return ( V ) present;
+
+			final CompletableFuture< Object > future = new CompletableFuture<>();
+			final CompletableFuture< Object > other = loading.putIfAbsent( k, future );
+			if ( other != null )
+			{
+				try
+				{
+					return ( V ) other.get();
+				}
+				catch ( final InterruptedException e )
+				{
+					Thread.currentThread().interrupt();
+					throw new ExecutionException( e );
+				}
+			}
+
+			try
+			{
+				// another thread may have finished loading in the meantime
+				Object value = SharedBlockCache.this.getIfPresent( k );
+				if ( value == null )
+				{
+					final V loaded = loader.get( key );
+					put( k, loaded, sizeInBytes.applyAsLong( loaded ) );
+					value = loaded;
+				}
+				future.complete( value );
+				return ( V ) value;
+			}
+			catch ( final Exception e )
+			{
+				future.completeExceptionally( e );
+				throw new ExecutionException( e );
+			}
+			finally
+			{
+				loading.remove( k, future );
+			}
+		}
+
+		public void invalidate( final Long key )
+		{
+			final Key k = new Key( id, key );
+			SharedBlockCache.this.invalidateIf( x -> x.equals( k ) );
+		}
+
+		public void invalidateIf( final long parallelismThreshold, final Predicate< Long > condition )
+		{
+			SharedBlockCache.this.invalidateIf( x -> x.partition == id && condition.test( x.key ) );
+		}
+
+		public void invalidateAll( final long parallelismThreshold )
+		{
+			invalidateAll();
+		}
+
+		@Override
+		public void invalidateAll()
+		{
+			SharedBlockCache.this.invalidateIf( x -> x.partition == id );
+		}
+	}
+
+	private static final class Key
+	{
+		final int partition;
+
+		final long key;
+
+		Key( final int partition, final long key )
+		{
+			this.partition = partition;
+			this.key = key;
+		}
+
+		@Override
+		public boolean equals( final Object o )
+		{
+			if ( !( o instanceof Key ) )
+				return false;
+
+			final Key other = ( Key ) o;
+			return partition == other.partition && key == other.key;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * partition + Long.hashCode( key );
+		}
+	}
+
+	private static final class Entry
+	{
+		final Object value;
+
+		final long bytes;
+
+		Entry( final Object value, final long bytes )
+		{
+			this.value = value;
+			this.bytes = bytes;
+		}
+	}
+
+	private static final class SoftEntry extends SoftReference< Object >
+	{
+		final Key key;
+
+		final long bytes;
+
+		SoftEntry( final Key key, final Entry entry, final ReferenceQueue< Object > queue )
+		{
+			super( entry.value, queue );
+			this.key = key;
+			this.bytes = entry.bytes;
+		}
+	}
+}
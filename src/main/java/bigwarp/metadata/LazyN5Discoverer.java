@@ -0,0 +1,478 @@
+package bigwarp.metadata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.janelia.saalfeldlab.n5.N5DatasetDiscoverer;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5TreeNode;
+import org.janelia.saalfeldlab.n5.metadata.N5GroupParser;
+import org.janelia.saalfeldlab.n5.metadata.N5Metadata;
+import org.janelia.saalfeldlab.n5.metadata.N5MetadataParser;
+
+/**
+ * Finds the metadata of one node of an n5 container without discovering the
+ * whole container.
+ * <p>
+ * A dataset is parsed directly. For a group, only its direct children are
+ * listed and parsed, in parallel, before the group parsers are applied, which
+ * is enough for multiscale groups. Nothing below is visited.
+ * <p>
+ * For containers on the local file system, which parser matched which node is
+ * cached in a folder on disk, keyed by container, node and parsers, and
+ * validated against the modification times of the files that were read. On a
+ * cache hit, nothing is listed and every node is parsed only by the parser
+ * that matched before.
+ */
+public class LazyN5Discoverer
+{
+	private static final String KIND_DATASET = "dataset";
+
+	private static final String KIND_GROUP = "group";
+
+	private final N5MetadataParser< ? >[] parsers;
+
+	private final N5GroupParser< ? >[] groupParsers;
+
+	private final int nThreads;
+
+	private final File cacheFolder;
+
+	/**
+	 * @param groupParsers the group parsers
+	 * @param parsers the dataset parsers
+	 * @param nThreads the number of threads reading attributes
+	 * @param cacheFolder the folder caching parse results, may be null
+	 */
+	public LazyN5Discoverer( final N5GroupParser< ? >[] groupParsers, final N5MetadataParser< ? >[] parsers,
+			final int nThreads, final File cacheFolder )
+	{
+		this.groupParsers = groupParsers;
+		this.parsers = parsers;
+		this.nThreads = nThreads;
+		this.cacheFolder = cacheFolder;
+	}
+
+	/**
+	 * @return the default cache folder: ~/.bigwarp/n5-metadata
+	 */
+	public static File defaultCacheFolder()
+	{
+		return new File( System.getProperty( "user.home" ) + File.separator + ".bigwarp" + File.separator + "n5-metadata" );
+	}
+
+	/**
+	 * Finds the metadata of a node.
+	 *
+	 * @param n5 the reader
+	 * @param n5Root the container location, used as cache key
+	 * @param path the node path
+	 * @return the metadata or null if no parser matched
+	 */
+	public N5Metadata discover( final N5Reader n5, final String n5Root, final String path )
+	{
+		final File root = localRoot( n5Root );
+		final File cacheFile = root == null || cacheFolder == null ? null : cacheFile( root, path );
+
+		if ( cacheFile != null && cacheFile.isFile() )
+		{
+			final N5Metadata meta = fromCache( n5, root, path, cacheFile );
+			if ( meta != null )
+				return meta;
+		}
+
+		final Properties entry = new Properties();
+		final N5Metadata meta;
+		try
+		{
+			meta = parse( n5, path, entry );
+		}
+		catch ( final IOException e )
+		{
+			e.printStackTrace();
+			return null;
+		}
+
+		if ( meta != null && cacheFile != null )
+			writeCache( root, path, entry, cacheFile );
+
+		return meta;
+	}
+
+	/**
+	 * Finds the metadata of a node like {@link #discover(N5Reader, String, String)},
+	 * and falls back to discovering the whole subtree below the node if that
+	 * finds nothing, for example for groups whose metadata depends on nodes
+	 * below their direct children.
+	 *
+	 * @param n5 the reader
+	 * @param n5Root the container location, used as cache key
+	 * @param path the node path
+	 * @return the metadata or null if no parser matched
+	 */
+	public N5Metadata discoverOrFallback( final N5Reader n5, final String n5Root, final String path )
+	{
+		final N5Metadata meta = discover( n5, n5Root, path );
+		if ( meta != null )
+			return meta;
+
+		return discoverRecursive( n5, path, groupParsers, parsers );
+	}
+
+	/**
+	 * Discovers and parses the whole subtree below a node.
+	 *
+	 * @param n5 the reader
+	 * @param path the node path
+	 * @param groupParsers the group parsers
+	 * @param parsers the dataset parsers
+	 * @return the metadata of the node or null if no parser matched
+	 */
+	public static N5Metadata discoverRecursive( final N5Reader n5, final String path,
+			final N5GroupParser< ? >[] groupParsers, final N5MetadataParser< ? >[] parsers )
+	{
+		try
+		{
+			final N5DatasetDiscoverer discoverer = new N5DatasetDiscoverer( groupParsers, parsers );
+			final N5TreeNode node = discoverer.discoverRecursive( n5, path );
+			N5DatasetDiscoverer.parseMetadataRecursive( n5, node, parsers, groupParsers );
+			return node.getMetadata();
+		}
+		catch ( final IOException e )
+		{
+			return null;
+		}
+	}
+
+	private N5Metadata parse( final N5Reader n5, final String path, final Properties entry ) throws IOException
+	{
+		if ( n5.datasetExists( path ) )
+		{
+			final N5TreeNode node = new N5TreeNode( path, true );
+			final int p = parseDataset( n5, node, -1 );
+			if ( p < 0 )
+				return null;
+
+			entry.setProperty( "kind", KIND_DATASET );
+			entry.setProperty( "parser", Integer.toString( p ) );
+			return node.getMetadata();
+		}
+
+		final String[] names = n5.list( path );
+		final N5TreeNode node = new N5TreeNode( path, false );
+		final List< N5TreeNode > children = new ArrayList<>();
+		for ( final String name : names )
+			children.add( new N5TreeNode( childPath( path, name ), false ) );
+
+		final int[] childParsers = new int[ children.size() ];
+		final ExecutorService exec = Executors.newFixedThreadPool( Math.max( 1, Math.min( nThreads, children.size() ) ) );
+		try
+		{
+			final List< Future< N5TreeNode > > futures = new ArrayList<>();
+			for ( int i = 0; i < children.size(); i++ )
+			{
+				final int j = i;
+				futures.add( exec.submit( () -> {
+					final N5TreeNode child = children.get( j );
+					if ( !n5.datasetExists( child.getPath() ) )
+					{
+						childParsers[ j ] = -1;
+						return child;
+					}
+
+					final N5TreeNode dataset = new N5TreeNode( child.getPath(), true );
+					childParsers[ j ] = parseDataset( n5, dataset, -1 );
+					return dataset;
+				} ) );
+			}
+
+			for ( final Future< N5TreeNode > f : futures )
+				node.add( f.get() );
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			throw new IOException( e );
+		}
+		finally
+		{
+			exec.shutdown();
+		}
+
+		final int g = parseGroup( node, -1 );
+		if ( g < 0 )
+			return null;
+
+		entry.setProperty( "kind", KIND_GROUP );
+		entry.setProperty( "groupParser", Integer.toString( g ) );
+		final StringBuilder childList = new StringBuilder();
+		for ( int i = 0; i < names.length; i++ )
+		{
+			if ( childParsers[ i ] < 0 )
+				continue;
+
+			if ( childList.length() > 0 )
+				childList.append( '/' );
+
+			childList.append( names[ i ] ).append( ':' ).append( childParsers[ i ] );
+		}
+		entry.setProperty( "children", childList.toString() );
+		return node.getMetadata();
+	}
+
+	/**
+	 * Parses a dataset node with the given parser, or the first parser that
+	 * matches if the index is negative.
+	 *
+	 * @return the index of the parser that matched or -1
+	 */
+	private int parseDataset( final N5Reader n5, final N5TreeNode node, final int index )
+	{
+		final int start = index < 0 ? 0 : index;
+		final int end = index < 0 ? parsers.length : Math.min( index + 1, parsers.length );
+		for ( int i = start; i < end; i++ )
+		{
+			try
+			{
+				final N5Metadata meta = parsers[ i ].parseMetadata( n5, node );
+				if ( meta != null )
+				{
+					node.setMetadata( meta );
+					return i;
+				}
+			}
+			catch ( final Exception e )
+			{}
+		}
+		return -1;
+	}
+
+	private int parseGroup( final N5TreeNode node, final int index )
+	{
+		final int start = index < 0 ? 0 : index;
+		final int end = index < 0 ? groupParsers.length : Math.min( index + 1, groupParsers.length );
+		for ( int i = start; i < end; i++ )
+		{
+			final N5Metadata meta = groupParsers[ i ].parseMetadataGroup( node );
+			if ( meta != null )
+			{
+				node.setMetadata( meta );
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private N5Metadata fromCache( final N5Reader n5, final File root, final String path, final File cacheFile )
+	{
+		final Properties entry = new Properties();
+		try ( final InputStream in = new FileInputStream( cacheFile ) )
+		{
+			entry.load( in );
+		}
+		catch ( final IOException e )
+		{
+			return null;
+		}
+
+		if ( !path.equals( entry.getProperty( "path" ) ) || !isCurrent( root, entry ) )
+			return null;
+
+		try
+		{
+			if ( KIND_DATASET.equals( entry.getProperty( "kind" ) ) )
+			{
+				final N5TreeNode node = new N5TreeNode( path, true );
+				if ( parseDataset( n5, node, Integer.parseInt( entry.getProperty( "parser" ) ) ) < 0 )
+					return null;
+
+				return node.getMetadata();
+			}
+			else if ( KIND_GROUP.equals( entry.getProperty( "kind" ) ) )
+			{
+				final String[] children = entry.getProperty( "children", "" ).split( "/" );
+				final N5TreeNode node = new N5TreeNode( path, false );
+				final N5TreeNode[] childNodes = new N5TreeNode[ children.length ];
+				final ExecutorService exec = Executors.newFixedThreadPool( Math.max( 1, Math.min( nThreads, children.length ) ) );
+				try
+				{
+					final List< Future< Integer > > futures = new ArrayList<>();
+					for ( int i = 0; i < children.length; i++ )
+					{
+						final int sep = children[ i ].lastIndexOf( ':' );
+						final N5TreeNode child = new N5TreeNode( childPath( path, children[ i ].substring( 0, sep ) ), true );
+						final int p = Integer.parseInt( children[ i ].substring( sep + 1 ) );
+						childNodes[ i ] = child;
+						futures.add( exec.submit( () -> parseDataset( n5, child, p ) ) );
+					}
+
+					for ( final Future< Integer > f : futures )
+						if ( f.get() < 0 )
+							return null;
+				}
+				finally
+				{
+					exec.shutdown();
+				}
+
+				for ( final N5TreeNode child : childNodes )
+					node.add( child );
+
+				if ( parseGroup( node, Integer.parseInt( entry.getProperty( "groupParser" ) ) ) < 0 )
+					return null;
+
+				return node.getMetadata();
+			}
+		}
+		catch ( final RuntimeException | InterruptedException | ExecutionException e )
+		{
+			// treat a damaged entry as a cache miss
+		}
+		return null;
+	}
+
+	private void writeCache( final File root, final String path, final Properties entry, final File cacheFile )
+	{
+		entry.setProperty( "path", path );
+
+		// stamp the folders of the node and its children
+		final List< File > folders = new ArrayList<>();
+		folders.add( nodeFile( root, path ) );
+		if ( KIND_GROUP.equals( entry.getProperty( "kind" ) ) )
+			for ( final String child : entry.getProperty( "children" ).split( "/" ) )
+				if ( !child.isEmpty() )
+					folders.add( nodeFile( root, childPath( path, child.substring( 0, child.lastIndexOf( ':' ) ) ) ) );
+
+		int k = 0;
+		for ( final File f : folders )
+			k = stamp( entry, f, k );
+		entry.setProperty( "stamps", Integer.toString( k ) );
+
+		try
+		{
+			cacheFolder.mkdirs();
+			final File tmp = new File( cacheFile.getPath() + ".tmp" );
+			try ( final OutputStream out = new FileOutputStream( tmp ) )
+			{
+				entry.store( out, null );
+			}
+			Files.move( tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		catch ( final IOException e )
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Records the modification times of a file and, for a folder, of the
+	 * files directly inside it, where the attributes of a node are stored.
+	 */
+	private static int stamp( final Properties entry, final File f, int k )
+	{
+		entry.setProperty( "stamp." + k + ".file", f.getPath() );
+		entry.setProperty( "stamp." + k + ".time", Long.toString( f.lastModified() ) );
+		k++;
+
+		final File[] files = f.listFiles( File::isFile );
+		if ( files != null )
+		{
+			for ( final File c : files )
+			{
+				entry.setProperty( "stamp." + k + ".file", c.getPath() );
+				entry.setProperty( "stamp." + k + ".time", Long.toString( c.lastModified() ) );
+				k++;
+			}
+		}
+		return k;
+	}
+
+	private static boolean isCurrent( final File root, final Properties entry )
+	{
+		final int n = Integer.parseInt( entry.getProperty( "stamps", "0" ) );
+		if ( n == 0 )
+			return false;
+
+		for ( int k = 0; k < n; k++ )
+		{
+			final String file = entry.getProperty( "stamp." + k + ".file" );
+			final String time = entry.getProperty( "stamp." + k + ".time" );
+			if ( file == null || time == null || new File( file ).lastModified() != Long.parseLong( time ) )
+				return false;
+		}
+		return true;
+	}
+
+	private File cacheFile( final File root, final String path )
+	{
+		final StringBuilder key = new StringBuilder();
+		key.append( root.getAbsolutePath() ).append( '\n' ).append( path );
+		for ( final N5MetadataParser< ? > p : parsers )
+			key.append( '\n' ).append( p.getClass().getName() );
+		for ( final N5GroupParser< ? > p : groupParsers )
+			key.append( '\n' ).append( p.getClass().getName() );
+
+		try
+		{
+			final byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( key.toString().getBytes( StandardCharsets.UTF_8 ) );
+			final StringBuilder name = new StringBuilder();
+			for ( final byte b : digest )
+				name.append( String.format( "%02x", b ) );
+
+			return new File( cacheFolder, name.append( ".properties" ).toString() );
+		}
+		catch ( final NoSuchAlgorithmException e )
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * @return the container folder or file if it is on the local file system,
+	 *         otherwise null
+	 */
+	private static File localRoot( final String n5Root )
+	{
+		String p = n5Root;
+		if ( p.startsWith( "file://" ) )
+			p = p.substring( "file://".length() );
+		else if ( p.contains( "://" ) )
+			return null;
+
+		final File f = new File( p );
+		return f.exists() ? f : null;
+	}
+
+	private static File nodeFile( final File root, final String path )
+	{
+		if ( root.isFile() )
+			return root;
+
+		return new File( root, path );
+	}
+
+	private static String childPath( final String path, final String name )
+	{
+		if ( path.isEmpty() || path.equals( "/" ) )
+			return name;
+		else if ( path.endsWith( "/" ) )
+			return path + name;
+		else
+			return path + "/" + name;
+	}
+}
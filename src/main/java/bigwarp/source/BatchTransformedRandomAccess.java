@@ -0,0 +1,218 @@
+package bigwarp.source;
+
+import bigwarp.transforms.BatchRealTransform;
+import net.imglib2.AbstractLocalizable;
+import net.imglib2.Localizable;
+import net.imglib2.RandomAccess;
+import net.imglib2.RealRandomAccess;
+
+/**
+ * The {@link RandomAccess} of a {@link BatchTransformedRandomAccessible}.
+ * <p>
+ * When a position outside the cached row is accessed, the transformed
+ * positions of the next rowLength pixels along the first dimension are
+ * computed with a single call to
+ * {@link BatchRealTransform#applyLine(double[], double[], double[][], int)},
+ * which lets thin plate splines use their scanline fast path. Accessing
+ * pixels in iteration order (as cursors and the exporters do) therefore
+ * transforms each row in large batches.
+ * <p>
+ * If the end of the rows is known (the random access was created for an
+ * interval), batches never extend past it. Otherwise, the first batch of a
+ * row is small and the batch size doubles (up to rowLength) every time the
+ * access moves on to the next batch of the same row, so that narrow rows do
+ * not transform many positions that are never read.
+ */
+public class BatchTransformedRandomAccess< T > extends AbstractLocalizable implements RandomAccess< T >
+{
+	private final RealRandomAccess< T > sourceAccess;
+
+	private final BatchRealTransform transform;
+
+	public static final int INITIAL_BATCH_LENGTH = 16;
+
+	private final int rowLength;
+
+	/*
+	 * the last position along the first dimension that will be accessed,
+	 * Long.MAX_VALUE if unknown
+	 */
+	private final long rowEnd;
+
+	private final int initialBatchLength;
+
+	private int batchLength;
+
+	private final double[] rowStart;
+
+	private final double[] rowStep;
+
+	private final double[][] rowTransformed;
+
+	private final long[] rowOrigin;
+
+	private int rowSize;
+
+	public BatchTransformedRandomAccess( final RealRandomAccess< T > sourceAccess, final BatchRealTransform transform, final int rowLength )
+	{
+		this( sourceAccess, transform, rowLength, Long.MAX_VALUE );
+	}
+
+	/**
+	 * @param sourceAccess access to the source
+	 * @param transform the transform from this space to the source's space
+	 * @param rowLength the largest number of positions transformed at once
+	 * @param rowEnd the largest position along the first dimension that will be accessed, or Long.MAX_VALUE if unknown
+	 */
+	public BatchTransformedRandomAccess( final RealRandomAccess< T > sourceAccess, final BatchRealTransform transform, final int rowLength, final long rowEnd )
+	{
+		super( sourceAccess.numDimensions() );
+		this.sourceAccess = sourceAccess;
+		this.transform = transform;
+		this.rowLength = rowLength;
+		this.rowEnd = rowEnd;
+		initialBatchLength = ( rowEnd == Long.MAX_VALUE ) ? Math.min( INITIAL_BATCH_LENGTH, rowLength ) : rowLength;
+		batchLength = initialBatchLength;
+		rowStart = new double[ n ];
+		rowStep = new double[ n ];
+		rowStep[ 0 ] = 1;
+		rowTransformed = new double[ n ][ rowLength ];
+		rowOrigin = new long[ n ];
+		rowSize = 0;
+	}
+
+	@Override
+	public T get()
+	{
+		int i = ( int ) Math.max( -1, Math.min( Integer.MAX_VALUE, position[ 0 ] - rowOrigin[ 0 ] ) );
+		if ( i < 0 || i >= rowSize || !sameRow() )
+		{
+			// moving on to the next batch of the same row
+			if ( i == rowSize && rowSize > 0 && sameRow() )
+				batchLength = Math.min( rowLength, 2 * batchLength );
+			else
+				batchLength = initialBatchLength;
+
+			computeRow();
+			i = 0;
+		}
+
+		for ( int d = 0; d < n; d++ )
+			sourceAccess.setPosition( rowTransformed[ d ][ i ], d );
+
+		return sourceAccess.get();
+	}
+
+	private boolean sameRow()
+	{
+		for ( int d = 1; d < n; d++ )
+			if ( position[ d ] != rowOrigin[ d ] )
+				return false;
+
+		return true;
+	}
+
+	private void computeRow()
+	{
+		System.arraycopy( position, 0, rowOrigin, 0, n );
+		for ( int d = 0; d < n; d++ )
+			rowStart[ d ] = position[ d ];
+
+		final long remaining = rowEnd - position[ 0 ] + 1;
+		final int len = ( int ) Math.max( 1, Math.min( batchLength, remaining ) );
+		transform.applyLine( rowStart, rowStep, rowTransformed, len );
+		rowSize = len;
+	}
+
+	@Override
+	public BatchTransformedRandomAccess< T > copy()
+	{
+		final BatchTransformedRandomAccess< T > copy = new BatchTransformedRandomAccess< T >(
+				sourceAccess.copyRealRandomAccess(), transform.copy(), rowLength, rowEnd );
+		copy.setPosition( this );
+		return copy;
+	}
+
+	@Override
+	public BatchTransformedRandomAccess< T > copyRandomAccess()
+	{
+		return copy();
+	}
+
+	@Override
+	public void fwd( final int d )
+	{
+		++position[ d ];
+	}
+
+	@Override
+	public void bck( final int d )
+	{
+		--position[ d ];
+	}
+
+	@Override
+	public void move( final int distance, final int d )
+	{
+		position[ d ] += distance;
+	}
+
+	@Override
+	public void move( final long distance, final int d )
+	{
+		position[ d ] += distance;
+	}
+
+	@Override
+	public void move( final Localizable localizable )
+	{
+		for ( int d = 0; d < n; ++d )
+			position[ d ] += localizable.getLongPosition( d );
+	}
+
+	@Override
+	public void move( final int[] distance )
+	{
+		for ( int d = 0; d < n; ++d )
+			position[ d ] += distance[ d ];
+	}
+
+	@Override
+	public void move( final long[] distance )
+	{
+		for ( int d = 0; d < n; ++d )
+			position[ d ] += distance[ d ];
+	}
+
+	@Override
+	public void setPosition( final Localizable localizable )
+	{
+		localizable.localize( position );
+	}
+
+	@Override
+	public void setPosition( final int[] pos )
+	{
+		for ( int d = 0; d < n; ++d )
+			position[ d ] = pos[ d ];
+	}
+
+	@Override
+	public void setPosition( final long[] pos )
+	{
+		for ( int d = 0; d < n; ++d )
+			position[ d ] = pos[ d ];
+	}
+
+	@Override
+	public void setPosition( final int pos, final int d )
+	{
+		position[ d ] = pos;
+	}
+
+	@Override
+	public void setPosition( final long pos, final int d )
+	{
+		position[ d ] = pos;
+	}
+}
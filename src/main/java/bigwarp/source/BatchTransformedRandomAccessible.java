@@ -0,0 +1,64 @@
+package bigwarp.source;
+
+import bigwarp.transforms.BatchRealTransform;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RealRandomAccessible;
+
+/**
+ * Rasterizes a {@link RealRandomAccessible} transformed by a
+ * {@link BatchRealTransform}, i.e. the value at position p is the value of the
+ * source at transform( p ).
+ * <p>
+ * The equivalent of a raster over a
+ * {@link net.imglib2.realtransform.RealTransformRandomAccessible}, except that
+ * the transformed positions are computed a row (along the first dimension)
+ * at a time, see {@link BatchTransformedRandomAccess}.
+ */
+public class BatchTransformedRandomAccessible< T > implements RandomAccessible< T >
+{
+	public static final int DEFAULT_ROW_LENGTH = 256;
+
+	private final RealRandomAccessible< T > source;
+
+	private final BatchRealTransform transform;
+
+	private final int rowLength;
+
+	public BatchTransformedRandomAccessible( final RealRandomAccessible< T > source, final BatchRealTransform transform )
+	{
+		this( source, transform, DEFAULT_ROW_LENGTH );
+	}
+
+	/**
+	 * @param source the source
+	 * @param transform the transform from this space to the source's space
+	 * @param rowLength the number of positions transformed at once
+	 */
+	public BatchTransformedRandomAccessible( final RealRandomAccessible< T > source, final BatchRealTransform transform, final int rowLength )
+	{
+		this.source = source;
+		this.transform = transform;
+		this.rowLength = Math.max( 1, rowLength );
+	}
+
+	@Override
+	public int numDimensions()
+	{
+		return source.numDimensions();
+	}
+
+	@Override
+	public RandomAccess< T > randomAccess()
+	{
+		return new BatchTransformedRandomAccess< T >( source.realRandomAccess(), transform.copy(), rowLength );
+	}
+
+	@Override
+	public RandomAccess< T > randomAccess( final Interval interval )
+	{
+		final int len = ( int ) Math.max( 1, Math.min( rowLength, interval.dimension( 0 ) ) );
+		return new BatchTransformedRandomAccess< T >( source.realRandomAccess(), transform.copy(), len, interval.max( 0 ) );
+	}
+}
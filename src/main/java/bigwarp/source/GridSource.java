@@ -1,19 +1,21 @@
 package bigwarp.source;
 
+import bdv.util.volatiles.SharedQueue;
 import bdv.viewer.Interpolation;
 import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
 import bigwarp.BigWarp.BigWarpData;
+import bigwarp.util.BigWarpUtils;
 import mpicbg.spim.data.sequence.VoxelDimensions;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealRandomAccessible;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.realtransform.RealTransform;
+import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.view.Views;
 
-public class GridSource< T extends RealType< T >> implements Source< T >
+public class GridSource< T extends RealType< T > & NativeType< T > > implements Source< T >
 {
 	
 	public enum GRID_TYPE { MOD, LINE };
@@ -27,61 +29,88 @@ public class GridSource< T extends RealType< T >> implements Source< T >
 	protected final GridRealRandomAccessibleRealInterval<T> gridImg;
 	
 	protected T type;
+
+	protected final WarpVisualizationCache< T > cache;
+
+	protected final VolatileWarpVisualizationSource< T, ? > volatileSource;
 	
 	public GridSource( String name, BigWarpData< ? > data, T t, RealTransform warp  )
+	{
+		this( name, data, t, warp, WarpVisualizationCache.getDefaultQueue() );
+	}
+
+	public GridSource( String name, BigWarpData< ? > data, T t, RealTransform warp, SharedQueue queue )
 	{
 		this.name = name;
 		this.type = t.copy();
 		sourceData = data;
 		
-		interval = sourceData.sources.get( sourceData.targetSourceIndices[ 0 ] ).getSpimSource().getSource( 0, 0 );
+		// the transform is the same at all timepoints, so is the field it shows
+		final Source< ? > target = sourceData.sources.get( sourceData.targetSourceIndices[ 0 ] ).getSpimSource();
+		interval = target.getSource( BigWarpUtils.firstPresentTimepoint( target, sourceData.getNumTimepoints() ), 0 );
 		gridImg = new GridRealRandomAccessibleRealInterval<T>( interval, t, warp );
+		cache = new WarpVisualizationCache<>( gridImg, interval, t, queue );
+		volatileSource = new VolatileWarpVisualizationSource<>( this, cache );
+	}
+
+	/**
+	 * @return a volatile source showing the same values as this source
+	 */
+	public VolatileWarpVisualizationSource< T, ? > getVolatileSource()
+	{
+		return volatileSource;
 	}
 	
 	public void setGridSpacing( double spacing )
 	{
 		gridImg.ra.setGridSpacing( spacing );
+		cache.invalidate();
 	}
 	
 	public void setGridWidth( double width )
 	{
 		gridImg.ra.setGridWidth( width );
+		cache.invalidate();
 	}
 
 	public void setWarp( RealTransform warp )
 	{
 		gridImg.ra.warp = warp;
+		cache.invalidate();
 	}
 	
 	@Override
 	public boolean isPresent( int t )
 	{
-		return ( t == 0 );
+		return t >= 0 && t < sourceData.getNumTimepoints();
 	}
 	
 	public void setMethod( GRID_TYPE method )
 	{
 		gridImg.ra.setMethod( method );
+		cache.invalidate();
 	}
 
 	@Override
 	public RandomAccessibleInterval<T> getSource( int t, int level ) 
 	{
-		return Views.interval( Views.raster( 
-				getInterpolatedSource( t, level, Interpolation.NEARESTNEIGHBOR ) ), 
-				interval );
+		return cache.getImage( level );
 	}
 
 	@Override
 	public RealRandomAccessible<T> getInterpolatedSource( int t, int level, Interpolation method ) 
 	{
-		return gridImg;
+		return cache.getInterpolatedImage( level, method );
 	}
 
 	@Override
 	public void getSourceTransform( int t, int level, AffineTransform3D transform )
 	{
-		sourceData.sources.get( 0 ).getSpimSource().getSourceTransform( t, level, transform );
+		final AffineTransform3D base = new AffineTransform3D();
+		final Source< ? > first = sourceData.sources.get( 0 ).getSpimSource();
+		first.getSourceTransform( first.isPresent( t ) ? t : BigWarpUtils.firstPresentTimepoint( first, sourceData.getNumTimepoints() ), 0, base );
+		cache.getSourceTransform( level, transform );
+		transform.preConcatenate( base );
 	}
 
 	@Override
@@ -105,7 +134,7 @@ public class GridSource< T extends RealType< T >> implements Source< T >
 	@Override
 	public int getNumMipmapLevels() 
 	{
-		return 1;
+		return cache.numLevels();
 	}
 	
 }
@@ -1,16 +1,18 @@
 package bigwarp.source;
 
 import java.util.Arrays;
+import java.util.Random;
 
+import bdv.util.volatiles.SharedQueue;
 import bdv.viewer.Interpolation;
 import bdv.viewer.Source;
 import bigwarp.BigWarp.BigWarpData;
 import bigwarp.landmarks.LandmarkTableModel;
+import bigwarp.util.BigWarpUtils;
 import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
 import mpicbg.models.AbstractModel;
 import mpicbg.spim.data.sequence.FinalVoxelDimensions;
 import mpicbg.spim.data.sequence.VoxelDimensions;
-import net.imglib2.Cursor;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealRandomAccess;
@@ -18,10 +20,10 @@ import net.imglib2.RealRandomAccessible;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.realtransform.RealTransform;
 import net.imglib2.realtransform.inverse.DifferentiableRealTransform;
+import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.view.Views;
 
-public class JacobianDeterminantSource< T extends RealType< T >> implements Source< T >
+public class JacobianDeterminantSource< T extends RealType< T > & NativeType< T > > implements Source< T >
 {
 	protected final String name;
 	
@@ -34,8 +36,23 @@ public class JacobianDeterminantSource< T extends RealType< T >> implements Sour
 	protected final VoxelDimensions voxDims;
 
 	protected T type;
-	
+
+	protected final WarpVisualizationCache< T > cache;
+
+	protected final VolatileWarpVisualizationSource< T, ? > volatileSource;
+
 	public JacobianDeterminantSource( String name, BigWarpData<?> data, T t  )
+	{
+		this( name, data, t, WarpVisualizationCache.getDefaultQueue() );
+	}
+
+	/**
+	 * @param name the name
+	 * @param data the data, whose first target source determines the interval
+	 * @param t the pixel type
+	 * @param queue the queue that computes the cells of the volatile source
+	 */
+	public JacobianDeterminantSource( String name, BigWarpData<?> data, T t, SharedQueue queue )
 	{
 		this.name = name;
 		this.type = t;
@@ -43,7 +60,9 @@ public class JacobianDeterminantSource< T extends RealType< T >> implements Sour
 		sourceData = data;
 
 		//RandomAccessibleInterval<?> fixedsrc = sourceData.sources.get( 1 ).getSpimSource().getSource( 0, 0 );
-		interval = sourceData.sources.get( sourceData.targetSourceIndices[ 0 ] ).getSpimSource().getSource( 0, 0 );
+		// the transform is the same at all timepoints, so is the field it shows
+		final Source< ? > target = sourceData.sources.get( sourceData.targetSourceIndices[ 0 ] ).getSpimSource();
+		interval = target.getSource( BigWarpUtils.firstPresentTimepoint( target, sourceData.getNumTimepoints() ), 0 );
 
 		VoxelDimensions srcVoxDims = sourceData.sources.get( sourceData.targetSourceIndices[ 0 ] ).getSpimSource().getVoxelDimensions();
 		String unit = "pix";
@@ -53,6 +72,16 @@ public class JacobianDeterminantSource< T extends RealType< T >> implements Sour
 		voxDims = new FinalVoxelDimensions( unit, 1.0, 1.0, 1.0 );
 
 		jacDetImg = new JacobianDeterminantRandomAccess.JacobianDeterminantRandomAccessibleInterval< T >( interval, t, null );
+		cache = new WarpVisualizationCache<>( jacDetImg, interval, t, queue );
+		volatileSource = new VolatileWarpVisualizationSource<>( this, cache );
+	}
+
+	/**
+	 * @return a volatile source showing the same values as this source
+	 */
+	public VolatileWarpVisualizationSource< T, ? > getVolatileSource()
+	{
+		return volatileSource;
 	}
 	
 	public double getMax( LandmarkTableModel lm )
@@ -79,6 +108,7 @@ public class JacobianDeterminantSource< T extends RealType< T >> implements Sour
 	public void setTransform( final DifferentiableRealTransform transform )
 	{
 		jacDetImg.setTransform( transform );
+		cache.invalidate();
 	}
 	
 	public void debug( double[] pt )
@@ -98,30 +128,22 @@ public class JacobianDeterminantSource< T extends RealType< T >> implements Sour
 		
 	}
 
+	/**
+	 * Approximates the range of this source from its coarsest level, see
+	 * {@link SourceStatistics}.
+	 *
+	 * @return min and max
+	 */
 	public double[] minMax()
 	{
-		double[] minmax = new double[ 2 ];
-		minmax[ 0 ] = Double.MAX_VALUE;
-		minmax[ 1 ] = Double.MIN_VALUE;
-		
-		Cursor<T> curs = Views.iterable( this.getSource( 0,0 ) ).cursor();
-		
-		while( curs.hasNext() )
-		{
-			double val = curs.next().getRealDouble();
-			if( val < minmax[ 0 ])
-				minmax[ 0 ] = val;
-			else if( val > minmax[ 1 ])
-				minmax[ 1 ] = val;
-			
-		}
-		return minmax;
+		return SourceStatistics.compute( getSource( 0, getNumMipmapLevels() - 1 ), SourceStatistics.DEFAULT_MAX_SAMPLES,
+				SourceStatistics.DEFAULT_ALPHA, new Random( 0 ) ).minMax();
 	}
 	
 	@Override
 	public boolean isPresent( int t )
 	{
-		return ( t == 0 );
+		return t >= 0 && t < sourceData.getNumTimepoints();
 	}
 	
 	/*
@@ -142,21 +164,19 @@ public class JacobianDeterminantSource< T extends RealType< T >> implements Sour
 	@Override
 	public RandomAccessibleInterval<T> getSource( int t, int level ) 
 	{
-		return Views.interval( Views.raster( 
-				getInterpolatedSource( t, level, Interpolation.NEARESTNEIGHBOR ) ), 
-				interval );
+		return cache.getImage( level );
 	}
 
 	@Override
 	public RealRandomAccessible<T> getInterpolatedSource( int t, int level, Interpolation method ) 
 	{
-		return jacDetImg;
+		return cache.getInterpolatedImage( level, method );
 	}
 
 	@Override
 	public void getSourceTransform( int t, int level, AffineTransform3D transform )
 	{
-		transform.identity();
+		cache.getSourceTransform( level, transform );
 	}
 
 	@Override
@@ -180,7 +200,7 @@ public class JacobianDeterminantSource< T extends RealType< T >> implements Sour
 	@Override
 	public int getNumMipmapLevels() 
 	{
-		return 1;
+		return cache.numLevels();
 	}
 	
 }
@@ -0,0 +1,545 @@
+package bigwarp.source;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import bdv.tools.InitializeViewerState;
+import bdv.util.Bounds;
+import bdv.viewer.Source;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Approximate intensity statistics of sources, for initializing display
+ * ranges without scanning whole images.
+ * <p>
+ * Statistics are computed from the coarsest mipmap level of a source. If that
+ * level has more than {@link #getMaxSamples()} voxels, random blocks of it are
+ * sampled instead. Sampled statistics carry a confidence bound: with
+ * probability 1 - alpha, every quantile is off by at most epsilon in rank
+ * (Dvoretzky-Kiefer-Wolfowitz, counting blocks rather than voxels since the
+ * voxels of a block are correlated).
+ * <p>
+ * Results are cached in memory and, if a folder is given, on disk, so that
+ * they are reused across sessions. The cache key includes the name, type,
+ * size and transform of the coarsest level and a few of its voxel values, so
+ * that changed data is not mistaken for cached data.
+ */
+public class SourceStatistics
+{
+	public static final String EXTENSION = ".bwst";
+
+	public static final int VERSION = 1;
+
+	public static final int DEFAULT_MAX_SAMPLES = 1 << 18;
+
+	public static final int DEFAULT_BLOCK_SIZE = 16;
+
+	public static final double DEFAULT_ALPHA = 0.05;
+
+	public static final int NUM_QUANTILES = 1001;
+
+	public static final int DEFAULT_MAX_FILES = 1024;
+
+	private static final int MAGIC = 0x42575354; // "BWST"
+
+	private static final int MAX_MEMORY_ENTRIES = 256;
+
+	private static final int NUM_FINGERPRINT_VOXELS = 16;
+
+	private static volatile SourceStatistics defaultStatistics;
+
+	private final File folder;
+
+	private final LinkedHashMap< String, Stats > memory = new LinkedHashMap< String, Stats >( 16, 0.75f, true )
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry< String, Stats > eldest )
+		{
+			return size() > MAX_MEMORY_ENTRIES;
+		}
+	};
+
+	private volatile int maxSamples = DEFAULT_MAX_SAMPLES;
+
+	private volatile double alpha = DEFAULT_ALPHA;
+
+	private volatile int maxFiles = DEFAULT_MAX_FILES;
+
+	/**
+	 * @param folder the folder that holds statistics across sessions, or
+	 *            null to cache in memory only
+	 */
+	public SourceStatistics( final File folder )
+	{
+		this.folder = folder;
+	}
+
+	/**
+	 * @return the statistics used for initializing display ranges
+	 */
+	public static SourceStatistics getDefault()
+	{
+		if ( defaultStatistics == null )
+		{
+			synchronized ( SourceStatistics.class )
+			{
+				if ( defaultStatistics == null )
+					defaultStatistics = new SourceStatistics( new File( new File( System.getProperty( "user.home" ), ".bigwarp" ), "source-statistics" ) );
+			}
+		}
+		return defaultStatistics;
+	}
+
+	public static void setDefault( final SourceStatistics statistics )
+	{
+		defaultStatistics = statistics;
+	}
+
+	public File getFolder()
+	{
+		return folder;
+	}
+
+	public int getMaxSamples()
+	{
+		return maxSamples;
+	}
+
+	/**
+	 * @param maxSamples levels with at most this many voxels are scanned
+	 *            completely, larger ones are sampled
+	 */
+	public void setMaxSamples( final int maxSamples )
+	{
+		this.maxSamples = maxSamples;
+	}
+
+	/**
+	 * @param alpha one minus the confidence of the bound of sampled statistics
+	 */
+	public void setAlpha( final double alpha )
+	{
+		this.alpha = alpha;
+	}
+
+	public void setMaxFiles( final int maxFiles )
+	{
+		this.maxFiles = maxFiles;
+	}
+
+	/**
+	 * Estimates a display range from the cumulative histogram of a source.
+	 * Sources that are not {@link RealType} fall back to
+	 * {@link InitializeViewerState#estimateSourceRange}.
+	 *
+	 * @param source the source
+	 * @param timepoint the timepoint
+	 * @param cumulativeMinCutoff the fraction of voxels below the min
+	 * @param cumulativeMaxCutoff the fraction of voxels below the max
+	 * @return the display range
+	 */
+	public Bounds estimateSourceRange( final Source< ? > source, final int timepoint, final double cumulativeMinCutoff, final double cumulativeMaxCutoff )
+	{
+		final Stats stats = get( source, timepoint );
+		if ( stats == null )
+			return InitializeViewerState.estimateSourceRange( source, timepoint, cumulativeMinCutoff, cumulativeMaxCutoff );
+
+		final double min = stats.quantile( cumulativeMinCutoff );
+		final double max = stats.quantile( cumulativeMaxCutoff );
+		return new Bounds( min, max > min ? max : min + 1 );
+	}
+
+	/**
+	 * Returns the statistics of the coarsest level of a source.
+	 *
+	 * @param source the source
+	 * @param timepoint the timepoint
+	 * @return the statistics, or null if the source is not present at the
+	 *         timepoint or its type is not {@link RealType}
+	 */
+	@SuppressWarnings( "unchecked" )
+	public Stats get( final Source< ? > source, final int timepoint )
+	{
+		if ( !source.isPresent( timepoint ) || !( source.getType() instanceof RealType ) )
+			return null;
+
+		final int level = source.getNumMipmapLevels() - 1;
+		final RandomAccessibleInterval< ? extends RealType< ? > > img = ( RandomAccessibleInterval< ? extends RealType< ? > > ) source.getSource( timepoint, level );
+		final AffineTransform3D transform = new AffineTransform3D();
+		source.getSourceTransform( timepoint, level, transform );
+
+		final String key = key( source.getName(), source.getType(), transform, img );
+		synchronized ( memory )
+		{
+			final Stats stats = memory.get( key );
+			if ( stats != null )
+				return stats;
+		}
+
+		final String hash = toHex( sha1( key ) );
+		final File f = folder == null ? null : new File( folder, hash + EXTENSION );
+		Stats stats = null;
+		if ( f != null && f.isFile() )
+		{
+			try
+			{
+				stats = read( f, key );
+				if ( stats != null )
+					f.setLastModified( System.currentTimeMillis() );
+			}
+			catch ( final IOException e )
+			{
+				e.printStackTrace();
+			}
+		}
+
+		if ( stats == null )
+		{
+			stats = compute( img, maxSamples, alpha, new Random( hash.hashCode() ) );
+			if ( f != null )
+				store( stats, key, f );
+		}
+
+		synchronized ( memory )
+		{
+			memory.put( key, stats );
+		}
+		return stats;
+	}
+
+	private void store( final Stats stats, final String key, final File f )
+	{
+		File tmp = null;
+		try
+		{
+			folder.mkdirs();
+
+			// write to a temporary file first, so readers never see partial files
+			tmp = File.createTempFile( "stats", ".tmp", folder );
+			write( stats, key, tmp );
+			Files.move( tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+			prune();
+		}
+		catch ( final IOException e )
+		{
+			e.printStackTrace();
+			if ( tmp != null )
+				tmp.delete();
+		}
+	}
+
+	/**
+	 * Deletes the least recently used files if there are too many.
+	 */
+	private void prune()
+	{
+		final File[] files = folder.listFiles( ( dir, name ) -> name.endsWith( EXTENSION ) );
+		if ( files == null || files.length <= maxFiles )
+			return;
+
+		Arrays.sort( files, Comparator.comparingLong( File::lastModified ) );
+		for ( int i = 0; i < files.length - maxFiles; i++ )
+			files[ i ].delete();
+	}
+
+	/**
+	 * Computes the statistics of an image, scanning it completely if it has
+	 * at most maxSamples voxels, and sampling random blocks otherwise.
+	 *
+	 * @param img the image
+	 * @param maxSamples the maximum number of voxels to read
+	 * @param alpha one minus the confidence of the bound
+	 * @param rnd chooses the sampled blocks
+	 * @return the statistics
+	 */
+	public static Stats compute( final RandomAccessibleInterval< ? extends RealType< ? > > img, final int maxSamples, final double alpha, final Random rnd )
+	{
+		final int nd = img.numDimensions();
+		final long n = Intervals.numElements( img );
+		if ( n <= maxSamples )
+		{
+			final double[] values = new double[ ( int ) n ];
+			final int count = collect( img, values, 0 );
+			return fromSamples( values, count, n, 0, true, 0 );
+		}
+
+		final long[] blockMin = new long[ nd ];
+		final long[] blockMax = new long[ nd ];
+		final long[] blockSize = new long[ nd ];
+		long voxelsPerBlock = 1;
+		for ( int d = 0; d < nd; d++ )
+		{
+			blockSize[ d ] = Math.min( img.dimension( d ), DEFAULT_BLOCK_SIZE );
+			voxelsPerBlock *= blockSize[ d ];
+		}
+
+		final int numBlocks = ( int ) Math.max( 1, maxSamples / voxelsPerBlock );
+		final double[] values = new double[ ( int ) ( numBlocks * voxelsPerBlock ) ];
+		int count = 0;
+		for ( int b = 0; b < numBlocks; b++ )
+		{
+			for ( int d = 0; d < nd; d++ )
+			{
+				final long positions = img.dimension( d ) - blockSize[ d ] + 1;
+				blockMin[ d ] = img.min( d ) + ( long ) ( rnd.nextDouble() * positions );
+				blockMax[ d ] = blockMin[ d ] + blockSize[ d ] - 1;
+			}
+			count = collect( Views.interval( img, blockMin, blockMax ), values, count );
+		}
+
+		final double epsilon = Math.sqrt( Math.log( 2 / alpha ) / ( 2.0 * numBlocks ) );
+		return fromSamples( values, count, values.length, numBlocks, false, epsilon );
+	}
+
+	/*
+	 * Appends the values of an image to an array, skipping NaNs.
+	 */
+	private static int collect( final RandomAccessibleInterval< ? extends RealType< ? > > img, final double[] values, int count )
+	{
+		final Cursor< ? extends RealType< ? > > c = Views.flatIterable( img ).cursor();
+		while ( c.hasNext() )
+		{
+			final double v = c.next().getRealDouble();
+			if ( !Double.isNaN( v ) )
+				values[ count++ ] = v;
+		}
+		return count;
+	}
+
+	private static Stats fromSamples( final double[] values, final int count, final long numSamples, final int numBlocks, final boolean exact, final double epsilon )
+	{
+		final double[] quantiles = new double[ NUM_QUANTILES ];
+		if ( count == 0 )
+			return new Stats( 0, 0, quantiles, numSamples, numBlocks, exact, epsilon );
+
+		Arrays.sort( values, 0, count );
+		for ( int i = 0; i < NUM_QUANTILES; i++ )
+			quantiles[ i ] = values[ ( int ) Math.round( ( double ) i * ( count - 1 ) / ( NUM_QUANTILES - 1 ) ) ];
+
+		return new Stats( values[ 0 ], values[ count - 1 ], quantiles, numSamples, numBlocks, exact, epsilon );
+	}
+
+	/*
+	 * Describes the coarsest level of a source, including a few of its values.
+	 */
+	private static String key( final String name, final Object type, final AffineTransform3D transform, final RandomAccessibleInterval< ? extends RealType< ? > > img )
+	{
+		final StringBuilder key = new StringBuilder();
+		key.append( name ).append( '\n' );
+		key.append( type.getClass().getName() ).append( '\n' );
+		key.append( Arrays.toString( Intervals.minAsLongArray( img ) ) );
+		key.append( Arrays.toString( Intervals.maxAsLongArray( img ) ) ).append( '\n' );
+		key.append( Arrays.toString( transform.getRowPackedCopy() ) ).append( '\n' );
+
+		final int nd = img.numDimensions();
+		final Random rnd = new Random( 0 );
+		final RandomAccess< ? extends RealType< ? > > ra = img.randomAccess();
+		for ( int i = 0; i < NUM_FINGERPRINT_VOXELS; i++ )
+		{
+			for ( int d = 0; d < nd; d++ )
+				ra.setPosition( img.min( d ) + ( long ) ( rnd.nextDouble() * img.dimension( d ) ), d );
+
+			key.append( ra.get().getRealDouble() ).append( ' ' );
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Reads statistics.
+	 *
+	 * @param f the file
+	 * @param expectedKey the key the statistics were computed for
+	 * @return the statistics, or null if the file belongs to another key
+	 * @throws IOException if the file can not be read or is invalid
+	 */
+	public static Stats read( final File f, final String expectedKey ) throws IOException
+	{
+		try ( final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( f ) ) ) )
+		{
+			if ( in.readInt() != MAGIC )
+				throw new IOException( "Invalid file - not a statistics file" );
+
+			final int version = in.readInt();
+			if ( version > VERSION )
+				throw new IOException( "Unsupported statistics file version " + version );
+
+			final byte[] keyBytes = new byte[ in.readInt() ];
+			in.readFully( keyBytes );
+			if ( !expectedKey.equals( new String( keyBytes, StandardCharsets.UTF_8 ) ) )
+				return null;
+
+			final boolean exact = in.readBoolean();
+			final long numSamples = in.readLong();
+			final int numBlocks = in.readInt();
+			final double epsilon = in.readDouble();
+			final double min = in.readDouble();
+			final double max = in.readDouble();
+			final int nq = in.readInt();
+			if ( nq < 2 || nq > 1 << 20 )
+				throw new IOException( "Invalid file - corrupt statistics" );
+
+			final double[] quantiles = new double[ nq ];
+			for ( int i = 0; i < nq; i++ )
+				quantiles[ i ] = in.readDouble();
+
+			return new Stats( min, max, quantiles, numSamples, numBlocks, exact, epsilon );
+		}
+	}
+
+	/**
+	 * Writes statistics.
+	 *
+	 * @param stats the statistics
+	 * @param key the key they were computed for
+	 * @param f the file
+	 * @throws IOException an exception
+	 */
+	public static void write( final Stats stats, final String key, final File f ) throws IOException
+	{
+		try ( final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( f ) ) ) )
+		{
+			final byte[] keyBytes = key.getBytes( StandardCharsets.UTF_8 );
+			out.writeInt( MAGIC );
+			out.writeInt( VERSION );
+			out.writeInt( keyBytes.length );
+			out.write( keyBytes );
+			out.writeBoolean( stats.exact );
+			out.writeLong( stats.numSamples );
+			out.writeInt( stats.numBlocks );
+			out.writeDouble( stats.epsilon );
+			out.writeDouble( stats.min );
+			out.writeDouble( stats.max );
+			out.writeInt( stats.quantiles.length );
+			for ( final double q : stats.quantiles )
+				out.writeDouble( q );
+		}
+	}
+
+	private static byte[] sha1( final String key )
+	{
+		try
+		{
+			return MessageDigest.getInstance( "SHA-1" ).digest( key.getBytes( StandardCharsets.UTF_8 ) );
+		}
+		catch ( final NoSuchAlgorithmException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+
+	private static String toHex( final byte[] bytes )
+	{
+		final StringBuilder sb = new StringBuilder();
+		for ( final byte b : bytes )
+			sb.append( String.format( "%02x", b ) );
+
+		return sb.toString();
+	}
+
+	/**
+	 * The approximate distribution of intensities of an image, stored as
+	 * equally spaced quantiles.
+	 */
+	public static class Stats
+	{
+		public final double min;
+
+		public final double max;
+
+		public final double[] quantiles;
+
+		/**
+		 * the number of voxels read
+		 */
+		public final long numSamples;
+
+		/**
+		 * the number of sampled blocks, zero if the image was scanned
+		 */
+		public final int numBlocks;
+
+		/**
+		 * whether all voxels were read
+		 */
+		public final boolean exact;
+
+		/**
+		 * the bound on the rank error of the quantiles, zero if exact
+		 */
+		public final double epsilon;
+
+		public Stats( final double min, final double max, final double[] quantiles,
+				final long numSamples, final int numBlocks, final boolean exact, final double epsilon )
+		{
+			this.min = min;
+			this.max = max;
+			this.quantiles = quantiles;
+			this.numSamples = numSamples;
+			this.numBlocks = numBlocks;
+			this.exact = exact;
+			this.epsilon = epsilon;
+		}
+
+		/**
+		 * @param p the cumulative fraction, between 0 and 1
+		 * @return the value below which the fraction p of voxels lie
+		 */
+		public double quantile( final double p )
+		{
+			final double x = Math.max( 0, Math.min( 1, p ) ) * ( quantiles.length - 1 );
+			final int i = Math.min( ( int ) x, quantiles.length - 2 );
+			final double w = x - i;
+			return ( 1 - w ) * quantiles[ i ] + w * quantiles[ i + 1 ];
+		}
+
+		/**
+		 * @param numBins the number of bins between min and max
+		 * @return the approximate fraction of voxels in each bin
+		 */
+		public double[] histogram( final int numBins )
+		{
+			final double[] hist = new double[ numBins ];
+			final double width = ( max - min ) / numBins;
+			final double mass = 1.0 / ( quantiles.length - 1 );
+			for ( int i = 0; i < quantiles.length - 1; i++ )
+			{
+				final double v = 0.5 * ( quantiles[ i ] + quantiles[ i + 1 ] );
+				final int bin = width > 0 ? ( int ) Math.min( numBins - 1, ( v - min ) / width ) : 0;
+				hist[ bin ] += mass;
+			}
+			return hist;
+		}
+
+		/**
+		 * @return min and max
+		 */
+		public double[] minMax()
+		{
+			return new double[] { min, max };
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package bigwarp.source;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import bdv.img.RenamableSource;
+import bdv.img.WarpedSource;
+import bdv.viewer.Source;
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.view.Views;
+
+/**
+ * Loads the cells of the next timepoint of sources in the background while
+ * the current timepoint is rendered or exported.
+ * <p>
+ * Only sources backed by cell images (as are cached, lazily loaded images)
+ * are prefetched, other sources are skipped. {@link WarpedSource}s and
+ * {@link RenamableSource}s are unwrapped, since the cells belong to the
+ * wrapped source. A new request cancels the previous one, so that the
+ * prefetcher never competes with the timepoint that is being shown.
+ */
+public class TimepointPrefetcher
+{
+	public static final int DEFAULT_MAX_CELLS = 512;
+
+	private final ExecutorService exec;
+
+	private Future< ? > current;
+
+	private volatile int maxCells = DEFAULT_MAX_CELLS;
+
+	/**
+	 * @param exec runs the prefetching
+	 */
+	public TimepointPrefetcher( final ExecutorService exec )
+	{
+		this.exec = exec;
+	}
+
+	/**
+	 * @param maxCells the maximum number of cells loaded per source and
+	 *            request, which should stay well below the capacity of the
+	 *            caches
+	 */
+	public void setMaxCells( final int maxCells )
+	{
+		this.maxCells = maxCells;
+	}
+
+	/**
+	 * Prefetches a level of several sources, cancelling any previous request.
+	 *
+	 * @param sources the sources
+	 * @param timepoint the timepoint to load
+	 * @param level the mipmap level
+	 * @param intervals the intervals to load in voxel coordinates of the level,
+	 *            one per source, or null to load everything
+	 */
+	public void prefetch( final List< ? extends Source< ? > > sources, final int timepoint, final int level, final List< Interval > intervals )
+	{
+		final int[] levels = new int[ sources.size() ];
+		Arrays.fill( levels, level );
+		prefetch( sources, timepoint, levels, intervals );
+	}
+
+	/**
+	 * Prefetches several sources at their own levels, cancelling any previous
+	 * request.
+	 *
+	 * @param sources the sources
+	 * @param timepoint the timepoint to load
+	 * @param levels the mipmap level of each source
+	 * @param intervals the intervals to load in voxel coordinates of the
+	 *            levels, one per source, or null to load everything
+	 */
+	public synchronized void prefetch( final List< ? extends Source< ? > > sources, final int timepoint, final int[] levels, final List< Interval > intervals )
+	{
+		cancel();
+		final int n = maxCells;
+		current = exec.submit( () -> {
+			for ( int i = 0; i < sources.size() && !Thread.currentThread().isInterrupted(); i++ )
+				prefetch( sources.get( i ), timepoint, levels[ i ], intervals == null ? null : intervals.get( i ), n );
+		} );
+	}
+
+	/**
+	 * Cancels the current request.
+	 */
+	public synchronized void cancel()
+	{
+		if ( current != null )
+			current.cancel( true );
+
+		current = null;
+	}
+
+	/**
+	 * Loads the cells of a source that intersect an interval.
+	 *
+	 * @param source the source
+	 * @param timepoint the timepoint
+	 * @param level the mipmap level, clamped to the levels of the source
+	 * @param interval the interval in voxel coordinates of the level, or null
+	 *            to load everything
+	 * @param maxCells the maximum number of cells to load
+	 * @return the number of cells that were loaded
+	 */
+	public static int prefetch( final Source< ? > source, final int timepoint, final int level, final Interval interval, final int maxCells )
+	{
+		final Source< ? > src = unwrap( source );
+		if ( !src.isPresent( timepoint ) )
+			return 0;
+
+		final int l = Math.max( 0, Math.min( level, src.getNumMipmapLevels() - 1 ) );
+		final RandomAccessibleInterval< ? > img = src.getSource( timepoint, l );
+		if ( !( img instanceof AbstractCellImg ) )
+			return 0;
+
+		final AbstractCellImg< ?, ?, ?, ? > cellImg = ( AbstractCellImg< ?, ?, ?, ? > ) img;
+		final CellGrid grid = cellImg.getCellGrid();
+		final int nd = grid.numDimensions();
+		final long[] cellMin = new long[ nd ];
+		final long[] cellMax = new long[ nd ];
+		for ( int d = 0; d < nd; d++ )
+		{
+			final long numCells = grid.getGridDimensions()[ d ];
+			final int cellSize = grid.cellDimension( d );
+			if ( interval == null || d >= interval.numDimensions() )
+			{
+				cellMin[ d ] = 0;
+				cellMax[ d ] = numCells - 1;
+			}
+			else
+			{
+				cellMin[ d ] = Math.max( 0, Math.floorDiv( interval.min( d ), cellSize ) );
+				cellMax[ d ] = Math.min( numCells - 1, Math.floorDiv( interval.max( d ), cellSize ) );
+				if ( cellMin[ d ] > cellMax[ d ] )
+					return 0;
+			}
+		}
+
+		int count = 0;
+		final Cursor< ? > c = Views.flatIterable( Views.interval( cellImg.getCells(), cellMin, cellMax ) ).cursor();
+		while ( c.hasNext() && count < maxCells && !Thread.currentThread().isInterrupted() )
+		{
+			// getting a cell of a cached image loads it
+			c.next();
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @param source a source
+	 * @return the source whose cells back the given source
+	 */
+	public static Source< ? > unwrap( Source< ? > source )
+	{
+		while ( true )
+		{
+			if ( source instanceof WarpedSource )
+				source = ( ( WarpedSource< ? > ) source ).getWrappedSource();
+			else if ( source instanceof RenamableSource )
+				source = ( ( RenamableSource< ? > ) source ).getWrappedSource();
+			else
+				return source;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package bigwarp.source;
+
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.Volatile;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * The volatile counterpart of a warp visualization source, showing the
+ * volatile images of its {@link WarpVisualizationCache}.
+ */
+public class VolatileWarpVisualizationSource< T extends RealType< T > & NativeType< T >, V extends Volatile< T > & NumericType< V > > implements Source< V >
+{
+	private final Source< T > source;
+
+	private final WarpVisualizationCache< T > cache;
+
+	private final V type;
+
+	public VolatileWarpVisualizationSource( final Source< T > source, final WarpVisualizationCache< T > cache )
+	{
+		this.source = source;
+		this.cache = cache;
+		this.type = cache.getVolatileType();
+	}
+
+	@Override
+	public boolean isPresent( final int t )
+	{
+		return source.isPresent( t );
+	}
+
+	@Override
+	public RandomAccessibleInterval< V > getSource( final int t, final int level )
+	{
+		return cache.getVolatileImage( level );
+	}
+
+	@Override
+	public RealRandomAccessible< V > getInterpolatedSource( final int t, final int level, final Interpolation method )
+	{
+		return cache.getInterpolatedVolatileImage( level, method );
+	}
+
+	@Override
+	public void getSourceTransform( final int t, final int level, final AffineTransform3D transform )
+	{
+		source.getSourceTransform( t, level, transform );
+	}
+
+	@Override
+	public V getType()
+	{
+		return type;
+	}
+
+	@Override
+	public String getName()
+	{
+		return source.getName();
+	}
+
+	@Override
+	public VoxelDimensions getVoxelDimensions()
+	{
+		return source.getVoxelDimensions();
+	}
+
+	@Override
+	public int getNumMipmapLevels()
+	{
+		return cache.numLevels();
+	}
+}
@@ -1,26 +1,28 @@
 package bigwarp.source;
 
 import java.util.Arrays;
+import java.util.Random;
 
+import bdv.util.volatiles.SharedQueue;
 import bdv.viewer.Interpolation;
 import bdv.viewer.Source;
 import bigwarp.BigWarp.BigWarpData;
 import bigwarp.landmarks.LandmarkTableModel;
+import bigwarp.util.BigWarpUtils;
 import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
 import mpicbg.models.AbstractModel;
 import mpicbg.spim.data.sequence.FinalVoxelDimensions;
 import mpicbg.spim.data.sequence.VoxelDimensions;
-import net.imglib2.Cursor;
 import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealRandomAccess;
 import net.imglib2.RealRandomAccessible;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.realtransform.RealTransform;
+import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.view.Views;
 
-public class WarpMagnitudeSource< T extends RealType< T >> implements Source< T >
+public class WarpMagnitudeSource< T extends RealType< T > & NativeType< T > > implements Source< T >
 {
 	protected final String name;
 	
@@ -33,15 +35,26 @@ public class WarpMagnitudeSource< T extends RealType< T >> implements Source< T
 	protected final VoxelDimensions voxDims;
 
 	protected T type;
+
+	protected final WarpVisualizationCache< T > cache;
+
+	protected final VolatileWarpVisualizationSource< T, ? > volatileSource;
 	
 	public WarpMagnitudeSource( String name, BigWarpData<?> data, T t  )
+	{
+		this( name, data, t, WarpVisualizationCache.getDefaultQueue() );
+	}
+
+	public WarpMagnitudeSource( String name, BigWarpData<?> data, T t, SharedQueue queue )
 	{
 		this.name = name;
 		this.type = t;
 
 		sourceData = data;
 
-		interval = sourceData.sources.get( sourceData.targetSourceIndices[ 0 ] ).getSpimSource().getSource( 0, 0 );
+		// the transform is the same at all timepoints, so is the field it shows
+		final Source< ? > target = sourceData.sources.get( sourceData.targetSourceIndices[ 0 ] ).getSpimSource();
+		interval = target.getSource( BigWarpUtils.firstPresentTimepoint( target, sourceData.getNumTimepoints() ), 0 );
 		VoxelDimensions srcVoxDims = sourceData.sources.get( sourceData.targetSourceIndices[ 0 ] ).getSpimSource().getVoxelDimensions();
 		String unit = "pix";
 		if( srcVoxDims != null )
@@ -49,6 +62,16 @@ public class WarpMagnitudeSource< T extends RealType< T >> implements Source< T
 
 		voxDims = new FinalVoxelDimensions( unit, 1.0, 1.0, 1.0 );
 		warpMagImg = new WarpMagnitudeRandomAccessibleInterval<T>( interval, t, null, null );
+		cache = new WarpVisualizationCache<>( warpMagImg, interval, t, queue );
+		volatileSource = new VolatileWarpVisualizationSource<>( this, cache );
+	}
+
+	/**
+	 * @return a volatile source showing the same values as this source
+	 */
+	public VolatileWarpVisualizationSource< T, ? > getVolatileSource()
+	{
+		return volatileSource;
 	}
 	
 	public double getMax( LandmarkTableModel lm )
@@ -75,11 +98,13 @@ public class WarpMagnitudeSource< T extends RealType< T >> implements Source< T
 	public void setWarp( RealTransform warp )
 	{
 		warpMagImg.ra.warp = warp;
+		cache.invalidate();
 	}
 	
 	public void setBaseline( RealTransform baseline )
 	{
 		warpMagImg.ra.baseline = baseline;
+		cache.invalidate();
 	}
 	
 	public RealTransform getBaseline()
@@ -106,30 +131,22 @@ public class WarpMagnitudeSource< T extends RealType< T >> implements Source< T
 		
 	}
 
+	/**
+	 * Approximates the range of this source from its coarsest level, see
+	 * {@link SourceStatistics}.
+	 *
+	 * @return min and max
+	 */
 	public double[] minMax()
 	{
-		double[] minmax = new double[ 2 ];
-		minmax[ 0 ] = Double.MAX_VALUE;
-		minmax[ 1 ] = Double.MIN_VALUE;
-		
-		Cursor<T> curs = Views.iterable( this.getSource( 0,0 ) ).cursor();
-		
-		while( curs.hasNext() )
-		{
-			double val = curs.next().getRealDouble();
-			if( val < minmax[ 0 ])
-				minmax[ 0 ] = val;
-			else if( val > minmax[ 1 ])
-				minmax[ 1 ] = val;
-			
-		}
-		return minmax;
+		return SourceStatistics.compute( getSource( 0, getNumMipmapLevels() - 1 ), SourceStatistics.DEFAULT_MAX_SAMPLES,
+				SourceStatistics.DEFAULT_ALPHA, new Random( 0 ) ).minMax();
 	}
 	
 	@Override
 	public boolean isPresent( int t )
 	{
-		return ( t == 0 );
+		return t >= 0 && t < sourceData.getNumTimepoints();
 	}
 	
 	/*
@@ -150,21 +167,19 @@ public class WarpMagnitudeSource< T extends RealType< T >> implements Source< T
 	@Override
 	public RandomAccessibleInterval<T> getSource( int t, int level ) 
 	{
-		return Views.interval( Views.raster( 
-				getInterpolatedSource( t, level, Interpolation.NEARESTNEIGHBOR ) ), 
-				interval );
+		return cache.getImage( level );
 	}
 
 	@Override
 	public RealRandomAccessible<T> getInterpolatedSource( int t, int level, Interpolation method ) 
 	{
-		return warpMagImg;
+		return cache.getInterpolatedImage( level, method );
 	}
 
 	@Override
 	public void getSourceTransform( int t, int level, AffineTransform3D transform )
 	{
-		transform.identity();
+		cache.getSourceTransform( level, transform );
 	}
 
 	@Override
@@ -188,7 +203,7 @@ public class WarpMagnitudeSource< T extends RealType< T >> implements Source< T
 	@Override
 	public int getNumMipmapLevels() 
 	{
-		return 1;
+		return cache.numLevels();
 	}
 	
 }
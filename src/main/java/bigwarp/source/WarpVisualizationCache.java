@@ -0,0 +1,233 @@
+package bigwarp.source;
+
+import bdv.util.volatiles.SharedQueue;
+import bdv.util.volatiles.VolatileTypeMatcher;
+import bdv.util.volatiles.VolatileViews;
+import bdv.viewer.Interpolation;
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.Volatile;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.interpolation.randomaccess.ClampingNLinearInterpolatorFactory;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * A lazily computed, cached multiresolution pyramid of a transform-derived
+ * field, used by the warp visualization sources.
+ * <p>
+ * Every level is a cached cell image whose cells are computed on demand by
+ * sampling the field, and is also available as a volatile image whose cells
+ * are computed by the fetcher threads of a {@link SharedQueue}. Level s is
+ * downsampled by 2^s in x and y (and z if the field is 3d), and its voxels
+ * sample the field at the center of the voxels they cover.
+ * <p>
+ * Cached values depend on the transform, so {@link #invalidate()} must be
+ * called whenever it changes. This discards all levels.
+ *
+ * @param <T> the pixel type
+ */
+public class WarpVisualizationCache< T extends RealType< T > & NativeType< T > >
+{
+	public static final int DEFAULT_CELL_SIZE = 64;
+
+	public static final int MAX_LEVELS = 6;
+
+	private static SharedQueue defaultQueue;
+
+	private final RealRandomAccessible< T > field;
+
+	private final Interval interval;
+
+	private final T type;
+
+	private final SharedQueue queue;
+
+	private final int[] cellDimensions;
+
+	private final int numLevels;
+
+	/*
+	 * downsampling factors per level and dimension
+	 */
+	private final long[][] factors;
+
+	private RandomAccessibleInterval< T >[] images;
+
+	private RandomAccessibleInterval< ? extends Volatile< T > >[] volatileImages;
+
+	/**
+	 * @param field the field in the coordinates of the interval
+	 * @param interval the interval over which the field is cached
+	 * @param type the pixel type
+	 * @param queue the queue computing the cells of the volatile images
+	 */
+	public WarpVisualizationCache( final RealRandomAccessible< T > field, final Interval interval, final T type, final SharedQueue queue )
+	{
+		this.field = field;
+		this.interval = interval;
+		this.type = type.createVariable();
+		this.queue = queue;
+
+		final int nd = interval.numDimensions();
+		final boolean downsampleZ = nd > 2 && interval.dimension( 2 ) > 1;
+		cellDimensions = new int[ nd ];
+		for ( int d = 0; d < nd; d++ )
+			cellDimensions[ d ] = ( d < 2 || downsampleZ ) ? DEFAULT_CELL_SIZE : 1;
+
+		// add levels until the largest xy extent fits into a cell
+		int n = 1;
+		final long maxXY = Math.max( interval.dimension( 0 ), nd > 1 ? interval.dimension( 1 ) : 1 );
+		while ( n < MAX_LEVELS && ( maxXY >> n ) >= DEFAULT_CELL_SIZE )
+			n++;
+
+		numLevels = n;
+		factors = new long[ numLevels ][ nd ];
+		for ( int s = 0; s < numLevels; s++ )
+			for ( int d = 0; d < nd; d++ )
+				factors[ s ][ d ] = ( d < 2 || downsampleZ ) ? 1L << s : 1;
+
+		invalidate();
+	}
+
+	/**
+	 * @return a queue with one fetcher thread, shared by all warp
+	 *         visualization sources that are not given a queue
+	 */
+	public static synchronized SharedQueue getDefaultQueue()
+	{
+		if ( defaultQueue == null )
+			defaultQueue = new SharedQueue( 1 );
+
+		return defaultQueue;
+	}
+
+	public int numLevels()
+	{
+		return numLevels;
+	}
+
+	public T getType()
+	{
+		return type;
+	}
+
+	/**
+	 * @return the volatile type corresponding to this cache's type
+	 */
+	@SuppressWarnings( "unchecked" )
+	public < V extends Volatile< T > & NumericType< V > > V getVolatileType()
+	{
+		return ( V ) VolatileTypeMatcher.getVolatileTypeForType( type );
+	}
+
+	/**
+	 * Discards all cached values, cells will be recomputed from the field
+	 * when they are accessed next.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public synchronized void invalidate()
+	{
+		final RandomAccessibleInterval< T >[] newImages = new RandomAccessibleInterval[ numLevels ];
+		final RandomAccessibleInterval< ? extends Volatile< T > >[] newVolatileImages = new RandomAccessibleInterval[ numLevels ];
+		for ( int s = 0; s < numLevels; s++ )
+		{
+			final CachedCellImg< T, ? > img = createLevel( s );
+			newImages[ s ] = Views.translate( img, levelMin( s ) );
+			newVolatileImages[ s ] = Views.translate( VolatileViews.wrapAsVolatile( img, queue ), levelMin( s ) );
+		}
+		images = newImages;
+		volatileImages = newVolatileImages;
+	}
+
+	private long[] levelMin( final int level )
+	{
+		final long[] min = new long[ interval.numDimensions() ];
+		for ( int d = 0; d < min.length; d++ )
+			min[ d ] = Math.floorDiv( interval.min( d ), factors[ level ][ d ] );
+
+		return min;
+	}
+
+	private CachedCellImg< T, ? > createLevel( final int level )
+	{
+		final int nd = interval.numDimensions();
+		final long[] f = factors[ level ];
+		final long[] min = levelMin( level );
+		final long[] dims = new long[ nd ];
+		for ( int d = 0; d < nd; d++ )
+			dims[ d ] = Math.max( 1, Math.floorDiv( interval.max( d ), f[ d ] ) - min[ d ] + 1 );
+
+		final ReadOnlyCachedCellImgFactory factory = new ReadOnlyCachedCellImgFactory(
+				ReadOnlyCachedCellImgOptions.options().cellDimensions( cellDimensions ) );
+
+		return factory.create( dims, type, cell -> {
+			final RealRandomAccess< T > access = field.realRandomAccess();
+			final Cursor< T > c = cell.localizingCursor();
+			while ( c.hasNext() )
+			{
+				c.fwd();
+				for ( int d = 0; d < nd; d++ )
+					access.setPosition( ( c.getLongPosition( d ) + min[ d ] ) * f[ d ] + 0.5 * ( f[ d ] - 1 ), d );
+
+				c.get().set( access.get() );
+			}
+		} );
+	}
+
+	public RandomAccessibleInterval< T > getImage( final int level )
+	{
+		return images[ level ];
+	}
+
+	@SuppressWarnings( "unchecked" )
+	public < V extends Volatile< T > & NumericType< V > > RandomAccessibleInterval< V > getVolatileImage( final int level )
+	{
+		return ( RandomAccessibleInterval< V > ) volatileImages[ level ];
+	}
+
+	/**
+	 * Sets the transform from the voxels of the given level to the coordinates
+	 * of the field.
+	 *
+	 * @param level the level
+	 * @param transform the transform
+	 */
+	public void getSourceTransform( final int level, final AffineTransform3D transform )
+	{
+		transform.identity();
+		final int nd = Math.min( 3, interval.numDimensions() );
+		for ( int d = 0; d < nd; d++ )
+		{
+			transform.set( factors[ level ][ d ], d, d );
+			transform.set( 0.5 * ( factors[ level ][ d ] - 1 ), d, 3 );
+		}
+	}
+
+	public RealRandomAccessible< T > getInterpolatedImage( final int level, final Interpolation method )
+	{
+		if ( method == Interpolation.NLINEAR )
+			return Views.interpolate( Views.extendBorder( getImage( level ) ), new NLinearInterpolatorFactory< T >() );
+		else
+			return Views.interpolate( Views.extendBorder( getImage( level ) ), new NearestNeighborInterpolatorFactory< T >() );
+	}
+
+	public < V extends Volatile< T > & NumericType< V > > RealRandomAccessible< V > getInterpolatedVolatileImage( final int level, final Interpolation method )
+	{
+		final RandomAccessibleInterval< V > img = getVolatileImage( level );
+		if ( method == Interpolation.NLINEAR )
+			return Views.interpolate( Views.extendBorder( img ), new ClampingNLinearInterpolatorFactory< V >() );
+		else
+			return Views.interpolate( Views.extendBorder( img ), new NearestNeighborInterpolatorFactory< V >() );
+	}
+}
@@ -0,0 +1,186 @@
+package bigwarp.transforms;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+
+/**
+ * A 2d or 3d affine {@link BatchRealTransform}.
+ * <p>
+ * The matrix is given row-packed in homogeneous coordinates, i.e. it has
+ * nd * ( nd + 1 ) elements. Instances are immutable, so can be used from
+ * several threads.
+ */
+public class AffineBatchTransform implements BatchRealTransform
+{
+	private final int nd;
+
+	private final double[] m;
+
+	public AffineBatchTransform( final int nd, final double[] rowPackedMatrix )
+	{
+		if ( nd != 2 && nd != 3 )
+			throw new IllegalArgumentException( "Only 2d and 3d affines are supported" );
+
+		this.nd = nd;
+		this.m = rowPackedMatrix.clone();
+	}
+
+	/**
+	 * @param matrix the nd x (nd+1) matrix, as returned by the mpicbg models' toMatrix
+	 */
+	public AffineBatchTransform( final double[][] matrix )
+	{
+		this( matrix.length, rowPack( matrix ) );
+	}
+
+	private static double[] rowPack( final double[][] matrix )
+	{
+		final int nd = matrix.length;
+		final double[] m = new double[ nd * ( nd + 1 ) ];
+		int k = 0;
+		for ( int r = 0; r < nd; r++ )
+			for ( int c = 0; c <= nd; c++ )
+				m[ k++ ] = matrix[ r ][ c ];
+
+		return m;
+	}
+
+	@Override
+	public void apply( final double[][] source, final double[][] target, final int n )
+	{
+		if ( nd == 2 )
+			apply2d( source, target, n );
+		else
+			apply3d( source, target, n );
+	}
+
+	private void apply2d( final double[][] source, final double[][] target, final int n )
+	{
+		final double m00 = m[ 0 ], m01 = m[ 1 ], m02 = m[ 2 ];
+		final double m10 = m[ 3 ], m11 = m[ 4 ], m12 = m[ 5 ];
+
+		final double[] x = source[ 0 ];
+		final double[] y = source[ 1 ];
+		final double[] tx = target[ 0 ];
+		final double[] ty = target[ 1 ];
+		for ( int i = 0; i < n; i++ )
+		{
+			final double xi = x[ i ];
+			final double yi = y[ i ];
+			tx[ i ] = m00 * xi + m01 * yi + m02;
+			ty[ i ] = m10 * xi + m11 * yi + m12;
+		}
+	}
+
+	private void apply3d( final double[][] source, final double[][] target, final int n )
+	{
+		final double m00 = m[ 0 ], m01 = m[ 1 ], m02 = m[ 2 ], m03 = m[ 3 ];
+		final double m10 = m[ 4 ], m11 = m[ 5 ], m12 = m[ 6 ], m13 = m[ 7 ];
+		final double m20 = m[ 8 ], m21 = m[ 9 ], m22 = m[ 10 ], m23 = m[ 11 ];
+
+		final double[] x = source[ 0 ];
+		final double[] y = source[ 1 ];
+		final double[] z = source[ 2 ];
+		final double[] tx = target[ 0 ];
+		final double[] ty = target[ 1 ];
+		final double[] tz = target[ 2 ];
+		for ( int i = 0; i < n; i++ )
+		{
+			final double xi = x[ i ];
+			final double yi = y[ i ];
+			final double zi = z[ i ];
+			tx[ i ] = m00 * xi + m01 * yi + m02 * zi + m03;
+			ty[ i ] = m10 * xi + m11 * yi + m12 * zi + m13;
+			tz[ i ] = m20 * xi + m21 * yi + m22 * zi + m23;
+		}
+	}
+
+	@Override
+	public void applyLine( final double[] start, final double[] step, final double[][] target, final int n )
+	{
+		final double[] s = new double[ nd ];
+		final double[] v = new double[ nd ];
+		apply( start, s );
+		applyLinear( step, v );
+		BatchRealTransform.fillLine( s, v, target, n );
+	}
+
+	/**
+	 * Applies the linear part of this affine, i.e. transforms a vector.
+	 * source and target may be the same array.
+	 *
+	 * @param source the vector
+	 * @param target the transformed vector
+	 */
+	public void applyLinear( final double[] source, final double[] target )
+	{
+		if ( nd == 2 )
+		{
+			final double x = source[ 0 ];
+			final double y = source[ 1 ];
+			target[ 0 ] = m[ 0 ] * x + m[ 1 ] * y;
+			target[ 1 ] = m[ 3 ] * x + m[ 4 ] * y;
+		}
+		else
+		{
+			final double x = source[ 0 ];
+			final double y = source[ 1 ];
+			final double z = source[ 2 ];
+			target[ 0 ] = m[ 0 ] * x + m[ 1 ] * y + m[ 2 ] * z;
+			target[ 1 ] = m[ 4 ] * x + m[ 5 ] * y + m[ 6 ] * z;
+			target[ 2 ] = m[ 8 ] * x + m[ 9 ] * y + m[ 10 ] * z;
+		}
+	}
+
+	@Override
+	public int numSourceDimensions()
+	{
+		return nd;
+	}
+
+	@Override
+	public int numTargetDimensions()
+	{
+		return nd;
+	}
+
+	@Override
+	public void apply( final double[] source, final double[] target )
+	{
+		if ( nd == 2 )
+		{
+			final double x = source[ 0 ];
+			final double y = source[ 1 ];
+			target[ 0 ] = m[ 0 ] * x + m[ 1 ] * y + m[ 2 ];
+			target[ 1 ] = m[ 3 ] * x + m[ 4 ] * y + m[ 5 ];
+		}
+		else
+		{
+			final double x = source[ 0 ];
+			final double y = source[ 1 ];
+			final double z = source[ 2 ];
+			target[ 0 ] = m[ 0 ] * x + m[ 1 ] * y + m[ 2 ] * z + m[ 3 ];
+			target[ 1 ] = m[ 4 ] * x + m[ 5 ] * y + m[ 6 ] * z + m[ 7 ];
+			target[ 2 ] = m[ 8 ] * x + m[ 9 ] * y + m[ 10 ] * z + m[ 11 ];
+		}
+	}
+
+	@Override
+	public void apply( final RealLocalizable source, final RealPositionable target )
+	{
+		final double[] tmp = new double[ nd ];
+		for ( int d = 0; d < nd; d++ )
+			tmp[ d ] = source.getDoublePosition( d );
+
+		apply( tmp, tmp );
+
+		for ( int d = 0; d < nd; d++ )
+			target.setPosition( tmp[ d ], d );
+	}
+
+	@Override
+	public AffineBatchTransform copy()
+	{
+		return this;
+	}
+}
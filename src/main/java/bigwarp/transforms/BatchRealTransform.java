@@ -0,0 +1,70 @@
+package bigwarp.transforms;
+
+import net.imglib2.realtransform.RealTransform;
+
+/**
+ * A {@link RealTransform} that can transform blocks of points at once, for
+ * example a whole row of an image.
+ * <p>
+ * Points are stored as structure-of-arrays: source[ d ][ i ] is the d-th
+ * coordinate of the i-th point. Implementations loop over points in their
+ * innermost loop so that the JIT can vectorize them.
+ *
+ * @see BatchTransforms#batch(RealTransform)
+ */
+public interface BatchRealTransform extends RealTransform
+{
+	/**
+	 * Transforms the first n points of source and stores the result in target.
+	 * <p>
+	 * source and target may be the same arrays.
+	 *
+	 * @param source the source points, numSourceDimensions arrays of length at least n
+	 * @param target the target points, numTargetDimensions arrays of length at least n
+	 * @param n the number of points
+	 */
+	public void apply( double[][] source, double[][] target, int n );
+
+	/**
+	 * Transforms the n points start + i * step (i = 0, ..., n-1) of a line,
+	 * for example a scanline of an image, and stores the result in target.
+	 * <p>
+	 * The default implementation fills the points and calls
+	 * {@link #apply(double[][], double[][], int)}. Implementations can
+	 * override this to exploit the regular spacing of the points.
+	 *
+	 * @param start the first point of the line
+	 * @param step the offset between consecutive points
+	 * @param target the target points, numTargetDimensions arrays of length at least n
+	 * @param n the number of points
+	 */
+	public default void applyLine( final double[] start, final double[] step, final double[][] target, final int n )
+	{
+		final double[][] source = new double[ numSourceDimensions() ][ n ];
+		fillLine( start, step, source, n );
+		apply( source, target, n );
+	}
+
+	/**
+	 * Stores the n points start + i * step in points.
+	 *
+	 * @param start the first point
+	 * @param step the offset between consecutive points
+	 * @param points the destination
+	 * @param n the number of points
+	 */
+	public static void fillLine( final double[] start, final double[] step, final double[][] points, final int n )
+	{
+		for ( int d = 0; d < points.length; d++ )
+		{
+			final double[] p = points[ d ];
+			final double s = start[ d ];
+			final double v = step[ d ];
+			for ( int i = 0; i < n; i++ )
+				p[ i ] = s + i * v;
+		}
+	}
+
+	@Override
+	public BatchRealTransform copy();
+}
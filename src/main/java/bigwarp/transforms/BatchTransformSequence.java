@@ -0,0 +1,117 @@
+package bigwarp.transforms;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+
+/**
+ * A sequence of {@link BatchRealTransform}s applied one after the other. All
+ * transforms must have the same number of source and target dimensions.
+ */
+public class BatchTransformSequence implements BatchRealTransform
+{
+	private final List< BatchRealTransform > transforms;
+
+	private int nd = 0;
+
+	public BatchTransformSequence()
+	{
+		transforms = new ArrayList<>();
+	}
+
+	public void add( final BatchRealTransform transform )
+	{
+		transforms.add( transform );
+		nd = Math.max( nd, transform.numSourceDimensions() );
+	}
+
+	@Override
+	public void apply( final double[][] source, final double[][] target, final int n )
+	{
+		if ( transforms.isEmpty() )
+		{
+			if ( source != target )
+				for ( int d = 0; d < nd; d++ )
+					System.arraycopy( source[ d ], 0, target[ d ], 0, n );
+
+			return;
+		}
+
+		transforms.get( 0 ).apply( source, target, n );
+		for ( int i = 1; i < transforms.size(); i++ )
+			transforms.get( i ).apply( target, target, n );
+	}
+
+	/**
+	 * Leading affines map the line to another line, so they are applied to
+	 * the start point and step only, and the first non-affine transform gets
+	 * to transform the whole line.
+	 */
+	@Override
+	public void applyLine( final double[] start, final double[] step, final double[][] target, final int n )
+	{
+		final double[] s = start.clone();
+		final double[] v = step.clone();
+		int k = 0;
+		while ( k < transforms.size() && transforms.get( k ) instanceof AffineBatchTransform )
+		{
+			final AffineBatchTransform affine = ( AffineBatchTransform ) transforms.get( k );
+			affine.apply( s, s );
+			affine.applyLinear( v, v );
+			k++;
+		}
+
+		if ( k == transforms.size() )
+		{
+			BatchRealTransform.fillLine( s, v, target, n );
+			return;
+		}
+
+		transforms.get( k ).applyLine( s, v, target, n );
+		for ( int i = k + 1; i < transforms.size(); i++ )
+			transforms.get( i ).apply( target, target, n );
+	}
+
+	@Override
+	public int numSourceDimensions()
+	{
+		return nd;
+	}
+
+	@Override
+	public int numTargetDimensions()
+	{
+		return nd;
+	}
+
+	@Override
+	public void apply( final double[] source, final double[] target )
+	{
+		if ( source != target )
+			System.arraycopy( source, 0, target, 0, nd );
+
+		for ( final BatchRealTransform t : transforms )
+			t.apply( target, target );
+	}
+
+	@Override
+	public void apply( final RealLocalizable source, final RealPositionable target )
+	{
+		final double[] tmp = new double[ nd ];
+		source.localize( tmp );
+		apply( tmp, tmp );
+		target.setPosition( tmp );
+	}
+
+	@Override
+	public BatchTransformSequence copy()
+	{
+		final BatchTransformSequence copy = new BatchTransformSequence();
+		for ( final BatchRealTransform t : transforms )
+			copy.add( t.copy() );
+
+		return copy;
+	}
+}
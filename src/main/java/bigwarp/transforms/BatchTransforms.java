@@ -0,0 +1,76 @@
+package bigwarp.transforms;
+
+import mpicbg.models.AbstractAffineModel2D;
+import mpicbg.models.AbstractAffineModel3D;
+import mpicbg.models.InvertibleCoordinateTransform;
+import net.imglib2.realtransform.AffineGet;
+import net.imglib2.realtransform.RealTransform;
+import net.imglib2.realtransform.Wrapped2DTransformAs3D;
+
+/**
+ * Creates {@link BatchRealTransform}s for the transformations BigWarp
+ * estimates.
+ */
+public class BatchTransforms
+{
+	private BatchTransforms()
+	{}
+
+	/**
+	 * Returns a {@link BatchRealTransform} equivalent to the forward
+	 * direction of the given transform. Thin plate splines and affines
+	 * (including the wrapped mpicbg affine models) get specialized
+	 * implementations, everything else is transformed point by point.
+	 * <p>
+	 * The result may own scratch space, so every thread needs its own
+	 * {@link BatchRealTransform#copy()}.
+	 *
+	 * @param transform the transform
+	 * @return the batch transform
+	 */
+	public static BatchRealTransform batch( final RealTransform transform )
+	{
+		if ( transform instanceof BatchRealTransform )
+			return ( BatchRealTransform ) transform;
+
+		if ( transform instanceof Wrapped2DTransformAs3D )
+			return new Wrapped2DBatchTransform( batch( ( ( Wrapped2DTransformAs3D ) transform ).getTransform() ) );
+
+		if ( transform instanceof GridInverseTransform )
+			return batch( ( ( GridInverseTransform ) transform ).getTransform() );
+
+		if ( transform instanceof AffineGet )
+		{
+			final AffineGet affine = ( AffineGet ) transform;
+			final int nd = affine.numDimensions();
+			if ( nd == 2 || nd == 3 )
+				return new AffineBatchTransform( nd, affine.getRowPackedCopy() );
+		}
+
+		if ( transform instanceof WrappedCoordinateTransform )
+		{
+			final InvertibleCoordinateTransform ct = ( ( WrappedCoordinateTransform ) transform ).getTransform();
+			if ( ct instanceof AbstractAffineModel2D )
+			{
+				final double[][] m = new double[ 2 ][ 3 ];
+				( ( AbstractAffineModel2D< ? > ) ct ).toMatrix( m );
+				return new AffineBatchTransform( m );
+			}
+			else if ( ct instanceof AbstractAffineModel3D )
+			{
+				final double[][] m = new double[ 3 ][ 4 ];
+				( ( AbstractAffineModel3D< ? > ) ct ).toMatrix( m );
+				return new AffineBatchTransform( m );
+			}
+		}
+
+		if ( transform instanceof TpsNewtonInvertibleTransform )
+		{
+			final ThinPlateSplineBatchTransform tps = ( ( TpsNewtonInvertibleTransform ) transform ).getBatchTransform();
+			if ( tps != null )
+				return tps;
+		}
+
+		return new PointwiseBatchTransform( transform.copy() );
+	}
+}
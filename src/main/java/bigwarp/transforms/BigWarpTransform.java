@@ -21,6 +21,7 @@ import mpicbg.models.RigidModel3D;
 import mpicbg.models.SimilarityModel2D;
 import mpicbg.models.TranslationModel2D;
 import mpicbg.models.TranslationModel3D;
+import net.imglib2.RealInterval;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.realtransform.InverseRealTransform;
 import net.imglib2.realtransform.InvertibleRealTransform;
@@ -38,6 +39,12 @@ public class BigWarpTransform
 	
 	private InvertibleRealTransform currentTransform;
 
+	private RealInterval inverseGridInterval;
+
+	private double[] inverseGridSpacing;
+
+	private int inverseGridThreads;
+
 	public BigWarpTransform( final LandmarkTableModel tableModel )
 	{
 		this( tableModel, TransformTypeSelectDialog.TPS );
@@ -60,6 +67,23 @@ public class BigWarpTransform
 		return transformType;
 	}
 
+	/**
+	 * Precompute the inverse of full (re-)estimates of the transformation on
+	 * a grid, see {@link GridInverseTransform}. The inverse will be
+	 * interpolated from the grid inside the given interval, which should cover
+	 * the moving image.
+	 * 
+	 * @param interval the interval in moving space, or null to always compute the exact inverse
+	 * @param spacing the grid spacing
+	 * @param nThreads the number of threads used to compute the grid
+	 */
+	public synchronized void setPrecomputedInverse( final RealInterval interval, final double[] spacing, final int nThreads )
+	{
+		this.inverseGridInterval = interval;
+		this.inverseGridSpacing = spacing;
+		this.inverseGridThreads = nThreads;
+	}
+
 	public InvertibleRealTransform getTransformation()
 	{
 		return getTransformation( -1 );
@@ -70,7 +94,17 @@ public class BigWarpTransform
 		InvertibleRealTransform invXfm = null;
 		if( transformType.equals( TransformTypeSelectDialog.TPS ))
 		{
-			invXfm = new TpsTransformSolver().solve( tableModel );
+			final TpsTransformSolver solver = new TpsTransformSolver();
+
+			// full estimates of large landmark sets may have been solved before
+			if( index < 0 )
+				solver.setCache( tableModel.getSolvedTpsCache() );
+
+			final WrappedIterativeInvertibleRealTransform< ? > tps = solver.solve( tableModel );
+			if( tps instanceof TpsNewtonInvertibleTransform )
+				( ( TpsNewtonInvertibleTransform ) tps ).setMaxIters( tableModel.getMaxInverseIterations() );
+
+			invXfm = tps;
 		}
 		else
 		{
@@ -80,6 +114,22 @@ public class BigWarpTransform
 			invXfm = new WrappedCoordinateTransform( (InvertibleCoordinateTransform) model, nd ).inverse();
 		}
 
+		// only precompute the inverse for full estimates, not while points are dragged
+		final RealInterval gridInterval;
+		final double[] gridSpacing;
+		final int gridThreads;
+		synchronized( this )
+		{
+			gridInterval = inverseGridInterval;
+			gridSpacing = inverseGridSpacing;
+			gridThreads = inverseGridThreads;
+		}
+
+		if( index < 0 && gridInterval != null )
+		{
+			invXfm = new GridInverseTransform( invXfm, gridInterval, gridSpacing, gridThreads );
+		}
+
 		if( tableModel.getNumdims() == 2 )
 		{
 			invXfm = new Wrapped2DTransformAs3D( invXfm );
@@ -91,12 +141,16 @@ public class BigWarpTransform
 
 	public void fitModel( final Model<?> model )
 	{
-		int numActive = tableModel.numActive();
-
-		double[][] mvgPts = new double[ ndims ][ numActive ];
-		double[][] tgtPts = new double[ ndims ][ numActive ];
-
-		tableModel.copyLandmarks( mvgPts, tgtPts );
+		final double[][] mvgPts;
+		final double[][] tgtPts;
+		final int numActive;
+		synchronized ( tableModel )
+		{
+			numActive = tableModel.numActive();
+			mvgPts = new double[ ndims ][ numActive ];
+			tgtPts = new double[ ndims ][ numActive ];
+			tableModel.copyLandmarks( mvgPts, tgtPts );
+		}
 
 		double[] w = new double[ numActive ];
 		Arrays.fill( w, 1.0 );
@@ -158,12 +212,23 @@ public class BigWarpTransform
 		return null;
 	}
 
+	/**
+	 * Removes the wrappers this class may add around the estimated
+	 * transformation, i.e. the 2d-as-3d wrapper and the precomputed inverse.
+	 * 
+	 * @param ixfm the transformation
+	 * @return the unwrapped transformation
+	 */
 	public InvertibleRealTransform unwrap2d( InvertibleRealTransform ixfm )
 	{
-		if( ixfm instanceof Wrapped2DTransformAs3D )
-			return ((Wrapped2DTransformAs3D)ixfm).getTransform();
-		else
-			return ixfm;
+		InvertibleRealTransform out = ixfm;
+		if( out instanceof Wrapped2DTransformAs3D )
+			out = ((Wrapped2DTransformAs3D)out).getTransform();
+
+		if( out instanceof GridInverseTransform )
+			out = ((GridInverseTransform)out).getTransform();
+
+		return out;
 	}
 
 	/**
@@ -348,6 +413,10 @@ public class BigWarpTransform
 		{
 			s = ( ( Wrapped2DTransformAs3D) currentTransform ).toString();
 		}
+		else if( currentTransform instanceof GridInverseTransform )
+		{
+			s = ( ( GridInverseTransform ) currentTransform ).getTransform().toString();
+		}
 		else
 		{
 			s = ( ( WrappedIterativeInvertibleRealTransform<?> ) currentTransform ).getTransform().toString();
@@ -0,0 +1,299 @@
+package bigwarp.transforms;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.realtransform.RealTransform;
+
+/**
+ * Estimates the bounding interval of the image of a box under a transform by
+ * sampling the boundary surface of the box.
+ * <p>
+ * For a continuous and invertible transform, the image of the box is bounded
+ * by the image of its boundary. Every face of the box is sampled on a coarse
+ * grid, and grid cells are subdivided recursively wherever the transform
+ * curves, i.e. where the transformed center of a cell deviates from the
+ * average of its transformed corners by more than a tolerance. Corners shared
+ * by several cells or faces are transformed once.
+ * <p>
+ * Dimensions in which the box is flat (as the z dimension of 2d images) are
+ * kept fixed.
+ */
+public class BoundingIntervalEstimator
+{
+	public static final double DEFAULT_TOLERANCE = 0.5;
+
+	public static final int DEFAULT_INITIAL_SAMPLES = 8;
+
+	public static final int DEFAULT_MAX_DEPTH = 4;
+
+	private final RealTransform transform;
+
+	private final double tolerance;
+
+	private final int initialSamples;
+
+	private final int maxDepth;
+
+	private final int nd;
+
+	/*
+	 * the number of lattice steps along every dimension of the box that is
+	 * not flat, the finest subdivision of the initial grid
+	 */
+	private final int latticeSize;
+
+	private final double[] min;
+
+	private final double[] max;
+
+	private final double[] boxMin;
+
+	private final double[] boxMax;
+
+	private final double[] p;
+
+	/*
+	 * the transformed points, by position on the lattice
+	 */
+	private final HashMap< Long, double[] > samples;
+
+	private int numSamples;
+
+	public BoundingIntervalEstimator( final RealTransform transform )
+	{
+		this( transform, DEFAULT_TOLERANCE, DEFAULT_INITIAL_SAMPLES, DEFAULT_MAX_DEPTH );
+	}
+
+	/**
+	 * @param transform the transform
+	 * @param tolerance the largest deviation from linearity that is not refined further
+	 * @param initialSamples the number of grid cells along each dimension of a face before refinement
+	 * @param maxDepth the largest number of times a grid cell is subdivided
+	 */
+	public BoundingIntervalEstimator( final RealTransform transform, final double tolerance, final int initialSamples, final int maxDepth )
+	{
+		this.transform = transform;
+		this.tolerance = tolerance;
+		this.initialSamples = Math.max( 1, initialSamples );
+		this.maxDepth = Math.max( 0, maxDepth );
+		this.nd = transform.numSourceDimensions();
+		latticeSize = this.initialSamples << this.maxDepth;
+		min = new double[ nd ];
+		max = new double[ nd ];
+		boxMin = new double[ nd ];
+		boxMax = new double[ nd ];
+		p = new double[ nd ];
+		samples = new HashMap<>();
+	}
+
+	/**
+	 * @return the number of distinct points transformed by the last call to {@link #estimate(RealInterval)}
+	 */
+	public int getNumSamples()
+	{
+		return numSamples;
+	}
+
+	/**
+	 * Estimates the bounding interval of the image of a box.
+	 *
+	 * @param box the box
+	 * @return the bounding interval, enlarged by the tolerance, or null if the
+	 *         transform produced non-finite values
+	 */
+	public FinalInterval estimate( final RealInterval box )
+	{
+		Arrays.fill( min, Double.POSITIVE_INFINITY );
+		Arrays.fill( max, Double.NEGATIVE_INFINITY );
+		numSamples = 0;
+
+		// positions on the lattice, flat dimensions are always at 0
+		final int[] lo = new int[ nd ];
+		final int[] hi = new int[ nd ];
+		for ( int d = 0; d < nd; d++ )
+		{
+			boxMin[ d ] = box.realMin( d );
+			boxMax[ d ] = box.realMax( d );
+			hi[ d ] = boxMax[ d ] > boxMin[ d ] ? latticeSize : 0;
+		}
+
+		boolean anyFace = false;
+		for ( int fixed = 0; fixed < nd; fixed++ )
+		{
+			if ( hi[ fixed ] == 0 )
+				continue;
+
+			anyFace = true;
+			for ( final int v : new int[] { 0, latticeSize } )
+			{
+				final int[] faceLo = lo.clone();
+				final int[] faceHi = hi.clone();
+				faceLo[ fixed ] = v;
+				faceHi[ fixed ] = v;
+				sampleFace( faceLo, faceHi );
+			}
+		}
+
+		// a box flat in every dimension is a point
+		if ( !anyFace )
+			sample( lo );
+
+		samples.clear();
+
+		final long[] imin = new long[ nd ];
+		final long[] imax = new long[ nd ];
+		for ( int d = 0; d < nd; d++ )
+		{
+			if ( Double.isNaN( min[ d ] ) || Double.isInfinite( min[ d ] ) || Double.isNaN( max[ d ] ) || Double.isInfinite( max[ d ] ) )
+				return null;
+
+			imin[ d ] = ( long ) Math.floor( min[ d ] - tolerance );
+			imax[ d ] = ( long ) Math.ceil( max[ d ] + tolerance );
+		}
+		return new FinalInterval( imin, imax );
+	}
+
+	/*
+	 * Splits a face into the initial grid and refines every cell.
+	 */
+	private void sampleFace( final int[] lo, final int[] hi )
+	{
+		final int[] free = freeDimensions( lo, hi );
+		final int k = free.length;
+		final int step = 1 << maxDepth;
+		final int[] pos = new int[ k ];
+		final int[] cellLo = lo.clone();
+		final int[] cellHi = hi.clone();
+		while ( true )
+		{
+			for ( int i = 0; i < k; i++ )
+			{
+				final int d = free[ i ];
+				cellLo[ d ] = lo[ d ] + pos[ i ] * step;
+				cellHi[ d ] = cellLo[ d ] + step;
+			}
+			refine( cellLo, cellHi, free, 0 );
+
+			// next grid cell
+			int i = 0;
+			while ( i < k && ++pos[ i ] == initialSamples )
+				pos[ i++ ] = 0;
+
+			if ( i == k )
+				break;
+		}
+	}
+
+	private int[] freeDimensions( final int[] lo, final int[] hi )
+	{
+		int k = 0;
+		for ( int d = 0; d < nd; d++ )
+			if ( hi[ d ] > lo[ d ] )
+				k++;
+
+		final int[] free = new int[ k ];
+		k = 0;
+		for ( int d = 0; d < nd; d++ )
+			if ( hi[ d ] > lo[ d ] )
+				free[ k++ ] = d;
+
+		return free;
+	}
+
+	/*
+	 * Samples the corners of a cell, and subdivides it if its transformed
+	 * center is not close to the average of its transformed corners.
+	 */
+	private void refine( final int[] lo, final int[] hi, final int[] free, final int depth )
+	{
+		final int k = free.length;
+		final double[] avg = new double[ nd ];
+		final int[] corner = new int[ nd ];
+		final int nCorners = 1 << k;
+		for ( int c = 0; c < nCorners; c++ )
+		{
+			System.arraycopy( lo, 0, corner, 0, nd );
+			for ( int i = 0; i < k; i++ )
+				if ( ( c & ( 1 << i ) ) != 0 )
+					corner[ free[ i ] ] = hi[ free[ i ] ];
+
+			final double[] q = sample( corner );
+			for ( int d = 0; d < nd; d++ )
+				avg[ d ] += q[ d ] / nCorners;
+		}
+
+		if ( depth >= maxDepth || k == 0 )
+			return;
+
+		// cells below the maximum depth have an even size on the lattice
+		final int[] mid = new int[ nd ];
+		for ( int d = 0; d < nd; d++ )
+			mid[ d ] = ( lo[ d ] + hi[ d ] ) / 2;
+
+		final double[] q = sample( mid );
+		double dev = 0;
+		for ( int d = 0; d < nd; d++ )
+			dev += ( q[ d ] - avg[ d ] ) * ( q[ d ] - avg[ d ] );
+
+		if ( Math.sqrt( dev ) <= tolerance )
+			return;
+
+		// subdivide into 2^k children
+		final int[] childLo = new int[ nd ];
+		final int[] childHi = new int[ nd ];
+		for ( int child = 0; child < nCorners; child++ )
+		{
+			System.arraycopy( lo, 0, childLo, 0, nd );
+			System.arraycopy( hi, 0, childHi, 0, nd );
+			for ( int i = 0; i < k; i++ )
+			{
+				final int d = free[ i ];
+				if ( ( child & ( 1 << i ) ) != 0 )
+					childLo[ d ] = mid[ d ];
+				else
+					childHi[ d ] = mid[ d ];
+			}
+			refine( childLo, childHi, free, depth + 1 );
+		}
+	}
+
+	/*
+	 * Returns the transformed point at a position on the lattice. Every
+	 * position is transformed once, and extends the bounds when it is.
+	 */
+	private double[] sample( final int[] position )
+	{
+		long key = 0;
+		for ( int d = 0; d < nd; d++ )
+			key = key * ( latticeSize + 1 ) + position[ d ];
+
+		final double[] cached = samples.get( key );
+		if ( cached != null )
+			return cached;
+
+		for ( int d = 0; d < nd; d++ )
+		{
+			if ( position[ d ] == latticeSize )
+				p[ d ] = boxMax[ d ];
+			else
+				p[ d ] = boxMin[ d ] + position[ d ] * ( boxMax[ d ] - boxMin[ d ] ) / latticeSize;
+		}
+
+		final double[] q = new double[ nd ];
+		transform.apply( p, q );
+		samples.put( key, q );
+		numSamples++;
+		for ( int d = 0; d < nd; d++ )
+		{
+			if ( q[ d ] < min[ d ] )
+				min[ d ] = q[ d ];
+
+			if ( q[ d ] > max[ d ] )
+				max[ d ] = q[ d ];
+		}
+		return q;
+	}
+}
@@ -0,0 +1,201 @@
+package bigwarp.transforms;
+
+import net.imglib2.RealInterval;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+import net.imglib2.realtransform.RealTransform;
+
+/**
+ * A fast approximation of a {@link RealTransform}, that interpolates its
+ * displacements n-linearly between the nodes of a coarse grid.
+ * <p>
+ * The displacement is sampled once, at construction, at the nodes of a
+ * regular grid covering an interval. Outside of the interval the transform
+ * itself is applied. Dimensions in which the grid has a single node are not
+ * interpolated.
+ * <p>
+ * Used to show something quickly while an expensive transform is rendered,
+ * see {@link bdv.img.WarpedSource#setProgressiveRendering}.
+ */
+public class CoarseDisplacementTransform implements RealTransform
+{
+	private final RealTransform transform;
+
+	private final int nd;
+
+	private final double[] min;
+
+	private final double[] max;
+
+	private final double[] spacing;
+
+	private final int[] dims;
+
+	private final int[] strides;
+
+	/*
+	 * the displacement at every node, one array per dimension
+	 */
+	private final double[][] displacement;
+
+	/**
+	 * @param transform the transform to approximate
+	 * @param interval the interval covered by the grid
+	 * @param nodes the number of grid nodes along each dimension that is not flat
+	 */
+	public CoarseDisplacementTransform( final RealTransform transform, final RealInterval interval, final int nodes )
+	{
+		this.transform = transform;
+		this.nd = transform.numSourceDimensions();
+
+		min = new double[ nd ];
+		spacing = new double[ nd ];
+		dims = new int[ nd ];
+		strides = new int[ nd ];
+		int n = 1;
+		for ( int d = 0; d < nd; d++ )
+		{
+			min[ d ] = interval.realMin( d );
+			final double extent = interval.realMax( d ) - min[ d ];
+			dims[ d ] = extent > 0 ? Math.max( 2, nodes ) : 1;
+			spacing[ d ] = dims[ d ] > 1 ? extent / ( dims[ d ] - 1 ) : 1;
+			strides[ d ] = n;
+			n *= dims[ d ];
+		}
+
+		displacement = new double[ nd ][ n ];
+		max = new double[ nd ];
+		for ( int d = 0; d < nd; d++ )
+			max[ d ] = min[ d ] + ( dims[ d ] - 1 ) * spacing[ d ];
+
+		final double[] p = new double[ nd ];
+		final double[] q = new double[ nd ];
+		for ( int i = 0; i < n; i++ )
+		{
+			int r = i;
+			for ( int d = nd - 1; d >= 0; d-- )
+			{
+				final int k = r / strides[ d ];
+				r -= k * strides[ d ];
+				p[ d ] = min[ d ] + k * spacing[ d ];
+			}
+
+			transform.apply( p, q );
+			for ( int d = 0; d < nd; d++ )
+				displacement[ d ][ i ] = q[ d ] - p[ d ];
+		}
+	}
+
+	private CoarseDisplacementTransform( final CoarseDisplacementTransform other )
+	{
+		this.transform = other.transform.copy();
+		this.nd = other.nd;
+		this.min = other.min;
+		this.max = other.max;
+		this.spacing = other.spacing;
+		this.dims = other.dims;
+		this.strides = other.strides;
+		this.displacement = other.displacement;
+	}
+
+	/**
+	 * @return the approximated transform
+	 */
+	public RealTransform getTransform()
+	{
+		return transform;
+	}
+
+	@Override
+	public int numSourceDimensions()
+	{
+		return nd;
+	}
+
+	@Override
+	public int numTargetDimensions()
+	{
+		return nd;
+	}
+
+	@Override
+	public void apply( final double[] source, final double[] target )
+	{
+		for ( int d = 0; d < nd; d++ )
+		{
+			if ( dims[ d ] > 1 && ( source[ d ] < min[ d ] || source[ d ] > max[ d ] ) )
+			{
+				transform.apply( source, target );
+				return;
+			}
+		}
+
+		final double[] frac = new double[ nd ];
+		final double[] res = new double[ nd ];
+		int cell = 0;
+		for ( int d = 0; d < nd; d++ )
+		{
+			res[ d ] = source[ d ];
+			if ( dims[ d ] == 1 )
+				continue;
+
+			final double g = Math.max( 0, Math.min( dims[ d ] - 1, ( source[ d ] - min[ d ] ) / spacing[ d ] ) );
+			final int k = Math.min( ( int ) g, dims[ d ] - 2 );
+			frac[ d ] = g - k;
+			cell += k * strides[ d ];
+		}
+
+		for ( int corner = 0; corner < ( 1 << nd ); corner++ )
+		{
+			double w = 1;
+			int idx = cell;
+			boolean skip = false;
+			for ( int d = 0; d < nd; d++ )
+			{
+				if ( ( corner & ( 1 << d ) ) != 0 )
+				{
+					if ( dims[ d ] == 1 )
+					{
+						skip = true;
+						break;
+					}
+					w *= frac[ d ];
+					idx += strides[ d ];
+				}
+				else if ( dims[ d ] > 1 )
+					w *= 1 - frac[ d ];
+			}
+
+			if ( skip || w == 0 )
+				continue;
+
+			for ( int d = 0; d < nd; d++ )
+				res[ d ] += w * displacement[ d ][ idx ];
+		}
+
+		System.arraycopy( res, 0, target, 0, nd );
+	}
+
+	@Override
+	public void apply( final RealLocalizable source, final RealPositionable target )
+	{
+		final double[] p = new double[ nd ];
+		for ( int d = 0; d < nd; d++ )
+			p[ d ] = source.getDoublePosition( d );
+
+		apply( p, p );
+
+		for ( int d = 0; d < nd; d++ )
+			target.setPosition( p[ d ], d );
+	}
+
+	/**
+	 * The grid is immutable, so the copy shares it, but has its own copy of
+	 * the transform that is applied outside of the grid.
+	 */
+	@Override
+	public CoarseDisplacementTransform copy()
+	{
+		return new CoarseDisplacementTransform( this );
+	}
+}
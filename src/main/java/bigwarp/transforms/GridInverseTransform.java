@@ -0,0 +1,436 @@
+package bigwarp.transforms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.imglib2.RealInterval;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+import net.imglib2.realtransform.InverseRealTransform;
+import net.imglib2.realtransform.InvertibleRealTransform;
+
+/**
+ * An {@link InvertibleRealTransform} whose inverse is precomputed on a regular
+ * grid and served by n-linear interpolation of that grid.
+ * <p>
+ * The inverse of the wrapped transform is computed once at every node of a
+ * grid covering an interval of its target space (this is where the iterative
+ * inverse, e.g. {@link TpsNewtonInvertibleTransform}, is run). A grid cell is
+ * considered unreliable if the inverse failed to converge at one of its
+ * corners, or if the interpolated inverse at the cell's center does not map
+ * back to the center within the tolerance. Points outside the grid or in an
+ * unreliable cell fall back to the exact inverse of the wrapped transform.
+ * <p>
+ * The forward transform is not approximated.
+ */
+public class GridInverseTransform implements InvertibleRealTransform
+{
+	public static final double DEFAULT_TOLERANCE = 0.01;
+
+	private final InvertibleRealTransform transform;
+
+	private final int nd;
+
+	private final double[] min;
+
+	private final double[] spacing;
+
+	private final int[] dims;
+
+	private final int[] strides;
+
+	/*
+	 * the inverse at every grid node, one array per dimension
+	 */
+	private final double[][] inverseField;
+
+	/*
+	 * true for cells (indexed by their lower corner) that can be interpolated
+	 */
+	private final boolean[] reliable;
+
+	private final double tolerance;
+
+	/**
+	 * Precomputes the inverse of a transform on a grid. If the calling thread
+	 * is interrupted, the computation stops with the interrupt flag set, and
+	 * the exact inverse is used wherever the grid was not finished.
+	 *
+	 * @param transform the transform
+	 * @param interval the interval in target space over which the inverse is precomputed
+	 * @param spacing the grid spacing for every dimension
+	 * @param tolerance the largest error at which a cell is used for interpolation
+	 * @param nThreads the number of threads
+	 */
+	public GridInverseTransform(
+			final InvertibleRealTransform transform,
+			final RealInterval interval,
+			final double[] spacing,
+			final double tolerance,
+			final int nThreads )
+	{
+		this.transform = transform;
+		this.nd = transform.numSourceDimensions();
+		this.spacing = spacing;
+		this.tolerance = tolerance;
+
+		min = new double[ nd ];
+		dims = new int[ nd ];
+		strides = new int[ nd ];
+		long n = 1;
+		for ( int d = 0; d < nd; d++ )
+		{
+			min[ d ] = interval.realMin( d );
+			dims[ d ] = Math.max( 2, 1 + ( int ) Math.ceil( ( interval.realMax( d ) - min[ d ] ) / spacing[ d ] ) );
+			strides[ d ] = ( int ) n;
+			n *= dims[ d ];
+		}
+
+		if ( n > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "Inverse grid too large, increase the spacing" );
+
+		inverseField = new double[ nd ][ ( int ) n ];
+		reliable = new boolean[ ( int ) n ];
+
+		compute( Math.max( 1, nThreads ) );
+	}
+
+	public GridInverseTransform(
+			final InvertibleRealTransform transform,
+			final RealInterval interval,
+			final double[] spacing,
+			final int nThreads )
+	{
+		this( transform, interval, spacing, DEFAULT_TOLERANCE, nThreads );
+	}
+
+	private GridInverseTransform( final GridInverseTransform other, final InvertibleRealTransform transform )
+	{
+		this.transform = transform;
+		this.nd = other.nd;
+		this.min = other.min;
+		this.spacing = other.spacing;
+		this.dims = other.dims;
+		this.strides = other.strides;
+		this.inverseField = other.inverseField;
+		this.reliable = other.reliable;
+		this.tolerance = other.tolerance;
+	}
+
+	/**
+	 * @return the transform whose inverse is precomputed
+	 */
+	public InvertibleRealTransform getTransform()
+	{
+		return transform;
+	}
+
+	public double[] getMin()
+	{
+		return min;
+	}
+
+	public double[] getSpacing()
+	{
+		return spacing;
+	}
+
+	public int[] getDimensions()
+	{
+		return dims;
+	}
+
+	/**
+	 * @return the fraction of grid cells that are used for interpolation
+	 */
+	public double fractionReliable()
+	{
+		long nCells = 1;
+		for ( int d = 0; d < nd; d++ )
+			nCells *= ( dims[ d ] - 1 );
+
+		long count = 0;
+		for ( final boolean r : reliable )
+			if ( r )
+				count++;
+
+		return ( double ) count / nCells;
+	}
+
+	private void compute( final int nThreads )
+	{
+		final int n = reliable.length;
+		final boolean[] converged = new boolean[ n ];
+
+		// first pass: the exact inverse at every node
+		final boolean completed = parallel( nThreads, n, ( xfm, start, end ) -> {
+			final double[] y = new double[ nd ];
+			final double[] x = new double[ nd ];
+			final double[] yx = new double[ nd ];
+			for ( int i = start; i < end; i++ )
+			{
+				position( i, y );
+				xfm.applyInverse( x, y );
+				xfm.apply( x, yx );
+				for ( int d = 0; d < nd; d++ )
+					inverseField[ d ][ i ] = x[ d ];
+
+				converged[ i ] = distance( y, yx ) <= tolerance;
+			}
+		} );
+
+		// cells stay unreliable if interrupted, so the exact inverse is used
+		if ( !completed )
+			return;
+
+		// second pass: check the interpolated inverse at every cell center
+		parallel( nThreads, n, ( xfm, start, end ) -> {
+			final double[] y = new double[ nd ];
+			final double[] x = new double[ nd ];
+			final double[] yx = new double[ nd ];
+			final double[] half = new double[ nd ];
+			Arrays.fill( half, 0.5 );
+			for ( int i = start; i < end; i++ )
+			{
+				if ( !isCell( i ) || !cornersConverged( i, converged ) )
+					continue;
+
+				position( i, y );
+				for ( int d = 0; d < nd; d++ )
+					y[ d ] += spacing[ d ] / 2;
+
+				interpolate( i, half, x );
+				xfm.apply( x, yx );
+				reliable[ i ] = distance( y, yx ) <= tolerance;
+			}
+		} );
+	}
+
+	@FunctionalInterface
+	private static interface RangeJob
+	{
+		public void run( InvertibleRealTransform xfm, int start, int end );
+	}
+
+	/**
+	 * Runs a job over a range of indices on several threads.
+	 *
+	 * @return false if interrupted, in which case the interrupt flag is set
+	 */
+	private boolean parallel( final int nThreads, final int n, final RangeJob job )
+	{
+		final ExecutorService threadPool = Executors.newFixedThreadPool( nThreads );
+		final List< Callable< Boolean > > jobs = new ArrayList<>();
+		final int step = ( n + nThreads - 1 ) / nThreads;
+		for ( int start = 0; start < n; start += step )
+		{
+			final int s = start;
+			final int e = Math.min( n, start + step );
+			final InvertibleRealTransform xfm = transform.copy();
+			jobs.add( () -> {
+				job.run( xfm, s, e );
+				return true;
+			} );
+		}
+
+		try
+		{
+			final List< Future< Boolean > > futures = threadPool.invokeAll( jobs );
+			for ( final Future< Boolean > f : futures )
+				f.get();
+
+			return true;
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		catch ( final ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof RuntimeException )
+				throw ( RuntimeException ) cause;
+			else if ( cause instanceof Error )
+				throw ( Error ) cause;
+			else
+				throw new RuntimeException( cause );
+		}
+		finally
+		{
+			threadPool.shutdownNow();
+		}
+	}
+
+	private void position( final int index, final double[] y )
+	{
+		int i = index;
+		for ( int d = nd - 1; d >= 0; d-- )
+		{
+			final int p = i / strides[ d ];
+			i -= p * strides[ d ];
+			y[ d ] = min[ d ] + p * spacing[ d ];
+		}
+	}
+
+	private boolean isCell( final int index )
+	{
+		int i = index;
+		for ( int d = nd - 1; d >= 0; d-- )
+		{
+			final int p = i / strides[ d ];
+			i -= p * strides[ d ];
+			if ( p >= dims[ d ] - 1 )
+				return false;
+		}
+		return true;
+	}
+
+	private boolean cornersConverged( final int cell, final boolean[] converged )
+	{
+		for ( int corner = 0; corner < ( 1 << nd ); corner++ )
+		{
+			int idx = cell;
+			for ( int d = 0; d < nd; d++ )
+				if ( ( corner & ( 1 << d ) ) != 0 )
+					idx += strides[ d ];
+
+			if ( !converged[ idx ] )
+				return false;
+		}
+		return true;
+	}
+
+	private void interpolate( final int cell, final double[] frac, final double[] x )
+	{
+		for ( int d = 0; d < nd; d++ )
+			x[ d ] = 0;
+
+		for ( int corner = 0; corner < ( 1 << nd ); corner++ )
+		{
+			double w = 1;
+			int idx = cell;
+			for ( int d = 0; d < nd; d++ )
+			{
+				if ( ( corner & ( 1 << d ) ) != 0 )
+				{
+					w *= frac[ d ];
+					idx += strides[ d ];
+				}
+				else
+					w *= 1 - frac[ d ];
+			}
+
+			for ( int d = 0; d < nd; d++ )
+				x[ d ] += w * inverseField[ d ][ idx ];
+		}
+	}
+
+	/**
+	 * Interpolates the precomputed inverse at the point y.
+	 *
+	 * @param y the point in target space
+	 * @param x the destination for the interpolated inverse
+	 * @return false if the point is outside the grid or in an unreliable
+	 *         cell, in which case x is not modified
+	 */
+	public boolean interpolateInverse( final double[] y, final double[] x )
+	{
+		final double[] frac = new double[ nd ];
+		int cell = 0;
+		for ( int d = 0; d < nd; d++ )
+		{
+			final double g = ( y[ d ] - min[ d ] ) / spacing[ d ];
+			if ( !( g >= 0 && g <= dims[ d ] - 1 ) )
+				return false;
+
+			final int p = Math.min( ( int ) g, dims[ d ] - 2 );
+			frac[ d ] = g - p;
+			cell += p * strides[ d ];
+		}
+
+		if ( !reliable[ cell ] )
+			return false;
+
+		// x and y may be the same array
+		final double[] res = new double[ nd ];
+		interpolate( cell, frac, res );
+		System.arraycopy( res, 0, x, 0, nd );
+		return true;
+	}
+
+	private double distance( final double[] p, final double[] q )
+	{
+		double dist = 0;
+		for ( int d = 0; d < nd; d++ )
+			dist += ( p[ d ] - q[ d ] ) * ( p[ d ] - q[ d ] );
+
+		return Math.sqrt( dist );
+	}
+
+	@Override
+	public int numSourceDimensions()
+	{
+		return nd;
+	}
+
+	@Override
+	public int numTargetDimensions()
+	{
+		return transform.numTargetDimensions();
+	}
+
+	@Override
+	public void apply( final double[] source, final double[] target )
+	{
+		transform.apply( source, target );
+	}
+
+	@Override
+	public void apply( final RealLocalizable source, final RealPositionable target )
+	{
+		transform.apply( source, target );
+	}
+
+	@Override
+	public void applyInverse( final double[] source, final double[] target )
+	{
+		if ( !interpolateInverse( target, source ) )
+			transform.applyInverse( source, target );
+	}
+
+	@Override
+	public void applyInverse( final RealPositionable source, final RealLocalizable target )
+	{
+		final double[] y = new double[ nd ];
+		final double[] x = new double[ nd ];
+		for ( int d = 0; d < nd; d++ )
+			y[ d ] = target.getDoublePosition( d );
+
+		applyInverse( x, y );
+
+		for ( int d = 0; d < nd; d++ )
+			source.setPosition( x[ d ], d );
+	}
+
+	/**
+	 * The copy shares the precomputed grid with this transform.
+	 */
+	@Override
+	public GridInverseTransform copy()
+	{
+		return new GridInverseTransform( this, transform.copy() );
+	}
+
+	@Override
+	public InvertibleRealTransform inverse()
+	{
+		return new InverseRealTransform( this );
+	}
+}
@@ -0,0 +1,90 @@
+package bigwarp.transforms;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+import net.imglib2.realtransform.RealTransform;
+
+/**
+ * A {@link BatchRealTransform} for any {@link RealTransform}, that transforms
+ * the points of a batch one at a time.
+ */
+public class PointwiseBatchTransform implements BatchRealTransform
+{
+	private final RealTransform transform;
+
+	private final double[] src;
+
+	private final double[] tgt;
+
+	public PointwiseBatchTransform( final RealTransform transform )
+	{
+		this.transform = transform;
+		src = new double[ transform.numSourceDimensions() ];
+		tgt = new double[ transform.numTargetDimensions() ];
+	}
+
+	public RealTransform getTransform()
+	{
+		return transform;
+	}
+
+	@Override
+	public void apply( final double[][] source, final double[][] target, final int n )
+	{
+		for ( int i = 0; i < n; i++ )
+		{
+			for ( int d = 0; d < src.length; d++ )
+				src[ d ] = source[ d ][ i ];
+
+			transform.apply( src, tgt );
+
+			for ( int d = 0; d < tgt.length; d++ )
+				target[ d ][ i ] = tgt[ d ];
+		}
+	}
+
+	@Override
+	public void applyLine( final double[] start, final double[] step, final double[][] target, final int n )
+	{
+		for ( int i = 0; i < n; i++ )
+		{
+			for ( int d = 0; d < src.length; d++ )
+				src[ d ] = start[ d ] + i * step[ d ];
+
+			transform.apply( src, tgt );
+
+			for ( int d = 0; d < tgt.length; d++ )
+				target[ d ][ i ] = tgt[ d ];
+		}
+	}
+
+	@Override
+	public int numSourceDimensions()
+	{
+		return transform.numSourceDimensions();
+	}
+
+	@Override
+	public int numTargetDimensions()
+	{
+		return transform.numTargetDimensions();
+	}
+
+	@Override
+	public void apply( final double[] source, final double[] target )
+	{
+		transform.apply( source, target );
+	}
+
+	@Override
+	public void apply( final RealLocalizable source, final RealPositionable target )
+	{
+		transform.apply( source, target );
+	}
+
+	@Override
+	public PointwiseBatchTransform copy()
+	{
+		return new PointwiseBatchTransform( transform.copy() );
+	}
+}
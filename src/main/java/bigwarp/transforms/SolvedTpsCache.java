@@ -0,0 +1,491 @@
+package bigwarp.transforms;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
+
+/**
+ * Stores solved thin plate splines on disk, so that the kernel system of a
+ * landmark set is only solved once.
+ * <p>
+ * Files are named by a SHA-1 hash of the landmarks the spline was solved for.
+ * All values are little-endian. A file starts with a 48 byte header:
+ * <pre>
+ *   0  magic "BWTP"
+ *   4  int   version
+ *   8  int   ndims
+ *  12  int   flags
+ *  16  long  count
+ *  24  byte[20] landmark hash
+ *  44  int   reserved
+ * </pre>
+ * followed by the landmark centres, the knot weights, the affine matrix and
+ * the translation of the spline as doubles. The affine part is only present
+ * if the corresponding flag is set.
+ * <p>
+ * Landmark sets smaller than {@link #getMinLandmarks()} are solved directly,
+ * since that is faster than reading a file.
+ * <p>
+ * The default cache used by landmark tables is disabled unless enabled with
+ * {@link #setDefaultEnabled(boolean)}, and writes files in the background.
+ */
+public class SolvedTpsCache
+{
+	public static final String EXTENSION = ".bwtp";
+
+	public static final int VERSION = 1;
+
+	public static final int HEADER_SIZE = 48;
+
+	public static final int FLAG_AFFINE = 1;
+
+	public static final int FLAG_TRANSLATION = 2;
+
+	public static final int DEFAULT_MIN_LANDMARKS = 200;
+
+	public static final int DEFAULT_MAX_FILES = 256;
+
+	/**
+	 * Temporary files older than this are left over from a crash, and deleted
+	 * when pruning.
+	 */
+	public static final long TMP_MAX_AGE_MILLIS = 60 * 60 * 1000;
+
+	private static final String TMP_PREFIX = "solve";
+
+	private static final String TMP_EXTENSION = ".tmp";
+
+	private static final byte[] MAGIC = new byte[] { 'B', 'W', 'T', 'P' };
+
+	private static final int HASH_SIZE = 20;
+
+	private static volatile SolvedTpsCache defaultCache;
+
+	private static volatile boolean defaultEnabled = false;
+
+	private static ExecutorService defaultWriter;
+
+	private final File folder;
+
+	private final Executor writer;
+
+	private volatile int minLandmarks = DEFAULT_MIN_LANDMARKS;
+
+	private volatile int maxFiles = DEFAULT_MAX_FILES;
+
+	/**
+	 * Creates a cache that writes files on the thread that solves.
+	 *
+	 * @param folder the folder that holds the solved splines
+	 */
+	public SolvedTpsCache( final File folder )
+	{
+		this( folder, null );
+	}
+
+	/**
+	 * @param folder the folder that holds the solved splines
+	 * @param writer writes newly solved splines, or null to write them on the
+	 *            thread that solves
+	 */
+	public SolvedTpsCache( final File folder, final Executor writer )
+	{
+		this.folder = folder;
+		this.writer = writer;
+	}
+
+	/**
+	 * @return the cache used when solving splines for landmark tables, or null
+	 *         if it is disabled, as it is by default
+	 */
+	public static SolvedTpsCache getDefault()
+	{
+		if ( !defaultEnabled )
+			return null;
+
+		if ( defaultCache == null )
+		{
+			synchronized ( SolvedTpsCache.class )
+			{
+				if ( defaultCache == null )
+					defaultCache = new SolvedTpsCache( new File( new File( System.getProperty( "user.home" ), ".bigwarp" ), "solved-tps" ), getDefaultWriter() );
+			}
+		}
+		return defaultCache;
+	}
+
+	public static void setDefault( final SolvedTpsCache cache )
+	{
+		defaultCache = cache;
+	}
+
+	/**
+	 * Enables the default cache, that stores splines under
+	 * {@code ~/.bigwarp/solved-tps}.
+	 *
+	 * @param enabled whether landmark tables use the default cache
+	 */
+	public static void setDefaultEnabled( final boolean enabled )
+	{
+		defaultEnabled = enabled;
+	}
+
+	private static synchronized ExecutorService getDefaultWriter()
+	{
+		if ( defaultWriter == null )
+		{
+			defaultWriter = Executors.newSingleThreadExecutor( r -> {
+				final Thread thread = new Thread( r, "solved spline writer" );
+				thread.setDaemon( true );
+				return thread;
+			} );
+		}
+		return defaultWriter;
+	}
+
+	public File getFolder()
+	{
+		return folder;
+	}
+
+	public int getMinLandmarks()
+	{
+		return minLandmarks;
+	}
+
+	public void setMinLandmarks( final int minLandmarks )
+	{
+		this.minLandmarks = minLandmarks;
+	}
+
+	public void setMaxFiles( final int maxFiles )
+	{
+		this.maxFiles = maxFiles;
+	}
+
+	/**
+	 * Solves the spline that maps the source to the target landmarks, or reads
+	 * it if it was solved before.
+	 *
+	 * @param ndims the number of dimensions
+	 * @param srcPts the source landmarks, ndims x N
+	 * @param tgtPts the target landmarks, ndims x N
+	 * @return the spline
+	 */
+	public ThinPlateR2LogRSplineKernelTransform solve( final int ndims, final double[][] srcPts, final double[][] tgtPts )
+	{
+		if ( srcPts.length == 0 || srcPts[ 0 ].length < minLandmarks )
+			return new ThinPlateR2LogRSplineKernelTransform( ndims, srcPts, tgtPts );
+
+		final byte[] hash = landmarkHash( ndims, srcPts, tgtPts );
+		final File f = new File( folder, toHex( hash ) + EXTENSION );
+		if ( f.isFile() )
+		{
+			try
+			{
+				final ThinPlateR2LogRSplineKernelTransform tps = read( f, hash );
+				if ( tps != null && interpolates( tps, srcPts, tgtPts ) )
+				{
+					f.setLastModified( System.currentTimeMillis() );
+					return tps;
+				}
+			}
+			catch ( final IOException e )
+			{
+				e.printStackTrace();
+			}
+		}
+
+		final ThinPlateR2LogRSplineKernelTransform tps = new ThinPlateR2LogRSplineKernelTransform( ndims, srcPts, tgtPts );
+		if ( writer == null )
+			store( tps, hash, f );
+		else
+			writer.execute( () -> store( tps, hash, f ) );
+
+		return tps;
+	}
+
+	private void store( final ThinPlateR2LogRSplineKernelTransform tps, final byte[] hash, final File f )
+	{
+		File tmp = null;
+		try
+		{
+			folder.mkdirs();
+
+			// write to a temporary file first, so readers never see partial files
+			tmp = File.createTempFile( TMP_PREFIX, TMP_EXTENSION, folder );
+			write( tps, hash, tmp );
+			Files.move( tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+			prune();
+		}
+		catch ( final IOException e )
+		{
+			e.printStackTrace();
+			if ( tmp != null )
+				tmp.delete();
+		}
+	}
+
+	/**
+	 * Deletes the least recently used files if there are too many, and
+	 * temporary files left over from a crash.
+	 */
+	private void prune()
+	{
+		final File[] all = folder.listFiles();
+		if ( all == null )
+			return;
+
+		final long tmpCutoff = System.currentTimeMillis() - TMP_MAX_AGE_MILLIS;
+		final ArrayList< File > files = new ArrayList<>();
+		for ( final File file : all )
+		{
+			final String name = file.getName();
+			if ( name.endsWith( EXTENSION ) )
+				files.add( file );
+			else if ( name.startsWith( TMP_PREFIX ) && name.endsWith( TMP_EXTENSION ) && file.lastModified() < tmpCutoff )
+				file.delete();
+		}
+
+		if ( files.size() <= maxFiles )
+			return;
+
+		files.sort( Comparator.comparingLong( File::lastModified ) );
+		for ( int i = 0; i < files.size() - maxFiles; i++ )
+			files.get( i ).delete();
+	}
+
+	/**
+	 * Checks that the spline maps a few of the source landmarks onto their
+	 * targets, as the solution of the kernel system does.
+	 */
+	private static boolean interpolates( final ThinPlateR2LogRSplineKernelTransform tps, final double[][] srcPts, final double[][] tgtPts )
+	{
+		final int nd = srcPts.length;
+		final int N = srcPts[ 0 ].length;
+		final double[] p = new double[ nd ];
+		final double[] q = new double[ nd ];
+		for ( int i = 0; i < N; i += Math.max( 1, N / 4 ) )
+		{
+			double scale = 1;
+			for ( int d = 0; d < nd; d++ )
+			{
+				p[ d ] = srcPts[ d ][ i ];
+				scale = Math.max( scale, Math.abs( tgtPts[ d ][ i ] ) );
+			}
+
+			tps.apply( p, q );
+			for ( int d = 0; d < nd; d++ )
+				if ( !( Math.abs( q[ d ] - tgtPts[ d ][ i ] ) <= 1e-6 * scale ) )
+					return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param ndims the number of dimensions
+	 * @param srcPts the source landmarks, ndims x N
+	 * @param tgtPts the target landmarks, ndims x N
+	 * @return the SHA-1 hash of the landmarks
+	 */
+	public static byte[] landmarkHash( final int ndims, final double[][] srcPts, final double[][] tgtPts )
+	{
+		final MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance( "SHA-1" );
+		}
+		catch ( final NoSuchAlgorithmException e )
+		{
+			throw new RuntimeException( e );
+		}
+
+		final int N = srcPts.length == 0 ? 0 : srcPts[ 0 ].length;
+		final ByteBuffer buf = ByteBuffer.allocate( 8192 ).order( ByteOrder.LITTLE_ENDIAN );
+		buf.putInt( ndims );
+		buf.putInt( N );
+		for ( final double[][] pts : new double[][][] { srcPts, tgtPts } )
+			for ( int d = 0; d < ndims; d++ )
+				for ( int i = 0; i < N; i++ )
+				{
+					if ( buf.remaining() < 8 )
+					{
+						digest.update( buf.array(), 0, buf.position() );
+						buf.clear();
+					}
+					buf.putDouble( pts[ d ][ i ] );
+				}
+
+		digest.update( buf.array(), 0, buf.position() );
+		return digest.digest();
+	}
+
+	/**
+	 * Reads a solved spline.
+	 *
+	 * @param f the file
+	 * @param expectedHash the hash of the landmarks, or null to accept any
+	 * @return the spline, or null if the file was solved for other landmarks
+	 * @throws IOException if the file can not be read or is invalid
+	 */
+	public static ThinPlateR2LogRSplineKernelTransform read( final File f, final byte[] expectedHash ) throws IOException
+	{
+		try ( final RandomAccessFile raf = new RandomAccessFile( f, "r" );
+				final FileChannel channel = raf.getChannel() )
+		{
+			if ( channel.size() < HEADER_SIZE )
+				throw new IOException( "Invalid file - not a solved transform file" );
+
+			// read into the heap, a memory map would keep the file open
+			// until it is garbage collected, and prune could not delete it
+			if ( channel.size() > Integer.MAX_VALUE )
+				throw new IOException( "Invalid file - solved transform file is too large" );
+
+			final ByteBuffer map = ByteBuffer.allocate( ( int ) channel.size() ).order( ByteOrder.LITTLE_ENDIAN );
+			while ( map.hasRemaining() )
+				if ( channel.read( map, map.position() ) < 0 )
+					throw new IOException( "Invalid file - solved transform file is truncated" );
+
+			map.clear();
+
+			for ( int i = 0; i < MAGIC.length; i++ )
+				if ( map.get( i ) != MAGIC[ i ] )
+					throw new IOException( "Invalid file - not a solved transform file" );
+
+			final int version = map.getInt( 4 );
+			if ( version > VERSION )
+				throw new IOException( "Unsupported solved transform file version " + version );
+
+			final int nd = map.getInt( 8 );
+			final int flags = map.getInt( 12 );
+			final long count = map.getLong( 16 );
+			if ( nd < 1 || count < 0 || count > Integer.MAX_VALUE
+					|| size( nd, count, flags ) > channel.size() )
+				throw new IOException( "Invalid file - corrupt solved transform header" );
+
+			final byte[] hash = new byte[ HASH_SIZE ];
+			map.position( 24 );
+			map.get( hash );
+			if ( expectedHash != null && !Arrays.equals( hash, expectedHash ) )
+				return null;
+
+			final int N = ( int ) count;
+			map.position( HEADER_SIZE );
+			final DoubleBuffer values = map.slice().order( ByteOrder.LITTLE_ENDIAN ).asDoubleBuffer();
+
+			final double[][] src = new double[ nd ][ N ];
+			for ( int d = 0; d < nd; d++ )
+				values.get( src[ d ] );
+
+			final double[] knotWeights = new double[ nd * N ];
+			values.get( knotWeights );
+
+			double[][] affine = null;
+			if ( ( flags & FLAG_AFFINE ) != 0 )
+			{
+				affine = new double[ nd ][ nd ];
+				for ( int d = 0; d < nd; d++ )
+					values.get( affine[ d ] );
+			}
+
+			double[] translation = null;
+			if ( ( flags & FLAG_TRANSLATION ) != 0 )
+			{
+				translation = new double[ nd ];
+				values.get( translation );
+			}
+
+			return new ThinPlateR2LogRSplineKernelTransform( src, affine, translation, knotWeights );
+		}
+	}
+
+	/**
+	 * Writes a solved spline.
+	 *
+	 * @param tps the spline
+	 * @param hash the hash of the landmarks it was solved for
+	 * @param f the file
+	 * @throws IOException an exception
+	 */
+	public static void write( final ThinPlateR2LogRSplineKernelTransform tps, final byte[] hash, final File f ) throws IOException
+	{
+		final int nd = tps.getNumDims();
+		final double[][] src = tps.getSourceLandmarks();
+		final double[] knotWeights = tps.getKnotWeights();
+		final double[][] affine = tps.getAffine();
+		final double[] translation = tps.getTranslation();
+		final int N = src[ 0 ].length;
+
+		final int flags = ( affine != null ? FLAG_AFFINE : 0 ) | ( translation != null ? FLAG_TRANSLATION : 0 );
+		final ByteBuffer buf = ByteBuffer.allocate( ( int ) size( nd, N, flags ) ).order( ByteOrder.LITTLE_ENDIAN );
+		buf.put( MAGIC );
+		buf.putInt( VERSION );
+		buf.putInt( nd );
+		buf.putInt( flags );
+		buf.putLong( N );
+		buf.put( hash, 0, HASH_SIZE );
+		buf.putInt( 0 );
+
+		for ( int d = 0; d < nd; d++ )
+			for ( int i = 0; i < N; i++ )
+				buf.putDouble( src[ d ][ i ] );
+
+		for ( final double w : knotWeights )
+			buf.putDouble( w );
+
+		if ( affine != null )
+			for ( int d = 0; d < nd; d++ )
+				for ( int e = 0; e < nd; e++ )
+					buf.putDouble( affine[ d ][ e ] );
+
+		if ( translation != null )
+			for ( int d = 0; d < nd; d++ )
+				buf.putDouble( translation[ d ] );
+
+		buf.flip();
+		try ( final RandomAccessFile raf = new RandomAccessFile( f, "rw" );
+				final FileChannel channel = raf.getChannel() )
+		{
+			channel.truncate( 0 );
+			while ( buf.hasRemaining() )
+				channel.write( buf );
+		}
+	}
+
+	private static long size( final int nd, final long count, final int flags )
+	{
+		long n = 2 * nd * count;
+		if ( ( flags & FLAG_AFFINE ) != 0 )
+			n += nd * nd;
+
+		if ( ( flags & FLAG_TRANSLATION ) != 0 )
+			n += nd;
+
+		return HEADER_SIZE + 8 * n;
+	}
+
+	private static String toHex( final byte[] bytes )
+	{
+		final StringBuilder sb = new StringBuilder();
+		for ( final byte b : bytes )
+			sb.append( String.format( "%02x", b ) );
+
+		return sb.toString();
+	}
+}
@@ -0,0 +1,287 @@
+package bigwarp.transforms;
+
+import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+
+/**
+ * A {@link BatchRealTransform} that evaluates a thin plate spline for blocks of
+ * points.
+ * <p>
+ * The outer loop runs over landmarks and the inner loop over points, so that
+ * the coordinates of one landmark and its weights stay in registers while the
+ * kernel contributions of all points are accumulated. Regularly spaced points
+ * (scanlines) get a faster path, see
+ * {@link #applyLine(double[], double[], double[][], int)}.
+ * <p>
+ * Every instance owns scratch space, so every thread needs its own
+ * {@link #copy()}. Copies share the spline parameters.
+ */
+public class ThinPlateSplineBatchTransform implements BatchRealTransform
+{
+	/*
+	 * jitk skips the kernel for r <= 1e-8
+	 */
+	private static final double EPS2 = 1e-16;
+
+	private final int nd;
+
+	private final int nLandmarks;
+
+	/*
+	 * landmarks[ d ][ l ]
+	 */
+	private final double[][] landmarks;
+
+	/*
+	 * weights[ d ][ l ]
+	 */
+	private final double[][] weights;
+
+	/*
+	 * affine[ r ][ c ] including the identity, translation in column nd
+	 */
+	private final double[][] affine;
+
+	private final ThinPlateR2LogRSplineKernelTransform tps;
+
+	private double[][] acc;
+
+	private double[] r2;
+
+	private ThinPlateSplineBatchTransform( final ThinPlateR2LogRSplineKernelTransform tps,
+			final double[][] landmarks, final double[][] weights, final double[][] affine )
+	{
+		this.tps = tps;
+		this.nd = tps.getNumDims();
+		this.nLandmarks = landmarks[ 0 ].length;
+		this.landmarks = landmarks;
+		this.weights = weights;
+		this.affine = affine;
+		ensureCapacity( 64 );
+	}
+
+	/**
+	 * Creates a batch transform for a thin plate spline. The spline's
+	 * parameters are copied, so this should be called once per spline, and
+	 * the result {@link #copy() copied} for every thread.
+	 * <p>
+	 * The knot weights are read in the order that jitk's
+	 * {@link ThinPlateR2LogRSplineKernelTransform#getKnotWeights()} returns
+	 * them and its constructor expects them (all dimensions of the first
+	 * landmark, then all dimensions of the second, ...), see also
+	 * {@link SolvedTpsCache}.
+	 *
+	 * @param tps the thin plate spline
+	 * @return the batch transform, or null if the spline has no landmarks
+	 */
+	public static ThinPlateSplineBatchTransform fromKernel( final ThinPlateR2LogRSplineKernelTransform tps )
+	{
+		final int nd = tps.getNumDims();
+		final double[][] src = tps.getSourceLandmarks();
+		final double[] knotWeights = tps.getKnotWeights();
+		if ( src == null || knotWeights == null || src.length != nd )
+			return null;
+
+		final int nL = src[ 0 ].length;
+		if ( knotWeights.length != nd * nL )
+			return null;
+
+		final double[][] weights = new double[ nd ][ nL ];
+		for ( int l = 0; l < nL; l++ )
+			for ( int d = 0; d < nd; d++ )
+				weights[ d ][ l ] = knotWeights[ l * nd + d ];
+
+		return new ThinPlateSplineBatchTransform( tps, src, weights, affine( tps ) );
+	}
+
+	private static double[][] affine( final ThinPlateR2LogRSplineKernelTransform tps )
+	{
+		final int nd = tps.getNumDims();
+		final double[][] a = tps.getAffine();
+		final double[] b = tps.getTranslation();
+		final double[][] out = new double[ nd ][ nd + 1 ];
+		for ( int r = 0; r < nd; r++ )
+		{
+			for ( int c = 0; c < nd; c++ )
+				out[ r ][ c ] = ( r == c ? 1 : 0 ) + ( a == null ? 0 : a[ r ][ c ] );
+
+			out[ r ][ nd ] = ( b == null ) ? 0 : b[ r ];
+		}
+		return out;
+	}
+
+	public ThinPlateR2LogRSplineKernelTransform getKernelTransform()
+	{
+		return tps;
+	}
+
+	private void ensureCapacity( final int n )
+	{
+		if ( r2 != null && r2.length >= n )
+			return;
+
+		r2 = new double[ n ];
+		acc = new double[ nd ][ n ];
+	}
+
+	@Override
+	public void apply( final double[][] source, final double[][] target, final int n )
+	{
+		ensureCapacity( n );
+		for ( int d = 0; d < nd; d++ )
+		{
+			final double[] a = acc[ d ];
+			final double[] row = affine[ d ];
+			final double t = row[ nd ];
+			for ( int i = 0; i < n; i++ )
+				a[ i ] = t;
+
+			for ( int c = 0; c < nd; c++ )
+			{
+				final double m = row[ c ];
+				final double[] xc = source[ c ];
+				for ( int i = 0; i < n; i++ )
+					a[ i ] += m * xc[ i ];
+			}
+		}
+
+		for ( int l = 0; l < nLandmarks; l++ )
+		{
+			// squared distances of all points to this landmark
+			final double c0 = landmarks[ 0 ][ l ];
+			final double[] x0 = source[ 0 ];
+			for ( int i = 0; i < n; i++ )
+			{
+				final double diff = x0[ i ] - c0;
+				r2[ i ] = diff * diff;
+			}
+			for ( int d = 1; d < nd; d++ )
+			{
+				final double c = landmarks[ d ][ l ];
+				final double[] x = source[ d ];
+				for ( int i = 0; i < n; i++ )
+				{
+					final double diff = x[ i ] - c;
+					r2[ i ] += diff * diff;
+				}
+			}
+
+			// r^2 log r = 0.5 r^2 log r^2
+			for ( int i = 0; i < n; i++ )
+				r2[ i ] = r2[ i ] > EPS2 ? 0.5 * r2[ i ] * Math.log( r2[ i ] ) : 0;
+
+			for ( int d = 0; d < nd; d++ )
+			{
+				final double w = weights[ d ][ l ];
+				final double[] a = acc[ d ];
+				for ( int i = 0; i < n; i++ )
+					a[ i ] += w * r2[ i ];
+			}
+		}
+
+		for ( int d = 0; d < nd; d++ )
+			System.arraycopy( acc[ d ], 0, target[ d ], 0, n );
+	}
+
+	/**
+	 * The scanline fast path. Along the line p_i = start + i * step, the
+	 * affine part advances by a constant increment, and the squared distance
+	 * to landmark c is
+	 * <p>
+	 * |p_i - c|^2 = |start - c|^2 + i * ( 2 ( start - c ) . step + i |step|^2 ),
+	 * <p>
+	 * so only two dot products per landmark are needed for the whole line,
+	 * instead of one distance per landmark and point. This is exact, it does
+	 * not accumulate increments.
+	 */
+	@Override
+	public void applyLine( final double[] start, final double[] step, final double[][] target, final int n )
+	{
+		ensureCapacity( n );
+		double vv = 0;
+		for ( int d = 0; d < nd; d++ )
+			vv += step[ d ] * step[ d ];
+
+		// affine part
+		for ( int r = 0; r < nd; r++ )
+		{
+			final double[] row = affine[ r ];
+			double a0 = row[ nd ];
+			double da = 0;
+			for ( int c = 0; c < nd; c++ )
+			{
+				a0 += row[ c ] * start[ c ];
+				da += row[ c ] * step[ c ];
+			}
+
+			final double[] t = target[ r ];
+			for ( int i = 0; i < n; i++ )
+				t[ i ] = a0 + i * da;
+		}
+
+		for ( int l = 0; l < nLandmarks; l++ )
+		{
+			double a = 0;
+			double b = 0;
+			for ( int d = 0; d < nd; d++ )
+			{
+				final double diff = start[ d ] - landmarks[ d ][ l ];
+				a += diff * diff;
+				b += diff * step[ d ];
+			}
+			final double b2 = 2 * b;
+
+			for ( int i = 0; i < n; i++ )
+			{
+				final double q = a + i * ( b2 + i * vv );
+				r2[ i ] = q > EPS2 ? 0.5 * q * Math.log( q ) : 0;
+			}
+
+			for ( int d = 0; d < nd; d++ )
+			{
+				final double w = weights[ d ][ l ];
+				final double[] t = target[ d ];
+				for ( int i = 0; i < n; i++ )
+					t[ i ] += w * r2[ i ];
+			}
+		}
+	}
+
+	@Override
+	public int numSourceDimensions()
+	{
+		return nd;
+	}
+
+	@Override
+	public int numTargetDimensions()
+	{
+		return nd;
+	}
+
+	@Override
+	public void apply( final double[] source, final double[] target )
+	{
+		tps.apply( source, target );
+	}
+
+	@Override
+	public void apply( final RealLocalizable source, final RealPositionable target )
+	{
+		final double[] tmp = new double[ nd ];
+		for ( int d = 0; d < nd; d++ )
+			tmp[ d ] = source.getDoublePosition( d );
+
+		tps.apply( tmp, tmp );
+
+		for ( int d = 0; d < nd; d++ )
+			target.setPosition( tmp[ d ], d );
+	}
+
+	@Override
+	public ThinPlateSplineBatchTransform copy()
+	{
+		return new ThinPlateSplineBatchTransform( tps, landmarks, weights, affine );
+	}
+}
@@ -0,0 +1,357 @@
+package bigwarp.transforms;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+
+import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+import net.imglib2.realtransform.AffineTransform;
+import net.imglib2.realtransform.InverseRealTransform;
+import net.imglib2.realtransform.InvertibleRealTransform;
+import net.imglib2.realtransform.ThinplateSplineTransform;
+import net.imglib2.realtransform.inverse.InverseRealTransformGradientDescent;
+import net.imglib2.realtransform.inverse.WrappedIterativeInvertibleRealTransform;
+
+/**
+ * An invertible thin plate spline transformation whose inverse is computed with
+ * damped Newton iterations using the closed-form jacobian of the spline.
+ * <p>
+ * Iterations are initialized with the inverse of the affine part of the thin
+ * plate spline, and every Newton step is accepted only after a backtracking
+ * line search decreases the residual. If the jacobian is singular at the
+ * current estimate, a gradient step is used instead.
+ * <p>
+ * Extends {@link WrappedIterativeInvertibleRealTransform} so that it can be
+ * used everywhere the gradient descent inverse was used. Unlike the gradient
+ * descent optimizer, all state of the inverse is local to each call, so one
+ * instance can be shared by several threads.
+ */
+public class TpsNewtonInvertibleTransform extends WrappedIterativeInvertibleRealTransform< ThinplateSplineTransform >
+{
+	public static final double DEFAULT_TOLERANCE = 1e-6;
+
+	public static final int DEFAULT_MAX_ITERS = 50;
+
+	/**
+	 * The smallest step length the line search tries before giving up.
+	 */
+	public static final double MIN_STEP = 1.0 / 1024;
+
+	private final ThinPlateR2LogRSplineKernelTransform tps;
+
+	private final int nd;
+
+	/*
+	 * The inverse of the affine part of the tps, in homogeneous coordinates
+	 * (nd rows, nd+1 columns).
+	 */
+	private final double[][] affineInverse;
+
+	/*
+	 * The batch version of the spline, created on first use and shared by
+	 * all copies.
+	 */
+	private final AtomicReference< ThinPlateSplineBatchTransform > batch;
+
+	private double tolerance;
+
+	private int maxIters;
+
+	public TpsNewtonInvertibleTransform( final ThinPlateR2LogRSplineKernelTransform tps )
+	{
+		this( tps, DEFAULT_TOLERANCE, DEFAULT_MAX_ITERS );
+	}
+
+	public TpsNewtonInvertibleTransform( final ThinPlateR2LogRSplineKernelTransform tps,
+			final double tolerance, final int maxIters )
+	{
+		this( tps, new ThinplateSplineTransform( tps ), affineInverse( tps ), new AtomicReference<>(), tolerance, maxIters );
+	}
+
+	private TpsNewtonInvertibleTransform( final ThinPlateR2LogRSplineKernelTransform tps,
+			final ThinplateSplineTransform transform, final double[][] affineInverse,
+			final AtomicReference< ThinPlateSplineBatchTransform > batch,
+			final double tolerance, final int maxIters )
+	{
+		super( transform );
+		this.tps = tps;
+		this.nd = tps.getNumDims();
+		this.affineInverse = affineInverse;
+		this.batch = batch;
+		this.tolerance = tolerance;
+		this.maxIters = maxIters;
+	}
+
+	public ThinPlateR2LogRSplineKernelTransform getKernelTransform()
+	{
+		return tps;
+	}
+
+	/**
+	 * Returns a {@link BatchRealTransform} for the forward direction of the
+	 * spline. Its parameters are read from the spline on the first call, and
+	 * shared by this transform and all its copies. Every call returns a new
+	 * {@link ThinPlateSplineBatchTransform#copy() copy} with its own scratch
+	 * space.
+	 *
+	 * @return the batch transform, or null if the spline has no landmarks
+	 */
+	public ThinPlateSplineBatchTransform getBatchTransform()
+	{
+		ThinPlateSplineBatchTransform b = batch.get();
+		if ( b == null )
+		{
+			b = ThinPlateSplineBatchTransform.fromKernel( tps );
+			if ( b == null )
+				return null;
+
+			if ( !batch.compareAndSet( null, b ) )
+				b = batch.get();
+		}
+		return b.copy();
+	}
+
+	public void setTolerance( final double tolerance )
+	{
+		this.tolerance = tolerance;
+	}
+
+	public double getTolerance()
+	{
+		return tolerance;
+	}
+
+	public void setMaxIters( final int maxIters )
+	{
+		this.maxIters = maxIters;
+	}
+
+	public int getMaxIters()
+	{
+		return maxIters;
+	}
+
+	/**
+	 * Returns the gradient descent optimizer of
+	 * {@link WrappedIterativeInvertibleRealTransform}, configured with the
+	 * tolerance and maximum number of iterations of this transform. The Newton
+	 * inverse does not use it, so changing its settings does not change the
+	 * inverse of this transform, use {@link #setTolerance(double)} and
+	 * {@link #setMaxIters(int)} instead.
+	 *
+	 * @return the gradient descent optimizer
+	 */
+	@Override
+	public InverseRealTransformGradientDescent getOptimzer()
+	{
+		final InverseRealTransformGradientDescent optimizer = super.getOptimzer();
+		optimizer.setTolerance( tolerance );
+		optimizer.setMaxIters( maxIters );
+		return optimizer;
+	}
+
+	@Override
+	public void applyInverse( final double[] source, final double[] target )
+	{
+		inverse( target, source );
+	}
+
+	@Override
+	public void applyInverse( final RealPositionable source, final RealLocalizable target )
+	{
+		final double[] y = new double[ nd ];
+		final double[] x = new double[ nd ];
+		for ( int d = 0; d < nd; d++ )
+			y[ d ] = target.getDoublePosition( d );
+
+		inverse( y, x );
+
+		for ( int d = 0; d < nd; d++ )
+			source.setPosition( x[ d ], d );
+	}
+
+	/**
+	 * Finds x such that this transform maps x to y, within the tolerance.
+	 * <p>
+	 * x and y may be the same array.
+	 *
+	 * @param y the target point
+	 * @param x the destination for the source point
+	 * @return true if the inverse converged
+	 */
+	public boolean inverse( final double[] y, final double[] x )
+	{
+		return inverse( y, x, null );
+	}
+
+	/**
+	 * Finds x such that this transform maps x to y, within the tolerance, and
+	 * reports the number of Newton iterations that were needed. All state is
+	 * local to the call, so this can be called from several threads at once.
+	 * <p>
+	 * x and y may be the same array.
+	 *
+	 * @param y the target point
+	 * @param x the destination for the source point
+	 * @param iterations if not null, iterations[ 0 ] is set to the number of Newton iterations
+	 * @return true if the inverse converged
+	 */
+	public boolean inverse( final double[] y, final double[] x, final int[] iterations )
+	{
+		final double[] tgt = new double[ nd ];
+		final double[] est = new double[ nd ];
+		final double[] residual = new double[ nd ];
+		final double[] trial = new double[ nd ];
+		final double[] trialResidual = new double[ nd ];
+		final DenseMatrix64F jac = new DenseMatrix64F( nd, nd );
+		final DenseMatrix64F r = new DenseMatrix64F( nd, 1 );
+		final DenseMatrix64F step = new DenseMatrix64F( nd, 1 );
+
+		System.arraycopy( y, 0, tgt, 0, nd );
+		applyAffineInverse( tgt, est );
+
+		double err = residual( est, tgt, residual );
+		int i = 0;
+		while ( err > tolerance && i < maxIters )
+		{
+			final AffineTransform jacobian = getTransform().jacobian( est );
+			for ( int row = 0; row < nd; row++ )
+			{
+				r.set( row, 0, residual[ row ] );
+				for ( int col = 0; col < nd; col++ )
+					jac.set( row, col, jacobian.get( row, col ) );
+			}
+
+			if ( !CommonOps.solve( jac, r, step ) || !isFinite( step ) )
+			{
+				// singular jacobian - fall back to the gradient direction
+				CommonOps.multTransA( jac, r, step );
+			}
+
+			// backtracking line search on the residual norm
+			double alpha = 1.0;
+			double trialErr = Double.MAX_VALUE;
+			while ( alpha >= MIN_STEP )
+			{
+				for ( int d = 0; d < nd; d++ )
+					trial[ d ] = est[ d ] + alpha * step.get( d, 0 );
+
+				trialErr = residual( trial, tgt, trialResidual );
+				if ( trialErr < ( 1 - 1e-4 * alpha ) * err )
+					break;
+
+				alpha /= 2;
+			}
+			i++;
+
+			if ( alpha < MIN_STEP )
+				break;
+
+			System.arraycopy( trial, 0, est, 0, nd );
+			System.arraycopy( trialResidual, 0, residual, 0, nd );
+			err = trialErr;
+		}
+
+		System.arraycopy( est, 0, x, 0, nd );
+		if ( iterations != null )
+			iterations[ 0 ] = i;
+
+		return err <= tolerance;
+	}
+
+	/*
+	 * Stores y - T(x) in residual and returns its norm
+	 */
+	private double residual( final double[] x, final double[] y, final double[] residual )
+	{
+		getTransform().apply( x, residual );
+		double err = 0;
+		for ( int d = 0; d < nd; d++ )
+		{
+			residual[ d ] = y[ d ] - residual[ d ];
+			err += residual[ d ] * residual[ d ];
+		}
+		return Math.sqrt( err );
+	}
+
+	private void applyAffineInverse( final double[] y, final double[] x )
+	{
+		for ( int r = 0; r < nd; r++ )
+		{
+			x[ r ] = affineInverse[ r ][ nd ];
+			for ( int c = 0; c < nd; c++ )
+				x[ r ] += affineInverse[ r ][ c ] * y[ c ];
+		}
+	}
+
+	private static boolean isFinite( final DenseMatrix64F m )
+	{
+		for ( int i = 0; i < m.getNumElements(); i++ )
+			if ( Double.isNaN( m.get( i ) ) || Double.isInfinite( m.get( i ) ) )
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * Computes the inverse of the affine part of a thin plate spline, in
+	 * homogeneous coordinates. Returns the identity if the affine part is not
+	 * invertible.
+	 *
+	 * @param tps the thin plate spline
+	 * @return the inverse affine as a matrix
+	 */
+	public static double[][] affineInverse( final ThinPlateR2LogRSplineKernelTransform tps )
+	{
+		final int nd = tps.getNumDims();
+		final double[][] tpsAffine = tps.getAffine();
+		final double[] translation = tps.getTranslation();
+
+		final DenseMatrix64F a = new DenseMatrix64F( nd, nd );
+		for ( int r = 0; r < nd; r++ )
+			for ( int c = 0; c < nd; c++ )
+			{
+				/*
+				 * the affine doesn't contain the identity "part" of the affine.
+				 * see BigWarpTransform.affinePartOfTpsHC
+				 */
+				final double v = ( tpsAffine == null ) ? 0 : tpsAffine[ r ][ c ];
+				a.set( r, c, r == c ? 1 + v : v );
+			}
+
+		final double[][] out = new double[ nd ][ nd + 1 ];
+		if ( !CommonOps.invert( a ) || !isFinite( a ) )
+		{
+			for ( int d = 0; d < nd; d++ )
+				out[ d ][ d ] = 1;
+
+			return out;
+		}
+
+		for ( int r = 0; r < nd; r++ )
+		{
+			for ( int c = 0; c < nd; c++ )
+			{
+				out[ r ][ c ] = a.get( r, c );
+				if ( translation != null )
+					out[ r ][ nd ] -= a.get( r, c ) * translation[ c ];
+			}
+		}
+		return out;
+	}
+
+	@Override
+	public TpsNewtonInvertibleTransform copy()
+	{
+		return new TpsNewtonInvertibleTransform( tps, new ThinplateSplineTransform( tps ), affineInverse, batch, tolerance, maxIters );
+	}
+
+	@Override
+	public InvertibleRealTransform inverse()
+	{
+		return new InverseRealTransform( this );
+	}
+}
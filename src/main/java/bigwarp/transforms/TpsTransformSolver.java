@@ -2,7 +2,6 @@ package bigwarp.transforms;
 
 import bigwarp.landmarks.LandmarkTableModel;
 import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
-import net.imglib2.realtransform.ThinplateSplineTransform;
 import net.imglib2.realtransform.inverse.WrappedIterativeInvertibleRealTransform;
 
 public class TpsTransformSolver implements TransformSolver< WrappedIterativeInvertibleRealTransform< ? >>
@@ -10,11 +9,25 @@ public class TpsTransformSolver implements TransformSolver< WrappedIterativeInve
 	private double[][] mvgPts;
 	private double[][] tgtPts;
 
+	private SolvedTpsCache cache;
+
+	/**
+	 * Reuse splines solved for the same landmarks before.
+	 * 
+	 * @param cache the cache, or null to always solve
+	 */
+	public void setCache( final SolvedTpsCache cache )
+	{
+		this.cache = cache;
+	}
+
 	public WrappedIterativeInvertibleRealTransform<?> solve( final double[][] mvgPts, final double[][] tgtPts )
 	{
-		return new WrappedIterativeInvertibleRealTransform<ThinplateSplineTransform>( 
-				new ThinplateSplineTransform( 
-						new ThinPlateR2LogRSplineKernelTransform( tgtPts.length, tgtPts, mvgPts )));
+		final ThinPlateR2LogRSplineKernelTransform tps = cache != null ?
+				cache.solve( tgtPts.length, tgtPts, mvgPts ) :
+				new ThinPlateR2LogRSplineKernelTransform( tgtPts.length, tgtPts, mvgPts );
+
+		return new TpsNewtonInvertibleTransform( tps );
 	}
 
 	public WrappedIterativeInvertibleRealTransform<?> solve( 
@@ -26,19 +39,23 @@ public class TpsTransformSolver implements TransformSolver< WrappedIterativeInve
 	public WrappedIterativeInvertibleRealTransform<?> solve( 
 			final LandmarkTableModel landmarkTable, final int indexChanged )
 	{
-		
-		int numActive = landmarkTable.numActive();
-		int ndims = landmarkTable.getNumdims();
-
-		if( mvgPts == null || mvgPts[0].length != numActive )
-		{
-			mvgPts = new double[ ndims ][ numActive ];
-			tgtPts = new double[ ndims ][ numActive ];
-			landmarkTable.copyLandmarks( mvgPts, tgtPts );
-		}
-		else if( indexChanged >= 0 )
+		// count and copy under the table's lock, so that rows added or deleted
+		// by other threads do not change the count in between
+		synchronized ( landmarkTable )
 		{
-			landmarkTable.copyLandmarks( indexChanged, mvgPts, tgtPts );
+			int numActive = landmarkTable.numActive();
+			int ndims = landmarkTable.getNumdims();
+
+			if( mvgPts == null || mvgPts[0].length != numActive )
+			{
+				mvgPts = new double[ ndims ][ numActive ];
+				tgtPts = new double[ ndims ][ numActive ];
+				landmarkTable.copyLandmarks( mvgPts, tgtPts );
+			}
+			else if( indexChanged >= 0 )
+			{
+				landmarkTable.copyLandmarks( indexChanged, mvgPts, tgtPts );
+			}
 		}
 
 		return solve( mvgPts, tgtPts );
@@ -0,0 +1,94 @@
+package bigwarp.transforms;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+
+/**
+ * Applies a 2d {@link BatchRealTransform} to the first two dimensions of 3d
+ * points, the batch analogue of
+ * {@link net.imglib2.realtransform.Wrapped2DTransformAs3D}.
+ */
+public class Wrapped2DBatchTransform implements BatchRealTransform
+{
+	private final BatchRealTransform transform;
+
+	private final double[][] src2d = new double[ 2 ][];
+
+	private final double[][] tgt2d = new double[ 2 ][];
+
+	public Wrapped2DBatchTransform( final BatchRealTransform transform )
+	{
+		this.transform = transform;
+	}
+
+	public BatchRealTransform getTransform()
+	{
+		return transform;
+	}
+
+	@Override
+	public void apply( final double[][] source, final double[][] target, final int n )
+	{
+		src2d[ 0 ] = source[ 0 ];
+		src2d[ 1 ] = source[ 1 ];
+		tgt2d[ 0 ] = target[ 0 ];
+		tgt2d[ 1 ] = target[ 1 ];
+		transform.apply( src2d, tgt2d, n );
+
+		if ( source[ 2 ] != target[ 2 ] )
+			System.arraycopy( source[ 2 ], 0, target[ 2 ], 0, n );
+	}
+
+	@Override
+	public void applyLine( final double[] start, final double[] step, final double[][] target, final int n )
+	{
+		tgt2d[ 0 ] = target[ 0 ];
+		tgt2d[ 1 ] = target[ 1 ];
+		transform.applyLine(
+				new double[] { start[ 0 ], start[ 1 ] },
+				new double[] { step[ 0 ], step[ 1 ] },
+				tgt2d, n );
+
+		final double[] z = target[ 2 ];
+		for ( int i = 0; i < n; i++ )
+			z[ i ] = start[ 2 ] + i * step[ 2 ];
+	}
+
+	@Override
+	public int numSourceDimensions()
+	{
+		return 3;
+	}
+
+	@Override
+	public int numTargetDimensions()
+	{
+		return 3;
+	}
+
+	@Override
+	public void apply( final double[] source, final double[] target )
+	{
+		final double[] tmp = new double[] { source[ 0 ], source[ 1 ] };
+		transform.apply( tmp, tmp );
+		target[ 0 ] = tmp[ 0 ];
+		target[ 1 ] = tmp[ 1 ];
+		target[ 2 ] = source[ 2 ];
+	}
+
+	@Override
+	public void apply( final RealLocalizable source, final RealPositionable target )
+	{
+		final double[] tmp = new double[] { source.getDoublePosition( 0 ), source.getDoublePosition( 1 ) };
+		transform.apply( tmp, tmp );
+		target.setPosition( tmp[ 0 ], 0 );
+		target.setPosition( tmp[ 1 ], 1 );
+		target.setPosition( source.getDoublePosition( 2 ), 2 );
+	}
+
+	@Override
+	public Wrapped2DBatchTransform copy()
+	{
+		return new Wrapped2DBatchTransform( transform.copy() );
+	}
+}
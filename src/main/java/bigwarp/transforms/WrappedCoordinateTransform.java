@@ -11,11 +11,20 @@ public class WrappedCoordinateTransform implements InvertibleRealTransform
 	private final InvertibleCoordinateTransform ct_inv;
 	private final int nd;
 
+	// per-thread scratch space, so that one instance can be used concurrently
+	private final ThreadLocal< double[] > tmp;
+
 	public WrappedCoordinateTransform( InvertibleCoordinateTransform ct, int nd )
+	{
+		this( ct, ct.createInverse(), nd );
+	}
+
+	private WrappedCoordinateTransform( InvertibleCoordinateTransform ct, InvertibleCoordinateTransform ct_inv, int nd )
 	{
         this.nd = nd;
 		this.ct = ct;
-		this.ct_inv = ct.createInverse();
+		this.ct_inv = ct_inv;
+		this.tmp = ThreadLocal.withInitial( () -> new double[ nd ] );
 	}
 
 	public InvertibleCoordinateTransform getTransform()
@@ -26,18 +35,24 @@ public class WrappedCoordinateTransform implements InvertibleRealTransform
 	@Override
 	public void apply(double[] src, double[] tgt)
     {
-		double[] res = ct.apply( src );
-        System.arraycopy( res, 0, tgt, 0, res.length );
+		// applyInPlace is stateless for mpicbg models, so this is thread safe
+		if( src != tgt )
+			System.arraycopy( src, 0, tgt, 0, nd );
+
+		ct.applyInPlace( tgt );
 	}
 
 	@Override
 	public void apply( RealLocalizable src, RealPositionable tgt )
     {
-        double[] srcpt = new double[ src.numDimensions() ];
-        src.localize( srcpt );
+        final double[] pt = tmp.get();
+        for( int d = 0; d < nd; d++ )
+            pt[ d ] = src.getDoublePosition( d );
 
-        double[] res = ct.apply( srcpt );
-        tgt.setPosition( res );
+        ct.applyInPlace( pt );
+
+        for( int d = 0; d < nd; d++ )
+            tgt.setPosition( pt[ d ], d );
 	}
 
 	@Override
@@ -55,18 +70,23 @@ public class WrappedCoordinateTransform implements InvertibleRealTransform
 	@Override
 	public void applyInverse( double[] src, double[] tgt )
     {
-	    double[] res = ct_inv.apply( tgt );
-        System.arraycopy( res, 0, src, 0, res.length );    
+		if( src != tgt )
+			System.arraycopy( tgt, 0, src, 0, nd );
+
+		ct_inv.applyInPlace( src );
 	}
 
 	@Override
 	public void applyInverse( RealPositionable src, RealLocalizable tgt )
     {
-        double[] tgtpt = new double[ tgt.numDimensions() ];
-        tgt.localize( tgtpt );
-        
-        double[] res = ct_inv.apply( tgtpt );
-        src.setPosition( res );
+        final double[] pt = tmp.get();
+        for( int d = 0; d < nd; d++ )
+            pt[ d ] = tgt.getDoublePosition( d );
+
+        ct_inv.applyInPlace( pt );
+
+        for( int d = 0; d < nd; d++ )
+            src.setPosition( pt[ d ], d );
 	}
 
 	@Override
@@ -78,7 +98,7 @@ public class WrappedCoordinateTransform implements InvertibleRealTransform
 	@Override
 	public WrappedCoordinateTransform inverse()
     {
-		return new WrappedCoordinateTransform( ct_inv, nd );
+		return new WrappedCoordinateTransform( ct_inv, ct, nd );
 	}
 
 }
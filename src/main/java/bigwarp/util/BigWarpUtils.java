@@ -36,6 +36,21 @@ public class BigWarpUtils
 		viewer.setCurrentViewerTransform( viewerTransform );
 	}
 
+	/**
+	 * @param source the source
+	 * @param numTimepoints the number of timepoints to search
+	 * @return the first timepoint at which the source is present, or zero if
+	 *         it is present at none of them
+	 */
+	public static int firstPresentTimepoint( final Source< ? > source, final int numTimepoints )
+	{
+		for ( int t = 0; t < numTimepoints; t++ )
+			if ( source.isPresent( t ) )
+				return t;
+
+		return 0;
+	}
+
 	public static void ensurePositiveZ( final AffineTransform3D xfm )
 	{
 		xfm.set( Math.abs( xfm.get( 2, 2 )), 2, 2 );
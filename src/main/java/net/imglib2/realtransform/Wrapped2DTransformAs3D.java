@@ -7,12 +7,16 @@ public class Wrapped2DTransformAs3D implements InvertibleRealTransform
 {
 	public InvertibleRealTransform transform;
 
-	public double[] tmp;
+	/*
+	 * Per-thread scratch space, so that one instance can be used from many
+	 * threads as long as the wrapped transform can.
+	 */
+	private final ThreadLocal< double[] > tmp;
 
 	public Wrapped2DTransformAs3D( final InvertibleRealTransform transform )
 	{
 		this.transform = transform;
-		tmp = new double[ 2 ];
+		tmp = ThreadLocal.withInitial( () -> new double[ 2 ] );
 	}
 
 	public InvertibleRealTransform getTransform()
@@ -35,6 +39,7 @@ public class Wrapped2DTransformAs3D implements InvertibleRealTransform
 	@Override
 	public void apply( double[] source, double[] target )
 	{
+		final double[] tmp = this.tmp.get();
 		// TODO this could be done without tmp if all downstream implementations
 		// could take source and target inputs with dim larger than the
 		// transform dim
@@ -50,6 +55,7 @@ public class Wrapped2DTransformAs3D implements InvertibleRealTransform
 	@Override
 	public void apply( RealLocalizable source, RealPositionable target )
 	{
+		final double[] tmp = this.tmp.get();
 		// TODO this could be done without tmp if all downstream implementations
 		// could take source and target inputs with dim larger than the
 		// transform dim
@@ -65,6 +71,7 @@ public class Wrapped2DTransformAs3D implements InvertibleRealTransform
 	@Override
 	public void applyInverse( double[] source, double[] target )
 	{
+		final double[] tmp = this.tmp.get();
 		tmp[ 0 ] = target[ 0 ];
 		tmp[ 1 ] = target[ 1 ];
 		transform.applyInverse( tmp, tmp );
@@ -77,6 +84,7 @@ public class Wrapped2DTransformAs3D implements InvertibleRealTransform
 	@Override
 	public void applyInverse( RealPositionable source, RealLocalizable target )
 	{
+		final double[] tmp = this.tmp.get();
 		tmp[ 0 ] = target.getDoublePosition( 0 );
 		tmp[ 1 ] = target.getDoublePosition( 1 );
 		transform.applyInverse( tmp, tmp );
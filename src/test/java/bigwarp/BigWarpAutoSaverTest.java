@@ -0,0 +1,46 @@
+package bigwarp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BigWarpAutoSaverTest
+{
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testPruneFolders() throws IOException
+	{
+		final File base = tmp.newFolder( "autosave" );
+		final String[] stamps = new String[] { "20260101-120000", "20260102-090000", "20250630-235959", "20260102-090001" };
+		for ( final String stamp : stamps )
+		{
+			final File folder = new File( base, BigWarpAutoSaver.FOLDER_PREFIX + stamp );
+			assertTrue( folder.mkdir() );
+			assertTrue( new File( folder, "snapshot-0.bwl" ).createNewFile() );
+		}
+		assertTrue( new File( base, "other" ).mkdir() );
+
+		// nothing is deleted while there are few enough folders
+		BigWarpAutoSaver.pruneFolders( base, 4 );
+		assertEquals( 5, base.list().length );
+
+		// the oldest folders are deleted, other folders are kept
+		BigWarpAutoSaver.pruneFolders( base, 2 );
+		final String[] left = base.list();
+		Arrays.sort( left );
+		assertArrayEquals( new String[] {
+				BigWarpAutoSaver.FOLDER_PREFIX + "20260102-090000",
+				BigWarpAutoSaver.FOLDER_PREFIX + "20260102-090001",
+				"other" }, left );
+	}
+}
@@ -0,0 +1,68 @@
+package bigwarp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import bigwarp.BigWarpBatchRunner.Job;
+
+public class BigWarpBatchRunnerTest
+{
+	@Test
+	public void testReadManifest() throws IOException
+	{
+		final File f = File.createTempFile( "manifest", ".txt" );
+		f.deleteOnExit();
+		Files.write( f.toPath(), Arrays.asList(
+				"# landmarks\timage\toutput\tdimensions",
+				"",
+				"a.csv\timg.tif\tout.tif\t64,64,8",
+				"b.csv\tc.n5\tout.n5\t64,64\t0.5\t-\t/raw/s0" ), StandardCharsets.UTF_8 );
+
+		final List< Job > jobs = BigWarpBatchRunner.readManifest( f );
+		assertEquals( 2, jobs.size() );
+
+		final Job a = jobs.get( 0 );
+		assertEquals( 0, a.index );
+		assertEquals( "a.csv", a.landmarks );
+		assertEquals( "img.tif", a.image );
+		assertEquals( "out.tif", a.output );
+		assertArrayEquals( new long[] { 64, 64, 8 }, a.dims );
+		assertNull( a.spacing );
+		assertNull( a.offset );
+		assertNull( a.dataset );
+
+		final Job b = jobs.get( 1 );
+		assertEquals( 1, b.index );
+		assertArrayEquals( new long[] { 64, 64 }, b.dims );
+		assertArrayEquals( new double[] { 0.5 }, b.spacing, 1e-9 );
+		assertNull( b.offset );
+		assertEquals( "/raw/s0", b.dataset );
+	}
+
+	@Test
+	public void testLandmarkHash() throws IOException
+	{
+		final File a = File.createTempFile( "landmarks", ".csv" );
+		final File b = File.createTempFile( "landmarks", ".csv" );
+		a.deleteOnExit();
+		b.deleteOnExit();
+
+		Files.write( a.toPath(), "\"Pt-0\",\"true\",\"1\",\"2\",\"3\",\"4\"\n".getBytes( StandardCharsets.UTF_8 ) );
+		Files.write( b.toPath(), "\"Pt-0\",\"true\",\"1\",\"2\",\"3\",\"4\"\n".getBytes( StandardCharsets.UTF_8 ) );
+		assertEquals( BigWarpBatchRunner.landmarkHash( a ), BigWarpBatchRunner.landmarkHash( b ) );
+
+		Files.write( b.toPath(), "\"Pt-0\",\"true\",\"1\",\"2\",\"3\",\"5\"\n".getBytes( StandardCharsets.UTF_8 ) );
+		assertNotEquals( BigWarpBatchRunner.landmarkHash( a ), BigWarpBatchRunner.landmarkHash( b ) );
+	}
+}
@@ -0,0 +1,66 @@
+package bigwarp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
+import net.imglib2.realtransform.AffineTransform;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.ThinplateSplineTransform;
+
+public class BigWarpExporterTest
+{
+	@Test
+	public void testEstimateLocalAffine()
+	{
+		// affines are recovered exactly from any independent steps
+		final AffineTransform3D a = new AffineTransform3D();
+		a.set( 1.1, 0.2, 0.05, 12.0,
+				-0.1, 0.9, 0.02, -5.0,
+				0.03, -0.01, 1.05, 2.0 );
+
+		final double[][] skewed = new double[][] {
+			{ 2, 0.5, 0 },
+			{ 0, 3, -1 },
+			{ 0.2, 0, 0.7 } };
+
+		final AffineTransform3D estimate = new AffineTransform3D();
+		assertTrue( BigWarpExporter.estimateLocalAffine( estimate, a, new double[] { 40, -3, 7 }, skewed ) );
+		for ( int r = 0; r < 3; r++ )
+			for ( int c = 0; c < 4; c++ )
+				assertEquals( a.get( r, c ), estimate.get( r, c ), 1e-9 );
+
+		// for a spline, small steps approximate the jacobian at the point
+		final double[][] src = new double[][] {
+			{ 0, 50, 0, 0, 50, 20 },
+			{ 0, 0, 50, 0, 50, 25 },
+			{ 0, 0, 0, 50, 50, 30 } };
+
+		final double[][] tgt = new double[][] {
+			{ 2, 55, -1, 3, 52, 34 },
+			{ 1, -2, 54, 0, 47, 12 },
+			{ -3, 1, 2, 48, 53, 35 } };
+
+		final ThinplateSplineTransform tps = new ThinplateSplineTransform(
+				new ThinPlateR2LogRSplineKernelTransform( 3, src, tgt ) );
+
+		final double[] point = new double[] { 10, 40, 20 };
+		final double[][] steps = new double[][] { { 0.1, 0, 0 }, { 0, 0.1, 0 }, { 0, 0, 0.1 } };
+		assertTrue( BigWarpExporter.estimateLocalAffine( estimate, tps, point, steps ) );
+
+		final AffineTransform jacobian = tps.jacobian( point );
+		for ( int r = 0; r < 3; r++ )
+			for ( int c = 0; c < 3; c++ )
+				assertEquals( jacobian.get( r, c ), estimate.get( r, c ), 1e-3 );
+
+		// the estimate maps the point like the spline
+		final double[] expected = new double[ 3 ];
+		final double[] actual = new double[ 3 ];
+		tps.apply( point, expected );
+		estimate.apply( point, actual );
+		for ( int d = 0; d < 3; d++ )
+			assertEquals( expected[ d ], actual[ d ], 1e-9 );
+	}
+}
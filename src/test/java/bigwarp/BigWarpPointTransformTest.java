@@ -0,0 +1,82 @@
+package bigwarp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import bigwarp.BigWarpPointTransform.PointMapper;
+import bigwarp.transforms.GridInverseTransform;
+import bigwarp.transforms.TpsNewtonInvertibleTransform;
+import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.realtransform.AffineTransform2D;
+
+public class BigWarpPointTransformTest
+{
+	@Test
+	public void testForward()
+	{
+		final AffineTransform2D affine = new AffineTransform2D();
+		affine.set( 2, 0, 1, 0, 3, -1 );
+
+		final PointMapper mapper = new PointMapper( affine, false, 1e-6, 50, new double[] { 1, 0.5 } );
+		final double[][] pts = new double[][] { { 0, 1, 2 }, { 0, 2, 4 } };
+		final boolean[] converged = new boolean[ 3 ];
+		assertEquals( 0, mapper.copy().map( pts, 3, converged ) );
+
+		assertArrayEquals( new double[] { 1, 3, 5 }, pts[ 0 ], 1e-9 );
+		assertArrayEquals( new double[] { -1, 2, 5 }, pts[ 1 ], 1e-9 );
+		assertTrue( converged[ 0 ] && converged[ 1 ] && converged[ 2 ] );
+	}
+
+	@Test
+	public void testInverse()
+	{
+		final double[][] src = new double[][] {
+			{ 0, 100, 0, 100, 50 },
+			{ 0, 0, 100, 100, 50 } };
+
+		final double[][] tgt = new double[][] {
+			{ 5, 110, -3, 98, 60 },
+			{ 2, -4, 105, 103, 42 } };
+
+		final TpsNewtonInvertibleTransform tps = new TpsNewtonInvertibleTransform(
+				new ThinPlateR2LogRSplineKernelTransform( 2, src, tgt ) );
+
+		final int n = 20;
+		final double[][] x = new double[ 2 ][ n ];
+		final double[][] pts = new double[ 2 ][ n ];
+		final double[] p = new double[ 2 ];
+		final double[] q = new double[ 2 ];
+		for ( int i = 0; i < n; i++ )
+		{
+			p[ 0 ] = x[ 0 ][ i ] = 5 * i;
+			p[ 1 ] = x[ 1 ][ i ] = 100 - 3 * i;
+			tps.apply( p, q );
+			pts[ 0 ][ i ] = q[ 0 ];
+			pts[ 1 ][ i ] = q[ 1 ];
+		}
+
+		final double[][] ptsGrid = new double[][] { pts[ 0 ].clone(), pts[ 1 ].clone() };
+
+		final PointMapper mapper = new PointMapper( tps, true, 1e-6, 50, new double[] { 1, 1 } );
+		final boolean[] converged = new boolean[ n ];
+		assertEquals( 0, mapper.map( pts, n, converged ) );
+		for ( int i = 0; i < n; i++ )
+			assertTrue( converged[ i ] );
+
+		assertArrayEquals( x[ 0 ], pts[ 0 ], 1e-4 );
+		assertArrayEquals( x[ 1 ], pts[ 1 ], 1e-4 );
+
+		// the inverse interpolated from a grid is accurate to its tolerance
+		final GridInverseTransform grid = new GridInverseTransform( tps,
+				new FinalRealInterval( new double[] { -20, -20 }, new double[] { 130, 130 } ),
+				new double[] { 2, 2 }, 2 );
+		final PointMapper gridMapper = new PointMapper( grid, true, 1e-6, 50, new double[] { 1, 1 } );
+		assertEquals( 0, gridMapper.copy().map( ptsGrid, n, converged ) );
+		assertArrayEquals( x[ 0 ], ptsGrid[ 0 ], 0.1 );
+		assertArrayEquals( x[ 1 ], ptsGrid[ 1 ], 0.1 );
+	}
+}
@@ -27,7 +27,7 @@ public class ExportTransformAsXmlTest
 
 		bw.setTransformType( TransformTypeSelectDialog.AFFINE );
 
-		new BigWarp.SolveThread( bw ).start(); IJ.wait( 100 );
+		new BigWarp.SolveScheduler( bw ).start(); IJ.wait( 100 );
 
 		final File warpedXml = bw.saveMovingImageXml( Class.class.getResource( "../../mri-stack-translated-bigWarp.xml" ).getFile() );
 
@@ -0,0 +1,446 @@
+package bigwarp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import bigwarp.transforms.TpsNewtonInvertibleTransform;
+import bigwarp.transforms.WrappedCoordinateTransform;
+import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
+import mpicbg.models.AffineModel2D;
+import mpicbg.models.AffineModel3D;
+import mpicbg.models.InvertibleCoordinateTransform;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPoint;
+import net.imglib2.RealPositionable;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.realtransform.InvertibleRealTransform;
+import net.imglib2.realtransform.RealTransform;
+import net.imglib2.realtransform.RealViews;
+import net.imglib2.realtransform.Wrapped2DTransformAs3D;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Per-voxel throughput of the wrapped transforms, as used when exporting 2d
+ * and 3d images.
+ * <p>
+ * The "legacy" benchmarks use copies of the previous implementations, which
+ * allocate on every call and share scratch space, so every thread needs its
+ * own copy of the transform. The "shared" benchmarks use one instance of the
+ * current implementations from all threads.
+ * <p>
+ * The "export" benchmarks render a block of a 2d image through a wrapped
+ * transform with linear interpolation, as the exporters do for every block
+ * of the output, and so include the cost of sampling the image. A thin plate
+ * spline is not thread safe, so every thread copies it with both the
+ * previous and the current wrapper.
+ * <p>
+ * Run with {@link #main(String[])}.
+ */
+@Warmup( iterations = 4, time = 1 )
+@Measurement( iterations = 8, time = 1 )
+@Fork( 1 )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Threads( 4 )
+public class WrappedTransformBenchmark
+{
+	/**
+	 * Number of voxels per benchmark invocation (a 64 x 64 block).
+	 */
+	public static final int N = 64 * 64;
+
+	/**
+	 * Size of the exported block, and of the moving image.
+	 */
+	public static final int BLOCK = 128;
+
+	@State( Scope.Benchmark )
+	public static class SharedState
+	{
+		public RealTransform xfm2d;
+
+		public RealTransform xfm3d;
+
+		@Setup
+		public void setup()
+		{
+			xfm2d = new Wrapped2DTransformAs3D( new WrappedCoordinateTransform( affine2d(), 2 ).inverse() );
+			xfm3d = new WrappedCoordinateTransform( affine3d(), 3 ).inverse();
+		}
+	}
+
+	@State( Scope.Thread )
+	public static class PerThreadState
+	{
+		public RealTransform xfm2d;
+
+		public RealTransform xfm3d;
+
+		public RealPoint src;
+
+		public RealPoint tgt;
+
+		@Setup
+		public void setup()
+		{
+			// every thread copies the transform, as the renderers and exporters do
+			xfm2d = new LegacyWrapped2DTransformAs3D( new LegacyWrappedCoordinateTransform( affine2d(), 2 ).inverse() ).copy();
+			xfm3d = new LegacyWrappedCoordinateTransform( affine3d(), 3 ).inverse().copy();
+			src = new RealPoint( 3 );
+			tgt = new RealPoint( 3 );
+		}
+	}
+
+	@State( Scope.Benchmark )
+	public static class ExportSharedState
+	{
+		public RandomAccessibleInterval< FloatType > moving;
+
+		public RealTransform affine2d;
+
+		@Setup
+		public void setup()
+		{
+			final Img< FloatType > img = ArrayImgs.floats( 2 * BLOCK, 2 * BLOCK, 1 );
+			final Cursor< FloatType > c = img.localizingCursor();
+			while ( c.hasNext() )
+			{
+				c.fwd();
+				c.get().set( ( c.getIntPosition( 0 ) * 7 + c.getIntPosition( 1 ) * 13 ) % 256 );
+			}
+			moving = img;
+			affine2d = new Wrapped2DTransformAs3D( new WrappedCoordinateTransform( affine2d(), 2 ).inverse() );
+		}
+	}
+
+	@State( Scope.Thread )
+	public static class ExportPerThreadState
+	{
+		public RealTransform legacyAffine2d;
+
+		public RealTransform legacyTps2d;
+
+		public RealTransform tps2d;
+
+		public Img< FloatType > out;
+
+		@Setup
+		public void setup()
+		{
+			legacyAffine2d = new LegacyWrapped2DTransformAs3D( new LegacyWrappedCoordinateTransform( affine2d(), 2 ).inverse() ).copy();
+			legacyTps2d = new LegacyWrapped2DTransformAs3D( new TpsNewtonInvertibleTransform( tps2d() ) ).copy();
+			tps2d = new Wrapped2DTransformAs3D( new TpsNewtonInvertibleTransform( tps2d() ) ).copy();
+			out = ArrayImgs.floats( BLOCK, BLOCK, 1 );
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation( BLOCK * BLOCK )
+	public void exportLegacyAffine2d( final ExportSharedState shared, final ExportPerThreadState state )
+	{
+		exportBlock( state.legacyAffine2d, shared.moving, state.out );
+	}
+
+	@Benchmark
+	@OperationsPerInvocation( BLOCK * BLOCK )
+	public void exportSharedAffine2d( final ExportSharedState shared, final ExportPerThreadState state )
+	{
+		exportBlock( shared.affine2d, shared.moving, state.out );
+	}
+
+	@Benchmark
+	@OperationsPerInvocation( BLOCK * BLOCK )
+	public void exportLegacyTps2d( final ExportSharedState shared, final ExportPerThreadState state )
+	{
+		exportBlock( state.legacyTps2d, shared.moving, state.out );
+	}
+
+	@Benchmark
+	@OperationsPerInvocation( BLOCK * BLOCK )
+	public void exportTps2d( final ExportSharedState shared, final ExportPerThreadState state )
+	{
+		exportBlock( state.tps2d, shared.moving, state.out );
+	}
+
+	@Benchmark
+	@OperationsPerInvocation( N )
+	public void legacy2d( final PerThreadState state, final Blackhole bh )
+	{
+		scanBlock( state.xfm2d, state.src, state.tgt, bh );
+	}
+
+	@Benchmark
+	@OperationsPerInvocation( N )
+	public void shared2d( final SharedState shared, final PerThreadState state, final Blackhole bh )
+	{
+		scanBlock( shared.xfm2d, state.src, state.tgt, bh );
+	}
+
+	@Benchmark
+	@OperationsPerInvocation( N )
+	public void legacy3d( final PerThreadState state, final Blackhole bh )
+	{
+		scanBlock( state.xfm3d, state.src, state.tgt, bh );
+	}
+
+	@Benchmark
+	@OperationsPerInvocation( N )
+	public void shared3d( final SharedState shared, final PerThreadState state, final Blackhole bh )
+	{
+		scanBlock( shared.xfm3d, state.src, state.tgt, bh );
+	}
+
+	private static void scanBlock( final RealTransform xfm, final RealPoint src, final RealPoint tgt, final Blackhole bh )
+	{
+		src.setPosition( 7, 2 );
+		for ( int y = 0; y < 64; y++ )
+		{
+			src.setPosition( y, 1 );
+			for ( int x = 0; x < 64; x++ )
+			{
+				src.setPosition( x, 0 );
+				xfm.apply( src, tgt );
+				bh.consume( tgt.getDoublePosition( 0 ) );
+			}
+		}
+	}
+
+	/*
+	 * Renders the moving image through the transform into the output block.
+	 */
+	private static void exportBlock( final RealTransform xfm, final RandomAccessibleInterval< FloatType > moving, final Img< FloatType > out )
+	{
+		final RandomAccess< FloatType > warped = Views.raster( RealViews.transform(
+				Views.interpolate( Views.extendZero( moving ), new NLinearInterpolatorFactory< FloatType >() ),
+				xfm ) ).randomAccess();
+
+		final Cursor< FloatType > c = out.localizingCursor();
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			warped.setPosition( c );
+			c.get().set( warped.get() );
+		}
+	}
+
+	private static ThinPlateR2LogRSplineKernelTransform tps2d()
+	{
+		final double[][] src = new double[][] {
+			{ 0, 2 * BLOCK, 0, 2 * BLOCK, 90, 40 },
+			{ 0, 0, 2 * BLOCK, 2 * BLOCK, 60, 170 } };
+
+		final double[][] tgt = new double[][] {
+			{ 3, 2 * BLOCK - 4, -2, 2 * BLOCK + 5, 97, 35 },
+			{ -1, 4, 2 * BLOCK - 3, 2 * BLOCK + 2, 52, 176 } };
+
+		return new ThinPlateR2LogRSplineKernelTransform( 2, src, tgt );
+	}
+
+	private static AffineModel2D affine2d()
+	{
+		final AffineModel2D model = new AffineModel2D();
+		model.set( 1.1, 0.2, -0.1, 0.9, 12.0, -5.0 );
+		return model;
+	}
+
+	private static AffineModel3D affine3d()
+	{
+		final AffineModel3D model = new AffineModel3D();
+		model.set( 1.1, 0.2, 0.05, 12.0,
+				-0.1, 0.9, 0.02, -5.0,
+				0.03, -0.01, 1.05, 2.0 );
+		return model;
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options opt = new OptionsBuilder()
+				.include( WrappedTransformBenchmark.class.getSimpleName() )
+				.build();
+		new Runner( opt ).run();
+	}
+
+	/*
+	 * The implementation of WrappedCoordinateTransform before it was made
+	 * allocation-free.
+	 */
+	private static class LegacyWrappedCoordinateTransform implements InvertibleRealTransform
+	{
+		private final InvertibleCoordinateTransform ct;
+
+		private final InvertibleCoordinateTransform ct_inv;
+
+		private final int nd;
+
+		public LegacyWrappedCoordinateTransform( final InvertibleCoordinateTransform ct, final int nd )
+		{
+			this.nd = nd;
+			this.ct = ct;
+			this.ct_inv = ct.createInverse();
+		}
+
+		@Override
+		public void apply( final double[] src, final double[] tgt )
+		{
+			final double[] res = ct.apply( src );
+			System.arraycopy( res, 0, tgt, 0, res.length );
+		}
+
+		@Override
+		public void apply( final RealLocalizable src, final RealPositionable tgt )
+		{
+			final double[] srcpt = new double[ src.numDimensions() ];
+			src.localize( srcpt );
+			final double[] res = ct.apply( srcpt );
+			tgt.setPosition( res );
+		}
+
+		@Override
+		public int numSourceDimensions()
+		{
+			return nd;
+		}
+
+		@Override
+		public int numTargetDimensions()
+		{
+			return nd;
+		}
+
+		@Override
+		public void applyInverse( final double[] src, final double[] tgt )
+		{
+			final double[] res = ct_inv.apply( tgt );
+			System.arraycopy( res, 0, src, 0, res.length );
+		}
+
+		@Override
+		public void applyInverse( final RealPositionable src, final RealLocalizable tgt )
+		{
+			final double[] tgtpt = new double[ tgt.numDimensions() ];
+			tgt.localize( tgtpt );
+			final double[] res = ct_inv.apply( tgtpt );
+			src.setPosition( res );
+		}
+
+		@Override
+		public LegacyWrappedCoordinateTransform copy()
+		{
+			return new LegacyWrappedCoordinateTransform( ct, nd );
+		}
+
+		@Override
+		public LegacyWrappedCoordinateTransform inverse()
+		{
+			return new LegacyWrappedCoordinateTransform( ct_inv, nd );
+		}
+	}
+
+	/*
+	 * The implementation of Wrapped2DTransformAs3D before its scratch space
+	 * was made per-thread.
+	 */
+	private static class LegacyWrapped2DTransformAs3D implements InvertibleRealTransform
+	{
+		private final InvertibleRealTransform transform;
+
+		private final double[] tmp;
+
+		public LegacyWrapped2DTransformAs3D( final InvertibleRealTransform transform )
+		{
+			this.transform = transform;
+			tmp = new double[ 2 ];
+		}
+
+		@Override
+		public int numSourceDimensions()
+		{
+			return 3;
+		}
+
+		@Override
+		public int numTargetDimensions()
+		{
+			return 3;
+		}
+
+		@Override
+		public void apply( final double[] source, final double[] target )
+		{
+			tmp[ 0 ] = source[ 0 ];
+			tmp[ 1 ] = source[ 1 ];
+			transform.apply( tmp, tmp );
+			target[ 0 ] = tmp[ 0 ];
+			target[ 1 ] = tmp[ 1 ];
+			target[ 2 ] = source[ 2 ];
+		}
+
+		@Override
+		public void apply( final RealLocalizable source, final RealPositionable target )
+		{
+			tmp[ 0 ] = source.getDoublePosition( 0 );
+			tmp[ 1 ] = source.getDoublePosition( 1 );
+			transform.apply( tmp, tmp );
+			target.setPosition( tmp[ 0 ], 0 );
+			target.setPosition( tmp[ 1 ], 1 );
+			target.setPosition( source.getDoublePosition( 2 ), 2 );
+		}
+
+		@Override
+		public void applyInverse( final double[] source, final double[] target )
+		{
+			tmp[ 0 ] = target[ 0 ];
+			tmp[ 1 ] = target[ 1 ];
+			transform.applyInverse( tmp, tmp );
+			source[ 0 ] = tmp[ 0 ];
+			source[ 1 ] = tmp[ 1 ];
+			source[ 2 ] = target[ 2 ];
+		}
+
+		@Override
+		public void applyInverse( final RealPositionable source, final RealLocalizable target )
+		{
+			tmp[ 0 ] = target.getDoublePosition( 0 );
+			tmp[ 1 ] = target.getDoublePosition( 1 );
+			transform.applyInverse( tmp, tmp );
+			source.setPosition( tmp[ 0 ], 0 );
+			source.setPosition( tmp[ 1 ], 1 );
+			source.setPosition( target.getDoublePosition( 2 ), 2 );
+		}
+
+		@Override
+		public LegacyWrapped2DTransformAs3D copy()
+		{
+			return new LegacyWrapped2DTransformAs3D( transform.copy() );
+		}
+
+		@Override
+		public LegacyWrapped2DTransformAs3D inverse()
+		{
+			return new LegacyWrapped2DTransformAs3D( transform.inverse() );
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package bigwarp.landmarks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LandmarkBinaryFormatTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		final LandmarkColumns lm = new LandmarkColumns(
+				new String[] { "Pt-0", "a \"name\", with ümlauts", "" },
+				new boolean[] { true, false, true },
+				new double[][] { { 1.5, Double.POSITIVE_INFINITY, -3 }, { 0.1, 0.2, 0.3 } },
+				new double[][] { { 7, 8, 9 }, { -1e-9, 1e9, Math.PI } } );
+
+		final File bin = folder.newFile( "landmarks" + LandmarkBinaryFormat.EXTENSION );
+		LandmarkBinaryFormat.write( lm, bin );
+		assertTrue( LandmarkBinaryFormat.isBinary( bin ) );
+		check( lm, LandmarkBinaryFormat.read( bin ) );
+
+		// through csv and back
+		final File csv = folder.newFile( "landmarks.csv" );
+		final File bin2 = folder.newFile( "landmarks2" + LandmarkBinaryFormat.EXTENSION );
+		LandmarkBinaryFormat.binaryToCsv( bin, csv );
+		assertFalse( LandmarkBinaryFormat.isBinary( csv ) );
+		LandmarkBinaryFormat.csvToBinary( csv, bin2 );
+		check( lm, LandmarkBinaryFormat.read( bin2 ) );
+	}
+
+	@Test
+	public void testLarge() throws IOException
+	{
+		// columns and names span many read buffers, one name is longer than a buffer
+		final int N = 20000;
+		final Random rnd = new Random( 7 );
+		final String[] names = new String[ N ];
+		final boolean[] active = new boolean[ N ];
+		final double[][] moving = new double[ 3 ][ N ];
+		final double[][] target = new double[ 3 ][ N ];
+		for ( int i = 0; i < N; i++ )
+		{
+			names[ i ] = "Pt-" + i + ( i % 7 == 0 ? "-ä" : "" );
+			active[ i ] = rnd.nextBoolean();
+			for ( int d = 0; d < 3; d++ )
+			{
+				moving[ d ][ i ] = rnd.nextGaussian();
+				target[ d ][ i ] = rnd.nextGaussian();
+			}
+		}
+		final char[] longName = new char[ 100000 ];
+		Arrays.fill( longName, 'x' );
+		names[ N / 2 ] = new String( longName );
+
+		final LandmarkColumns lm = new LandmarkColumns( names, active, moving, target );
+		final File bin = folder.newFile( "large" + LandmarkBinaryFormat.EXTENSION );
+		LandmarkBinaryFormat.write( lm, bin );
+		check( lm, LandmarkBinaryFormat.read( bin ) );
+
+		// truncated files are reported
+		try ( final RandomAccessFile raf = new RandomAccessFile( bin, "rw" ) )
+		{
+			raf.setLength( raf.length() - 10 );
+		}
+		try
+		{
+			LandmarkBinaryFormat.read( bin );
+			fail( "truncated file was read" );
+		}
+		catch ( final IOException e )
+		{}
+
+		// nothing keeps the file open
+		assertTrue( bin.delete() );
+	}
+
+	private static void check( final LandmarkColumns expected, final LandmarkColumns actual )
+	{
+		assertEquals( expected.ndims, actual.ndims );
+		assertEquals( expected.size, actual.size );
+		assertArrayEquals( expected.names, actual.names );
+		assertArrayEquals( expected.active, actual.active );
+		for ( int d = 0; d < expected.ndims; d++ )
+		{
+			assertArrayEquals( expected.moving[ d ], actual.moving[ d ], 0 );
+			assertArrayEquals( expected.target[ d ], actual.target[ d ], 0 );
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package bigwarp.landmarks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class LandmarkCsvReaderTest
+{
+	@Test
+	public void testQuotedAndUnquoted() throws IOException
+	{
+		final String csv = "\"Pt-0\",\"true\",\"1.5\",\"-2.0\",\"3.25\",\"4.0\"\n"
+				+ "Pt-1,false,Infinity,Infinity,1e3,-0.125\r\n"
+				+ "\n"
+				+ "\"a \"\"quoted\"\", name\",TRUE,0,1,2,3";
+
+		final LandmarkColumns lm = new LandmarkCsvReader( 2, 1024 ).read( new StringReader( csv ) );
+		assertEquals( 2, lm.ndims );
+		assertEquals( 3, lm.size );
+		assertArrayEquals( new String[] { "Pt-0", "Pt-1", "a \"quoted\", name" }, lm.names );
+		assertTrue( lm.active[ 0 ] );
+		assertFalse( lm.active[ 1 ] );
+		assertTrue( lm.active[ 2 ] );
+		assertArrayEquals( new double[] { 1.5, Double.POSITIVE_INFINITY, 0 }, lm.moving[ 0 ], 0 );
+		assertArrayEquals( new double[] { 3.25, 1000, 2 }, lm.target[ 0 ], 0 );
+		assertArrayEquals( new double[] { 4.0, -0.125, 3 }, lm.target[ 1 ], 0 );
+	}
+
+	@Test
+	public void testGzipManyChunks() throws IOException
+	{
+		final int N = 5000;
+		final Random rand = new Random( 7 );
+		final double[] values = new double[ 6 * N ];
+		final StringBuilder sb = new StringBuilder();
+		for ( int i = 0; i < N; i++ )
+		{
+			sb.append( "\"Pt-" ).append( i ).append( "\",\"true\"" );
+			for ( int j = 0; j < 6; j++ )
+			{
+				values[ 6 * i + j ] = ( rand.nextDouble() - 0.5 ) * Math.pow( 10, rand.nextInt( 8 ) );
+				sb.append( ",\"" ).append( Double.toString( values[ 6 * i + j ] ) ).append( '"' );
+			}
+			sb.append( '\n' );
+		}
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try ( final GZIPOutputStream gz = new GZIPOutputStream( bytes ) )
+		{
+			gz.write( sb.toString().getBytes( StandardCharsets.UTF_8 ) );
+		}
+
+		// small chunks so that rows are split across many of them
+		final LandmarkColumns lm = new LandmarkCsvReader( 4, 1024 ).read( new ByteArrayInputStream( bytes.toByteArray() ) );
+		assertEquals( 3, lm.ndims );
+		assertEquals( N, lm.size );
+		for ( int i = 0; i < N; i++ )
+		{
+			assertEquals( "Pt-" + i, lm.names[ i ] );
+			for ( int d = 0; d < 3; d++ )
+			{
+				// parsing must be exact
+				assertEquals( values[ 6 * i + d ], lm.moving[ d ][ i ], 0 );
+				assertEquals( values[ 6 * i + 3 + d ], lm.target[ d ][ i ], 0 );
+			}
+		}
+	}
+
+	@Test( expected = IOException.class )
+	public void testInconsistentColumns() throws IOException
+	{
+		new LandmarkCsvReader().read( new StringReader( "a,true,0,0,0,0\nb,true,0,0,0,0,0,0\n" ) );
+	}
+
+	@Test
+	public void testLoadSolvesTransform() throws IOException
+	{
+		final File f = File.createTempFile( "landmarks", ".csv" );
+		f.deleteOnExit();
+
+		final Random rand = new Random( 3 );
+		final int N = 20;
+		final double[][] mvg = new double[ N ][ 3 ];
+		final double[][] tgt = new double[ N ][ 3 ];
+		try ( final Writer w = new OutputStreamWriter( new FileOutputStream( f ), StandardCharsets.UTF_8 ) )
+		{
+			for ( int i = 0; i < N; i++ )
+			{
+				w.write( "\"Pt-" + i + "\",\"true\"" );
+				for ( int d = 0; d < 3; d++ )
+				{
+					mvg[ i ][ d ] = 100 * rand.nextDouble();
+					tgt[ i ][ d ] = mvg[ i ][ d ] + 10 * rand.nextDouble();
+				}
+				for ( int d = 0; d < 3; d++ )
+					w.write( ",\"" + mvg[ i ][ d ] + "\"" );
+				for ( int d = 0; d < 3; d++ )
+					w.write( ",\"" + tgt[ i ][ d ] + "\"" );
+				w.write( "\n" );
+			}
+		}
+
+		// scripts and plugins use the transform right after loading
+		final LandmarkTableModel ltm = new LandmarkTableModel( 3 );
+		ltm.load( f );
+		assertEquals( N, ltm.getRowCount() );
+
+		final double[] warped = new double[ 3 ];
+		for ( int i = 0; i < N; i++ )
+		{
+			ltm.getTransform().apply( tgt[ i ], warped );
+			assertArrayEquals( mvg[ i ], warped, 1e-6 );
+		}
+
+		// an empty file loads nothing
+		final File empty = File.createTempFile( "empty", ".csv" );
+		empty.deleteOnExit();
+		ltm.load( empty );
+		assertEquals( 0, ltm.getRowCount() );
+	}
+}
@@ -0,0 +1,61 @@
+package bigwarp.landmarks;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import bigwarp.landmarks.LandmarkJournal.Edit;
+import bigwarp.landmarks.LandmarkJournal.Row;
+
+public class LandmarkJournalTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRecover() throws IOException
+	{
+		final File dir = folder.newFolder( "autosave" );
+		final LandmarkColumns initial = new LandmarkColumns(
+				new String[] { "a", "b" },
+				new boolean[] { true, false },
+				new double[][] { { 1, 2 }, { 3, 4 } },
+				new double[][] { { 5, 6 }, { 7, 8 } } );
+
+		try ( final LandmarkJournal journal = new LandmarkJournal( dir, initial ) )
+		{
+			journal.append( Arrays.asList(
+					Edit.insert( 1, new Row( "c", true, new double[] { 9, 9 }, new double[] { 10, 10 } ) ),
+					Edit.delete( 0 ),
+					Edit.update( 0, new Row( "c2", false, new double[] { 1, 1 }, new double[] { 2, 2 } ) ) ) );
+
+			LandmarkColumns recovered = LandmarkJournal.recover( dir );
+			assertArrayEquals( new String[] { "c2", "b" }, recovered.names );
+			assertArrayEquals( new double[] { 1, 2 }, recovered.moving[ 0 ], 0 );
+			assertArrayEquals( new double[] { 1, 4 }, recovered.moving[ 1 ], 0 );
+
+			// compaction keeps the state
+			journal.compact();
+			recovered = LandmarkJournal.recover( dir );
+			assertArrayEquals( new String[] { "c2", "b" }, recovered.names );
+
+			// a partially written edit is ignored
+			journal.append( Collections.singletonList( Edit.delete( 1 ) ) );
+			final File[] logs = dir.listFiles( ( d, name ) -> name.endsWith( LandmarkJournal.JOURNAL_EXTENSION ) );
+			try ( final RandomAccessFile raf = new RandomAccessFile( logs[ 0 ], "rw" ) )
+			{
+				raf.setLength( raf.length() - 2 );
+			}
+			recovered = LandmarkJournal.recover( dir );
+			assertArrayEquals( new String[] { "c2", "b" }, recovered.names );
+		}
+	}
+}
@@ -16,6 +16,7 @@ import org.junit.Test;
 import bdv.gui.BigWarpLandmarkPanel;
 import bigwarp.BigWarp;
 import bigwarp.landmarks.LandmarkTableModel;
+import net.imglib2.FinalRealInterval;
 
 public class LandmarkModelTest
 {
@@ -119,6 +120,32 @@ public class LandmarkModelTest
 
 	}
 
+	@Test
+	public void testCompoundUndo()
+	{
+		final int nr = ltm.getRowCount();
+		final LandmarkGridGenerator gen = new LandmarkGridGenerator(
+				new FinalRealInterval( new double[] { 0, 0 }, new double[] { 99, 99 } ),
+				new long[] { 100, 100 } );
+		final int n = gen.fill( ltm );
+		assertEquals( "after fill", nr + n, ltm.getRowCount() );
+
+		// the whole fill is undone at once
+		ltm.getUndoManager().undo();
+		assertEquals( "after undo", nr, ltm.getRowCount() );
+
+		ltm.getUndoManager().redo();
+		assertEquals( "after redo", nr + n, ltm.getRowCount() );
+		assertEquals( "all active", nr + n, ltm.numActive() );
+
+		// inverting is undoable
+		final Double[] mvg = ltm.getMovingPoint( 0 );
+		ltm.swapMovingAndTarget();
+		assertEquals( "inverted", mvg, ltm.getFixedPoint( 0 ) );
+		ltm.getUndoManager().undo();
+		assertEquals( "inverted back", mvg, ltm.getMovingPoint( 0 ) );
+	}
+
 	@After
 	public void after()
 	{
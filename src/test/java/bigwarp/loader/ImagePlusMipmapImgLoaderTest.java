@@ -0,0 +1,34 @@
+package bigwarp.loader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ImagePlusMipmapImgLoaderTest
+{
+	@Test
+	public void testMipmapFactors()
+	{
+		// small images have only one level
+		assertEquals( 1, ImagePlusMipmapImgLoader.mipmapFactors( new long[] { 200, 100, 1 }, new double[] { 1, 1, 1 } ).length );
+
+		// 2d images never downsample z
+		final int[][] f2d = ImagePlusMipmapImgLoader.mipmapFactors( new long[] { 1000, 300, 1 }, new double[] { 1, 1, 1 } );
+		assertEquals( 3, f2d.length );
+		assertArrayEquals( new int[] { 1, 1, 1 }, f2d[ 0 ] );
+		assertArrayEquals( new int[] { 2, 2, 1 }, f2d[ 1 ] );
+		assertArrayEquals( new int[] { 4, 4, 1 }, f2d[ 2 ] );
+
+		// isotropic volumes downsample all dimensions
+		final int[][] iso = ImagePlusMipmapImgLoader.mipmapFactors( new long[] { 1024, 1024, 512 }, new double[] { 1, 1, 1 } );
+		assertArrayEquals( new int[] { 2, 2, 2 }, iso[ 1 ] );
+		assertArrayEquals( new int[] { 4, 4, 4 }, iso[ 2 ] );
+
+		// z is kept until xy voxels are as large as z voxels
+		final int[][] aniso = ImagePlusMipmapImgLoader.mipmapFactors( new long[] { 2048, 2048, 100 }, new double[] { 1, 1, 4 } );
+		assertArrayEquals( new int[] { 2, 2, 1 }, aniso[ 1 ] );
+		assertArrayEquals( new int[] { 4, 4, 1 }, aniso[ 2 ] );
+		assertArrayEquals( new int[] { 8, 8, 2 }, aniso[ 3 ] );
+	}
+}
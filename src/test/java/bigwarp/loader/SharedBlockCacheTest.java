@@ -0,0 +1,74 @@
+package bigwarp.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import net.imglib2.cache.LoaderCache;
+
+public class SharedBlockCacheTest
+{
+	@Test
+	public void testByteBound() throws ExecutionException
+	{
+		final SharedBlockCache cache = new SharedBlockCache( 1000 );
+		final LoaderCache< Long, byte[] > a = cache.newCache( x -> x.length );
+		final LoaderCache< Long, byte[] > b = cache.newCache( x -> x.length );
+
+		final AtomicInteger loads = new AtomicInteger();
+		for ( long i = 0; i < 10; i++ )
+		{
+			a.get( i, k -> { loads.incrementAndGet(); return new byte[ 300 ]; } );
+			b.get( i, k -> { loads.incrementAndGet(); return new byte[ 300 ]; } );
+			assertTrue( cache.sizeInBytes() <= 1000 );
+		}
+		assertEquals( 20, loads.get() );
+
+		// the most recent values are strongly held
+		final byte[] last = b.getIfPresent( 9L );
+		assertSame( last, b.get( 9L, k -> new byte[ 300 ] ) );
+
+		// partitions are independent
+		a.invalidateAll();
+		assertNull( a.getIfPresent( 9L ) );
+		assertSame( last, b.getIfPresent( 9L ) );
+	}
+
+	@Test
+	public void testLoadOnce() throws InterruptedException
+	{
+		final SharedBlockCache cache = new SharedBlockCache( 1 << 20 );
+		final LoaderCache< Long, byte[] > c = cache.newCache( x -> x.length );
+		final AtomicInteger loads = new AtomicInteger();
+
+		final Thread[] threads = new Thread[ 8 ];
+		for ( int t = 0; t < threads.length; t++ )
+		{
+			threads[ t ] = new Thread( () -> {
+				try
+				{
+					c.get( 0L, k -> {
+						loads.incrementAndGet();
+						Thread.sleep( 50 );
+						return new byte[ 8 ];
+					} );
+				}
+				catch ( final ExecutionException e )
+				{
+					e.printStackTrace();
+				}
+			} );
+			threads[ t ].start();
+		}
+		for ( final Thread t : threads )
+			t.join();
+
+		assertEquals( 1, loads.get() );
+	}
+}
@@ -0,0 +1,215 @@
+package bigwarp.metadata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5TreeNode;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.metadata.N5GroupParser;
+import org.janelia.saalfeldlab.n5.metadata.N5Metadata;
+import org.janelia.saalfeldlab.n5.metadata.N5MetadataParser;
+import org.janelia.saalfeldlab.n5.metadata.N5MultiScaleMetadata;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.imglib2.realtransform.AffineTransform3D;
+
+public class LazyN5DiscovererTest
+{
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	/*
+	 * counts the calls to list
+	 */
+	private static class CountingWriter extends N5FSWriter
+	{
+		final AtomicInteger lists = new AtomicInteger();
+
+		public CountingWriter( final String basePath ) throws IOException
+		{
+			super( basePath );
+		}
+
+		@Override
+		public String[] list( final String pathName ) throws IOException
+		{
+			lists.incrementAndGet();
+			return super.list( pathName );
+		}
+	}
+
+	/*
+	 * parses datasets with a pixelResolution attribute, and counts the calls
+	 */
+	private static class CountingDatasetParser extends BwN5SingleScaleLegacyMetadata
+	{
+		final AtomicInteger calls = new AtomicInteger();
+
+		@Override
+		public BwN5SingleScaleLegacyMetadata parseMetadata( final N5Reader n5, final N5TreeNode node ) throws Exception
+		{
+			calls.incrementAndGet();
+			final double[] res = n5.getAttribute( node.getPath(), PIXEL_RESOLUTION_KEY, double[].class );
+			if ( res == null )
+				return null;
+
+			return new BwN5SingleScaleLegacyMetadata( node.getPath(), res, n5.getDatasetAttributes( node.getPath() ) );
+		}
+	}
+
+	/*
+	 * a multiscale group of all children with metadata, and counts the calls
+	 */
+	private static class CountingGroupParser implements N5GroupParser< N5MultiScaleMetadata >
+	{
+		final AtomicInteger calls = new AtomicInteger();
+
+		@Override
+		public N5MultiScaleMetadata parseMetadataGroup( final N5TreeNode node )
+		{
+			calls.incrementAndGet();
+			final List< String > paths = new ArrayList<>();
+			final List< AffineTransform3D > transforms = new ArrayList<>();
+			for ( final N5TreeNode child : node.childrenList() )
+			{
+				if ( child.getMetadata() != null )
+				{
+					paths.add( child.getPath() );
+					transforms.add( new AffineTransform3D() );
+				}
+			}
+
+			if ( paths.isEmpty() )
+				return null;
+
+			return new N5MultiScaleMetadata( node.getPath(), paths.toArray( new String[ 0 ] ),
+					transforms.toArray( new AffineTransform3D[ 0 ] ), null );
+		}
+	}
+
+	private CountingWriter n5;
+
+	private File root;
+
+	private File cacheFolder;
+
+	private CountingDatasetParser datasetParser;
+
+	private CountingGroupParser groupParser;
+
+	private LazyN5Discoverer discoverer;
+
+	private void setup() throws IOException
+	{
+		root = tmp.newFolder( "container.n5" );
+		cacheFolder = tmp.newFolder( "cache" );
+		n5 = new CountingWriter( root.getAbsolutePath() );
+		datasetParser = new CountingDatasetParser();
+		groupParser = new CountingGroupParser();
+		discoverer = new LazyN5Discoverer(
+				new N5GroupParser[] { groupParser },
+				new N5MetadataParser[] { datasetParser },
+				2, cacheFolder );
+	}
+
+	private void createDataset( final String path, final double res ) throws IOException
+	{
+		n5.createDataset( path, new long[] { 8, 8, 8 }, new int[] { 4, 4, 4 }, DataType.UINT8, new RawCompression() );
+		n5.setAttribute( path, BwN5SingleScaleLegacyMetadata.PIXEL_RESOLUTION_KEY, new double[] { res, res, res } );
+	}
+
+	/*
+	 * Moves the modification time of a file or folder into the future, so that
+	 * a change is detected even with coarse file system timestamps.
+	 */
+	private static void touch( final File f )
+	{
+		assertTrue( f.setLastModified( f.lastModified() + 10000 ) );
+	}
+
+	@Test
+	public void testDataset() throws IOException
+	{
+		setup();
+		createDataset( "img", 0.5 );
+
+		final N5Metadata meta = discoverer.discover( n5, root.getAbsolutePath(), "img" );
+		assertTrue( meta instanceof BwN5SingleScaleLegacyMetadata );
+		assertEquals( "img", meta.getPath() );
+		assertArrayEquals( new double[] { 0.5, 0.5, 0.5 }, ( ( BwN5SingleScaleLegacyMetadata ) meta ).resolution, 1e-9 );
+
+		// datasets are not listed
+		assertEquals( 0, n5.lists.get() );
+		assertEquals( 0, groupParser.calls.get() );
+	}
+
+	@Test
+	public void testMultiscaleAndCache() throws IOException
+	{
+		setup();
+		n5.createGroup( "ms" );
+		createDataset( "ms/s0", 1 );
+		createDataset( "ms/s1", 2 );
+
+		// only the direct children are parsed
+		n5.createGroup( "ms/s1/deeper" );
+		createDataset( "ms/s1/deeper/d", 4 );
+
+		final N5Metadata meta = discoverer.discover( n5, root.getAbsolutePath(), "ms" );
+		assertTrue( meta instanceof N5MultiScaleMetadata );
+		assertEquals( 2, ( ( N5MultiScaleMetadata ) meta ).getPaths().length );
+		assertEquals( 1, n5.lists.get() );
+		assertEquals( 2, datasetParser.calls.get() );
+		assertEquals( 1, cacheFolder.listFiles( ( d, n ) -> n.endsWith( ".properties" ) ).length );
+
+		// a cache hit lists nothing
+		final N5Metadata cached = discoverer.discover( n5, root.getAbsolutePath(), "ms" );
+		assertTrue( cached instanceof N5MultiScaleMetadata );
+		assertArrayEquals( ( ( N5MultiScaleMetadata ) meta ).getPaths(), ( ( N5MultiScaleMetadata ) cached ).getPaths() );
+		assertEquals( 1, n5.lists.get() );
+
+		// changing an attribute of a child invalidates the entry
+		n5.setAttribute( "ms/s1", BwN5SingleScaleLegacyMetadata.PIXEL_RESOLUTION_KEY, new double[] { 3, 3, 3 } );
+		touch( new File( root, "ms/s1/attributes.json" ) );
+		assertNotNull( discoverer.discover( n5, root.getAbsolutePath(), "ms" ) );
+		assertEquals( 2, n5.lists.get() );
+
+		// adding a child invalidates the entry
+		createDataset( "ms/s2", 4 );
+		touch( new File( root, "ms" ) );
+		final N5Metadata added = discoverer.discover( n5, root.getAbsolutePath(), "ms" );
+		assertEquals( 3, n5.lists.get() );
+		assertEquals( 3, ( ( N5MultiScaleMetadata ) added ).getPaths().length );
+	}
+
+	@Test
+	public void testFallback() throws IOException
+	{
+		setup();
+
+		// the only dataset is below a child group, which lazy discovery does not visit
+		n5.createGroup( "outer" );
+		n5.createGroup( "outer/inner" );
+		createDataset( "outer/inner/s0", 1 );
+
+		assertNull( discoverer.discover( n5, root.getAbsolutePath(), "outer" ) );
+
+		final N5Metadata meta = discoverer.discoverOrFallback( n5, root.getAbsolutePath(), "outer" );
+		assertTrue( meta instanceof N5MultiScaleMetadata );
+		assertEquals( "outer", meta.getPath() );
+	}
+}
@@ -0,0 +1,98 @@
+package bigwarp.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import bigwarp.transforms.AffineBatchTransform;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
+
+public class BatchTransformedRandomAccessTest
+{
+	/*
+	 * counts the transformed positions, copies share the count
+	 */
+	private static class CountingTransform extends AffineBatchTransform
+	{
+		private final AtomicInteger count;
+
+		public CountingTransform( final AtomicInteger count )
+		{
+			super( new double[][] { { 1, 0, 5 }, { 0, 1, 0 } } );
+			this.count = count;
+		}
+
+		@Override
+		public void applyLine( final double[] start, final double[] step, final double[][] target, final int n )
+		{
+			count.addAndGet( n );
+			super.applyLine( start, step, target, n );
+		}
+
+		@Override
+		public CountingTransform copy()
+		{
+			return new CountingTransform( count );
+		}
+	}
+
+	private static BatchTransformedRandomAccessible< DoubleType > accessible( final AtomicInteger count )
+	{
+		final ArrayImg< DoubleType, DoubleArray > img = ArrayImgs.doubles( 512, 4 );
+		final RandomAccess< DoubleType > ra = img.randomAccess();
+		for ( int y = 0; y < 4; y++ )
+			for ( int x = 0; x < 512; x++ )
+			{
+				ra.setPosition( new int[] { x, y } );
+				ra.get().set( x );
+			}
+
+		return new BatchTransformedRandomAccessible<>(
+				Views.interpolate( Views.extendZero( img ), new NearestNeighborInterpolatorFactory<>() ),
+				new CountingTransform( count ) );
+	}
+
+	private static void readRow( final RandomAccess< DoubleType > ra, final int width, final int y )
+	{
+		for ( int x = 0; x < width; x++ )
+		{
+			ra.setPosition( new int[] { x, y } );
+			assertEquals( x + 5, ra.get().get(), 1e-9 );
+		}
+	}
+
+	@Test
+	public void testNarrowRows()
+	{
+		// without an interval, narrow rows transform a small batch
+		final AtomicInteger count = new AtomicInteger();
+		final RandomAccess< DoubleType > ra = accessible( count ).randomAccess();
+		readRow( ra, 10, 0 );
+		readRow( ra, 10, 1 );
+		assertEquals( 2 * BatchTransformedRandomAccess.INITIAL_BATCH_LENGTH, count.get() );
+
+		// wide rows grow the batches, but never transform more than twice what is read
+		count.set( 0 );
+		readRow( ra, 300, 2 );
+		assertTrue( count.get() >= 300 );
+		assertTrue( count.get() <= 600 );
+
+		// with an interval, exactly the row is transformed
+		final AtomicInteger countInterval = new AtomicInteger();
+		final RandomAccess< DoubleType > rai = accessible( countInterval ).randomAccess(
+				new FinalInterval( new long[] { 0, 0 }, new long[] { 9, 3 } ) );
+		readRow( rai, 10, 0 );
+		readRow( rai, 10, 1 );
+		assertEquals( 20, countInterval.get() );
+	}
+}
@@ -0,0 +1,69 @@
+package bigwarp.source;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import bigwarp.source.SourceStatistics.Stats;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class SourceStatisticsTest
+{
+	@Test
+	public void testExactAndSampled()
+	{
+		// values 0 .. 65535 in random order
+		final int n = 256 * 256;
+		final float[] values = new float[ n ];
+		for ( int i = 0; i < n; i++ )
+			values[ i ] = i;
+
+		final Random rnd = new Random( 1 );
+		for ( int i = n - 1; i > 0; i-- )
+		{
+			final int j = rnd.nextInt( i + 1 );
+			final float tmp = values[ i ];
+			values[ i ] = values[ j ];
+			values[ j ] = tmp;
+		}
+		final ArrayImg< FloatType, FloatArray > img = ArrayImgs.floats( values, 256, 256 );
+
+		final Stats exact = SourceStatistics.compute( img, n, 0.05, new Random( 2 ) );
+		assertTrue( exact.exact );
+		assertEquals( 0, exact.min, 0 );
+		assertEquals( n - 1, exact.max, 0 );
+		assertEquals( 0.5 * ( n - 1 ), exact.quantile( 0.5 ), 1 );
+
+		final Stats sampled = SourceStatistics.compute( img, n / 8, 0.05, new Random( 2 ) );
+		assertFalse( sampled.exact );
+		assertTrue( sampled.epsilon > 0 && sampled.epsilon < 0.5 );
+		for ( final double p : new double[] { 0.1, 0.5, 0.9 } )
+			assertEquals( p * n, sampled.quantile( p ), sampled.epsilon * n );
+	}
+
+	@Test
+	public void testReadWrite() throws IOException
+	{
+		final Stats stats = SourceStatistics.compute( ArrayImgs.floats( new float[] { 1, 2, 3, 4 }, 2, 2 ), 16, 0.05, new Random( 0 ) );
+		final File f = File.createTempFile( "stats", SourceStatistics.EXTENSION );
+		f.deleteOnExit();
+
+		SourceStatistics.write( stats, "key", f );
+		final Stats read = SourceStatistics.read( f, "key" );
+		assertEquals( stats.min, read.min, 0 );
+		assertEquals( stats.max, read.max, 0 );
+		assertArrayEquals( stats.quantiles, read.quantiles, 0 );
+		assertNull( SourceStatistics.read( f, "other key" ) );
+	}
+}
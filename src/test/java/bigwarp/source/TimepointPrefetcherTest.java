@@ -0,0 +1,50 @@
+package bigwarp.source;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import bdv.img.BwRandomAccessibleIntervalSource;
+import net.imglib2.FinalInterval;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.real.FloatType;
+
+public class TimepointPrefetcherTest
+{
+	private static BwRandomAccessibleIntervalSource< FloatType > source( final AtomicInteger loaded )
+	{
+		final ReadOnlyCachedCellImgFactory factory = new ReadOnlyCachedCellImgFactory(
+				ReadOnlyCachedCellImgOptions.options().cellDimensions( 16 ) );
+
+		final CachedCellImg< FloatType, ? > img = factory.create( new long[] { 64, 64, 64 }, new FloatType(), cell -> loaded.incrementAndGet() );
+		return new BwRandomAccessibleIntervalSource<>( img, new FloatType(), new AffineTransform3D(), "cells" );
+	}
+
+	@Test
+	public void testPrefetch()
+	{
+		final AtomicInteger loaded = new AtomicInteger();
+		assertEquals( 64, TimepointPrefetcher.prefetch( source( loaded ), 0, 0, null, 1000 ) );
+		assertEquals( 64, loaded.get() );
+
+		// only the cells that intersect the interval
+		final AtomicInteger loadedInterval = new AtomicInteger();
+		final FinalInterval interval = new FinalInterval( new long[] { -5, 0, 10 }, new long[] { 20, 15, 31 } );
+		assertEquals( 8, TimepointPrefetcher.prefetch( source( loadedInterval ), 0, 0, interval, 1000 ) );
+		assertEquals( 8, loadedInterval.get() );
+
+		// no more than the maximum number of cells
+		final AtomicInteger loadedMax = new AtomicInteger();
+		assertEquals( 3, TimepointPrefetcher.prefetch( source( loadedMax ), 0, 0, null, 3 ) );
+		assertEquals( 3, loadedMax.get() );
+
+		// intervals outside the image load nothing
+		final FinalInterval outside = new FinalInterval( new long[] { 100, 0, 0 }, new long[] { 120, 10, 10 } );
+		assertEquals( 0, TimepointPrefetcher.prefetch( source( new AtomicInteger() ), 0, 0, outside, 1000 ) );
+	}
+}
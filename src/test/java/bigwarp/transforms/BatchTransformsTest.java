@@ -0,0 +1,109 @@
+package bigwarp.transforms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
+import mpicbg.models.AffineModel2D;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.RealTransform;
+import net.imglib2.realtransform.Wrapped2DTransformAs3D;
+
+public class BatchTransformsTest
+{
+	@Test
+	public void testTps()
+	{
+		final double[][] src = new double[][] {
+			{ 0, 50, 0, 0, 50, 20 },
+			{ 0, 0, 50, 0, 50, 25 },
+			{ 0, 0, 0, 50, 50, 30 } };
+
+		final double[][] tgt = new double[][] {
+			{ 2, 55, -1, 3, 52, 24 },
+			{ 1, -2, 54, 0, 47, 22 },
+			{ -3, 1, 2, 48, 53, 35 } };
+
+		final TpsNewtonInvertibleTransform xfm = new TpsNewtonInvertibleTransform(
+				new ThinPlateR2LogRSplineKernelTransform( 3, src, tgt ) );
+
+		final BatchRealTransform batch = BatchTransforms.batch( xfm );
+		assertTrue( "specialized", batch instanceof ThinPlateSplineBatchTransform );
+		check( xfm, batch, 3 );
+	}
+
+	@Test
+	public void testWrapped2d()
+	{
+		final AffineModel2D model = new AffineModel2D();
+		model.set( 1.1, 0.2, -0.1, 0.9, 12.0, -5.0 );
+		final RealTransform xfm = new Wrapped2DTransformAs3D( new WrappedCoordinateTransform( model, 2 ).inverse() );
+
+		final BatchRealTransform batch = BatchTransforms.batch( xfm );
+		assertTrue( "specialized", batch instanceof Wrapped2DBatchTransform );
+		assertTrue( "specialized", ( ( Wrapped2DBatchTransform ) batch ).getTransform() instanceof AffineBatchTransform );
+		check( xfm, batch, 3 );
+	}
+
+	@Test
+	public void testSequence()
+	{
+		final AffineTransform3D a = new AffineTransform3D();
+		a.set( 1.1, 0.2, 0.05, 12.0,
+				-0.1, 0.9, 0.02, -5.0,
+				0.03, -0.01, 1.05, 2.0 );
+
+		final BatchTransformSequence seq = new BatchTransformSequence();
+		seq.add( BatchTransforms.batch( a ) );
+		seq.add( BatchTransforms.batch( a.inverse() ) );
+
+		final RealTransform identity = new AffineTransform3D();
+		check( identity, seq, 3 );
+	}
+
+	private static void check( final RealTransform xfm, final BatchRealTransform batch, final int nd )
+	{
+		final int n = 37;
+		final double[][] pts = new double[ nd ][ n ];
+		for ( int i = 0; i < n; i++ )
+			for ( int d = 0; d < nd; d++ )
+				pts[ d ][ i ] = -10 + 2.3 * i + 7.1 * d;
+
+		final double[][] res = new double[ nd ][ n ];
+		batch.apply( pts, res, n );
+
+		final double[] p = new double[ nd ];
+		final double[] q = new double[ nd ];
+		for ( int i = 0; i < n; i++ )
+		{
+			for ( int d = 0; d < nd; d++ )
+				p[ d ] = pts[ d ][ i ];
+
+			xfm.apply( p, q );
+			for ( int d = 0; d < nd; d++ )
+				assertEquals( "batch", q[ d ], res[ d ][ i ], 1e-9 );
+		}
+
+		// along a line
+		final double[] start = new double[ nd ];
+		final double[] step = new double[ nd ];
+		for ( int d = 0; d < nd; d++ )
+		{
+			start[ d ] = pts[ d ][ 0 ];
+			step[ d ] = pts[ d ][ 1 ] - pts[ d ][ 0 ];
+		}
+		final double[][] line = new double[ nd ][ n ];
+		batch.applyLine( start, step, line, n );
+		for ( int d = 0; d < nd; d++ )
+			for ( int i = 0; i < n; i++ )
+				assertEquals( "line", res[ d ][ i ], line[ d ][ i ], 1e-8 );
+
+		// in place
+		batch.apply( pts, pts, n );
+		for ( int d = 0; d < nd; d++ )
+			for ( int i = 0; i < n; i++ )
+				assertEquals( "in place", res[ d ][ i ], pts[ d ][ i ], 1e-12 );
+	}
+}
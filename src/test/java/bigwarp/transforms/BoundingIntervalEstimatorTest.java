@@ -0,0 +1,37 @@
+package bigwarp.transforms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.Intervals;
+
+public class BoundingIntervalEstimatorTest
+{
+	@Test
+	public void testAffine()
+	{
+		final AffineTransform3D affine = new AffineTransform3D();
+		affine.set( 2, 0, 0, 10,
+				0, 1, 0, -5,
+				0, 0, 0.5, 3 );
+
+		final BoundingIntervalEstimator estimator = new BoundingIntervalEstimator( affine, 0.5, 8, 4 );
+		final FinalInterval bounds = estimator.estimate( new FinalRealInterval( new double[] { 0, 0, 0 }, new double[] { 100, 40, 20 } ) );
+		assertArrayEquals( new long[] { 9, -6, 2 }, Intervals.minAsLongArray( bounds ) );
+		assertArrayEquals( new long[] { 211, 36, 14 }, Intervals.maxAsLongArray( bounds ) );
+
+		// an affine is never refined, shared corners are transformed once:
+		// the 9^3 - 7^3 grid points on the surface, and the 6 * 8^2 cell centers
+		assertEquals( 386 + 384, estimator.getNumSamples() );
+
+		// flat in z, as for 2d images: the 4 * 8 grid points on the boundary of
+		// the square, and the 4 * 8 centers of the edge cells
+		estimator.estimate( new FinalRealInterval( new double[] { 0, 0, 0 }, new double[] { 100, 40, 0 } ) );
+		assertEquals( 32 + 32, estimator.getNumSamples() );
+	}
+}
@@ -0,0 +1,46 @@
+package bigwarp.transforms;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+import net.imglib2.FinalRealInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+
+public class CoarseDisplacementTransformTest
+{
+	@Test
+	public void testAffineIsExact()
+	{
+		final AffineTransform3D affine = new AffineTransform3D();
+		affine.set( 1.1, 0.2, 0.05, 12.0,
+				-0.1, 0.9, 0.02, -5.0,
+				0.03, -0.01, 1.05, 2.0 );
+
+		// flat in z, as for 2d images
+		final CoarseDisplacementTransform approx = new CoarseDisplacementTransform( affine,
+				new FinalRealInterval( new double[] { 0, 0, 0 }, new double[] { 100, 80, 0 } ), 8 );
+
+		final double[] p = new double[ 3 ];
+		final double[] exact = new double[ 3 ];
+		final double[] result = new double[ 3 ];
+		for ( double x = 0; x <= 100; x += 9.7 )
+			for ( double y = 0; y <= 80; y += 6.1 )
+			{
+				p[ 0 ] = x;
+				p[ 1 ] = y;
+				p[ 2 ] = 0;
+				affine.apply( p, exact );
+				approx.apply( p, result );
+				assertArrayEquals( "interpolated affine", exact, result, 1e-9 );
+			}
+
+		// outside of the grid the transform is applied
+		for ( final double[] outside : new double[][] { { 150, 40, 0 }, { -20, -30, 0 } } )
+		{
+			affine.apply( outside, exact );
+			approx.copy().apply( outside, result );
+			assertArrayEquals( "outside of the grid", exact, result, 1e-9 );
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package bigwarp.transforms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
+import net.imglib2.FinalRealInterval;
+
+public class GridInverseTransformTest
+{
+	@Test
+	public void testGridInverse()
+	{
+		final double[][] src = new double[][] {
+			{ 0, 100, 0, 100, 50 },
+			{ 0, 0, 100, 100, 50 } };
+
+		final double[][] tgt = new double[][] {
+			{ 5, 110, -3, 98, 60 },
+			{ 2, -4, 105, 103, 42 } };
+
+		final TpsNewtonInvertibleTransform exact = new TpsNewtonInvertibleTransform(
+				new ThinPlateR2LogRSplineKernelTransform( 2, src, tgt ) );
+
+		final GridInverseTransform xfm = new GridInverseTransform( exact,
+				new FinalRealInterval( new double[] { -10, -10 }, new double[] { 110, 110 } ),
+				new double[] { 2, 2 }, 0.05, 2 );
+
+		assertTrue( "most cells reliable", xfm.fractionReliable() > 0.9 );
+
+		final double[] y = new double[ 2 ];
+		final double[] xGrid = new double[ 2 ];
+		final double[] xExact = new double[ 2 ];
+		for ( double i = -30; i <= 130; i += 7.3 )
+			for ( double j = -30; j <= 130; j += 7.3 )
+			{
+				y[ 0 ] = i;
+				y[ 1 ] = j;
+				xfm.applyInverse( xGrid, y );
+				exact.applyInverse( xExact, y );
+				assertArrayEquals( "inverse", xExact, xGrid, 0.1 );
+			}
+	}
+}
@@ -0,0 +1,105 @@
+package bigwarp.transforms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
+
+public class SolvedTpsCacheTest
+{
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		final File folder = Files.createTempDirectory( "solved-tps" ).toFile();
+		folder.deleteOnExit();
+
+		final Random rnd = new Random( 7 );
+		final int N = 30;
+		final double[][] src = new double[ 3 ][ N ];
+		final double[][] tgt = new double[ 3 ][ N ];
+		for ( int i = 0; i < N; i++ )
+			for ( int d = 0; d < 3; d++ )
+			{
+				src[ d ][ i ] = 100 * rnd.nextDouble();
+				tgt[ d ][ i ] = src[ d ][ i ] + 5 * rnd.nextDouble();
+			}
+
+		final SolvedTpsCache cache = new SolvedTpsCache( folder );
+		cache.setMinLandmarks( 0 );
+
+		final ThinPlateR2LogRSplineKernelTransform solved = cache.solve( 3, src, tgt );
+		final File[] files = folder.listFiles();
+		assertEquals( 1, files.length );
+		files[ 0 ].deleteOnExit();
+
+		final ThinPlateR2LogRSplineKernelTransform read = cache.solve( 3, src, tgt );
+		final double[] x = new double[ 3 ];
+		final double[] a = new double[ 3 ];
+		final double[] b = new double[ 3 ];
+		for ( int i = 0; i < 50; i++ )
+		{
+			for ( int d = 0; d < 3; d++ )
+				x[ d ] = 120 * rnd.nextDouble() - 10;
+
+			solved.apply( x, a );
+			read.apply( x, b );
+			assertArrayEquals( a, b, 1e-9 );
+		}
+
+		// files solved for other landmarks are not used
+		final byte[] hash = SolvedTpsCache.landmarkHash( 3, src, tgt );
+		assertNotNull( SolvedTpsCache.read( files[ 0 ], hash ) );
+		tgt[ 0 ][ 0 ] += 1;
+		final byte[] otherHash = SolvedTpsCache.landmarkHash( 3, src, tgt );
+		assertFalse( Arrays.equals( hash, otherHash ) );
+		assertNull( SolvedTpsCache.read( files[ 0 ], otherHash ) );
+	}
+
+	@Test
+	public void testPruneTemporaryFiles() throws IOException
+	{
+		// the default cache is opt-in
+		assertNull( SolvedTpsCache.getDefault() );
+
+		final File folder = Files.createTempDirectory( "solved-tps" ).toFile();
+		folder.deleteOnExit();
+
+		final File stale = File.createTempFile( "solve", ".tmp", folder );
+		stale.setLastModified( System.currentTimeMillis() - 2 * SolvedTpsCache.TMP_MAX_AGE_MILLIS );
+		final File recent = File.createTempFile( "solve", ".tmp", folder );
+		recent.deleteOnExit();
+
+		final Random rnd = new Random( 11 );
+		final double[][] src = new double[ 2 ][ 10 ];
+		final double[][] tgt = new double[ 2 ][ 10 ];
+		for ( int i = 0; i < 10; i++ )
+			for ( int d = 0; d < 2; d++ )
+			{
+				src[ d ][ i ] = 10 * rnd.nextDouble();
+				tgt[ d ][ i ] = src[ d ][ i ] + rnd.nextDouble();
+			}
+
+		final SolvedTpsCache cache = new SolvedTpsCache( folder );
+		cache.setMinLandmarks( 0 );
+		cache.solve( 2, src, tgt );
+		for ( final File f : folder.listFiles() )
+			f.deleteOnExit();
+
+		// temporary files are only deleted once they are old enough not to
+		// be written by another process
+		assertFalse( stale.exists() );
+		assertTrue( recent.exists() );
+	}
+}
@@ -0,0 +1,73 @@
+package bigwarp.transforms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import jitk.spline.ThinPlateR2LogRSplineKernelTransform;
+
+public class TpsNewtonInverseTest
+{
+	@Test
+	public void testInverse2d()
+	{
+		final double[][] src = new double[][] {
+			{ 0, 100, 0, 100, 50 },
+			{ 0, 0, 100, 100, 50 } };
+
+		final double[][] tgt = new double[][] {
+			{ 5, 110, -3, 98, 60 },
+			{ 2, -4, 105, 103, 42 } };
+
+		final TpsNewtonInvertibleTransform xfm = new TpsNewtonInvertibleTransform(
+				new ThinPlateR2LogRSplineKernelTransform( 2, src, tgt ) );
+
+		final double[] x = new double[ 2 ];
+		final double[] y = new double[ 2 ];
+		final double[] xInv = new double[ 2 ];
+		final int[] iterations = new int[ 1 ];
+		for ( double i = -20; i <= 120; i += 17.5 )
+			for ( double j = -20; j <= 120; j += 17.5 )
+			{
+				x[ 0 ] = i;
+				x[ 1 ] = j;
+				xfm.apply( x, y );
+
+				final boolean converged = xfm.inverse( y, xInv, iterations );
+				assertTrue( "converged", converged );
+				assertTrue( "few iterations", iterations[ 0 ] < 10 );
+				assertArrayEquals( "inverse", x, xInv, 1e-4 );
+			}
+	}
+
+	@Test
+	public void testInverse3d()
+	{
+		final double[][] src = new double[][] {
+			{ 0, 50, 0, 0, 50, 20 },
+			{ 0, 0, 50, 0, 50, 25 },
+			{ 0, 0, 0, 50, 50, 30 } };
+
+		final double[][] tgt = new double[][] {
+			{ 2, 55, -1, 3, 52, 24 },
+			{ 1, -2, 54, 0, 47, 22 },
+			{ -3, 1, 2, 48, 53, 35 } };
+
+		final TpsNewtonInvertibleTransform xfm = new TpsNewtonInvertibleTransform(
+				new ThinPlateR2LogRSplineKernelTransform( 3, src, tgt ) );
+
+		final double[] x = new double[] { 12, 31, 7 };
+		final double[] y = new double[ 3 ];
+		final double[] xInv = new double[ 3 ];
+		xfm.apply( x, y );
+
+		// the inverse may be computed in place
+		System.arraycopy( y, 0, xInv, 0, 3 );
+		final int[] iterations = new int[ 1 ];
+		xfm.inverse( xInv, xInv, iterations );
+
+		assertTrue( "few iterations", iterations[ 0 ] < 10 );
+		assertArrayEquals( "inverse", x, xInv, 1e-4 );
+	}
+}